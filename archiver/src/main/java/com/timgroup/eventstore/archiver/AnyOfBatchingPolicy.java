@@ -0,0 +1,46 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Closes a batch as soon as any of its policies would, and judges the archive stale if any of them does.
+ */
+public final class AnyOfBatchingPolicy implements BatchingPolicy {
+    private final List<BatchingPolicy> policies;
+
+    public AnyOfBatchingPolicy(List<BatchingPolicy> policies) {
+        if (policies.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one batching policy");
+        }
+        this.policies = policies;
+    }
+
+    @Override
+    public void notifyAddedToBatch(ResolvedEvent event) {
+        policies.forEach(policy -> policy.notifyAddedToBatch(event));
+    }
+
+    @Override
+    public void notifyCompressed(long uncompressedBytes, long compressedBytes) {
+        policies.forEach(policy -> policy.notifyCompressed(uncompressedBytes, compressedBytes));
+    }
+
+    @Override
+    public boolean ready() {
+        return policies.stream().anyMatch(BatchingPolicy::ready);
+    }
+
+    @Override
+    public void reset() {
+        policies.forEach(BatchingPolicy::reset);
+    }
+
+    @Override
+    public boolean isStale(Optional<Long> maxPositionInArchive, Optional<Long> maxPositionInLive, Optional<EventRecord> lastEventInLive) {
+        return policies.stream().anyMatch(policy -> policy.isStale(maxPositionInArchive, maxPositionInLive, lastEventInLive));
+    }
+}
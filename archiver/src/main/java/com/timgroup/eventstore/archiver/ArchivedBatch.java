@@ -0,0 +1,138 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toCollection;
+
+/**
+ * Summary of a batch in the archive, as held in its {@link S3ArchiveManifest}.
+ */
+public final class ArchivedBatch {
+    public final String key;
+    public final long minPosition;
+    public final long maxPosition;
+    public final int numberOfEvents;
+    public final Instant minTimestamp;
+    public final Instant maxTimestamp;
+    public final SortedSet<String> categories;
+    public final SortedSet<String> eventTypes;
+
+    public ArchivedBatch(String key, long minPosition, long maxPosition, int numberOfEvents, Instant minTimestamp, Instant maxTimestamp, SortedSet<String> categories, SortedSet<String> eventTypes) {
+        this.key = key;
+        this.minPosition = minPosition;
+        this.maxPosition = maxPosition;
+        this.numberOfEvents = numberOfEvents;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.categories = Collections.unmodifiableSortedSet(categories);
+        this.eventTypes = Collections.unmodifiableSortedSet(eventTypes);
+    }
+
+    static ArchivedBatch of(String key, List<ResolvedEvent> batch, Function<ResolvedEvent, Long> positionFrom) {
+        Instant minTimestamp = Instant.MAX;
+        Instant maxTimestamp = Instant.MIN;
+        SortedSet<String> categories = new TreeSet<>();
+        SortedSet<String> eventTypes = new TreeSet<>();
+        for (ResolvedEvent resolvedEvent : batch) {
+            EventRecord eventRecord = resolvedEvent.eventRecord();
+            if (eventRecord.timestamp().isBefore(minTimestamp)) {
+                minTimestamp = eventRecord.timestamp();
+            }
+            if (eventRecord.timestamp().isAfter(maxTimestamp)) {
+                maxTimestamp = eventRecord.timestamp();
+            }
+            categories.add(eventRecord.streamId().category());
+            eventTypes.add(eventRecord.eventType());
+        }
+        return new ArchivedBatch(key, positionFrom.apply(batch.get(0)), positionFrom.apply(batch.get(batch.size() - 1)), batch.size(),
+                minTimestamp, maxTimestamp, categories, eventTypes);
+    }
+
+    /**
+     * Tab-separated fields, with the names in each set URL-encoded and separated by commas.
+     */
+    String format() {
+        return String.join("\t", key, Long.toString(minPosition), Long.toString(maxPosition), Integer.toString(numberOfEvents),
+                minTimestamp.toString(), maxTimestamp.toString(), formatNames(categories), formatNames(eventTypes));
+    }
+
+    static ArchivedBatch parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 8) {
+            throw new IllegalArgumentException("Invalid archive manifest line: " + line);
+        }
+        return new ArchivedBatch(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                Instant.parse(fields[4]), Instant.parse(fields[5]), parseNames(fields[6]), parseNames(fields[7]));
+    }
+
+    private static String formatNames(SortedSet<String> names) {
+        return names.stream().map(name -> {
+            try {
+                return URLEncoder.encode(name, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }).collect(joining(","));
+    }
+
+    private static SortedSet<String> parseNames(String field) {
+        if (field.isEmpty()) {
+            return new TreeSet<>();
+        }
+        return Arrays.stream(field.split(",")).map(name -> {
+            try {
+                return URLDecoder.decode(name, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }).collect(toCollection(TreeSet::new));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ArchivedBatch that = (ArchivedBatch) o;
+        return minPosition == that.minPosition &&
+                maxPosition == that.maxPosition &&
+                numberOfEvents == that.numberOfEvents &&
+                key.equals(that.key) &&
+                minTimestamp.equals(that.minTimestamp) &&
+                maxTimestamp.equals(that.maxTimestamp) &&
+                categories.equals(that.categories) &&
+                eventTypes.equals(that.eventTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, minPosition, maxPosition, numberOfEvents, minTimestamp, maxTimestamp, categories, eventTypes);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedBatch{" +
+                "key='" + key + '\'' +
+                ", minPosition=" + minPosition +
+                ", maxPosition=" + maxPosition +
+                ", numberOfEvents=" + numberOfEvents +
+                ", minTimestamp=" + minTimestamp +
+                ", maxTimestamp=" + maxTimestamp +
+                ", categories=" + categories +
+                ", eventTypes=" + eventTypes +
+                '}';
+    }
+}
@@ -0,0 +1,183 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.StreamId;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+
+/**
+ * Writes events in the format of a length-prefixed {@link EventStoreArchiverProtos.Event} message, without building
+ * the message: fields are encoded into a buffer reused from one event to the next, and data and metadata are written
+ * straight from the event record.
+ *
+ * Not thread-safe: use one encoder per batch.
+ */
+final class ArchivedEventEncoder {
+    private static final int VARINT = 0;
+    private static final int LENGTH_DELIMITED = 2;
+
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    /**
+     * @return the number of bytes written
+     */
+    int write(OutputStream out, long position, EventRecord eventRecord) throws IOException {
+        StreamId streamId = eventRecord.streamId();
+        Instant timestamp = eventRecord.timestamp();
+        byte[] data = eventRecord.data();
+        byte[] metadata = eventRecord.metadata();
+        int categoryLength = utf8Length(streamId.category());
+        int streamIdLength = utf8Length(streamId.id());
+        int eventTypeLength = utf8Length(eventRecord.eventType());
+
+        int timestampLength = timestampLength(timestamp);
+        int messageLength = messageLength(varintSize(position), timestampLength, categoryLength, streamIdLength, eventTypeLength, eventRecord);
+        ensureCapacity(4 + messageLength - data.length - metadata.length);
+
+        length = 0;
+        putFixed32(messageLength);
+        putTag(1, VARINT);
+        putVarint(position);
+        putTag(2, LENGTH_DELIMITED);
+        putVarint(timestampLength);
+        putTag(1, VARINT);
+        putVarint(timestamp.getEpochSecond());
+        putTag(2, VARINT);
+        putVarint(timestamp.getNano());
+        putString(3, streamId.category(), categoryLength);
+        putString(4, streamId.id(), streamIdLength);
+        putTag(5, VARINT);
+        putVarint(eventRecord.eventNumber());
+        putString(6, eventRecord.eventType(), eventTypeLength);
+        putTag(7, LENGTH_DELIMITED);
+        putVarint(data.length);
+        out.write(buffer, 0, length);
+        out.write(data);
+
+        length = 0;
+        putTag(8, LENGTH_DELIMITED);
+        putVarint(metadata.length);
+        out.write(buffer, 0, length);
+        out.write(metadata);
+
+        return 4 + messageLength;
+    }
+
+    /**
+     * @return the most bytes {@link #write} can write for the event, whatever its position
+     */
+    static int maxEncodedSize(EventRecord eventRecord) {
+        StreamId streamId = eventRecord.streamId();
+        return 4 + messageLength(10, timestampLength(eventRecord.timestamp()), utf8Length(streamId.category()),
+                utf8Length(streamId.id()), utf8Length(eventRecord.eventType()), eventRecord);
+    }
+
+    private static int timestampLength(Instant timestamp) {
+        return 1 + varintSize(timestamp.getEpochSecond()) + 1 + varintSize(timestamp.getNano());
+    }
+
+    private static int messageLength(int positionSize, int timestampLength, int categoryLength, int streamIdLength, int eventTypeLength, EventRecord eventRecord) {
+        return 1 + positionSize
+                + lengthDelimitedSize(timestampLength)
+                + lengthDelimitedSize(categoryLength)
+                + lengthDelimitedSize(streamIdLength)
+                + 1 + varintSize(eventRecord.eventNumber())
+                + lengthDelimitedSize(eventTypeLength)
+                + lengthDelimitedSize(eventRecord.data().length)
+                + lengthDelimitedSize(eventRecord.metadata().length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = new byte[Math.max(capacity, buffer.length * 2)];
+        }
+    }
+
+    private void putFixed32(int value) {
+        buffer[length++] = (byte) value;
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) (value >> 16);
+        buffer[length++] = (byte) (value >> 24);
+    }
+
+    private void putTag(int fieldNumber, int wireType) {
+        buffer[length++] = (byte) (fieldNumber << 3 | wireType);
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * Encodes as {@link String#getBytes} does, with an unpaired surrogate becoming '?', as protobuf does.
+     */
+    private void putString(int fieldNumber, String value, int encodedLength) {
+        putTag(fieldNumber, LENGTH_DELIMITED);
+        putVarint(encodedLength);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+                } else {
+                    buffer[length++] = '?';
+                }
+            } else {
+                buffer[length++] = (byte) (0xE0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int utf8Length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length += 1;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else {
+                    utf8Length += 1;
+                }
+            } else {
+                utf8Length += 3;
+            }
+        }
+        return utf8Length;
+    }
+
+    private static int lengthDelimitedSize(int contentLength) {
+        return 1 + varintSize(contentLength) + contentLength;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,25 @@
+package com.timgroup.eventstore.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compression applied to the content of archive batches.
+ *
+ * @see BatchCodecs
+ */
+public interface BatchCodec {
+
+    /**
+     * @return the suffix of the keys of batches written with this codec, by which readers recognise it
+     */
+    String name();
+
+    /**
+     * @return a stream compressing what is written to it into {@code out}, which it closes when closed
+     */
+    OutputStream compressing(OutputStream out) throws IOException;
+
+    InputStream decompressing(InputStream in) throws IOException;
+}
@@ -0,0 +1,162 @@
+package com.timgroup.eventstore.archiver;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public final class BatchCodecs {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The codec of batches written before codecs could be chosen.
+     */
+    public static final BatchCodec GZIP = new Codec("gz") {
+        @Override
+        public OutputStream compressing(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompressing(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Fast LZ4 compression, in the LZ4 frame format.
+     */
+    public static final BatchCodec LZ4 = new Codec("lz4") {
+        @Override
+        public OutputStream compressing(OutputStream out) throws IOException {
+            return new LZ4FrameOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompressing(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in);
+        }
+    };
+
+    public static final BatchCodec DEFLATE = deflate(6);
+
+    public static final BatchCodec XZ = xz(LZMA2Options.PRESET_DEFAULT);
+
+    private BatchCodecs() { /* prevent instantiation */ }
+
+    /**
+     * Zlib-wrapped deflate. The level only affects writing, so batches written at any level share a name.
+     *
+     * @param level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public static BatchCodec deflate(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("deflate level must be from 1 to 9: " + level);
+        }
+        return new Codec("deflate") {
+            @Override
+            public OutputStream compressing(OutputStream out) {
+                Deflater deflater = new Deflater(level);
+                return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public InputStream decompressing(InputStream in) {
+                Inflater inflater = new Inflater();
+                return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param preset from 0 to 9, as for the xz command
+     */
+    public static BatchCodec xz(int preset) {
+        if (preset < LZMA2Options.PRESET_MIN || preset > LZMA2Options.PRESET_MAX) {
+            throw new IllegalArgumentException("xz preset must be from 0 to 9: " + preset);
+        }
+        return new Codec("xz") {
+            @Override
+            public OutputStream compressing(OutputStream out) throws IOException {
+                return new XZOutputStream(out, new LZMA2Options(preset));
+            }
+
+            @Override
+            public InputStream decompressing(InputStream in) throws IOException {
+                return new XZInputStream(in);
+            }
+        };
+    }
+
+    /**
+     * @return a codec able to read batches written by any codec with this name
+     */
+    public static BatchCodec forName(String name) {
+        switch (name) {
+            case "gz":
+                return GZIP;
+            case "deflate":
+                return DEFLATE;
+            case "xz":
+                return XZ;
+            case "lz4":
+                return LZ4;
+            default:
+                throw new IllegalArgumentException("Unknown archive batch codec: " + name);
+        }
+    }
+
+    /**
+     * @return a codec able to read the batch with this key, from its suffix
+     */
+    public static BatchCodec forKey(String key) {
+        return forName(key.substring(key.lastIndexOf('.') + 1));
+    }
+
+    private abstract static class Codec implements BatchCodec {
+        private final String name;
+
+        Codec(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
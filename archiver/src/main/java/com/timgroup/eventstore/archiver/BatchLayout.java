@@ -0,0 +1,47 @@
+package com.timgroup.eventstore.archiver;
+
+/**
+ * How the events of an archive batch are laid out before compression. Readers recognise a batch's layout from its key.
+ */
+public enum BatchLayout {
+    /**
+     * A length-prefixed {@link EventStoreArchiverProtos.Event} for each event: the layout of batches written before
+     * layouts could be chosen, whose keys end with just the codec's name.
+     */
+    ROWS("rows", ""),
+
+    /**
+     * Each field of the events stored together, with the batch's categories and event types in a dictionary, and the
+     * data and metadata of every event in a block after them, as described by {@link ColumnarBatchFormat}. Compresses
+     * better than rows, and lets readers filter events by category or event type without copying their payloads.
+     * Keys end with "col." and the codec's name.
+     */
+    COLUMNS("columns", "col.");
+
+    private final String metadataName;
+    private final String keyInfix;
+
+    BatchLayout(String metadataName, String keyInfix) {
+        this.metadataName = metadataName;
+        this.keyInfix = keyInfix;
+    }
+
+    String metadataName() {
+        return metadataName;
+    }
+
+    /**
+     * @return the suffix of the keys of batches in this layout compressed with the codec
+     */
+    String fileExtension(BatchCodec codec) {
+        return keyInfix + codec.name();
+    }
+
+    /**
+     * @return the layout of the batch with this key
+     */
+    static BatchLayout forKey(String key) {
+        String[] suffixes = key.substring(key.lastIndexOf('/') + 1).split("\\.");
+        return suffixes.length > 2 && (suffixes[suffixes.length - 2] + ".").equals(COLUMNS.keyInfix) ? COLUMNS : ROWS;
+    }
+}
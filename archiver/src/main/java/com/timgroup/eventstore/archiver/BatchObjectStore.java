@@ -0,0 +1,38 @@
+package com.timgroup.eventstore.archiver;
+
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Object storage holding the batches of an archive, as written by {@link S3Archiver}.
+ */
+public interface BatchObjectStore {
+
+    /**
+     * @param startAfterKey if not null, only keys that sort after this are listed
+     * @return keys of objects starting with {@code prefix}, in ascending order
+     */
+    Stream<String> listKeys(String prefix, @Nullable String startAfterKey);
+
+    /**
+     * @param offset number of bytes at the start of the object to skip
+     */
+    InputStream open(String key, long offset);
+
+    /**
+     * Reads a small object whole.
+     *
+     * @return the object's content, or empty if there is no object with that key
+     */
+    Optional<byte[]> read(String key);
+
+    /**
+     * @return a tag that changes whenever the object's content does, or empty if the store has no such tags or there
+     *         is no object with that key
+     */
+    default Optional<String> etag(String key) {
+        return Optional.empty();
+    }
+}
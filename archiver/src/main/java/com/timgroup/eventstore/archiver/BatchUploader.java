@@ -0,0 +1,81 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.Timer;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.archiver.MultipartUploadableStorage.MultipartUpload;
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Encodes batches and uploads them to the archive with the application's metadata, either whole or, with
+ * {@link StreamingUploads}, in parts as they are compressed. Safe to call from any thread.
+ */
+final class BatchUploader {
+    private final S3UploadableStorageForInputStream output;
+    @Nullable
+    private final StreamingUploads streamingUploads;
+    private final ExecutorService partUploadExecutor;
+    private final Map<String, String> appMetadata;
+    private final Timer s3UploadTimer;
+
+    /**
+     * @param concurrentUploads number of batches that may be uploading at once, to size the pool of part uploads
+     */
+    BatchUploader(S3UploadableStorageForInputStream output, @Nullable StreamingUploads streamingUploads, int concurrentUploads,
+                  Map<String, String> appMetadata, Timer s3UploadTimer) {
+        this.output = output;
+        this.streamingUploads = streamingUploads;
+        this.partUploadExecutor = streamingUploads == null ? null : Executors.newFixedThreadPool(streamingUploads.partsInFlight * Math.max(concurrentUploads, 1), new DaemonThreadFactory("s3-archive-part-upload"));
+        this.appMetadata = appMetadata;
+        this.s3UploadTimer = s3UploadTimer;
+    }
+
+    /**
+     * @param batch events taken from {@code batchWriter}
+     */
+    void upload(CurrentBatchWriter batchWriter, String key, List<ResolvedEvent> batch) throws IOException {
+        if (streamingUploads != null) {
+            uploadInParts(batchWriter, key, batch);
+        } else {
+            S3BatchObject s3BatchObject = batchWriter.encode(batch);
+
+            try (Timer.Context ignored = s3UploadTimer.time()) {
+                Map<String, String> allMetadata = new HashMap<>(appMetadata);
+                allMetadata.putAll(s3BatchObject.metadata);
+                output.upload(key, s3BatchObject.content, s3BatchObject.contentLength, allMetadata);
+            }
+        }
+    }
+
+    private void uploadInParts(CurrentBatchWriter batchWriter, String key, List<ResolvedEvent> batch) throws IOException {
+        try (Timer.Context ignored = s3UploadTimer.time()) {
+            Map<String, String> allMetadata = new HashMap<>(appMetadata);
+            allMetadata.putAll(batchWriter.metadataFor(batch));
+            MultipartUpload upload = streamingUploads.storage.startUpload(key, allMetadata);
+            try {
+                batchWriter.encodeTo(batch, new MultipartUploadOutputStream(upload, partUploadExecutor, streamingUploads.partSizeBytes, streamingUploads.partsInFlight));
+                upload.complete();
+            } catch (IOException | RuntimeException e) {
+                try {
+                    upload.abort();
+                } catch (RuntimeException abortFailure) {
+                    e.addSuppressed(abortFailure);
+                }
+                throw e;
+            }
+        }
+    }
+
+    void stop() {
+        if (partUploadExecutor != null) {
+            partUploadExecutor.shutdownNow();
+        }
+    }
+}
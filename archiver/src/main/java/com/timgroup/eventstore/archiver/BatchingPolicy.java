@@ -5,6 +5,9 @@ import com.timgroup.eventstore.api.Position;
 import com.timgroup.eventstore.api.ResolvedEvent;
 import com.timgroup.eventsubscription.EventHandler;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,6 +17,11 @@ public interface BatchingPolicy {
 
     void reset();
 
+    /**
+     * Called with the sizes of each batch once compressed, possibly on another thread.
+     */
+    default void notifyCompressed(long uncompressedBytes, long compressedBytes) { }
+
     boolean isStale(Optional<Long> maxPositionInArchive, Optional<Long> maxPositionInLive, Optional<EventRecord> lastEventInLive);
 
     /**
@@ -35,4 +43,34 @@ public interface BatchingPolicy {
         return new DeadStoreBatchingPolicy(eventsPerBatch, lastEventPosition);
     }
 
+    /**
+     * BatchingPolicy uploading once the events in a batch add up to a number of bytes before compression.
+     */
+    static BatchingPolicy uncompressedBytes(long bytesPerBatch) {
+        return ByteSizeBatchingPolicy.uncompressedBytes(bytesPerBatch);
+    }
+
+    /**
+     * BatchingPolicy uploading once the events in a batch are expected to compress to a number of bytes, going by
+     * the compression of the previous batch.
+     */
+    static BatchingPolicy compressedBytes(long bytesPerBatch) {
+        return ByteSizeBatchingPolicy.compressedBytes(bytesPerBatch);
+    }
+
+    /**
+     * BatchingPolicy uploading once the first event added to a batch has waited for maxAge, even if no more events
+     * arrive.
+     */
+    static BatchingPolicy maxAge(Duration maxAge, Clock clock) {
+        return new MaxAgeBatchingPolicy(maxAge, clock);
+    }
+
+    /**
+     * BatchingPolicy uploading as soon as any of the given policies would, e.g. on reaching a size or an age.
+     */
+    static BatchingPolicy anyOf(BatchingPolicy... policies) {
+        return new AnyOfBatchingPolicy(Arrays.asList(policies));
+    }
+
 }
@@ -6,45 +6,102 @@ import com.timgroup.eventstore.api.ResolvedEvent;
 import com.timgroup.eventstore.archiver.monitoring.ComponentUtils;
 import com.timgroup.eventsubscription.Event;
 import com.timgroup.eventsubscription.EventHandler;
+import com.timgroup.eventsubscription.lifecycleevents.CatchupEvent;
 import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
 import com.timgroup.tucker.info.Component;
 import com.timgroup.tucker.info.component.SimpleValueComponent;
 
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.time.Clock;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.timgroup.tucker.info.Status.INFO;
 import static java.lang.String.format;
 
+/**
+ * Collects events into batches and uploads each batch to the archive.
+ *
+ * With uploads in flight, a full batch is handed to a background thread to encode and upload while the next batch is
+ * collected. Uploads are acknowledged strictly in order, on the subscription's thread: the max position pointer only
+ * moves past a batch once it and every batch before it are uploaded, so the archive never appears to have a gap.
+ * Once an upload fails, no later batch is acknowledged and the subscription is halted at the next event.
+ *
+ * With {@link StreamingUploads}, each batch is uploaded in parts as it is compressed instead of being compressed into
+ * memory first. With a manifest writer, each batch acknowledged is also appended to the archive's manifest.
+ */
 final class BatchingUploadHandler implements EventHandler {
-    private final S3UploadableStorageForInputStream output;
+    private final MaxPositionPointerWriter maxPositionPointer;
     private final Clock clock;
     private final CurrentBatchWriter currentBatchWriter;
+    private final int uploadsInFlight;
+    private final ExecutorService uploadExecutor;
+    private final BatchUploader batchUploader;
+    @Nullable
+    private final S3ArchiveManifestWriter manifestWriter;
+    private final Deque<PendingUpload> pendingUploads = new ArrayDeque<>();
+    private final AtomicInteger eventsInPendingUploads = new AtomicInteger();
 
-    private final Map<String, String> appMetadata;
-    private final Timer s3UploadTimer;
     private final SimpleValueComponent eventsAwaitingUploadComponent;
     private final SimpleValueComponent lastUploadState;
 
+    /**
+     * @param uploadsInFlight number of batches that may be uploading while the next is collected, or zero to upload
+     *                        each batch on the subscription's thread
+     */
     BatchingUploadHandler(
             S3UploadableStorageForInputStream uploadableStorage,
             CurrentBatchWriter currentBatchWriter,
+            String maxPositionPointerKey,
+            int uploadsInFlight,
             Clock clock,
             Map<String, String> appMetadata,
             String monitoringPrefix,
             Timer s3UploadTimer)
     {
-        this.output = uploadableStorage;
+        this(uploadableStorage, currentBatchWriter, maxPositionPointerKey, uploadsInFlight, null, null, clock, appMetadata, monitoringPrefix, s3UploadTimer);
+    }
+
+    /**
+     * @param streamingUploads how to upload batches in parts, or null to upload each batch in one request
+     * @param manifestWriter where to record acknowledged batches, or null to keep no manifest
+     */
+    BatchingUploadHandler(
+            S3UploadableStorageForInputStream uploadableStorage,
+            CurrentBatchWriter currentBatchWriter,
+            String maxPositionPointerKey,
+            int uploadsInFlight,
+            @Nullable StreamingUploads streamingUploads,
+            @Nullable S3ArchiveManifestWriter manifestWriter,
+            Clock clock,
+            Map<String, String> appMetadata,
+            String monitoringPrefix,
+            Timer s3UploadTimer)
+    {
+        if (uploadsInFlight < 0) {
+            throw new IllegalArgumentException("uploadsInFlight must not be negative: " + uploadsInFlight);
+        }
         this.clock = clock;
         this.currentBatchWriter = currentBatchWriter;
+        this.maxPositionPointer = new MaxPositionPointerWriter(uploadableStorage, maxPositionPointerKey);
+        this.uploadsInFlight = uploadsInFlight;
+        this.uploadExecutor = uploadsInFlight == 0 ? null : Executors.newFixedThreadPool(uploadsInFlight, new DaemonThreadFactory("s3-archive-upload"));
+        this.batchUploader = new BatchUploader(uploadableStorage, streamingUploads, uploadsInFlight, appMetadata, s3UploadTimer);
+        this.manifestWriter = manifestWriter;
 
-        this.appMetadata = appMetadata;
-        this.s3UploadTimer = s3UploadTimer;
         this.eventsAwaitingUploadComponent = new SimpleValueComponent(monitoringPrefix + "-events-awaiting-upload", "Number of events awaiting upload to archive");
         this.eventsAwaitingUploadComponent.updateValue(INFO, 0);
         this.lastUploadState = new SimpleValueComponent(monitoringPrefix + "-last-upload-state", "Last upload to S3 Archive");
@@ -53,33 +110,108 @@ final class BatchingUploadHandler implements EventHandler {
 
     @Override
     public void apply(@Nonnull Position position, @Nonnull Event deserializedEvent) {
+        acknowledgeCompletedUploads();
+
         if (deserializedEvent instanceof S3Archiver.EventRecordHolder) {
+            haltIfUploadFailed();
             currentBatchWriter.add(new ResolvedEvent(position, ((S3Archiver.EventRecordHolder) deserializedEvent).record));
+            uploadCurrentBatchIfReady();
+        } else if (deserializedEvent instanceof CatchupEvent && currentBatchWriter.eventsInCurrentBatch() > 0) {
+            // lets a policy close a batch by age while no events arrive
+            haltIfUploadFailed();
+            uploadCurrentBatchIfReady();
+        }
+
+        eventsAwaitingUploadComponent.updateValue(INFO, eventsAwaitingUpload());
+    }
 
-            if (currentBatchWriter.readyToUpload()) {
-                String key = currentBatchWriter.key();
-                try {
-                    S3BatchObject s3BatchObject = currentBatchWriter.prepareBatchForUpload();
-
-                    try (Timer.Context ignored = s3UploadTimer.time()) {
-                        Map<String, String> allMetadata = new HashMap<>(appMetadata);
-                        allMetadata.putAll(s3BatchObject.metadata);
-                        output.upload(key, s3BatchObject.content, s3BatchObject.contentLength, allMetadata);
-                    }
-                    lastUploadState.updateValue(INFO, format("Successfully uploaded object=[%s] at [%s]", key, clock.instant()));
-
-                    currentBatchWriter.reset();
-                } catch (IOException e) {
-                    lastUploadState.updateValue(INFO, format("Failed to upload object=[%s] at [%s]%n%s", key, clock.instant(), ComponentUtils.getStackTraceAsString(e)));
-
-                    throw new RuntimeException(
-                            format("Error uploading object with key=[%s]%nThrowing exception to halt subscription, and dropping current batch.", key),
-                            e);
-                }
+    private void uploadCurrentBatchIfReady() {
+        if (!currentBatchWriter.readyToUpload()) {
+            return;
+        }
+        String key = currentBatchWriter.key();
+        long maxPosition = currentBatchWriter.maxPosition();
+        List<ResolvedEvent> batch = currentBatchWriter.takeBatch();
+
+        if (uploadExecutor == null) {
+            ArchivedBatch archivedBatch;
+            try {
+                archivedBatch = upload(key, batch);
+            } catch (IOException e) {
+                throw uploadFailed(key, e);
+            }
+            acknowledge(key, maxPosition, archivedBatch);
+        } else {
+            while (pendingUploads.size() >= uploadsInFlight) {
+                awaitOldestUpload();
             }
+            eventsInPendingUploads.addAndGet(batch.size());
+            pendingUploads.addLast(new PendingUpload(key, maxPosition, batch.size(), uploadExecutor.submit(() -> upload(key, batch))));
+        }
+    }
+
+    int eventsAwaitingUpload() {
+        return currentBatchWriter.eventsInCurrentBatch() + eventsInPendingUploads.get();
+    }
 
-            eventsAwaitingUploadComponent.updateValue(INFO, currentBatchWriter.eventsInCurrentBatch());
+    void stop() {
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdownNow();
         }
+        batchUploader.stop();
+    }
+
+    /**
+     * @return the batch's summary for the manifest, if there is one
+     */
+    @Nullable
+    private ArchivedBatch upload(String key, List<ResolvedEvent> batch) throws IOException {
+        batchUploader.upload(currentBatchWriter, key, batch);
+        return manifestWriter == null ? null : currentBatchWriter.archivedBatchFor(key, batch);
+    }
+
+    private void acknowledge(String key, long maxPosition, @Nullable ArchivedBatch archivedBatch) {
+        lastUploadState.updateValue(INFO, format("Successfully uploaded object=[%s] at [%s]", key, clock.instant()));
+        maxPositionPointer.update(maxPosition);
+        if (manifestWriter != null) {
+            manifestWriter.batchUploaded(archivedBatch);
+        }
+    }
+
+    private void awaitOldestUpload() {
+        try {
+            pendingUploads.getFirst().result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for upload to archive", e);
+        } catch (ExecutionException e) {
+            // reported by haltIfUploadFailed
+        }
+        acknowledgeCompletedUploads();
+        haltIfUploadFailed();
+    }
+
+    private void acknowledgeCompletedUploads() {
+        while (!pendingUploads.isEmpty() && pendingUploads.getFirst().result.isDone() && !pendingUploads.getFirst().failed()) {
+            PendingUpload upload = pendingUploads.removeFirst();
+            eventsInPendingUploads.addAndGet(-upload.numberOfEvents);
+            acknowledge(upload.key, upload.maxPosition, upload.archivedBatch());
+        }
+    }
+
+    private void haltIfUploadFailed() {
+        if (!pendingUploads.isEmpty() && pendingUploads.getFirst().result.isDone() && pendingUploads.getFirst().failed()) {
+            PendingUpload upload = pendingUploads.getFirst();
+            throw uploadFailed(upload.key, upload.failure());
+        }
+    }
+
+    private RuntimeException uploadFailed(String key, Throwable e) {
+        lastUploadState.updateValue(INFO, format("Failed to upload object=[%s] at [%s]%n%s", key, clock.instant(), ComponentUtils.getStackTraceAsString(e)));
+
+        return new RuntimeException(
+                format("Error uploading object with key=[%s]%nThrowing exception to halt subscription, and dropping current batch.", key),
+                e);
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -87,4 +219,46 @@ final class BatchingUploadHandler implements EventHandler {
         return Arrays.asList(eventsAwaitingUploadComponent, lastUploadState);
     }
 
+    private static final class PendingUpload {
+        final String key;
+        final long maxPosition;
+        final int numberOfEvents;
+        final Future<ArchivedBatch> result;
+
+        PendingUpload(String key, long maxPosition, int numberOfEvents, Future<ArchivedBatch> result) {
+            this.key = key;
+            this.maxPosition = maxPosition;
+            this.numberOfEvents = numberOfEvents;
+            this.result = result;
+        }
+
+        /**
+         * Only for an upload that has completed without failing.
+         */
+        ArchivedBatch archivedBatch() {
+            try {
+                return result.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        boolean failed() {
+            return failure() != null;
+        }
+
+        Throwable failure() {
+            try {
+                result.get();
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return e;
+            } catch (ExecutionException e) {
+                return e.getCause();
+            } catch (CancellationException e) {
+                return e;
+            }
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import java.util.Optional;
+
+/**
+ * Closes a batch once its size reaches a number of bytes, either before compression, or after it as estimated from
+ * the compression achieved on the last batch.
+ */
+public final class ByteSizeBatchingPolicy implements BatchingPolicy {
+    private static final int BATCHES_BEHIND_TOLERANCE = 3;
+
+    private final long maxBytesPerBatch;
+    private final boolean compressed;
+    private volatile double compressedBytesPerUncompressedByte = 1.0;
+    private volatile int eventsInLargestBatch = 0;
+    private long uncompressedBytesInBatch = 0;
+    private int eventsInBatch = 0;
+
+    private ByteSizeBatchingPolicy(long maxBytesPerBatch, boolean compressed) {
+        if (maxBytesPerBatch < 1) {
+            throw new IllegalArgumentException("maxBytesPerBatch must be positive: " + maxBytesPerBatch);
+        }
+        this.maxBytesPerBatch = maxBytesPerBatch;
+        this.compressed = compressed;
+    }
+
+    public static ByteSizeBatchingPolicy uncompressedBytes(long maxBytesPerBatch) {
+        return new ByteSizeBatchingPolicy(maxBytesPerBatch, false);
+    }
+
+    /**
+     * Until a batch has been compressed, batches are sized as if compression made no difference.
+     */
+    public static ByteSizeBatchingPolicy compressedBytes(long maxBytesPerBatch) {
+        return new ByteSizeBatchingPolicy(maxBytesPerBatch, true);
+    }
+
+    @Override
+    public void notifyAddedToBatch(ResolvedEvent event) {
+        uncompressedBytesInBatch += ArchivedEventEncoder.maxEncodedSize(event.eventRecord());
+        eventsInBatch++;
+    }
+
+    @Override
+    public void notifyCompressed(long uncompressedBytes, long compressedBytes) {
+        if (compressed && uncompressedBytes > 0) {
+            compressedBytesPerUncompressedByte = (double) compressedBytes / uncompressedBytes;
+        }
+    }
+
+    @Override
+    public boolean ready() {
+        return eventsInBatch > 0 && uncompressedBytesInBatch * compressedBytesPerUncompressedByte >= maxBytesPerBatch;
+    }
+
+    @Override
+    public void reset() {
+        eventsInLargestBatch = Math.max(eventsInLargestBatch, eventsInBatch);
+        uncompressedBytesInBatch = 0;
+        eventsInBatch = 0;
+    }
+
+    /**
+     * Judges the archive stale once it is further behind than a few batches of the most events a batch has held.
+     */
+    @Override
+    public boolean isStale(Optional<Long> maxPositionInArchive, Optional<Long> maxPositionInLive, Optional<EventRecord> lastEventInLive) {
+        long eventsPerBatch = eventsInLargestBatch;
+        if (eventsPerBatch == 0 || !maxPositionInLive.isPresent()) {
+            return false;
+        }
+        long livePosition = maxPositionInLive.get();
+        return maxPositionInArchive.map(archivePosition -> livePosition - archivePosition > BATCHES_BEHIND_TOLERANCE * eventsPerBatch)
+                .orElse(livePosition > BATCHES_BEHIND_TOLERANCE * eventsPerBatch);
+    }
+}
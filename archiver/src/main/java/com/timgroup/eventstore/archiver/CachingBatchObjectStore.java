@@ -0,0 +1,371 @@
+package com.timgroup.eventstore.archiver;
+
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Keeps the batches downloaded from another store in a local directory, so that replaying an archive again only
+ * downloads the batches added since, or evicted from the cache.
+ *
+ * Batches are cached by key and ETag, so a batch uploaded again under the same key is downloaded again; objects the
+ * store has no ETag for are not cached. Each file's name holds the CRC32 of its content, which is checked as the file
+ * is read from its start: a file that fails the check, or has changed size, is removed and downloaded again by the
+ * next reader. Once the cached files exceed the maximum size, the least recently read are removed. Listing and reading small objects, such as the max position pointer, always
+ * go to the store.
+ *
+ * Readers in the same JVM opening a batch that is being downloaded wait for that download rather than starting their
+ * own, so share one instance per directory. A download that fails part way through is resumed by the next reader to
+ * open the batch.
+ */
+public final class CachingBatchObjectStore implements BatchObjectStore {
+    private static final Logger LOG = getLogger(CachingBatchObjectStore.class);
+    private static final String SUFFIX = ".batch";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final BatchObjectStore store;
+    private final Path directory;
+    private final long maxCachedBytes;
+    private final LinkedHashMap<String, CachedFile> cachedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<String, CompletableFuture<CachedFile>> downloads = new ConcurrentHashMap<>();
+    private long cachedBytes;
+
+    public CachingBatchObjectStore(BatchObjectStore store, Path directory, long maxCachedBytes) {
+        if (maxCachedBytes < 1) {
+            throw new IllegalArgumentException("maxCachedBytes must be positive: " + maxCachedBytes);
+        }
+        this.store = store;
+        this.directory = directory;
+        this.maxCachedBytes = maxCachedBytes;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                // partial downloads are only resumed within a run
+                for (Path tempFile : files.filter(file -> file.getFileName().toString().endsWith(TEMP_SUFFIX)).collect(toList())) {
+                    delete(tempFile);
+                }
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                List<Path> existing = files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                        .sorted(Comparator.comparing(CachingBatchObjectStore::lastModified))
+                        .collect(toList());
+                for (Path file : existing) {
+                    CachedFile cachedFile = CachedFile.parse(file);
+                    if (cachedFile != null) {
+                        add(cachedFile);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Stream<String> listKeys(String prefix, @Nullable String startAfterKey) {
+        return store.listKeys(prefix, startAfterKey);
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        Optional<String> etag = store.etag(key);
+        if (!etag.isPresent()) {
+            return store.open(key, offset);
+        }
+        String name = nameFor(key, etag.get());
+        CachedFile cachedFile = cached(name);
+        if (cachedFile != null) {
+            InputStream content = openCached(key, cachedFile, offset);
+            if (content != null) {
+                return content;
+            }
+        }
+        InputStream content = openCached(key, download(key, name), offset);
+        // evicted by another reader before this one could open it
+        return content != null ? content : store.open(key, offset);
+    }
+
+    /**
+     * @return the content of the cached file from the offset, or null if the file has gone or changed size
+     */
+    @Nullable
+    private InputStream openCached(String key, CachedFile cachedFile, long offset) {
+        try {
+            if (Files.size(cachedFile.path) != cachedFile.size) {
+                LOG.warn("Cached copy of {} has changed size, downloading it again", key);
+                remove(cachedFile);
+                return null;
+            }
+            if (offset > cachedFile.size) {
+                throw new IOException("Offset " + offset + " is beyond the end of " + key);
+            }
+            InputStream content = Files.newInputStream(cachedFile.path);
+            if (offset == 0) {
+                return new VerifiedContent(key, cachedFile, content);
+            }
+            if (content.skip(offset) != offset) {
+                content.close();
+                throw new IOException("Offset " + offset + " is beyond the end of " + key);
+            }
+            return content;
+        } catch (NoSuchFileException e) {
+            remove(cachedFile);
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) {
+        return store.read(key);
+    }
+
+    @Override
+    public Optional<String> etag(String key) {
+        return store.etag(key);
+    }
+
+    private CachedFile download(String key, String name) {
+        CompletableFuture<CachedFile> download = new CompletableFuture<>();
+        CompletableFuture<CachedFile> existingDownload = downloads.putIfAbsent(name, download);
+        if (existingDownload != null) {
+            return await(existingDownload);
+        }
+        try {
+            CachedFile cachedFile = downloadToFile(key, name);
+            add(cachedFile);
+            download.complete(cachedFile);
+        } catch (RuntimeException | IOException e) {
+            download.completeExceptionally(e);
+        } finally {
+            downloads.remove(name, download);
+        }
+        return await(download);
+    }
+
+    /**
+     * Appends to any partial download left by a failed attempt, then names the file by its checksum.
+     */
+    private CachedFile downloadToFile(String key, String name) throws IOException {
+        Path tempFile = directory.resolve(name + TEMP_SUFFIX);
+        long downloaded = Files.exists(tempFile) ? Files.size(tempFile) : 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream content = store.open(key, downloaded);
+             OutputStream out = Files.newOutputStream(tempFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        long checksum = checksumOf(tempFile);
+        Path file = directory.resolve(name + "." + Long.toHexString(checksum) + SUFFIX);
+        Files.move(tempFile, file, ATOMIC_MOVE);
+        return new CachedFile(name, file, Files.size(file), checksum);
+    }
+
+    private synchronized CachedFile cached(String name) {
+        return cachedFiles.get(name);
+    }
+
+    private synchronized void add(CachedFile cachedFile) {
+        CachedFile replaced = cachedFiles.put(cachedFile.name, cachedFile);
+        if (replaced != null) {
+            cachedBytes -= replaced.size;
+            if (!replaced.path.equals(cachedFile.path)) {
+                delete(replaced.path);
+            }
+        }
+        cachedBytes += cachedFile.size;
+        Iterator<CachedFile> leastRecentlyRead = cachedFiles.values().iterator();
+        while (cachedBytes > maxCachedBytes && leastRecentlyRead.hasNext()) {
+            CachedFile evicted = leastRecentlyRead.next();
+            if (evicted == cachedFile) {
+                continue;
+            }
+            leastRecentlyRead.remove();
+            cachedBytes -= evicted.size;
+            delete(evicted.path);
+        }
+    }
+
+    private synchronized void remove(CachedFile cachedFile) {
+        if (cachedFiles.remove(cachedFile.name, cachedFile)) {
+            cachedBytes -= cachedFile.size;
+            delete(cachedFile.path);
+        }
+    }
+
+    private static CachedFile await(CompletableFuture<CachedFile> download) {
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for download", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static String nameFor(String key, String etag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(key.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(etag.getBytes(UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest()) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long checksumOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete cached batch {}", file, e);
+        }
+    }
+
+    private static final class CachedFile {
+        final String name;
+        final Path path;
+        final long size;
+        final long checksum;
+
+        CachedFile(String name, Path path, long size, long checksum) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return the cached file with the name "{name}.{checksum}.batch", or null if the name is not in that form
+         */
+        @Nullable
+        static CachedFile parse(Path path) throws IOException {
+            String[] parts = path.getFileName().toString().split("\\.");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new CachedFile(parts[0], path, Files.size(path), Long.parseLong(parts[1], 16));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Checks the CRC32 of a cached file as it is read, removing the file if the check fails at the end.
+     */
+    private final class VerifiedContent extends CheckedInputStream {
+        private final String key;
+        private final CachedFile cachedFile;
+        private boolean verified;
+
+        VerifiedContent(String key, CachedFile cachedFile, InputStream content) {
+            super(content, new CRC32());
+            this.key = key;
+            this.cachedFile = cachedFile;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read == -1) {
+                verify();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                verify();
+            }
+            return read;
+        }
+
+        private void verify() throws IOException {
+            if (verified) {
+                return;
+            }
+            verified = true;
+            if (getChecksum().getValue() != cachedFile.checksum) {
+                LOG.warn("Cached copy of {} is corrupt, removing it", key);
+                remove(cachedFile);
+                throw new IOException("Cached copy of " + key + " is corrupt");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingBatchObjectStore{" +
+                "store=" + store +
+                ", directory=" + directory +
+                ", maxCachedBytes=" + maxCachedBytes +
+                '}';
+    }
+}
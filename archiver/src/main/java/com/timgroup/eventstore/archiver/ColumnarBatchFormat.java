@@ -0,0 +1,299 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes and reads batches in the {@link BatchLayout#COLUMNS} layout. Before compression, a batch is:
+ *
+ * <ul>
+ *     <li>the magic bytes "TGCB", and a version byte of 1</li>
+ *     <li>the number of events</li>
+ *     <li>the batch's distinct categories, then its distinct event types, each as a count followed by the strings</li>
+ *     <li>a column for each field: positions, timestamp seconds and event numbers as the difference from the previous
+ *     event's; timestamp nanoseconds; categories and event types as indexes into their dictionaries; stream ids as
+ *     strings; and the lengths of each event's data and metadata</li>
+ *     <li>each event's data followed by its metadata, for each event in turn</li>
+ * </ul>
+ *
+ * Numbers are unsigned varints, with differences zigzag-encoded first, and strings are varint lengths followed by UTF-8.
+ * Readers decode the columns first, and only copy the payloads of the events they select.
+ */
+final class ColumnarBatchFormat {
+    private static final byte[] MAGIC = { 'T', 'G', 'C', 'B' };
+    private static final int VERSION = 1;
+
+    private ColumnarBatchFormat() { /* prevent instantiation */ }
+
+    /**
+     * Selects events by the fields stored ahead of their payloads.
+     */
+    @FunctionalInterface
+    interface EventFilter {
+        EventFilter ALL = (position, timestamp, category, eventType) -> true;
+
+        boolean accepts(long position, Instant timestamp, String category, String eventType);
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    static long write(OutputStream out, List<ResolvedEvent> batch, Function<ResolvedEvent, Long> positionFrom) throws IOException {
+        Dictionary categories = new Dictionary();
+        Dictionary eventTypes = new Dictionary();
+        for (ResolvedEvent event : batch) {
+            categories.indexOf(event.eventRecord().streamId().category());
+            eventTypes.indexOf(event.eventRecord().eventType());
+        }
+
+        Columns header = new Columns();
+        header.write(MAGIC, 0, MAGIC.length);
+        header.write(VERSION);
+        header.putVarint(batch.size());
+        categories.writeTo(header);
+        eventTypes.writeTo(header);
+
+        long previous = 0;
+        for (ResolvedEvent event : batch) {
+            long position = positionFrom.apply(event);
+            header.putSignedVarint(position - previous);
+            previous = position;
+        }
+        previous = 0;
+        for (ResolvedEvent event : batch) {
+            long seconds = event.eventRecord().timestamp().getEpochSecond();
+            header.putSignedVarint(seconds - previous);
+            previous = seconds;
+        }
+        for (ResolvedEvent event : batch) {
+            header.putVarint(event.eventRecord().timestamp().getNano());
+        }
+        for (ResolvedEvent event : batch) {
+            header.putVarint(categories.indexOf(event.eventRecord().streamId().category()));
+        }
+        for (ResolvedEvent event : batch) {
+            header.putString(event.eventRecord().streamId().id());
+        }
+        previous = 0;
+        for (ResolvedEvent event : batch) {
+            long eventNumber = event.eventRecord().eventNumber();
+            header.putSignedVarint(eventNumber - previous);
+            previous = eventNumber;
+        }
+        for (ResolvedEvent event : batch) {
+            header.putVarint(eventTypes.indexOf(event.eventRecord().eventType()));
+        }
+        for (ResolvedEvent event : batch) {
+            header.putVarint(event.eventRecord().data().length);
+        }
+        for (ResolvedEvent event : batch) {
+            header.putVarint(event.eventRecord().metadata().length);
+        }
+
+        long written = header.size();
+        header.writeTo(out);
+        for (ResolvedEvent event : batch) {
+            out.write(event.eventRecord().data());
+            out.write(event.eventRecord().metadata());
+            written += event.eventRecord().data().length + event.eventRecord().metadata().length;
+        }
+        return written;
+    }
+
+    /**
+     * Reads the columns of a batch at once, then the payloads of the events the filter accepts as they are iterated,
+     * skipping the others. Closes the stream once all events are read.
+     */
+    static Iterator<ResolvedEvent> read(InputStream in, EventFilter filter) throws IOException {
+        DataInputStream input = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        int version = input.readUnsignedByte();
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not a columnar archive batch");
+            }
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar archive batch version: " + version);
+        }
+
+        int size = (int) readVarint(input);
+        String[] categories = readStrings(input, (int) readVarint(input));
+        String[] eventTypes = readStrings(input, (int) readVarint(input));
+        long[] positions = readDeltas(input, size);
+        long[] seconds = readDeltas(input, size);
+        long[] nanos = readVarints(input, size);
+        long[] categoryIndexes = readVarints(input, size);
+        String[] streamIds = readStrings(input, size);
+        long[] eventNumbers = readDeltas(input, size);
+        long[] eventTypeIndexes = readVarints(input, size);
+        long[] dataLengths = readVarints(input, size);
+        long[] metadataLengths = readVarints(input, size);
+
+        return new Iterator<ResolvedEvent>() {
+            private int next = 0;
+            private ResolvedEvent nextEvent;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (nextEvent == null && next < size) {
+                        int i = next++;
+                        Instant timestamp = Instant.ofEpochSecond(seconds[i], nanos[i]);
+                        String category = categories[(int) categoryIndexes[i]];
+                        String eventType = eventTypes[(int) eventTypeIndexes[i]];
+                        if (filter.accepts(positions[i], timestamp, category, eventType)) {
+                            byte[] data = new byte[(int) dataLengths[i]];
+                            input.readFully(data);
+                            byte[] metadata = new byte[(int) metadataLengths[i]];
+                            input.readFully(metadata);
+                            nextEvent = new ResolvedEvent(new S3ArchivePosition(positions[i]), EventRecord.eventRecord(
+                                    timestamp, StreamId.streamId(category, streamIds[i]), eventNumbers[i], eventType, data, metadata));
+                        } else {
+                            skipFully(input, dataLengths[i] + metadataLengths[i]);
+                        }
+                    }
+                    if (nextEvent == null) {
+                        input.close();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return nextEvent != null;
+            }
+
+            @Override
+            public ResolvedEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ResolvedEvent event = nextEvent;
+                nextEvent = null;
+                return event;
+            }
+        };
+    }
+
+    private static long[] readVarints(DataInputStream input, int size) throws IOException {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = readVarint(input);
+        }
+        return values;
+    }
+
+    private static long[] readDeltas(DataInputStream input, int size) throws IOException {
+        long[] values = new long[size];
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            long zigzag = readVarint(input);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static String[] readStrings(DataInputStream input, int size) throws IOException {
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[(int) readVarint(input)];
+            input.readFully(bytes);
+            values[i] = new String(bytes, UTF_8);
+        }
+        return values;
+    }
+
+    private static long readVarint(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in columnar archive batch");
+    }
+
+    private static void skipFully(InputStream input, long bytes) throws IOException {
+        byte[] buffer = null;
+        while (bytes > 0) {
+            long skipped = input.skip(bytes);
+            if (skipped <= 0) {
+                if (buffer == null) {
+                    buffer = new byte[8192];
+                }
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, bytes));
+                if (read < 0) {
+                    throw new EOFException("Columnar archive batch ends within an event's payload");
+                }
+                skipped = read;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static final class Dictionary {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int indexOf(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                indexes.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+
+        void writeTo(Columns columns) {
+            columns.putVarint(values.size());
+            values.forEach(columns::putString);
+        }
+    }
+
+    private static final class Columns extends ByteArrayOutputStream {
+        Columns() {
+            super(8192);
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void putSignedVarint(long value) {
+            putVarint((value << 1) ^ (value >> 63));
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            putVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
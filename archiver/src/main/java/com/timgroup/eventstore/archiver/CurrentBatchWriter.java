@@ -1,25 +1,20 @@
 package com.timgroup.eventstore.archiver;
 
 import com.codahale.metrics.Histogram;
-import com.google.protobuf.ByteString;
-import com.google.protobuf.Message;
 import com.timgroup.eventstore.api.EventRecord;
 import com.timgroup.eventstore.api.ResolvedEvent;
-import com.timgroup.eventstore.api.StreamId;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.time.Instant;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.zip.GZIPOutputStream;
-
-import static java.nio.ByteOrder.LITTLE_ENDIAN;
 
 class CurrentBatchWriter {
     private final BatchingPolicy batchingPolicy;
@@ -27,62 +22,39 @@ class CurrentBatchWriter {
     private final S3ArchiveKeyFormat batchS3ObjectKeyFormat;
     private final Histogram uncompressedSizeMetrics;
     private final Histogram compressedSizeMetrics;
+    private final BatchCodec codec;
+    private final BatchLayout layout;
 
-    private ResolvedEvent firstEventInBatch = null;
-    private ResolvedEvent lastEventInBatch = null;
+    private List<ResolvedEvent> eventsInBatch = new ArrayList<>();
     private AtomicInteger currentBatchSize = new AtomicInteger(0);
-    private int uncompressedBytesCount = 0;
-
-    private final ByteArrayOutputStream gzippedByteArrayOutputStream = new ByteArrayOutputStream(8192);
-    private GZIPOutputStream gzipOutputStream;
 
     public CurrentBatchWriter(BatchingPolicy batchingPolicy,
                               Function<ResolvedEvent, Long> positionFrom,
                               S3ArchiveKeyFormat batchS3ObjectKeyFormat,
                               Histogram uncompressedSizeMetrics,
-                              Histogram compressedSizeMetrics) {
+                              Histogram compressedSizeMetrics,
+                              BatchCodec codec,
+                              BatchLayout layout) {
         this.batchingPolicy = batchingPolicy;
         this.positionFrom = positionFrom;
         this.batchS3ObjectKeyFormat = batchS3ObjectKeyFormat;
         this.uncompressedSizeMetrics = uncompressedSizeMetrics;
         this.compressedSizeMetrics = compressedSizeMetrics;
+        this.codec = codec;
+        this.layout = layout;
 
         this.reset();
     }
 
     public void reset() {
         this.batchingPolicy.reset();
-        this.firstEventInBatch = null;
-        this.lastEventInBatch = null;
+        this.eventsInBatch = new ArrayList<>();
         this.currentBatchSize = new AtomicInteger(0);
-        this.uncompressedBytesCount = 0;
-        this.gzippedByteArrayOutputStream.reset();
-        try {
-            this.gzipOutputStream = new GZIPOutputStream(gzippedByteArrayOutputStream, 8192);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     public void add(ResolvedEvent resolvedEvent) {
-        if (this.firstEventInBatch == null) {
-            this.firstEventInBatch = resolvedEvent;
-        }
-        this.lastEventInBatch = resolvedEvent;
+        this.eventsInBatch.add(resolvedEvent);
         this.currentBatchSize.incrementAndGet();
-
-        byte[] uncompressedBytes = Optional.of(resolvedEvent)
-                .map(this::toProtobufsMessage)
-                .map(this::toBytesPrefixedWithLength)
-                .get();
-
-        uncompressedBytesCount += uncompressedBytes.length;
-
-        try {
-            gzipOutputStream.write(uncompressedBytes);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
         this.batchingPolicy.notifyAddedToBatch(resolvedEvent);
     }
 
@@ -94,66 +66,87 @@ class CurrentBatchWriter {
         return batchingPolicy.ready();
     }
 
+    public long maxPosition() {
+        return positionFrom.apply(lastEventInBatch());
+    }
+
     public String key() {
-        return batchS3ObjectKeyFormat.objectKeyFor(positionFrom.apply(lastEventInBatch), "gz");
+        return batchS3ObjectKeyFormat.objectKeyFor(maxPosition(), layout.fileExtension(codec));
     }
 
     public S3BatchObject prepareBatchForUpload() throws IOException {
-        gzippedByteArrayOutputStream.close();
-        gzipOutputStream.finish();
+        return encode(eventsInBatch);
+    }
 
-        byte[] content =  gzippedByteArrayOutputStream.toByteArray();
-        int uncompressedContentSize = uncompressedBytesCount;
-        int compressedContentSize = content.length;
+    /**
+     * Takes the events of the current batch, to be encoded with {@link #encode}, and starts a new batch.
+     */
+    public List<ResolvedEvent> takeBatch() {
+        List<ResolvedEvent> batch = eventsInBatch;
+        reset();
+        return batch;
+    }
 
-        uncompressedSizeMetrics.update(uncompressedContentSize);
-        compressedSizeMetrics.update(compressedContentSize);
+    /**
+     * Encodes a batch taken from this writer. Safe to call from any thread.
+     */
+    public S3BatchObject encode(List<ResolvedEvent> batch) throws IOException {
+        ByteArrayOutputStream compressedByteArrayOutputStream = new ByteArrayOutputStream(8192);
+        long uncompressedContentSize = encodeTo(batch, compressedByteArrayOutputStream);
+
+        byte[] content =  compressedByteArrayOutputStream.toByteArray();
+        int compressedContentSize = content.length;
 
+        Map<String, String> metadata = metadataFor(batch);
+        metadata.put("uncompressed_size_in_bytes", String.valueOf(uncompressedContentSize));
+        metadata.put("compressed_size_in_bytes", String.valueOf(compressedContentSize));
         return new S3BatchObject(
                 new ByteArrayInputStream(content),
                 compressedContentSize,
-                buildObjectMetadata(uncompressedContentSize, compressedContentSize, lastEventInBatch));
+                metadata);
     }
 
+    /**
+     * Writes a batch taken from this writer, compressed, to {@code out} and closes it. Safe to call from any thread.
+     *
+     * @return the size of the batch before compression
+     */
+    public long encodeTo(List<ResolvedEvent> batch, OutputStream out) throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(out);
+        long uncompressedContentSize = 0;
+        try (OutputStream compressingOutputStream = codec.compressing(countingOutputStream)) {
+            if (layout == BatchLayout.COLUMNS) {
+                uncompressedContentSize = ColumnarBatchFormat.write(compressingOutputStream, batch, positionFrom);
+            } else {
+                ArchivedEventEncoder encoder = new ArchivedEventEncoder();
+                for (ResolvedEvent resolvedEvent : batch) {
+                    uncompressedContentSize += encoder.write(compressingOutputStream, positionFrom.apply(resolvedEvent), resolvedEvent.eventRecord());
+                }
+            }
+        }
+        long compressedContentSize = countingOutputStream.count;
 
-    private byte[] toBytesPrefixedWithLength(Message message) {
-        byte[] srcArray = message.toByteArray();
-        ByteBuffer buffer= ByteBuffer.allocate(srcArray.length +4).order(LITTLE_ENDIAN);
-
-        buffer.putInt(srcArray.length);
-        buffer.put(srcArray);
-
-        return buffer.array();
+        uncompressedSizeMetrics.update(uncompressedContentSize);
+        compressedSizeMetrics.update(compressedContentSize);
+        batchingPolicy.notifyCompressed(uncompressedContentSize, compressedContentSize);
+        return uncompressedContentSize;
     }
 
-    private Message toProtobufsMessage(ResolvedEvent resolvedEvent) {
-        EventRecord eventRecord = resolvedEvent.eventRecord();
-        StreamId streamId = eventRecord.streamId();
-
-        Instant timestamp = eventRecord.timestamp();
-        EventStoreArchiverProtos.Timestamp protoTimestamp = EventStoreArchiverProtos.Timestamp.newBuilder()
-                .setSeconds(timestamp.getEpochSecond())
-                .setNanos(timestamp.getNano())
-                .build();
-
-        return EventStoreArchiverProtos.Event.newBuilder()
-                .setPosition(positionFrom.apply(resolvedEvent))
-                .setTimestamp(protoTimestamp)
-                .setStreamCategory(streamId.category())
-                .setStreamId(streamId.id())
-                .setEventNumber(eventRecord.eventNumber())
-                .setEventType(eventRecord.eventType())
-                .setData(ByteString.copyFrom(eventRecord.data()))
-                .setMetadata(ByteString.copyFrom(eventRecord.metadata()))
-                .build();
+    private ResolvedEvent lastEventInBatch() {
+        return eventsInBatch.get(eventsInBatch.size() - 1);
     }
 
-    private Map<String, String> buildObjectMetadata(int uncompressedContentSize, int compressedContentSize, ResolvedEvent batch) {
+    /**
+     * Metadata describing a batch, without the sizes that are only known once it is encoded.
+     */
+    public Map<String, String> metadataFor(List<ResolvedEvent> batch) {
+        ResolvedEvent firstEventInBatch = batch.get(0);
+        ResolvedEvent lastEventInBatch = batch.get(batch.size() - 1);
         Map<String, String> metadata = new HashMap<>();
 
         metadata.put("max_position", String.valueOf(positionFrom.apply(lastEventInBatch)));
         metadata.put("min_position", String.valueOf(positionFrom.apply(firstEventInBatch)));
-        metadata.put("number_of_events_in_batch", String.valueOf(currentBatchSize));
+        metadata.put("number_of_events_in_batch", String.valueOf(batch.size()));
 
         EventRecord maxEventRecord = lastEventInBatch.eventRecord();
         metadata.put("max_event_timestamp", maxEventRecord.timestamp().toString());
@@ -161,8 +154,35 @@ class CurrentBatchWriter {
         metadata.put("max_event_stream_id", maxEventRecord.streamId().id());
         metadata.put("max_event_event_type", maxEventRecord.eventType());
 
-        metadata.put("uncompressed_size_in_bytes", String.valueOf(uncompressedContentSize));
-        metadata.put("compressed_size_in_bytes", String.valueOf(compressedContentSize));
+        metadata.put("compression_codec", codec.name());
+        metadata.put("batch_layout", layout.metadataName());
         return metadata;
     }
+
+    /**
+     * Summary of a batch for the archive's manifest. Safe to call from any thread.
+     */
+    public ArchivedBatch archivedBatchFor(String key, List<ResolvedEvent> batch) {
+        return ArchivedBatch.of(key, batch, positionFrom);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package com.timgroup.eventstore.archiver;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes daemon threads, so that background work never keeps the JVM from exiting, named after a prefix and a number
+ * unique among the threads this class has made.
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final String namePrefix;
+
+    DaemonThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + "-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
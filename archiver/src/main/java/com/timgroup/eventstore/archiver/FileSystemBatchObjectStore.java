@@ -0,0 +1,440 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparing;
+
+/**
+ * Keeps an archive's objects in a local or network-mounted directory instead of an S3 bucket, each in a file named by
+ * its key, with the "/" in keys separating subdirectories.
+ *
+ * Objects are written to a hidden temporary file beside their destination, and renamed into place once complete, so
+ * readers never see part of an object. Keys are listed in the order S3 lists them, walking only the directories
+ * that can hold keys after the key listed from. Batches are read through a memory mapping of their file.
+ *
+ * User metadata given with uploads is not kept, as nothing reads it back from an archive.
+ */
+public final class FileSystemBatchObjectStore implements BatchObjectStore, MultipartUploadableStorage {
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long MAX_MAPPING_BYTES = 1L << 30;
+
+    private final Path directory;
+
+    public FileSystemBatchObjectStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Uploads to this store, for {@link S3Archiver} to archive into the directory.
+     */
+    public S3UploadableStorageForInputStream uploadableStorage() {
+        return new UploadableStorage();
+    }
+
+    @Override
+    public Stream<String> listKeys(String prefix, @Nullable String startAfterKey) {
+        int lastSeparator = prefix.lastIndexOf('/');
+        String directoryKey = lastSeparator < 0 ? "" : prefix.substring(0, lastSeparator + 1);
+        Path listedDirectory = directoryKey.isEmpty() ? directory : fileFor(directoryKey);
+        if (!Files.isDirectory(listedDirectory)) {
+            return Stream.empty();
+        }
+        Iterator<String> keys = new SortedKeyIterator(listedDirectory, directoryKey, prefix, startAfterKey);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(keys, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        try {
+            FileChannel channel = FileChannel.open(fileFor(key), StandardOpenOption.READ);
+            if (offset > channel.size()) {
+                channel.close();
+                throw new IOException("Offset " + offset + " is beyond the end of " + key);
+            }
+            return new MappedFileInputStream(channel, offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) {
+        try {
+            return Optional.of(Files.readAllBytes(fileFor(key)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Made from the file's size, modification time and, where the file system has them, identity, which change as
+     * each upload renames a new file into place.
+     */
+    @Override
+    public Optional<String> etag(String key) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(fileFor(key), BasicFileAttributes.class);
+            Object fileKey = attributes.fileKey();
+            return Optional.of(Long.toHexString(attributes.size()) + "-" + Long.toHexString(attributes.lastModifiedTime().toMillis())
+                    + (fileKey == null ? "" : "-" + Integer.toHexString(fileKey.hashCode())));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parts are written to temporary files of their own, so that they can arrive in any order, and are joined into
+     * the object's file when the upload is completed.
+     */
+    @Override
+    public MultipartUpload startUpload(String key, Map<String, String> metadata) {
+        Path file = fileFor(key);
+        String uploadId = UUID.randomUUID().toString();
+        List<Path> parts = new ArrayList<>();
+        return new MultipartUpload() {
+            @Override
+            public void uploadPart(int partNumber, byte[] content, int length) {
+                Path part = tempFileFor(file, uploadId + "." + partNumber);
+                synchronized (parts) {
+                    parts.add(part);
+                }
+                try {
+                    Files.createDirectories(file.getParent());
+                    try (OutputStream out = Files.newOutputStream(part)) {
+                        out.write(content, 0, length);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void complete() {
+                List<Path> partsInOrder;
+                synchronized (parts) {
+                    partsInOrder = new ArrayList<>(parts);
+                }
+                partsInOrder.sort(comparing(part -> partNumberOf(part.getFileName().toString())));
+                Path tempFile = tempFileFor(file, uploadId);
+                try {
+                    Files.createDirectories(file.getParent());
+                    try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                        for (Path part : partsInOrder) {
+                            try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                                long transferred = 0;
+                                while (transferred < in.size()) {
+                                    transferred += in.transferTo(transferred, in.size() - transferred, out);
+                                }
+                            }
+                        }
+                        out.force(true);
+                    }
+                    Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+                } catch (IOException e) {
+                    deleteQuietly(tempFile);
+                    throw new UncheckedIOException(e);
+                } finally {
+                    partsInOrder.forEach(FileSystemBatchObjectStore::deleteQuietly);
+                }
+            }
+
+            @Override
+            public void abort() {
+                synchronized (parts) {
+                    parts.forEach(FileSystemBatchObjectStore::deleteQuietly);
+                }
+            }
+        };
+    }
+
+    private void put(String key, InputStream content) {
+        Path file = fileFor(key);
+        Path tempFile = tempFileFor(file, UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    ByteBuffer written = ByteBuffer.wrap(buffer, 0, read);
+                    while (written.hasRemaining()) {
+                        out.write(written);
+                    }
+                }
+                out.force(true);
+            }
+            Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path fileFor(String key) {
+        Path file = directory;
+        for (String name : key.split("/")) {
+            if (name.isEmpty() || name.equals(".") || name.equals("..") || name.startsWith(TEMP_PREFIX)) {
+                throw new IllegalArgumentException("Key cannot be stored as a file: " + key);
+            }
+            file = file.resolve(name);
+        }
+        return file;
+    }
+
+    private static Path tempFileFor(Path file, String id) {
+        return file.resolveSibling(TEMP_PREFIX + file.getFileName() + "." + id + TEMP_SUFFIX);
+    }
+
+    private static int partNumberOf(String partFileName) {
+        String withoutSuffix = partFileName.substring(0, partFileName.length() - TEMP_SUFFIX.length());
+        return Integer.parseInt(withoutSuffix.substring(withoutSuffix.lastIndexOf('.') + 1));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // left for the next upload of the key to replace
+        }
+    }
+
+    /**
+     * Walks the directory tree depth first, visiting each directory's entries in the order of the keys they hold. A
+     * directory's keys all start with its name and a "/", so it sorts as that, and is skipped whole when all its keys
+     * sort before the key listed from.
+     */
+    private final class SortedKeyIterator implements Iterator<String> {
+        private final String prefix;
+        @Nullable private final String startAfterKey;
+        private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+        private String next;
+
+        SortedKeyIterator(Path listedDirectory, String directoryKey, String prefix, @Nullable String startAfterKey) {
+            this.prefix = prefix;
+            this.startAfterKey = startAfterKey;
+            stack.push(entriesOf(listedDirectory, directoryKey).iterator());
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !stack.isEmpty()) {
+                Iterator<Entry> entries = stack.peek();
+                if (!entries.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Entry entry = entries.next();
+                if (entry.directory) {
+                    if (mayHoldListedKeys(entry.key)) {
+                        stack.push(entriesOf(entry.path, entry.key).iterator());
+                    }
+                } else if (entry.key.startsWith(prefix) && (startAfterKey == null || entry.key.compareTo(startAfterKey) > 0)) {
+                    next = entry.key;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String key = next;
+            next = null;
+            return key;
+        }
+
+        private boolean mayHoldListedKeys(String directoryKey) {
+            boolean overlapsPrefix = directoryKey.startsWith(prefix) || prefix.startsWith(directoryKey);
+            boolean mayFollowStart = startAfterKey == null || startAfterKey.startsWith(directoryKey) || directoryKey.compareTo(startAfterKey) > 0;
+            return overlapsPrefix && mayFollowStart;
+        }
+
+        private List<Entry> entriesOf(Path path, String directoryKey) {
+            List<Entry> entries = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    String name = child.getFileName().toString();
+                    if (name.startsWith(TEMP_PREFIX)) {
+                        continue;
+                    }
+                    boolean isDirectory = Files.isDirectory(child);
+                    entries.add(new Entry(child, directoryKey + name + (isDirectory ? "/" : ""), isDirectory));
+                }
+            } catch (NoSuchFileException e) {
+                return entries;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entries.sort(comparing(entry -> entry.key));
+            return entries;
+        }
+    }
+
+    private static final class Entry {
+        final Path path;
+        final String key;
+        final boolean directory;
+
+        Entry(Path path, String key, boolean directory) {
+            this.path = path;
+            this.key = key;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * Reads the file through read-only mappings of up to {@link #MAX_MAPPING_BYTES} each, mapped as they are reached.
+     */
+    private static final class MappedFileInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private long mappedTo;
+        private ByteBuffer mapping = ByteBuffer.allocate(0);
+
+        MappedFileInputStream(FileChannel channel, long offset) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.mappedTo = offset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureRemaining()) {
+                return -1;
+            }
+            return mapping.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, mapping.remaining());
+            mapping.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            if (n <= mapping.remaining()) {
+                mapping.position(mapping.position() + (int) n);
+                return n;
+            }
+            long skipped = mapping.remaining() + Math.min(n - mapping.remaining(), size - mappedTo);
+            mappedTo += skipped - mapping.remaining();
+            mapping = ByteBuffer.allocate(0);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mapping.remaining() + (size - mappedTo));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mapping = ByteBuffer.allocate(0);
+            channel.close();
+        }
+
+        private boolean ensureRemaining() throws IOException {
+            if (mapping.hasRemaining()) {
+                return true;
+            }
+            if (mappedTo >= size) {
+                return false;
+            }
+            long length = Math.min(MAX_MAPPING_BYTES, size - mappedTo);
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, mappedTo, length);
+            mappedTo += length;
+            return true;
+        }
+    }
+
+    private final class UploadableStorage extends S3UploadableStorageForInputStream {
+        UploadableStorage() {
+            super(null, null, null);
+        }
+
+        @Override
+        public URI upload(String name, InputStream content, long contentLength, Map<String, String> metaData) {
+            put(name, content);
+            return fileFor(name).toUri();
+        }
+
+        @Override
+        public URI upload(String name, Path path, Map<String, String> metaData) {
+            try (InputStream content = Files.newInputStream(path)) {
+                put(name, content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return fileFor(name).toUri();
+        }
+
+        @Override
+        public void delete(String name) {
+            try {
+                Files.deleteIfExists(fileFor(name));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileSystemBatchObjectStore{" +
+                "directory=" + directory +
+                '}';
+    }
+}
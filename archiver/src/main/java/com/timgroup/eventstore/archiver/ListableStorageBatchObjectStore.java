@@ -0,0 +1,63 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.remotefilestorage.api.ListableStorage;
+import com.timgroup.remotefilestorage.s3.S3DownloadableStorageWithoutDestinationFile;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Lists batches through a {@link ListableStorage}, which always lists from the start of the prefix, skipping keys
+ * before the one to start after without downloading them. Objects are downloaded whole, whatever the offset.
+ */
+final class ListableStorageBatchObjectStore implements BatchObjectStore {
+    private final ListableStorage listableStorage;
+    private final S3DownloadableStorageWithoutDestinationFile downloadableStorage;
+
+    ListableStorageBatchObjectStore(ListableStorage listableStorage, S3DownloadableStorageWithoutDestinationFile downloadableStorage) {
+        this.listableStorage = listableStorage;
+        this.downloadableStorage = downloadableStorage;
+    }
+
+    @Override
+    public Stream<String> listKeys(String prefix, @Nullable String startAfterKey) {
+        return listableStorage.list(prefix, null)
+                .map(remoteFileDetails -> remoteFileDetails.name)
+                .filter(key -> startAfterKey == null || key.compareTo(startAfterKey) > 0);
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        byte[] content = download(key);
+        return new ByteArrayInputStream(content, (int) Math.min(offset, content.length), content.length);
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) {
+        if (listableStorage.list(key, null).noneMatch(remoteFileDetails -> remoteFileDetails.name.equals(key))) {
+            return Optional.empty();
+        }
+        return Optional.of(download(key));
+    }
+
+    private byte[] download(String key) {
+        return downloadableStorage.download(key, inputStream -> {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Closes a batch once its oldest event has been waiting in it for a maximum age, so that events written in a quiet
+ * period are still archived.
+ */
+public final class MaxAgeBatchingPolicy implements BatchingPolicy {
+    private static final int AGES_BEHIND_TOLERANCE = 3;
+
+    private final Duration maxAge;
+    private final Clock clock;
+    private Instant oldestEventAddedAt = null;
+
+    public MaxAgeBatchingPolicy(Duration maxAge, Clock clock) {
+        if (maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("maxAge must be positive: " + maxAge);
+        }
+        this.maxAge = maxAge;
+        this.clock = clock;
+    }
+
+    @Override
+    public void notifyAddedToBatch(ResolvedEvent event) {
+        if (oldestEventAddedAt == null) {
+            oldestEventAddedAt = clock.instant();
+        }
+    }
+
+    @Override
+    public boolean ready() {
+        return oldestEventAddedAt != null && !clock.instant().isBefore(oldestEventAddedAt.plus(maxAge));
+    }
+
+    @Override
+    public void reset() {
+        oldestEventAddedAt = null;
+    }
+
+    /**
+     * Judges the archive stale when it is missing events and the last event in live was written a few maximum ages
+     * ago, by which time it should have been archived.
+     */
+    @Override
+    public boolean isStale(Optional<Long> maxPositionInArchive, Optional<Long> maxPositionInLive, Optional<EventRecord> lastEventInLive) {
+        boolean archiveIsBehind = maxPositionInLive.map(livePosition -> maxPositionInArchive.map(archivePosition -> archivePosition < livePosition).orElse(true))
+                .orElse(false);
+        Instant staleAfter = clock.instant().minus(maxAge.multipliedBy(AGES_BEHIND_TOLERANCE));
+        return archiveIsBehind && lastEventInLive.map(event -> event.timestamp().isBefore(staleAfter)).orElse(false);
+    }
+}
@@ -0,0 +1,45 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Writes the object holding the max position an archive has been acknowledged up to, which readers stop at and
+ * archiving resumes from.
+ *
+ * A failed update is logged rather than thrown: the pointer it leaves behind only holds back readers, and the position
+ * archiving resumes from, until the next update, so archiving carries on.
+ */
+final class MaxPositionPointerWriter {
+    private static final Logger LOG = getLogger(MaxPositionPointerWriter.class);
+
+    private final S3UploadableStorageForInputStream output;
+    private final String maxPositionPointerKey;
+
+    MaxPositionPointerWriter(S3UploadableStorageForInputStream output, String maxPositionPointerKey) {
+        this.output = output;
+        this.maxPositionPointerKey = maxPositionPointerKey;
+    }
+
+    void update(long maxPosition) {
+        byte[] content = Long.toString(maxPosition).getBytes(UTF_8);
+        try {
+            output.upload(maxPositionPointerKey, new ByteArrayInputStream(content), content.length, Collections.emptyMap());
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to update max position pointer {} to {}", maxPositionPointerKey, maxPosition, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MaxPositionPointerWriter{" +
+                "maxPositionPointerKey='" + maxPositionPointerKey + '\'' +
+                '}';
+    }
+}
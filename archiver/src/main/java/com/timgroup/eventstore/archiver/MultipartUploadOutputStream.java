@@ -0,0 +1,133 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.archiver.MultipartUploadableStorage.MultipartUpload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Uploads what is written to it as the parts of a multipart upload, each uploaded on an executor as soon as it is
+ * filled. Writing waits while the maximum number of parts are uploading, so at most that many parts plus the one
+ * being filled are held in memory.
+ *
+ * Closing uploads the last part and waits for all parts, but leaves completing or aborting the upload to the caller.
+ */
+final class MultipartUploadOutputStream extends OutputStream {
+    private final MultipartUpload upload;
+    private final ExecutorService executor;
+    private final int partSize;
+    private final Semaphore partsInFlight;
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final List<Future<?>> uploadedParts = new ArrayList<>();
+
+    private byte[] buffer;
+    private int length;
+    private int partNumber;
+    private boolean closed;
+
+    MultipartUploadOutputStream(MultipartUpload upload, ExecutorService executor, int partSize, int partsInFlight) {
+        if (partSize < 1) {
+            throw new IllegalArgumentException("partSize must be positive: " + partSize);
+        }
+        if (partsInFlight < 1) {
+            throw new IllegalArgumentException("partsInFlight must be positive: " + partsInFlight);
+        }
+        this.upload = upload;
+        this.executor = executor;
+        this.partSize = partSize;
+        this.partsInFlight = new Semaphore(partsInFlight);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = freeBuffers.poll();
+                if (buffer == null) {
+                    buffer = new byte[partSize];
+                }
+            }
+            int copied = Math.min(len, partSize - length);
+            System.arraycopy(b, off, buffer, length, copied);
+            length += copied;
+            off += copied;
+            len -= copied;
+            if (length == partSize) {
+                sendPart();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (length > 0) {
+            sendPart();
+        }
+        for (Future<?> part : uploadedParts) {
+            await(part);
+        }
+    }
+
+    private void sendPart() throws IOException {
+        byte[] part = buffer;
+        int partLength = length;
+        int number = ++partNumber;
+        buffer = null;
+        length = 0;
+        try {
+            partsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to upload part " + number);
+        }
+        failIfAnyPartFailed();
+        uploadedParts.add(executor.submit(() -> {
+            try {
+                upload.uploadPart(number, part, partLength);
+            } finally {
+                freeBuffers.offer(part);
+                partsInFlight.release();
+            }
+        }));
+    }
+
+    private void failIfAnyPartFailed() throws IOException {
+        for (Future<?> part : uploadedParts) {
+            if (part.isDone()) {
+                await(part);
+            }
+        }
+    }
+
+    private static void await(Future<?> part) throws IOException {
+        try {
+            part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parts to upload");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to upload part", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.timgroup.eventstore.archiver;
+
+import java.util.Map;
+
+/**
+ * Object storage that can receive an object in parts, so that it can be uploaded while it is still being written.
+ */
+public interface MultipartUploadableStorage {
+
+    /**
+     * Starts an upload, which only creates the object once completed.
+     */
+    MultipartUpload startUpload(String key, Map<String, String> metadata);
+
+    /**
+     * @return the smallest size allowed for any part but the last
+     */
+    default int minimumPartSize() {
+        return 1;
+    }
+
+    interface MultipartUpload {
+
+        /**
+         * May be called concurrently for different parts.
+         *
+         * @param partNumber numbered from 1, in the order of the parts in the object
+         */
+        void uploadPart(int partNumber, byte[] content, int length);
+
+        void complete();
+
+        void abort();
+    }
+}
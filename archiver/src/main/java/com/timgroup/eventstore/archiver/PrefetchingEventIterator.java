@@ -0,0 +1,126 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Iterates over the events of a sequence of batches, downloading up to a fixed number of batches ahead of the one
+ * being read on an executor shared with other reads, and emitting their events in the order of the batches. Closing
+ * the iterator cancels the downloads in flight, interrupting them.
+ *
+ * A batch that has not been downloaded ahead, such as the first, is streamed: its events are decoded as it downloads
+ * on the reading thread. At most the fixed number of downloaded batches are held in memory besides the one being read,
+ * which is decoded as its events are emitted.
+ */
+final class PrefetchingEventIterator implements Iterator<ResolvedEvent>, AutoCloseable {
+    private final Iterator<String> keys;
+    private final Function<String, Iterator<ResolvedEvent>> stream;
+    private final Function<String, Iterator<ResolvedEvent>> download;
+    private final int batchesAhead;
+    private final ExecutorService executor;
+    private final Deque<Future<Iterator<ResolvedEvent>>> downloads = new ArrayDeque<>();
+    private Iterator<ResolvedEvent> currentBatch = Collections.emptyIterator();
+    private boolean closed = false;
+
+    /**
+     * @param stream opens a batch to decode as it downloads, returning an iterator that may be {@link AutoCloseable}
+     * @param download downloads a whole batch to decode from memory
+     */
+    PrefetchingEventIterator(Iterator<String> keys, Function<String, Iterator<ResolvedEvent>> stream,
+                             Function<String, Iterator<ResolvedEvent>> download, int batchesAhead, ExecutorService executor) {
+        if (batchesAhead < 1) {
+            throw new IllegalArgumentException("batchesAhead must be positive: " + batchesAhead);
+        }
+        this.keys = keys;
+        this.stream = stream;
+        this.download = download;
+        this.batchesAhead = batchesAhead;
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentBatch.hasNext()) {
+            closeCurrentBatch();
+            Future<Iterator<ResolvedEvent>> nextBatch = downloads.poll();
+            if (nextBatch != null) {
+                currentBatch = await(nextBatch);
+            } else if (!closed && keys.hasNext()) {
+                currentBatch = open(keys.next());
+            } else {
+                close();
+                return false;
+            }
+            startDownloads();
+        }
+        return true;
+    }
+
+    @Override
+    public ResolvedEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+    private void startDownloads() {
+        while (!closed && downloads.size() < batchesAhead && keys.hasNext()) {
+            String key = keys.next();
+            downloads.add(executor.submit(() -> download.apply(key)));
+        }
+    }
+
+    private Iterator<ResolvedEvent> open(String key) {
+        try {
+            return stream.apply(key);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private Iterator<ResolvedEvent> await(Future<Iterator<ResolvedEvent>> batch) {
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("Interrupted while waiting for batch download", e);
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        downloads.forEach(download -> download.cancel(true));
+        downloads.clear();
+        closeCurrentBatch();
+    }
+
+    private void closeCurrentBatch() {
+        if (currentBatch instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) currentBatch).close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        currentBatch = Collections.emptyIterator();
+    }
+}
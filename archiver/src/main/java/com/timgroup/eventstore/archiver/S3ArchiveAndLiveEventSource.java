@@ -0,0 +1,187 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventCategoryReader;
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.EventStreamReader;
+import com.timgroup.eventstore.api.EventStreamWriter;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.tucker.info.Component;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads events from an S3 archive up to its head, and then carries on from the live store the archive was written
+ * from, at the position of the last event archived, as {@code ArchiveAndLiveEventSource} does for archive directories.
+ *
+ * The archive's head is checked again each time the events read from it run out, and more of the archive is read if
+ * it has moved on, so a long replay only switches to the live store once it has read all it can from the archive.
+ * Reading from a position before the archive's head reads from the archive, even if the position came from the live
+ * store.
+ */
+public final class S3ArchiveAndLiveEventSource implements EventSource, EventReader {
+    private final S3ArchivedEventSource archiveEventSource;
+    private final EventSource liveEventSource;
+
+    public S3ArchiveAndLiveEventSource(S3ArchivedEventSource archiveEventSource, EventSource liveEventSource) {
+        this.archiveEventSource = requireNonNull(archiveEventSource, "archiveEventSource");
+        this.liveEventSource = requireNonNull(liveEventSource, "liveEventSource");
+    }
+
+    @Nonnull
+    @Override
+    public Position emptyStorePosition() {
+        return S3ArchiveAndLivePosition.EMPTY;
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readAllForwards(Position positionExclusive) {
+        long positionValueExclusive = ((S3ArchiveAndLivePosition) positionExclusive).value();
+        Optional<Long> archiveHead = archiveEventSource.maxPositionInArchive();
+        if (!archiveHead.isPresent() || positionValueExclusive >= archiveHead.get()) {
+            return readLive(positionValueExclusive);
+        }
+        CutoverSpliterator events = new CutoverSpliterator(positionValueExclusive);
+        return StreamSupport.stream(events, false).onClose(events::close);
+    }
+
+    private Stream<ResolvedEvent> readLive(long positionValueExclusive) {
+        PositionCodec livePositionCodec = livePositionCodec();
+        return liveEventSource.readAll().readAllForwards(livePositionAt(positionValueExclusive))
+                .map(re -> re.eventRecord().toResolvedEvent(S3ArchiveAndLivePosition.live(re.position(), livePositionCodec)));
+    }
+
+    private Position livePositionAt(long positionValue) {
+        EventReader liveReader = liveEventSource.readAll();
+        return positionValue < 0 ? liveReader.emptyStorePosition() : liveReader.storePositionCodec().deserializePosition(Long.toString(positionValue));
+    }
+
+    private PositionCodec livePositionCodec() {
+        return liveEventSource.readAll().storePositionCodec();
+    }
+
+    private final class CutoverSpliterator implements Spliterator<ResolvedEvent> {
+        private long lastArchivedPosition;
+        private boolean readFromArchiveSinceHeadChecked;
+        private boolean live;
+        private Stream<ResolvedEvent> stream;
+        private Spliterator<ResolvedEvent> events;
+
+        CutoverSpliterator(long positionValueExclusive) {
+            this.lastArchivedPosition = positionValueExclusive;
+            openArchive();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ResolvedEvent> action) {
+            while (true) {
+                boolean advanced = live
+                        ? events.tryAdvance(action)
+                        : events.tryAdvance(re -> {
+                            lastArchivedPosition = ((S3ArchivePosition) re.position()).value;
+                            readFromArchiveSinceHeadChecked = true;
+                            action.accept(re.eventRecord().toResolvedEvent(S3ArchiveAndLivePosition.archived(lastArchivedPosition)));
+                        });
+                if (advanced || live) {
+                    return advanced;
+                }
+                stream.close();
+                if (readFromArchiveSinceHeadChecked && archiveEventSource.maxPositionInArchive().orElse(lastArchivedPosition) > lastArchivedPosition) {
+                    openArchive();
+                } else {
+                    live = true;
+                    stream = readLive(lastArchivedPosition);
+                    events = stream.spliterator();
+                }
+            }
+        }
+
+        private void openArchive() {
+            readFromArchiveSinceHeadChecked = false;
+            stream = archiveEventSource.readAll().readAllForwards(new S3ArchivePosition(lastArchivedPosition));
+            events = stream.spliterator();
+        }
+
+        void close() {
+            stream.close();
+        }
+
+        @Override
+        public Spliterator<ResolvedEvent> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public EventReader readAll() {
+        return this;
+    }
+
+    @Nonnull
+    @Override
+    public EventCategoryReader readCategory() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Nonnull
+    @Override
+    public EventStreamReader readStream() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Nonnull
+    @Override
+    public EventStreamWriter writeStream() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec storePositionCodec() {
+        return PositionCodec.fromComparator(S3ArchiveAndLivePosition.class,
+                S3ArchiveAndLivePosition::deserialise,
+                S3ArchiveAndLivePosition::serialise,
+                (a, b) -> Long.compare(a.value(), b.value()));
+    }
+
+    @Nonnull
+    @Override
+    public Collection<Component> monitoring() {
+        List<Component> combined = new ArrayList<>();
+        combined.addAll(archiveEventSource.monitoring());
+        combined.addAll(liveEventSource.monitoring());
+        return combined;
+    }
+
+    @Override
+    public String toString() {
+        return "S3ArchiveAndLiveEventSource{" +
+                "archiveEventSource=" + archiveEventSource +
+                ", liveEventSource=" + liveEventSource +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+
+import javax.annotation.Nullable;
+
+/**
+ * Position of an event read by {@link S3ArchiveAndLiveEventSource}: either the position of an event in the archive,
+ * or the live store's own position of an event read from it. The archive holds the live store's positions as numbers,
+ * so each position has a number, taken from the live position once when it is read. Positions are compared, equal
+ * and serialised by that number alone, so a position read back from its serialised form equals the one written.
+ */
+public final class S3ArchiveAndLivePosition implements Position {
+    static final S3ArchiveAndLivePosition EMPTY = archived(S3ArchivePosition.EMPTY_STORE_POSITION.value);
+
+    private final long value;
+    @Nullable private final Position livePosition;
+
+    private S3ArchiveAndLivePosition(long value, @Nullable Position livePosition) {
+        this.value = value;
+        this.livePosition = livePosition;
+    }
+
+    static S3ArchiveAndLivePosition archived(long archivePosition) {
+        return new S3ArchiveAndLivePosition(archivePosition, null);
+    }
+
+    static S3ArchiveAndLivePosition live(Position livePosition, PositionCodec livePositionCodec) {
+        return new S3ArchiveAndLivePosition(Long.parseLong(livePositionCodec.serializePosition(livePosition)), livePosition);
+    }
+
+    /**
+     * @return the live store's position, if the event was read from the live store
+     */
+    @Nullable
+    public Position getLivePosition() {
+        return livePosition;
+    }
+
+    long value() {
+        return value;
+    }
+
+    static String serialise(S3ArchiveAndLivePosition position) {
+        return Long.toString(position.value);
+    }
+
+    static S3ArchiveAndLivePosition deserialise(String str) {
+        return archived(Long.parseLong(str));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        S3ArchiveAndLivePosition that = (S3ArchiveAndLivePosition) o;
+        return value == that.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return livePosition != null ? livePosition.toString() : Long.toString(value);
+    }
+}
@@ -18,4 +18,43 @@ public final class S3ArchiveKeyFormat {
     public String objectKeyFor(Long maxPosition, String fileExtension) {
         return eventStoreId + "/" + String.format(ALPHANUMERIC_SORT_CONSISTENT_WITH_POSITION_SORT_FORMAT, maxPosition) + "." + fileExtension;
     }
+
+    /**
+     * Key of the object holding the max position in the archive, outside the prefix of the batch keys.
+     */
+    public String maxPositionPointerKey() {
+        return eventStoreId + ".max_position";
+    }
+
+    /**
+     * Key that sorts after the keys of batches with a max position up to {@code positionExclusive}, and before the
+     * keys of all later batches: '~' sorts after the '.' that ends the position in a key, but the keys of later
+     * batches differ from it at an earlier digit.
+     */
+    public String startAfterKeyFor(long positionExclusive) {
+        return eventStoreId + "/" + String.format(ALPHANUMERIC_SORT_CONSISTENT_WITH_POSITION_SORT_FORMAT, positionExclusive) + "~";
+    }
+
+    /**
+     * Prefix of the keys of the consolidated objects of the archive's {@link S3ArchiveManifest}, outside the prefix of
+     * the batch keys.
+     */
+    public String consolidatedManifestPrefix() {
+        return eventStoreId + ".manifest/consolidated/";
+    }
+
+    public String consolidatedManifestKey(long maxPosition) {
+        return consolidatedManifestPrefix() + String.format(ALPHANUMERIC_SORT_CONSISTENT_WITH_POSITION_SORT_FORMAT, maxPosition) + ".gz";
+    }
+
+    /**
+     * Prefix of the keys of the segments appended to the archive's {@link S3ArchiveManifest} between consolidations.
+     */
+    public String manifestSegmentPrefix() {
+        return eventStoreId + ".manifest/segments/";
+    }
+
+    public String manifestSegmentKey(long maxPosition) {
+        return manifestSegmentPrefix() + String.format(ALPHANUMERIC_SORT_CONSISTENT_WITH_POSITION_SORT_FORMAT, maxPosition);
+    }
 }
@@ -0,0 +1,173 @@
+package com.timgroup.eventstore.archiver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Summaries of the batches of an archive, in order, so that readers can choose which batches to download without
+ * listing them or fetching their metadata.
+ *
+ * {@link S3Archiver} keeps the manifest as a consolidated object, holding the whole manifest up to its last batch, and
+ * a segment appended after that consolidation, holding every batch since then. Each object written replaces those it
+ * supersedes, which are then deleted. Reading it takes two listings and at most two downloads. A manifest started on an archive that already had batches only holds
+ * the batches after {@link #startsAfterPosition}, and may lag the archive by a few batches if an update failed.
+ */
+public final class S3ArchiveManifest {
+    private static final String HEADER = "manifest";
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final long startsAfterPosition;
+    private final List<ArchivedBatch> batches;
+    private final int consolidatedBatches;
+    private final List<String> keys;
+
+    S3ArchiveManifest(long startsAfterPosition, List<ArchivedBatch> batches, int consolidatedBatches, List<String> keys) {
+        this.startsAfterPosition = startsAfterPosition;
+        this.consolidatedBatches = consolidatedBatches;
+        this.batches = Collections.unmodifiableList(new ArrayList<>(batches));
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+    }
+
+    /**
+     * @return the manifest of an archive, or empty if the archive has none
+     */
+    public static Optional<S3ArchiveManifest> read(BatchObjectStore batchObjectStore, String eventStoreId) {
+        S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat(eventStoreId);
+        Part consolidated = null;
+        for (int attempt = 1; attempt <= MAX_READ_ATTEMPTS; attempt++) {
+            consolidated = lastPart(batchObjectStore, keyFormat.consolidatedManifestPrefix(), null, true).orElse(null);
+            String segmentsStartAfter = consolidated == null ? null : keyFormat.manifestSegmentKey(consolidated.maxPosition());
+            Optional<Part> segment = lastPart(batchObjectStore, keyFormat.manifestSegmentPrefix(), segmentsStartAfter, false);
+            if (!segment.isPresent()) {
+                break;
+            }
+            if (consolidated == null && segment.get().continuesFromPosition == segment.get().startsAfterPosition) {
+                return Optional.of(new S3ArchiveManifest(segment.get().startsAfterPosition, segment.get().batches, 0,
+                        Collections.singletonList(segment.get().key)));
+            }
+            if (consolidated != null && segment.get().continuesFromPosition == consolidated.maxPosition()) {
+                List<ArchivedBatch> batches = new ArrayList<>(consolidated.batches);
+                batches.addAll(segment.get().batches);
+                return Optional.of(new S3ArchiveManifest(consolidated.startsAfterPosition, batches, consolidated.batches.size(),
+                        Arrays.asList(consolidated.key, segment.get().key)));
+            }
+            // consolidated again since it was listed, or the segment belongs to a manifest started afresh
+        }
+        return Optional.ofNullable(consolidated).map(part -> new S3ArchiveManifest(part.startsAfterPosition, part.batches, part.batches.size(),
+                Collections.singletonList(part.key)));
+    }
+
+    /**
+     * @return the position that the manifest's first batch follows: earlier batches are not in the manifest
+     */
+    public long startsAfterPosition() {
+        return startsAfterPosition;
+    }
+
+    public List<ArchivedBatch> batches() {
+        return batches;
+    }
+
+    /**
+     * @return the max position of the manifest's last batch, or the position it starts after if it has none
+     */
+    public long maxPosition() {
+        return batches.isEmpty() ? startsAfterPosition : batches.get(batches.size() - 1).maxPosition;
+    }
+
+    /**
+     * @return the number of leading batches read from a consolidated object
+     */
+    int consolidatedBatches() {
+        return consolidatedBatches;
+    }
+
+    /**
+     * @return the keys of the consolidated object and segment the manifest was read from
+     */
+    List<String> keys() {
+        return keys;
+    }
+
+    static byte[] encode(long startsAfterPosition, long continuesFromPosition, List<ArchivedBatch> batches, boolean compressed) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputStream out = compressed ? BatchCodecs.GZIP.compressing(content) : content) {
+            StringBuilder text = new StringBuilder();
+            text.append(HEADER).append('\t').append(startsAfterPosition).append('\t').append(continuesFromPosition).append('\n');
+            for (ArchivedBatch batch : batches) {
+                text.append(batch.format()).append('\n');
+            }
+            out.write(text.toString().getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return content.toByteArray();
+    }
+
+    private static Optional<Part> lastPart(BatchObjectStore batchObjectStore, String prefix, String startAfterKey, boolean compressed) {
+        Optional<String> key;
+        try (Stream<String> keys = batchObjectStore.listKeys(prefix, startAfterKey)) {
+            key = keys.reduce((k1, k2) -> k2);
+        }
+        return key.flatMap(k -> batchObjectStore.read(k).map(content -> Part.decode(k, content, compressed)));
+    }
+
+    private static final class Part {
+        final String key;
+        final long startsAfterPosition;
+        final long continuesFromPosition;
+        final List<ArchivedBatch> batches;
+
+        Part(String key, long startsAfterPosition, long continuesFromPosition, List<ArchivedBatch> batches) {
+            this.key = key;
+            this.startsAfterPosition = startsAfterPosition;
+            this.continuesFromPosition = continuesFromPosition;
+            this.batches = batches;
+        }
+
+        long maxPosition() {
+            return batches.isEmpty() ? continuesFromPosition : batches.get(batches.size() - 1).maxPosition;
+        }
+
+        static Part decode(String key, byte[] content, boolean compressed) {
+            try (InputStream in = compressed ? BatchCodecs.GZIP.decompressing(new ByteArrayInputStream(content)) : new ByteArrayInputStream(content);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8))) {
+                String[] header = reader.readLine().split("\t");
+                if (header.length != 3 || !header[0].equals(HEADER)) {
+                    throw new IllegalArgumentException("Invalid archive manifest header: " + String.join("\t", header));
+                }
+                List<ArchivedBatch> batches = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    batches.add(ArchivedBatch.parse(line));
+                }
+                return new Part(key, Long.parseLong(header[1]), Long.parseLong(header[2]), batches);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "S3ArchiveManifest{" +
+                "startsAfterPosition=" + startsAfterPosition +
+                ", batches=" + batches.size() +
+                ", maxPosition=" + maxPosition() +
+                '}';
+    }
+}
@@ -0,0 +1,107 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Appends each acknowledged batch to the archive's {@link S3ArchiveManifest}.
+ *
+ * Every update writes a new segment holding each batch since the last consolidation, so a failed update is repaired
+ * by the next one; once a segment would hold {@code batchesPerConsolidation} batches, the whole manifest is written
+ * as a consolidated object instead. As with the max position pointer, a failed update only logs, leaving readers to
+ * list the batches the manifest is missing.
+ *
+ * Once written, a segment supersedes the segments before it, and a consolidated object supersedes every object
+ * written before it, so those are deleted to keep the manifest to two objects however long the archive grows. A
+ * failed deletion is retried after the next write.
+ */
+final class S3ArchiveManifestWriter {
+    private static final Logger LOG = getLogger(S3ArchiveManifestWriter.class);
+
+    private final S3UploadableStorageForInputStream output;
+    private final S3ArchiveKeyFormat keyFormat;
+    private final int batchesPerConsolidation;
+    private final long startsAfterPosition;
+    private final List<ArchivedBatch> batches = new ArrayList<>();
+    private final List<String> consolidatedKeys = new ArrayList<>();
+    private final List<String> segmentKeys = new ArrayList<>();
+    private int consolidatedBatches;
+
+    /**
+     * Continues the existing manifest if it ends where the archive does, otherwise starts a new one after the
+     * archive's max position. Either way, the objects the existing manifest was read from are superseded by the next
+     * consolidation.
+     */
+    S3ArchiveManifestWriter(S3UploadableStorageForInputStream output, S3ArchiveKeyFormat keyFormat, int batchesPerConsolidation,
+                            Optional<S3ArchiveManifest> existingManifest, Optional<Long> maxPositionInArchive) {
+        if (batchesPerConsolidation < 1) {
+            throw new IllegalArgumentException("batchesPerConsolidation must be positive: " + batchesPerConsolidation);
+        }
+        this.output = output;
+        this.keyFormat = keyFormat;
+        this.batchesPerConsolidation = batchesPerConsolidation;
+        long archivedTo = maxPositionInArchive.orElse(S3ArchivePosition.EMPTY_STORE_POSITION.value);
+        existingManifest.ifPresent(manifest -> consolidatedKeys.addAll(manifest.keys()));
+        if (existingManifest.isPresent() && existingManifest.get().maxPosition() == archivedTo) {
+            this.startsAfterPosition = existingManifest.get().startsAfterPosition();
+            this.batches.addAll(existingManifest.get().batches());
+            this.consolidatedBatches = existingManifest.get().consolidatedBatches();
+        } else {
+            existingManifest.ifPresent(manifest -> LOG.warn("Starting a new archive manifest after {}, as {} does not end there", archivedTo, manifest));
+            this.startsAfterPosition = archivedTo;
+        }
+    }
+
+    void batchUploaded(ArchivedBatch batch) {
+        batches.add(batch);
+        if (batches.size() - consolidatedBatches >= batchesPerConsolidation) {
+            String key = keyFormat.consolidatedManifestKey(batch.maxPosition);
+            if (write(key, S3ArchiveManifest.encode(startsAfterPosition, startsAfterPosition, batches, true))) {
+                consolidatedBatches = batches.size();
+                consolidatedKeys.addAll(segmentKeys);
+                segmentKeys.clear();
+                consolidatedKeys.removeIf(superseded -> superseded.equals(key) || delete(superseded));
+                consolidatedKeys.add(key);
+            }
+        } else {
+            String key = keyFormat.manifestSegmentKey(batch.maxPosition);
+            List<ArchivedBatch> unconsolidated = batches.subList(consolidatedBatches, batches.size());
+            if (write(key, S3ArchiveManifest.encode(startsAfterPosition, consolidatedMaxPosition(), unconsolidated, false))) {
+                segmentKeys.removeIf(superseded -> superseded.equals(key) || delete(superseded));
+                segmentKeys.add(key);
+            }
+        }
+    }
+
+    private long consolidatedMaxPosition() {
+        return consolidatedBatches == 0 ? startsAfterPosition : batches.get(consolidatedBatches - 1).maxPosition;
+    }
+
+    private boolean write(String key, byte[] content) {
+        try {
+            output.upload(key, new ByteArrayInputStream(content), content.length, Collections.emptyMap());
+            return true;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to update archive manifest with {}", key, e);
+            return false;
+        }
+    }
+
+    private boolean delete(String key) {
+        try {
+            output.delete(key);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to delete superseded archive manifest object {}", key, e);
+            return false;
+        }
+    }
+}
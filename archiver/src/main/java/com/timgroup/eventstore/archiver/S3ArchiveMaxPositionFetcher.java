@@ -3,23 +3,115 @@ package com.timgroup.eventstore.archiver;
 import com.timgroup.remotefilestorage.api.ListableStorage;
 
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public final class S3ArchiveMaxPositionFetcher {
 
     private final ListableStorage listableStorage;
+    private final BatchObjectStore batchObjectStore;
     private final String eventStoreId;
     private final S3ArchiveKeyFormat s3ArchiveKeyFormat;
 
+    /**
+     * Finds the max position by listing every batch.
+     */
     public S3ArchiveMaxPositionFetcher(ListableStorage listableStorage, String eventStoreId) {
+        this(listableStorage, null, eventStoreId);
+    }
+
+    /**
+     * Finds the max position from the pointer object that {@link S3Archiver} updates once a batch and every batch
+     * before it are uploaded. Batches after the pointer may have been uploaded out of order, with earlier ones
+     * missing, so they are ignored. Without a pointer, it searches the batch keys, listing from a number of positions
+     * that grows with the logarithm of the max position.
+     */
+    public S3ArchiveMaxPositionFetcher(BatchObjectStore batchObjectStore, String eventStoreId) {
+        this(null, batchObjectStore, eventStoreId);
+    }
+
+    private S3ArchiveMaxPositionFetcher(ListableStorage listableStorage, BatchObjectStore batchObjectStore, String eventStoreId) {
         this.listableStorage = listableStorage;
+        this.batchObjectStore = batchObjectStore;
         this.eventStoreId = eventStoreId;
         this.s3ArchiveKeyFormat = new S3ArchiveKeyFormat(eventStoreId);
     }
 
     public Optional<Long> maxPosition() {
-        return listableStorage.list(eventStoreId + "/", null)
-                .reduce((r1, r2) -> r2)
-                .map(s3Object -> s3Object.name)
-                .map(s3ArchiveKeyFormat::positionValueFrom);
+        if (batchObjectStore == null) {
+            return listableStorage.list(eventStoreId + "/", null)
+                    .reduce((r1, r2) -> r2)
+                    .map(s3Object -> s3Object.name)
+                    .map(s3ArchiveKeyFormat::positionValueFrom);
+        }
+
+        Optional<Long> pointedTo = pointedToMaxPosition();
+        if (pointedTo.isPresent()) {
+            return pointedTo;
+        }
+        return searchForMaxPosition();
+    }
+
+    /**
+     * @return the max position held by the pointer object, if there is one
+     */
+    Optional<Long> pointedToMaxPosition() {
+        if (batchObjectStore == null) {
+            return Optional.empty();
+        }
+        return batchObjectStore.read(s3ArchiveKeyFormat.maxPositionPointerKey())
+                .map(content -> Long.parseLong(new String(content, UTF_8).trim()));
+    }
+
+    /**
+     * @return the archive's manifest, if it has one and there is a batch object store to read it from
+     */
+    Optional<S3ArchiveManifest> manifest() {
+        if (batchObjectStore == null) {
+            return Optional.empty();
+        }
+        return S3ArchiveManifest.read(batchObjectStore, eventStoreId);
+    }
+
+    /**
+     * Gallops forward from the first batch, doubling the step while there are batches beyond it, then bisects the
+     * range between the last batch found and the first position known to have none after it.
+     */
+    private Optional<Long> searchForMaxPosition() {
+        Optional<Long> first = firstPositionAfter(-1);
+        if (!first.isPresent()) {
+            return Optional.empty();
+        }
+        long found = first.get();
+        long step = 1;
+        long noneAfter;
+        while (true) {
+            long probe = found + step > found ? found + step : Long.MAX_VALUE;
+            Optional<Long> next = firstPositionAfter(probe);
+            if (!next.isPresent()) {
+                noneAfter = probe;
+                break;
+            }
+            found = next.get();
+            step = step * 2 > 0 ? step * 2 : step;
+        }
+        while (noneAfter > found) {
+            long probe = found + (noneAfter - found) / 2;
+            Optional<Long> next = firstPositionAfter(probe);
+            if (next.isPresent()) {
+                found = next.get();
+            } else {
+                noneAfter = probe;
+            }
+        }
+        return Optional.of(found);
+    }
+
+    private Optional<Long> firstPositionAfter(long position) {
+        String startAfterKey = position < 0 ? null : s3ArchiveKeyFormat.startAfterKeyFor(position);
+        try (Stream<String> keys = batchObjectStore.listKeys(eventStoreId + "/", startAfterKey)) {
+            return keys.findFirst().map(s3ArchiveKeyFormat::positionValueFrom);
+        }
     }
 }
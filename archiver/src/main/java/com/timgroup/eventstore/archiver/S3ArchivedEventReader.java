@@ -1,78 +1,249 @@
 package com.timgroup.eventstore.archiver;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.timgroup.eventstore.api.EventCategoryReader;
 import com.timgroup.eventstore.api.EventReader;
 import com.timgroup.eventstore.api.EventRecord;
 import com.timgroup.eventstore.api.Position;
 import com.timgroup.eventstore.api.PositionCodec;
 import com.timgroup.eventstore.api.ResolvedEvent;
 import com.timgroup.eventstore.api.StreamId;
-import com.timgroup.remotefilestorage.api.RemoteFileDetails;
 import com.timgroup.remotefilestorage.s3.S3DownloadableStorageWithoutDestinationFile;
 import com.timgroup.remotefilestorage.s3.S3ListableStorage;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
-import java.util.zip.GZIPInputStream;
 
-import static java.util.stream.Collectors.toList;
+public final class S3ArchivedEventReader implements EventReader, EventCategoryReader {
+    public static final String DEFAULT_MONITORING_PREFIX = "tg-eventstore-s3-archive-reader";
+    /**
+     * Downloads batches for all reads. Its idle threads exit, so reads left open hold no threads once their downloads
+     * are done.
+     */
+    private static final ExecutorService DOWNLOAD_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory("s3-archive-download"));
 
-public final class S3ArchivedEventReader implements EventReader {
-    private final S3ListableStorage s3ListableStorage;
-    private final S3DownloadableStorageWithoutDestinationFile s3DownloadableStorage;
+    private final BatchObjectStore batchObjectStore;
     private final String eventStoreId;
+    private final S3ArchiveKeyFormat s3ArchiveKeyFormat;
+    private final S3ArchiveMaxPositionFetcher maxPositionFetcher;
+    private final int concurrentDownloads;
+    private final Timer downloadTimer;
+    private final Counter failedDownloads;
 
+    /**
+     * @deprecated lists the whole archive to find the first batch to read, and downloads batches whole; use
+     *             {@link #S3ArchivedEventReader(BatchObjectStore, String)} with an {@link S3BatchObjectStore}
+     */
+    @Deprecated
     public S3ArchivedEventReader(
             S3ListableStorage s3ListableStorage,
             S3DownloadableStorageWithoutDestinationFile s3DownloadableStorage,
             String eventStoreId) {
-        this.s3ListableStorage = s3ListableStorage;
-        this.s3DownloadableStorage = s3DownloadableStorage;
+        this(new ListableStorageBatchObjectStore(s3ListableStorage, s3DownloadableStorage), eventStoreId);
+    }
+
+    public S3ArchivedEventReader(BatchObjectStore batchObjectStore, String eventStoreId) {
+        this(batchObjectStore, eventStoreId, 1, new MetricRegistry());
+    }
+
+    /**
+     * @param concurrentDownloads number of batches to download and decode ahead of the one being read
+     */
+    public S3ArchivedEventReader(BatchObjectStore batchObjectStore, String eventStoreId, int concurrentDownloads, MetricRegistry metricRegistry) {
+        if (concurrentDownloads < 1) {
+            throw new IllegalArgumentException("concurrentDownloads must be positive: " + concurrentDownloads);
+        }
+        this.batchObjectStore = batchObjectStore;
         this.eventStoreId = eventStoreId;
+        this.s3ArchiveKeyFormat = new S3ArchiveKeyFormat(eventStoreId);
+        this.maxPositionFetcher = new S3ArchiveMaxPositionFetcher(batchObjectStore, eventStoreId);
+        this.concurrentDownloads = concurrentDownloads;
+        String monitoringPrefix = DEFAULT_MONITORING_PREFIX + "." + eventStoreId;
+        this.downloadTimer = metricRegistry.timer(monitoringPrefix + ".download");
+        this.failedDownloads = metricRegistry.counter(monitoringPrefix + ".download.failures");
     }
 
     @Nonnull
     @Override
     public Stream<ResolvedEvent> readAllForwards(Position positionExclusive) {
-       return s3ListableStorage.list(eventStoreId + "/", null).flatMap(this::getEventsFromMultiTry);
+        return read(((S3ArchivePosition) positionExclusive).value, batch -> true, ColumnarBatchFormat.EventFilter.ALL);
     }
 
-    private Stream<ResolvedEvent> getEventsFromMultiTry(RemoteFileDetails remoteFileDetails) {
-        int maxAttempts = 5;
-        int attemptsSoFar = 0;
-        Optional<Exception> lastException = Optional.empty();
-        while(attemptsSoFar < maxAttempts) {
-            attemptsSoFar += 1;
-            try {
-                return getEventsFrom(remoteFileDetails);
-            } catch(Exception e) {
-                lastException = Optional.of(e);
+    /**
+     * @return the events in the category after the position, only downloading the batches that the archive's manifest
+     *         shows to have events in the category
+     */
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryForwards(String category, Position positionExclusive) {
+        return readCategoriesForwards(Collections.singletonList(category), positionExclusive);
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoriesForwards(List<String> categories, Position positionExclusive) {
+        return read(((S3ArchivePosition) positionExclusive).value,
+                batch -> categories.stream().anyMatch(batch.categories::contains),
+                (position, timestamp, category, eventType) -> categories.contains(category));
+    }
+
+    /**
+     * @return the events of the types given after the position, only downloading the batches that the archive's
+     *         manifest shows to have such events, and skipping the payloads of other events in columnar batches
+     */
+    @Nonnull
+    public Stream<ResolvedEvent> readEventTypesForwards(List<String> eventTypes, Position positionExclusive) {
+        return read(((S3ArchivePosition) positionExclusive).value,
+                batch -> eventTypes.stream().anyMatch(batch.eventTypes::contains),
+                (position, timestamp, category, eventType) -> eventTypes.contains(eventType));
+    }
+
+    /**
+     * @return the events with a timestamp at or after the one given, only downloading the batches that the archive's
+     *         manifest shows to have such events
+     */
+    @Nonnull
+    public Stream<ResolvedEvent> readAllForwardsFrom(Instant timestampInclusive) {
+        return read(S3ArchivePosition.EMPTY_STORE_POSITION.value,
+                batch -> !batch.maxTimestamp.isBefore(timestampInclusive),
+                (position, timestamp, category, eventType) -> !timestamp.isBefore(timestampInclusive));
+    }
+
+    private Stream<ResolvedEvent> read(long positionValueExclusive, Predicate<ArchivedBatch> batchFilter, ColumnarBatchFormat.EventFilter eventFilter) {
+        ColumnarBatchFormat.EventFilter filter = (position, timestamp, category, eventType) ->
+                position > positionValueExclusive && eventFilter.accepts(position, timestamp, category, eventType);
+        Optional<Long> pointedTo = maxPositionFetcher.pointedToMaxPosition();
+        Stream<String> keys = batchKeysAfter(positionValueExclusive, batchFilter)
+                .filter(key -> !pointedTo.isPresent() || s3ArchiveKeyFormat.positionValueFrom(key) <= pointedTo.get());
+        PrefetchingEventIterator events = new PrefetchingEventIterator(keys.iterator(), key -> streamEventsFrom(key, filter), key -> downloadEventsFrom(key, filter), concurrentDownloads, DOWNLOAD_EXECUTOR);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(events, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(events::close)
+                .onClose(keys::close)
+                .filter(event -> filter.accepts(((S3ArchivePosition) event.position()).value, event.eventRecord().timestamp(),
+                        event.eventRecord().streamId().category(), event.eventRecord().eventType()))
+                .filter(new AfterPositionsRead(positionValueExclusive));
+    }
+
+    /**
+     * Passes each event only if it is after every event passed before it.
+     *
+     * An archiver that stops after uploading a batch but before moving the max position pointer past it resumes from
+     * the pointer, and with batches closed by size or age may close its next batches at other positions. The batch
+     * left behind overlaps those, so once the pointer moves past it its events would be read a second time.
+     */
+    private static final class AfterPositionsRead implements Predicate<ResolvedEvent> {
+        private long lastPositionRead;
+
+        AfterPositionsRead(long positionValueExclusive) {
+            this.lastPositionRead = positionValueExclusive;
+        }
+
+        @Override
+        public boolean test(ResolvedEvent event) {
+            long position = ((S3ArchivePosition) event.position()).value;
+            if (position <= lastPositionRead) {
+                return false;
             }
+            lastPositionRead = position;
+            return true;
         }
-        throw new RuntimeException(String.format("Failed to download S3 file %s after %s attempts. Giving up! ", remoteFileDetails.name, attemptsSoFar), lastException.get());
+    }
 
+    /**
+     * Takes the keys of batches covered by the manifest from it, skipping those the filter rejects, and lists the keys
+     * of any later batches the manifest does not have yet.
+     */
+    private Stream<String> batchKeysAfter(long positionValueExclusive, Predicate<ArchivedBatch> batchFilter) {
+        Optional<S3ArchiveManifest> manifest = S3ArchiveManifest.read(batchObjectStore, eventStoreId);
+        if (!manifest.isPresent() || positionValueExclusive < manifest.get().startsAfterPosition()) {
+            return listBatchKeysAfter(positionValueExclusive);
+        }
+        Stream<String> manifestKeys = manifest.get().batches().stream()
+                .filter(batch -> batch.maxPosition > positionValueExclusive)
+                .filter(batchFilter)
+                .map(batch -> batch.key);
+        return Stream.concat(manifestKeys, listBatchKeysAfter(Math.max(positionValueExclusive, manifest.get().maxPosition())));
     }
 
-    private Stream<ResolvedEvent> getEventsFrom(RemoteFileDetails remoteFileDetails) {
-        return s3DownloadableStorage.download(remoteFileDetails.name, this::deserialize);
+    private Stream<String> listBatchKeysAfter(long positionValueExclusive) {
+        String startAfterKey = positionValueExclusive < 0 ? null : s3ArchiveKeyFormat.startAfterKeyFor(positionValueExclusive);
+        return batchObjectStore.listKeys(eventStoreId + "/", startAfterKey);
     }
 
-    private Stream<ResolvedEvent> deserialize(InputStream inputStream) {
-        try (GZIPInputStream decompressor = new GZIPInputStream(inputStream)) {
+    /**
+     * @param filter events to decode from columnar batches; events in row batches are all decoded
+     * @return the events of a batch, decoded as it downloads
+     */
+    private BatchEvents streamEventsFrom(String key, ColumnarBatchFormat.EventFilter filter) {
+        return deserialize(BatchCodecs.forKey(key), BatchLayout.forKey(key), new ResumableDownload(key), filter);
+    }
 
-            ProtobufsEventIterator<EventStoreArchiverProtos.Event> eventIterator = new ProtobufsEventIterator<>(EventStoreArchiverProtos.Event::parseFrom, decompressor);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(eventIterator, Spliterator.IMMUTABLE | Spliterator.ORDERED | Spliterator.NONNULL), false)
-                    .map(this::toResolvedEvent)
-                    .collect(toList())
-                    .stream();
+    /**
+     * @return the events of a batch, decoded from memory once it has downloaded
+     */
+    private BatchEvents downloadEventsFrom(String key, ColumnarBatchFormat.EventFilter filter) {
+        DownloadedContent content = new DownloadedContent();
+        try (InputStream download = new ResumableDownload(key)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = download.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
+        }
+        return deserialize(BatchCodecs.forKey(key), BatchLayout.forKey(key), content.toInputStream(), filter);
+    }
+
+    private BatchEvents deserialize(BatchCodec codec, BatchLayout layout, InputStream content, ColumnarBatchFormat.EventFilter filter) {
+        InputStream decompressor = null;
+        try {
+            decompressor = codec.decompressing(content);
+            if (layout == BatchLayout.COLUMNS) {
+                return new BatchEvents(ColumnarBatchFormat.read(decompressor, filter), decompressor);
+            }
+            ProtobufsEventIterator<EventStoreArchiverProtos.Event> eventIterator = new ProtobufsEventIterator<>(EventStoreArchiverProtos.Event::parseFrom, decompressor);
+            Iterator<ResolvedEvent> events = new Iterator<ResolvedEvent>() {
+                @Override
+                public boolean hasNext() {
+                    return eventIterator.hasNext();
+                }
+
+                @Override
+                public ResolvedEvent next() {
+                    return toResolvedEvent(eventIterator.next());
+                }
+            };
+            return new BatchEvents(events, decompressor);
+        } catch (IOException | RuntimeException e) {
+            try {
+                (decompressor == null ? content : decompressor).close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof IOException) {
+                throw new UncheckedIOException((IOException) e);
+            }
+            throw (RuntimeException) e;
         }
     }
 
@@ -107,10 +278,30 @@ public final class S3ArchivedEventReader implements EventReader {
     @Nonnull
     @Override
     public Optional<ResolvedEvent> readLastEvent() {
-        return s3ListableStorage.list(eventStoreId + "/", null)
-                .reduce((r1, r2) -> r2)
-                .map(this::getEventsFrom)
-                .flatMap(events -> events.reduce((e1, e2) -> e2));
+        return lastArchivedKey()
+                .flatMap(key -> {
+                    try (BatchEvents events = streamEventsFrom(key, ColumnarBatchFormat.EventFilter.ALL)) {
+                        ResolvedEvent last = null;
+                        while (events.hasNext()) {
+                            last = events.next();
+                        }
+                        return Optional.ofNullable(last);
+                    }
+                });
+    }
+
+    /**
+     * Batches after the max position pointer may have been uploaded ahead of earlier ones that are still missing,
+     * so the last batch read is the one the pointer names.
+     */
+    private Optional<String> lastArchivedKey() {
+        Optional<Long> pointedTo = maxPositionFetcher.pointedToMaxPosition();
+        if (pointedTo.isPresent()) {
+            String startAfterKey = pointedTo.get() <= 0 ? null : s3ArchiveKeyFormat.startAfterKeyFor(pointedTo.get() - 1);
+            return batchObjectStore.listKeys(eventStoreId + "/", startAfterKey).findFirst();
+        }
+        return batchObjectStore.listKeys(eventStoreId + "/", null)
+                .reduce((r1, r2) -> r2);
     }
 
     @Nonnull
@@ -124,4 +315,135 @@ public final class S3ArchivedEventReader implements EventReader {
     public PositionCodec storePositionCodec() {
         return S3ArchivePosition.CODEC;
     }
+
+    @Nonnull
+    @Override
+    public Position emptyCategoryPosition(String category) {
+        return S3ArchivePosition.EMPTY_STORE_POSITION;
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec categoryPositionCodec(String category) {
+        return S3ArchivePosition.CODEC;
+    }
+
+    /**
+     * The events of a batch, closing its content once they have all been read or the read is closed.
+     */
+    private static final class BatchEvents implements Iterator<ResolvedEvent>, AutoCloseable {
+        private final Iterator<ResolvedEvent> events;
+        private final InputStream content;
+
+        BatchEvents(Iterator<ResolvedEvent> events, InputStream content) {
+            this.events = events;
+            this.content = content;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (events.hasNext()) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public ResolvedEvent next() {
+            return events.next();
+        }
+
+        @Override
+        public void close() {
+            try {
+                content.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads an object as it downloads. If the download fails part way through, the object is opened again at the bytes
+     * already read rather than from the start, up to a fixed number of attempts in all.
+     */
+    private final class ResumableDownload extends InputStream {
+        private static final int MAX_ATTEMPTS = 5;
+
+        private final String key;
+        private final Timer.Context timer = downloadTimer.time();
+        private InputStream content;
+        private long offset;
+        private int attempts;
+        private boolean closed;
+
+        ResumableDownload(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                try {
+                    if (content == null) {
+                        attempts++;
+                        content = batchObjectStore.open(key, offset);
+                    }
+                    int read = content.read(b, off, len);
+                    if (read > 0) {
+                        offset += read;
+                    }
+                    return read;
+                } catch (IOException | RuntimeException e) {
+                    closeContent();
+                    if (Thread.currentThread().isInterrupted()) {
+                        InterruptedIOException interrupted = new InterruptedIOException("Interrupted downloading S3 file " + key);
+                        interrupted.initCause(e);
+                        throw interrupted;
+                    }
+                    failedDownloads.inc();
+                    if (attempts >= MAX_ATTEMPTS) {
+                        throw new IOException(String.format("Failed to download S3 file %s after %s attempts. Giving up! ", key, attempts), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closeContent();
+                timer.stop();
+            }
+        }
+
+        private void closeContent() {
+            if (content != null) {
+                try {
+                    content.close();
+                } catch (IOException | RuntimeException ignored) {
+                    // the download is abandoned either way
+                }
+                content = null;
+            }
+        }
+    }
+
+    /**
+     * Hands its bytes to the reader without copying them.
+     */
+    private static final class DownloadedContent extends ByteArrayOutputStream {
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.timgroup.eventstore.archiver;
 
+import com.codahale.metrics.MetricRegistry;
 import com.timgroup.eventstore.api.EventCategoryReader;
 import com.timgroup.eventstore.api.EventReader;
 import com.timgroup.eventstore.api.EventSource;
@@ -13,42 +14,67 @@ import com.timgroup.tucker.info.Component;
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Optional;
 
 public final class S3ArchivedEventSource implements EventSource {
-    private final S3ListableStorage s3ListableStorage;
-    private final S3DownloadableStorageWithoutDestinationFile s3DownloadableStorage;
+    private final BatchObjectStore batchObjectStore;
+    private final S3ArchiveMaxPositionFetcher maxPositionFetcher;
     private final String bucketName;
     private final String eventStoreId;
+    private final int concurrentDownloads;
+    private final MetricRegistry metricRegistry;
 
     public S3ArchivedEventSource(S3ListableStorage s3ListableStorage, S3DownloadableStorageWithoutDestinationFile s3DownloadableStorage, String bucketName, String eventStoreId) {
-        this.s3ListableStorage = s3ListableStorage;
-        this.s3DownloadableStorage = s3DownloadableStorage;
+        this(new ListableStorageBatchObjectStore(s3ListableStorage, s3DownloadableStorage), new S3ArchiveMaxPositionFetcher(s3ListableStorage, eventStoreId),
+                bucketName, eventStoreId, 1, new MetricRegistry());
+    }
+
+    public S3ArchivedEventSource(BatchObjectStore batchObjectStore, String bucketName, String eventStoreId) {
+        this(batchObjectStore, bucketName, eventStoreId, 1, new MetricRegistry());
+    }
+
+    public S3ArchivedEventSource(BatchObjectStore batchObjectStore, String bucketName, String eventStoreId, int concurrentDownloads, MetricRegistry metricRegistry) {
+        this(batchObjectStore, new S3ArchiveMaxPositionFetcher(batchObjectStore, eventStoreId), bucketName, eventStoreId, concurrentDownloads, metricRegistry);
+    }
+
+    private S3ArchivedEventSource(BatchObjectStore batchObjectStore, S3ArchiveMaxPositionFetcher maxPositionFetcher, String bucketName, String eventStoreId, int concurrentDownloads, MetricRegistry metricRegistry) {
+        this.batchObjectStore = batchObjectStore;
+        this.maxPositionFetcher = maxPositionFetcher;
         this.bucketName = bucketName;
         this.eventStoreId = eventStoreId;
+        this.concurrentDownloads = concurrentDownloads;
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * @return the position of the last event archived, or empty if nothing has been archived yet
+     */
+    public Optional<Long> maxPositionInArchive() {
+        return maxPositionFetcher.maxPosition();
     }
 
     @Nonnull
     @Override
     public EventReader readAll() {
-        return new S3ArchivedEventReader(s3ListableStorage, s3DownloadableStorage, eventStoreId);
+        return new S3ArchivedEventReader(batchObjectStore, eventStoreId, concurrentDownloads, metricRegistry);
     }
 
     @Nonnull
     @Override
     public EventCategoryReader readCategory() {
-        throw new UnsupportedOperationException("readCategory not supported. Only readAll is supported.");
+        return new S3ArchivedEventReader(batchObjectStore, eventStoreId, concurrentDownloads, metricRegistry);
     }
 
     @Nonnull
     @Override
     public EventStreamReader readStream() {
-        throw new UnsupportedOperationException("readCategory not supported. Only readAll is supported.");
+        throw new UnsupportedOperationException("readStream not supported. Only readAll and readCategory are supported.");
     }
 
     @Nonnull
     @Override
     public EventStreamWriter writeStream() {
-        throw new UnsupportedOperationException("readCategory not supported. Only readAll is supported.");
+        throw new UnsupportedOperationException("writeStream not supported. Only readAll and readCategory are supported.");
     }
 
     @Nonnull
@@ -56,6 +82,6 @@ public final class S3ArchivedEventSource implements EventSource {
     public Collection<Component> monitoring() {
         String id = "tg-eventstore-s3-archive-EventSource-connection-" + this.eventStoreId;
         String label = "S3 Archive EventStore (bucket=" + bucketName + ", eventStoreId=" + this.eventStoreId + ")";
-        return Collections.singletonList(new S3ArchiveConnectionComponent(id, label, eventStoreId, new S3ArchiveMaxPositionFetcher(s3ListableStorage, eventStoreId)));
+        return Collections.singletonList(new S3ArchiveConnectionComponent(id, label, eventStoreId, maxPositionFetcher));
     }
 }
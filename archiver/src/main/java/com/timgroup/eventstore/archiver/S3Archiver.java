@@ -17,6 +17,7 @@ import com.timgroup.tucker.info.Report;
 import com.timgroup.tucker.info.Status;
 import com.timgroup.tucker.info.component.SimpleValueComponent;
 
+import javax.annotation.Nullable;
 import java.net.InetAddress;
 import java.time.Clock;
 import java.time.Duration;
@@ -41,6 +42,7 @@ public class S3Archiver {
 
     private final String eventStoreId;
     private final BatchingPolicy batchingPolicy;
+    private final S3ArchiverOptions options;
     private final S3ArchiveMaxPositionFetcher maxPositionFetcher;
     private final BatchingUploadHandler batchingUploadHandler;
 
@@ -59,6 +61,7 @@ public class S3Archiver {
                        BatchingPolicy batchingPolicy,
                        Optional<Long> maxPositionInArchiveOnStartup,
                        S3ArchiveMaxPositionFetcher maxPositionFetcher,
+                       S3ArchiverOptions options,
                        String applicationName,
                        MetricRegistry metricRegistry,
                        String monitoringPrefix,
@@ -68,6 +71,7 @@ public class S3Archiver {
         this.eventStoreId = eventStoreId;
         this.monitoringPrefix = monitoringPrefix;
         this.batchingPolicy = batchingPolicy;
+        this.options = options;
         S3ArchiveKeyFormat batchS3ObjectKeyFormat = new S3ArchiveKeyFormat(eventStoreId);
         this.maxPositionFetcher = maxPositionFetcher;
 
@@ -75,11 +79,7 @@ public class S3Archiver {
                 "Checkpoint position that archiver resumed from on startup");
         this.checkpointPositionComponent.updateValue(INFO, maxPositionInArchiveOnStartup);
 
-        Map<String, String> appMetadata = new HashMap<>();
-        appMetadata.put("event_source", liveEventSource.toString());
-        appMetadata.put("app_name", applicationName);
-        appMetadata.put("app_version", System.getProperty("timgroup.app.version"));
-        appMetadata.put("hostname", hostname());
+        Map<String, String> appMetadata = appMetadata(liveEventSource, applicationName);
 
         Histogram uncompressedSizeMetrics = metricRegistry.histogram(this.monitoringPrefix + ".archive.batch.uncompressed_size_bytes");
         Histogram compressedSizeMetrics = metricRegistry.histogram(this.monitoringPrefix + ".archive.batch.compressed_size_bytes");
@@ -89,10 +89,15 @@ public class S3Archiver {
                 this::positionFrom,
                 batchS3ObjectKeyFormat,
                 uncompressedSizeMetrics,
-                compressedSizeMetrics);
+                compressedSizeMetrics,
+                options.codec,
+                options.layout);
         Timer s3UploadTimer = metricRegistry.timer(this.monitoringPrefix + ".archive.upload");
 
-        this.batchingUploadHandler = new BatchingUploadHandler(output, currentBatchWriter, clock, appMetadata, monitoringPrefix, s3UploadTimer);
+        S3ArchiveManifestWriter manifestWriter = options.batchesPerManifestConsolidation == 0 ? null : new S3ArchiveManifestWriter(
+                output, batchS3ObjectKeyFormat, options.batchesPerManifestConsolidation, maxPositionFetcher.manifest(), maxPositionInArchiveOnStartup);
+
+        this.batchingUploadHandler = new BatchingUploadHandler(output, currentBatchWriter, batchS3ObjectKeyFormat.maxPositionPointerKey(), options.uploadsInFlight, options.streamingUploads, manifestWriter, clock, appMetadata, monitoringPrefix, s3UploadTimer);
 
         this.eventSubscription = subscriptionBuilder
                 .readingFrom(liveEventSource.readAll(), convertPosition(maxPositionInArchiveOnStartup))
@@ -104,10 +109,22 @@ public class S3Archiver {
         this.maxPositionInArchive.set(maxPositionInArchiveOnStartup.orElse(0L));
         metricRegistry.gauge(this.monitoringPrefix + ".archive.max_position", () -> maxPositionInArchive::get);
         metricRegistry.gauge(this.monitoringPrefix + ".event_source.max_position", () -> maxPositionInEventSource::get);
-        metricRegistry.gauge(this.monitoringPrefix + ".archive.events_awaiting_upload", () -> currentBatchWriter::eventsInCurrentBatch);
+        metricRegistry.gauge(this.monitoringPrefix + ".archive.events_awaiting_upload", () -> batchingUploadHandler::eventsAwaitingUpload);
         this.s3ListingTimer = metricRegistry.timer(this.monitoringPrefix + ".archive.list");
     }
 
+    /**
+     * Metadata identifying the archiving application, uploaded with each batch.
+     */
+    static Map<String, String> appMetadata(EventSource liveEventSource, String applicationName) {
+        Map<String, String> appMetadata = new HashMap<>();
+        appMetadata.put("event_source", liveEventSource.toString());
+        appMetadata.put("app_name", applicationName);
+        appMetadata.put("app_version", System.getProperty("timgroup.app.version"));
+        appMetadata.put("hostname", hostname());
+        return appMetadata;
+    }
+
     private static String hostname() {
         try {
             return InetAddress.getLocalHost().getHostName();
@@ -129,8 +146,16 @@ public class S3Archiver {
             String eventStoreId, SubscriptionBuilder subscriptionBuilder, BatchingPolicy batchingPolicy,
             S3ArchiveMaxPositionFetcher maxPositionFetcher, String applicationName, MetricRegistry metricRegistry,
             String monitoringPrefix, Clock clock) {
+        return newS3Archiver(liveEventSource, output, eventStoreId, subscriptionBuilder, batchingPolicy, maxPositionFetcher,
+                S3ArchiverOptions.defaults(), applicationName, metricRegistry, monitoringPrefix, clock);
+    }
+
+    public static S3Archiver newS3Archiver(EventSource liveEventSource, S3UploadableStorageForInputStream output,
+            String eventStoreId, SubscriptionBuilder subscriptionBuilder, BatchingPolicy batchingPolicy,
+            S3ArchiveMaxPositionFetcher maxPositionFetcher, S3ArchiverOptions options, String applicationName,
+            MetricRegistry metricRegistry, String monitoringPrefix, Clock clock) {
         return new S3Archiver(liveEventSource, output, eventStoreId, subscriptionBuilder, batchingPolicy, maxPositionFetcher.maxPosition(),
-                maxPositionFetcher, applicationName, metricRegistry, monitoringPrefix, clock);
+                maxPositionFetcher, options, applicationName, metricRegistry, monitoringPrefix, clock);
     }
 
     public void start() {
@@ -140,6 +165,7 @@ public class S3Archiver {
 
     public void stop() {
         this.eventSubscription.stop();
+        this.batchingUploadHandler.stop();
         this.runState = RunState.STOPPED;
     }
 
@@ -163,6 +189,10 @@ public class S3Archiver {
         return components.stream().map(c -> c.withStatusNoWorseThan(Status.WARNING)).collect(toList());
     }
 
+    S3ArchiverOptions options() {
+        return options;
+    }
+
     public String getEventStoreId() {
         return eventStoreId;
     }
@@ -185,7 +215,7 @@ public class S3Archiver {
         @SuppressWarnings("WeakerAccess")
         public final EventRecord record;
 
-        private EventRecordHolder(EventRecord record) {
+        EventRecordHolder(EventRecord record) {
             this.record = record;
         }
     }
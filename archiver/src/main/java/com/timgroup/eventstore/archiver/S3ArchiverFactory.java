@@ -6,20 +6,18 @@ import com.timgroup.eventstore.api.EventSource;
 import com.timgroup.eventstore.archiver.monitoring.S3ArchiveBucketConfigurationComponent;
 import com.timgroup.eventsubscription.SubscriptionBuilder;
 import com.timgroup.remotefilestorage.s3.S3ClientFactory;
-import com.timgroup.remotefilestorage.s3.S3DownloadableStorage;
-import com.timgroup.remotefilestorage.s3.S3DownloadableStorageWithoutDestinationFile;
-import com.timgroup.remotefilestorage.s3.S3ListableStorage;
 import com.timgroup.remotefilestorage.s3.S3UploadableStorage;
 import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
 import com.timgroup.tucker.info.Component;
 
-import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class S3ArchiverFactory {
 
@@ -32,35 +30,96 @@ public class S3ArchiverFactory {
     private final Clock clock;
 
     private static final int MAX_KEYS_PER_S3_LISTING = 1_000;
+    private static final int DEFAULT_CONCURRENT_DOWNLOADS = 4;
     private final AmazonS3 amazonS3;
+    private final BatchObjectStore batchObjectStore;
+    private final S3UploadableStorageForInputStream uploadableStorage;
     private List<Component> monitoring;
+    private final ConcurrentMap<Path, CachingBatchObjectStore> cachingBatchObjectStores = new ConcurrentHashMap<>();
 
     public S3ArchiverFactory(String bucketName, Properties config, MetricRegistry metricRegistry, Clock clock) {
+        this(bucketName, new S3ClientFactory().fromProperties(config), metricRegistry, clock);
+    }
+
+    private S3ArchiverFactory(String bucketName, AmazonS3 amazonS3, MetricRegistry metricRegistry, Clock clock) {
+        this(bucketName,
+                amazonS3,
+                new S3BatchObjectStore(amazonS3, bucketName, MAX_KEYS_PER_S3_LISTING),
+                new S3UploadableStorageForInputStream(new S3UploadableStorage(amazonS3, bucketName), amazonS3, bucketName),
+                metricRegistry,
+                clock);
+    }
+
+    S3ArchiverFactory(String bucketName, AmazonS3 amazonS3, BatchObjectStore batchObjectStore, S3UploadableStorageForInputStream uploadableStorage, MetricRegistry metricRegistry, Clock clock) {
         this.bucketName = bucketName;
         this.metricRegistry = metricRegistry;
         this.clock = clock;
-        this.amazonS3 = new S3ClientFactory().fromProperties(config);
+        this.amazonS3 = amazonS3;
+        this.batchObjectStore = batchObjectStore;
+        this.uploadableStorage = uploadableStorage;
         this.monitoring = Collections.singletonList(new S3ArchiveBucketConfigurationComponent(amazonS3, bucketName));
     }
 
+    /**
+     * Uploads each batch before reading further events, and keeps no manifest.
+     */
     public S3Archiver newS3Archiver(String eventStoreId, EventSource liveEventSource, int batchsize,  String appName) {
-        return build(liveEventSource, new FixedNumberOfEventsBatchingPolicy(batchsize), eventStoreId, appName, "Event", S3Archiver.DEFAULT_MONITORING_PREFIX);
+        return build(liveEventSource, new FixedNumberOfEventsBatchingPolicy(batchsize), S3ArchiverOptions.defaults(), eventStoreId, appName, "Event", S3Archiver.DEFAULT_MONITORING_PREFIX);
     }
 
+    /**
+     * Uploads each batch before reading further events, and keeps no manifest.
+     */
     public S3Archiver newS3Archiver(String eventStoreId, EventSource liveEventSource, BatchingPolicy batchingPolicy, String appName) {
-        return build(liveEventSource, batchingPolicy, eventStoreId, appName, eventStoreId + "-Archiver", S3Archiver.DEFAULT_MONITORING_PREFIX + "." + eventStoreId);
+        return newS3Archiver(eventStoreId, liveEventSource, batchingPolicy, S3ArchiverOptions.defaults(), appName);
     }
 
-    private S3Archiver build(EventSource liveEventSource, BatchingPolicy batchingPolicy, String eventStoreId, String appName, String subscriptionName, String monitoringPrefix) {
-        S3UploadableStorageForInputStream s3UploadableStorage = createUploadableStorage();
+    /**
+     * @param options how to encode and upload batches, with streaming uploads as made by {@link #streamingUploads}, for
+     *                instance {@code S3ArchiverOptions.defaults().withUploadsInFlight(2).withBatchesPerManifestConsolidation(100)}
+     *                to collect the next batch while two upload and to keep a manifest consolidated every 100 batches
+     */
+    public S3Archiver newS3Archiver(String eventStoreId, EventSource liveEventSource, BatchingPolicy batchingPolicy, S3ArchiverOptions options, String appName) {
+        return build(liveEventSource, batchingPolicy, options, eventStoreId, appName, eventStoreId + "-Archiver", S3Archiver.DEFAULT_MONITORING_PREFIX + "." + eventStoreId);
+    }
 
+    /**
+     * Archives a dead store offline, uploading the batches of several ranges of its positions at once.
+     *
+     * @param planFile local file recording progress, from which an interrupted run resumes
+     */
+    public S3RangedArchiver newS3RangedArchiver(String eventStoreId, EventSource deadEventSource, int eventsPerBatch, int parallelism, Path planFile, String appName) {
+        return newS3RangedArchiver(eventStoreId, deadEventSource, eventsPerBatch, S3ArchiverOptions.defaults(), parallelism, planFile, appName);
+    }
+
+    public S3RangedArchiver newS3RangedArchiver(String eventStoreId, EventSource deadEventSource, int eventsPerBatch, S3ArchiverOptions options, int parallelism, Path planFile, String appName) {
+        return new S3RangedArchiver(
+                deadEventSource,
+                uploadableStorage,
+                eventStoreId,
+                newS3ArchiveMaxPositionFetcher(eventStoreId),
+                eventsPerBatch,
+                options,
+                planFile,
+                parallelism,
+                appName,
+                metricRegistry,
+                S3Archiver.DEFAULT_MONITORING_PREFIX + "." + eventStoreId);
+    }
+
+    public StreamingUploads streamingUploads(int partSizeBytes, int partsInFlight) {
+        return new StreamingUploads(new S3MultipartUploadableStorage(amazonS3, bucketName), partSizeBytes, partsInFlight);
+    }
+
+    private S3Archiver build(EventSource liveEventSource, BatchingPolicy batchingPolicy, S3ArchiverOptions options, String eventStoreId, String appName, String subscriptionName, String monitoringPrefix) {
         return S3Archiver.newS3Archiver(
                 liveEventSource,
-                s3UploadableStorage,
+                uploadableStorage,
                 eventStoreId,
                 SubscriptionBuilder.eventSubscription(subscriptionName),
                 batchingPolicy,
                 newS3ArchiveMaxPositionFetcher(eventStoreId),
+                options,
                 appName,
                 metricRegistry,
                 monitoringPrefix,
@@ -72,29 +131,34 @@ public class S3ArchiverFactory {
     }
 
     public EventSource createS3ArchivedEventSource(String eventStoreId) {
-        return new S3ArchivedEventSource(createS3ListableStorage(amazonS3), createDownloadableStorage(amazonS3), bucketName, eventStoreId);
+        return createS3ArchivedEventSource(eventStoreId, DEFAULT_CONCURRENT_DOWNLOADS);
     }
 
-    private S3DownloadableStorageWithoutDestinationFile createDownloadableStorage(AmazonS3 amazonS3)  {
-        try {
-            return new S3DownloadableStorageWithoutDestinationFile(
-                    new S3DownloadableStorage(amazonS3, Files.createTempDirectory(S3_ARCHIVER_TMP_DIR_PREFIX), bucketName),
-                    amazonS3, bucketName);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to create tmp dir for Downloadable storage", e);
-        }
+    public EventSource createS3ArchivedEventSource(String eventStoreId, int concurrentDownloads) {
+        return new S3ArchivedEventSource(batchObjectStore, bucketName, eventStoreId, concurrentDownloads, metricRegistry);
     }
 
-    public S3ArchiveMaxPositionFetcher newS3ArchiveMaxPositionFetcher(String eventStoreId) {
-        final S3ListableStorage s3ListableStorage = createS3ListableStorage(amazonS3);
-        return new S3ArchiveMaxPositionFetcher(s3ListableStorage, eventStoreId);
+    /**
+     * Keeps the batches downloaded in a local directory, shared by every event source this factory creates with the
+     * same directory, so that replaying the archive again reads them from disk.
+     *
+     * @param maxCacheBytes size beyond which the batches least recently read are removed from the directory
+     */
+    public EventSource createS3ArchivedEventSource(String eventStoreId, int concurrentDownloads, Path cacheDirectory, long maxCacheBytes) {
+        BatchObjectStore cachingStore = cachingBatchObjectStores.computeIfAbsent(cacheDirectory.toAbsolutePath().normalize(),
+                directory -> new CachingBatchObjectStore(batchObjectStore, directory, maxCacheBytes));
+        return new S3ArchivedEventSource(cachingStore, bucketName, eventStoreId, concurrentDownloads, metricRegistry);
     }
 
-    private S3ListableStorage createS3ListableStorage(AmazonS3 amazonS3) {
-        return new S3ListableStorage(amazonS3, bucketName, MAX_KEYS_PER_S3_LISTING);
+    /**
+     * Reads the archive up to its head, then carries on from the live store the archive is written from.
+     */
+    public EventSource createS3ArchiveAndLiveEventSource(String eventStoreId, EventSource liveEventSource) {
+        S3ArchivedEventSource archiveEventSource = new S3ArchivedEventSource(batchObjectStore, bucketName, eventStoreId, DEFAULT_CONCURRENT_DOWNLOADS, metricRegistry);
+        return new S3ArchiveAndLiveEventSource(archiveEventSource, liveEventSource);
     }
 
-    private S3UploadableStorageForInputStream createUploadableStorage() {
-        return new S3UploadableStorageForInputStream(new S3UploadableStorage(amazonS3, bucketName), amazonS3, bucketName);
+    public S3ArchiveMaxPositionFetcher newS3ArchiveMaxPositionFetcher(String eventStoreId) {
+        return new S3ArchiveMaxPositionFetcher(batchObjectStore, eventStoreId);
     }
 }
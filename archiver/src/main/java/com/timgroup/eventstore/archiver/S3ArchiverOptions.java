@@ -0,0 +1,113 @@
+package com.timgroup.eventstore.archiver;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * How an archiver encodes and uploads its batches. The {@link #defaults() defaults} write gzipped rows, uploading each
+ * batch in one request before reading further events, and keep no manifest.
+ *
+ * Options are immutable: each {@code with} method returns a copy with one option changed.
+ */
+public final class S3ArchiverOptions {
+    private static final S3ArchiverOptions DEFAULTS = new S3ArchiverOptions(BatchCodecs.GZIP, BatchLayout.ROWS, null, 0, 0);
+
+    final BatchCodec codec;
+    final BatchLayout layout;
+    @Nullable
+    final StreamingUploads streamingUploads;
+    final int uploadsInFlight;
+    final int batchesPerManifestConsolidation;
+
+    private S3ArchiverOptions(BatchCodec codec,
+                              BatchLayout layout,
+                              @Nullable StreamingUploads streamingUploads,
+                              int uploadsInFlight,
+                              int batchesPerManifestConsolidation) {
+        this.codec = requireNonNull(codec);
+        this.layout = requireNonNull(layout);
+        this.streamingUploads = streamingUploads;
+        this.uploadsInFlight = uploadsInFlight;
+        this.batchesPerManifestConsolidation = batchesPerManifestConsolidation;
+    }
+
+    public static S3ArchiverOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @param codec compression of the batches uploaded, which readers recognise from their keys
+     */
+    public S3ArchiverOptions withCodec(BatchCodec codec) {
+        return new S3ArchiverOptions(codec, layout, streamingUploads, uploadsInFlight, batchesPerManifestConsolidation);
+    }
+
+    /**
+     * @param layout arrangement of the events in the batches uploaded, which readers recognise from their keys
+     */
+    public S3ArchiverOptions withLayout(BatchLayout layout) {
+        return new S3ArchiverOptions(codec, layout, streamingUploads, uploadsInFlight, batchesPerManifestConsolidation);
+    }
+
+    /**
+     * @param streamingUploads how to upload batches in parts while they are compressed, or null to compress each batch
+     *                         into memory and upload it in one request
+     */
+    public S3ArchiverOptions withStreamingUploads(@Nullable StreamingUploads streamingUploads) {
+        return new S3ArchiverOptions(codec, layout, streamingUploads, uploadsInFlight, batchesPerManifestConsolidation);
+    }
+
+    /**
+     * Not used by {@link S3RangedArchiver}, whose parallelism sets how many batches upload at once.
+     *
+     * @param uploadsInFlight number of batches that may be uploading while the next is collected, or zero to upload
+     *                        each batch before reading further events
+     */
+    public S3ArchiverOptions withUploadsInFlight(int uploadsInFlight) {
+        if (uploadsInFlight < 0) {
+            throw new IllegalArgumentException("uploadsInFlight must not be negative: " + uploadsInFlight);
+        }
+        return new S3ArchiverOptions(codec, layout, streamingUploads, uploadsInFlight, batchesPerManifestConsolidation);
+    }
+
+    /**
+     * @param batchesPerManifestConsolidation number of batches appended to the archive's {@link S3ArchiveManifest}
+     *                                        between consolidations of it, or zero to keep no manifest
+     */
+    public S3ArchiverOptions withBatchesPerManifestConsolidation(int batchesPerManifestConsolidation) {
+        if (batchesPerManifestConsolidation < 0) {
+            throw new IllegalArgumentException("batchesPerManifestConsolidation must not be negative: " + batchesPerManifestConsolidation);
+        }
+        return new S3ArchiverOptions(codec, layout, streamingUploads, uploadsInFlight, batchesPerManifestConsolidation);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        S3ArchiverOptions that = (S3ArchiverOptions) o;
+        return uploadsInFlight == that.uploadsInFlight &&
+                batchesPerManifestConsolidation == that.batchesPerManifestConsolidation &&
+                codec.equals(that.codec) &&
+                layout == that.layout &&
+                Objects.equals(streamingUploads, that.streamingUploads);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(codec, layout, streamingUploads, uploadsInFlight, batchesPerManifestConsolidation);
+    }
+
+    @Override
+    public String toString() {
+        return "S3ArchiverOptions{" +
+                "codec=" + codec +
+                ", layout=" + layout +
+                ", streamingUploads=" + streamingUploads +
+                ", uploadsInFlight=" + uploadsInFlight +
+                ", batchesPerManifestConsolidation=" + batchesPerManifestConsolidation +
+                '}';
+    }
+}
@@ -0,0 +1,111 @@
+package com.timgroup.eventstore.archiver;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lists batches with S3's "start after" listing, so that listing from a key only pages through the keys after it.
+ */
+public final class S3BatchObjectStore implements BatchObjectStore {
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+    private final int maxKeysPerListing;
+
+    public S3BatchObjectStore(AmazonS3 amazonS3, String bucketName, int maxKeysPerListing) {
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        this.maxKeysPerListing = maxKeysPerListing;
+    }
+
+    @Override
+    public Stream<String> listKeys(String prefix, @Nullable String startAfterKey) {
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(bucketName)
+                .withPrefix(prefix)
+                .withStartAfter(startAfterKey)
+                .withMaxKeys(maxKeysPerListing);
+
+        Iterator<String> keys = new Iterator<String>() {
+            private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+            private boolean lastPage = false;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !lastPage) {
+                    ListObjectsV2Result result = amazonS3.listObjectsV2(request);
+                    page = result.getObjectSummaries().iterator();
+                    if (result.isTruncated()) {
+                        request.setContinuationToken(result.getNextContinuationToken());
+                    } else {
+                        lastPage = true;
+                    }
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next().getKey();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(keys, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        GetObjectRequest request = new GetObjectRequest(bucketName, key);
+        if (offset > 0) {
+            request.setRange(offset);
+        }
+        return amazonS3.getObject(request).getObjectContent();
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) {
+        try (S3Object s3Object = amazonS3.getObject(new GetObjectRequest(bucketName, key));
+             S3ObjectInputStream s3ObjectInputStream = s3Object.getObjectContent()) {
+            return Optional.of(IOUtils.toByteArray(s3ObjectInputStream));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return Optional.empty();
+            }
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Optional<String> etag(String key) {
+        try {
+            return Optional.ofNullable(amazonS3.getObjectMetadata(bucketName, key).getETag());
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.timgroup.eventstore.archiver;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+public final class S3MultipartUploadableStorage implements MultipartUploadableStorage {
+    private static final int MINIMUM_PART_SIZE = 5 * 1024 * 1024;
+
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+
+    public S3MultipartUploadableStorage(AmazonS3 amazonS3, String bucketName) {
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public MultipartUpload startUpload(String key, Map<String, String> metadata) {
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setUserMetadata(metadata);
+        String uploadId = amazonS3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, objectMetadata)).getUploadId();
+        List<PartETag> partETags = new ArrayList<>();
+
+        return new MultipartUpload() {
+            @Override
+            public void uploadPart(int partNumber, byte[] content, int length) {
+                PartETag partETag = amazonS3.uploadPart(new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withInputStream(new ByteArrayInputStream(content, 0, length))
+                        .withPartSize(length))
+                        .getPartETag();
+                synchronized (partETags) {
+                    partETags.add(partETag);
+                }
+            }
+
+            @Override
+            public void complete() {
+                List<PartETag> parts;
+                synchronized (partETags) {
+                    parts = new ArrayList<>(partETags);
+                }
+                parts.sort(Comparator.comparingInt(PartETag::getPartNumber));
+                amazonS3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, parts));
+            }
+
+            @Override
+            public void abort() {
+                amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            }
+        };
+    }
+
+    @Override
+    public int minimumPartSize() {
+        return MINIMUM_PART_SIZE;
+    }
+}
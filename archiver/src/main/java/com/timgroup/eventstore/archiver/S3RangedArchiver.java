@@ -0,0 +1,383 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Archives a dead store, whose final event has been written, by splitting the positions after the archive's max
+ * position into ranges, and reading, encoding and uploading the batches of several ranges concurrently, as
+ * {@code RangedEventArchiver} does for archive directories.
+ *
+ * Batches hold a fixed number of events counted from the start of their range, and the last batch of each range ends
+ * at its last event. They are uploaded under the same keys and with the same metadata as {@link S3Archiver} uploads
+ * them. The max position pointer and the manifest only move past a batch once it and every batch before it are
+ * uploaded, so readers never see a gap.
+ *
+ * Progress is recorded in a local plan file, so a run that stops part way through resumes with the same ranges,
+ * after the last batch each range uploaded. The plan file is removed once every range is archived. The manifest is
+ * only kept up to the batches uploaded before the run resumed, as their summaries are lost with the earlier run;
+ * readers list the batches after it.
+ */
+public final class S3RangedArchiver {
+    private static final Logger LOG = getLogger(S3RangedArchiver.class);
+
+    @Nonnull
+    private final EventReader storeReader;
+    @Nonnull
+    private final S3UploadableStorageForInputStream output;
+    @Nonnull
+    private final S3ArchiveMaxPositionFetcher maxPositionFetcher;
+    @Nonnull
+    private final String eventStoreId;
+    @Nonnull
+    private final S3ArchiveKeyFormat keyFormat;
+    private final int eventsPerBatch;
+    @Nonnull
+    private final BatchCodec codec;
+    @Nonnull
+    private final BatchLayout layout;
+    private final int batchesPerManifestConsolidation;
+    @Nonnull
+    private final Path planFile;
+    private final int parallelism;
+    @Nonnull
+    private final BatchUploader batchUploader;
+    @Nonnull
+    private final MaxPositionPointerWriter maxPositionPointer;
+    @Nonnull
+    private final Histogram uncompressedSizeMetrics;
+    @Nonnull
+    private final Histogram compressedSizeMetrics;
+
+    private final List<Range> plan = new ArrayList<>();
+    private final List<Deque<ArchivedBatch>> unacknowledgedBatches = new ArrayList<>();
+    private final List<Long> uploadedBeforeResuming = new ArrayList<>();
+    private long maxPositionAtStart;
+    private long acknowledgedTo;
+    private int firstUnacknowledgedRange;
+    @Nullable
+    private S3ArchiveManifestWriter manifestWriter;
+
+    /**
+     * @param planFile where to record progress, so that a run that stops part way through can be resumed
+     * @param parallelism number of ranges to read from the store and upload at once
+     * @param options as for {@link S3Archiver}, but for the uploads in flight, which parallelism takes the place of
+     */
+    public S3RangedArchiver(EventSource deadEventSource,
+                            S3UploadableStorageForInputStream output,
+                            String eventStoreId,
+                            S3ArchiveMaxPositionFetcher maxPositionFetcher,
+                            int eventsPerBatch,
+                            S3ArchiverOptions options,
+                            Path planFile,
+                            int parallelism,
+                            String applicationName,
+                            MetricRegistry metricRegistry,
+                            String monitoringPrefix) {
+        if (eventsPerBatch < 1) {
+            throw new IllegalArgumentException("eventsPerBatch must be positive: " + eventsPerBatch);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.storeReader = deadEventSource.readAll();
+        this.output = requireNonNull(output);
+        this.maxPositionFetcher = requireNonNull(maxPositionFetcher);
+        this.eventStoreId = requireNonNull(eventStoreId);
+        this.keyFormat = new S3ArchiveKeyFormat(eventStoreId);
+        this.eventsPerBatch = eventsPerBatch;
+        this.codec = options.codec;
+        this.layout = options.layout;
+        this.batchesPerManifestConsolidation = options.batchesPerManifestConsolidation;
+        this.planFile = requireNonNull(planFile);
+        this.parallelism = parallelism;
+        this.batchUploader = new BatchUploader(output, options.streamingUploads, parallelism, S3Archiver.appMetadata(deadEventSource, applicationName),
+                metricRegistry.timer(monitoringPrefix + ".archive.upload"));
+        this.maxPositionPointer = new MaxPositionPointerWriter(output, keyFormat.maxPositionPointerKey());
+        this.uncompressedSizeMetrics = metricRegistry.histogram(monitoringPrefix + ".archive.batch.uncompressed_size_bytes");
+        this.compressedSizeMetrics = metricRegistry.histogram(monitoringPrefix + ".archive.batch.compressed_size_bytes");
+    }
+
+    /**
+     * @return whether there is an unfinished plan, which {@link #archiveStore} will resume
+     */
+    public boolean hasPlan() {
+        return Files.exists(planFile);
+    }
+
+    /**
+     * @param numberOfRanges number of ranges of equal width to split the positions not yet archived into: several
+     *                       times the parallelism evens out ranges that hold more events than others. Ignored if
+     *                       resuming an unfinished plan.
+     */
+    public void archiveStore(int numberOfRanges) throws IOException {
+        if (numberOfRanges < 1) {
+            throw new IllegalArgumentException("numberOfRanges must be positive: " + numberOfRanges);
+        }
+        Optional<Long> maxPositionInArchive = maxPositionFetcher.maxPosition();
+        maxPositionAtStart = maxPositionInArchive.orElse(0L);
+        if (hasPlan()) {
+            plan.addAll(Files.readAllLines(planFile, UTF_8).stream().map(Range::parse).collect(toList()));
+            LOG.info("Resuming archiving of {} ranges from {}", plan.size(), planFile);
+        } else {
+            Optional<Long> lastPosition = storeReader.readLastEvent().map(this::positionFrom);
+            if (!lastPosition.isPresent() || lastPosition.get() <= maxPositionAtStart) {
+                LOG.info("Nothing to archive after {}", maxPositionAtStart);
+                return;
+            }
+            long width = (lastPosition.get() - maxPositionAtStart + numberOfRanges - 1) / numberOfRanges;
+            for (long start = maxPositionAtStart; start < lastPosition.get(); start += width) {
+                plan.add(new Range(start, Math.min(start + width, lastPosition.get()), null, false));
+            }
+            writePlan();
+        }
+
+        for (Range range : plan) {
+            unacknowledgedBatches.add(new ArrayDeque<>());
+            uploadedBeforeResuming.add(range.lastUploaded);
+        }
+        acknowledgedTo = maxPositionAtStart;
+        firstUnacknowledgedRange = 0;
+        manifestWriter = batchesPerManifestConsolidation == 0 ? null : new S3ArchiveManifestWriter(
+                output, keyFormat, batchesPerManifestConsolidation, maxPositionFetcher.manifest(), maxPositionInArchive);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("s3-ranged-archiver"));
+        try {
+            List<Future<?>> archives = new ArrayList<>();
+            for (int i = 0; i < plan.size(); i++) {
+                int rangeIndex = i;
+                archives.add(range(i).archived ? CompletableFuture.completedFuture(null) : executor.submit(() -> archiveRange(rangeIndex)));
+            }
+            synchronized (this) {
+                acknowledgeUploads();
+            }
+            for (Future<?> archive : archives) {
+                await(archive);
+            }
+        } finally {
+            executor.shutdownNow();
+            batchUploader.stop();
+        }
+        Files.delete(planFile);
+        LOG.info("Archived {} ranges up to {}", plan.size(), acknowledgedTo);
+    }
+
+    private Void archiveRange(int rangeIndex) throws IOException {
+        Range range = range(rangeIndex);
+        long startExclusive = range.lastUploaded != null ? range.lastUploaded : range.startExclusive;
+        CurrentBatchWriter batchWriter = new CurrentBatchWriter(
+                BatchingPolicy.fixedNumberOfEvents(eventsPerBatch),
+                this::positionFrom,
+                keyFormat,
+                uncompressedSizeMetrics,
+                compressedSizeMetrics,
+                codec,
+                layout);
+        try (Stream<ResolvedEvent> events = storeReader.readAllForwards(storePositionAt(startExclusive))) {
+            Iterator<ResolvedEvent> iterator = events.iterator();
+            while (iterator.hasNext()) {
+                ResolvedEvent event = iterator.next();
+                if (positionFrom(event) > range.endInclusive) {
+                    break;
+                }
+                batchWriter.add(event);
+                if (batchWriter.readyToUpload()) {
+                    upload(rangeIndex, batchWriter);
+                }
+            }
+        }
+        if (batchWriter.eventsInCurrentBatch() > 0) {
+            upload(rangeIndex, batchWriter);
+        }
+        rangeArchived(rangeIndex);
+        LOG.info("Archived events after {} up to {}", range.startExclusive, range.endInclusive);
+        return null;
+    }
+
+    private void upload(int rangeIndex, CurrentBatchWriter batchWriter) throws IOException {
+        String key = batchWriter.key();
+        long maxPosition = batchWriter.maxPosition();
+        List<ResolvedEvent> batch = batchWriter.takeBatch();
+        batchUploader.upload(batchWriter, key, batch);
+        batchUploaded(rangeIndex, maxPosition, batchesPerManifestConsolidation == 0 ? null : batchWriter.archivedBatchFor(key, batch));
+    }
+
+    private synchronized void batchUploaded(int rangeIndex, long maxPosition, @Nullable ArchivedBatch archivedBatch) throws IOException {
+        plan.set(rangeIndex, range(rangeIndex).uploadedTo(maxPosition));
+        writePlan();
+        if (archivedBatch != null) {
+            unacknowledgedBatches.get(rangeIndex).addLast(archivedBatch);
+        }
+        acknowledgeUploads();
+    }
+
+    private synchronized void rangeArchived(int rangeIndex) throws IOException {
+        plan.set(rangeIndex, range(rangeIndex).archived());
+        writePlan();
+        acknowledgeUploads();
+    }
+
+    /**
+     * Moves the pointer and the manifest past the batches uploaded from the ranges that every earlier range has been
+     * archived before.
+     */
+    private void acknowledgeUploads() {
+        long acknowledging = acknowledgedTo;
+        while (firstUnacknowledgedRange < plan.size()) {
+            Range range = plan.get(firstUnacknowledgedRange);
+            Long uploadedBefore = uploadedBeforeResuming.get(firstUnacknowledgedRange);
+            if (manifestWriter != null && uploadedBefore != null && uploadedBefore > maxPositionAtStart) {
+                LOG.warn("Not updating archive manifest after {}, as batches up to {} were uploaded before resuming", acknowledging, uploadedBefore);
+                manifestWriter = null;
+            }
+            Deque<ArchivedBatch> batches = unacknowledgedBatches.get(firstUnacknowledgedRange);
+            while (!batches.isEmpty()) {
+                ArchivedBatch batch = batches.removeFirst();
+                if (manifestWriter != null) {
+                    manifestWriter.batchUploaded(batch);
+                }
+            }
+            if (range.lastUploaded != null) {
+                acknowledging = Math.max(acknowledging, range.lastUploaded);
+            }
+            if (!range.archived) {
+                break;
+            }
+            firstUnacknowledgedRange++;
+        }
+        if (acknowledging != acknowledgedTo) {
+            maxPositionPointer.update(acknowledging);
+            acknowledgedTo = acknowledging;
+        }
+    }
+
+    private synchronized Range range(int rangeIndex) {
+        return plan.get(rangeIndex);
+    }
+
+    private synchronized void writePlan() throws IOException {
+        Path tempFile = planFile.resolveSibling(planFile.getFileName() + ".tmp");
+        Files.write(tempFile, plan.stream().map(Range::format).collect(toList()), UTF_8);
+        Files.move(tempFile, planFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private long positionFrom(ResolvedEvent event) {
+        return Long.parseLong(storeReader.storePositionCodec().serializePosition(event.position()));
+    }
+
+    private Position storePositionAt(long positionValue) {
+        PositionCodec positionCodec = storeReader.storePositionCodec();
+        return positionCodec.deserializePosition(String.valueOf(positionValue));
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while archiving ranges", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static final class Range {
+        final long startExclusive;
+        final long endInclusive;
+        @Nullable
+        final Long lastUploaded;
+        final boolean archived;
+
+        Range(long startExclusive, long endInclusive, @Nullable Long lastUploaded, boolean archived) {
+            this.startExclusive = startExclusive;
+            this.endInclusive = endInclusive;
+            this.lastUploaded = lastUploaded;
+            this.archived = archived;
+        }
+
+        Range uploadedTo(long maxPosition) {
+            return new Range(startExclusive, endInclusive, maxPosition, archived);
+        }
+
+        Range archived() {
+            return new Range(startExclusive, endInclusive, lastUploaded, true);
+        }
+
+        String format() {
+            return String.join("\t", Long.toString(startExclusive), Long.toString(endInclusive),
+                    lastUploaded == null ? "-" : Long.toString(lastUploaded), archived ? "ARCHIVED" : "PENDING");
+        }
+
+        static Range parse(String line) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("Invalid archive plan line: " + line);
+            }
+            return new Range(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    fields[2].equals("-") ? null : Long.parseLong(fields[2]), fields[3].equals("ARCHIVED"));
+        }
+
+        @Override
+        public String toString() {
+            return "Range{" +
+                    "startExclusive=" + startExclusive +
+                    ", endInclusive=" + endInclusive +
+                    ", lastUploaded=" + lastUploaded +
+                    ", archived=" + archived +
+                    '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "S3RangedArchiver{" +
+                "eventStoreId='" + eventStoreId + '\'' +
+                ", eventsPerBatch=" + eventsPerBatch +
+                ", planFile=" + planFile +
+                ", parallelism=" + parallelism +
+                '}';
+    }
+}
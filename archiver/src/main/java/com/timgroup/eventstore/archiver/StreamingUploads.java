@@ -0,0 +1,47 @@
+package com.timgroup.eventstore.archiver;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uploads each batch as a multipart upload while it is being compressed, rather than compressing it into memory and
+ * then uploading it, so that a batch of any size needs at most {@code partSizeBytes * (partsInFlight + 1)} bytes of
+ * buffers to upload.
+ *
+ * As a batch's size is not known until it is uploaded, its object has no size metadata.
+ */
+public final class StreamingUploads {
+    public static final int DEFAULT_PART_SIZE_BYTES = 8 * 1024 * 1024;
+    public static final int DEFAULT_PARTS_IN_FLIGHT = 2;
+
+    final MultipartUploadableStorage storage;
+    final int partSizeBytes;
+    final int partsInFlight;
+
+    public StreamingUploads(MultipartUploadableStorage storage) {
+        this(storage, DEFAULT_PART_SIZE_BYTES, DEFAULT_PARTS_IN_FLIGHT);
+    }
+
+    /**
+     * @param partSizeBytes size of every part but the last, at least the storage's {@link MultipartUploadableStorage#minimumPartSize}
+     * @param partsInFlight number of parts of a batch that may be uploading while the next is filled
+     */
+    public StreamingUploads(MultipartUploadableStorage storage, int partSizeBytes, int partsInFlight) {
+        this.storage = requireNonNull(storage);
+        if (partSizeBytes < storage.minimumPartSize()) {
+            throw new IllegalArgumentException("partSizeBytes must be at least " + storage.minimumPartSize() + ": " + partSizeBytes);
+        }
+        if (partsInFlight < 1) {
+            throw new IllegalArgumentException("partsInFlight must be positive: " + partsInFlight);
+        }
+        this.partSizeBytes = partSizeBytes;
+        this.partsInFlight = partsInFlight;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingUploads{" +
+                "partSizeBytes=" + partSizeBytes +
+                ", partsInFlight=" + partsInFlight +
+                '}';
+    }
+}
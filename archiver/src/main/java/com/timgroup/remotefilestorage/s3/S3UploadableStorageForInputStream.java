@@ -38,6 +38,10 @@ public class S3UploadableStorageForInputStream implements UploadableStorage {
         return uri;
     }
 
+    public void delete(String name) {
+        LOG.info("Deleting object; bucket: [" + bucketName + "], key: [" + name + "]");
+        client.deleteObject(bucketName, name);
+    }
 
     @Override public URI upload(String name, Path path, Map<String, String> metaData) {
         return this.delegateFromLibrary.upload(name, path, metaData);
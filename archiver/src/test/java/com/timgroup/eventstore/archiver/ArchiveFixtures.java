@@ -0,0 +1,62 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * Batch writers and events shared by the archiver tests, for an event store with the id "MyEventStore".
+ */
+final class ArchiveFixtures {
+    static final String EVENT_STORE_ID = "MyEventStore";
+    static final S3ArchiveKeyFormat KEY_FORMAT = new S3ArchiveKeyFormat(EVENT_STORE_ID);
+    static final Function<ResolvedEvent, Long> S3_ARCHIVE_POSITION = event -> ((S3ArchivePosition) event.position()).value;
+
+    private ArchiveFixtures() { /* prevent instantiation */ }
+
+    static CurrentBatchWriter batchWriter(int batchSize) {
+        return batchWriter(new FixedNumberOfEventsBatchingPolicy(batchSize), S3_ARCHIVE_POSITION, BatchCodecs.GZIP, BatchLayout.ROWS);
+    }
+
+    static CurrentBatchWriter batchWriter(int batchSize, BatchCodec codec, BatchLayout layout) {
+        return batchWriter(new FixedNumberOfEventsBatchingPolicy(batchSize), S3_ARCHIVE_POSITION, codec, layout);
+    }
+
+    static CurrentBatchWriter batchWriter(BatchingPolicy batchingPolicy) {
+        return batchWriter(batchingPolicy, S3_ARCHIVE_POSITION, BatchCodecs.GZIP, BatchLayout.ROWS);
+    }
+
+    static CurrentBatchWriter batchWriter(BatchingPolicy batchingPolicy, Function<ResolvedEvent, Long> positionFrom, BatchCodec codec, BatchLayout layout) {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        return new CurrentBatchWriter(
+                batchingPolicy,
+                positionFrom,
+                KEY_FORMAT,
+                metricRegistry.histogram("uncompressed"),
+                metricRegistry.histogram("compressed"),
+                codec,
+                layout);
+    }
+
+    /**
+     * @return an event for the position, in the category "early" up to position 4 and "late" after it, with one of
+     *         three stream ids and event types, and data and metadata naming the position
+     */
+    static EventRecord eventRecord(long position) {
+        return EventRecord.eventRecord(
+                Instant.ofEpochSecond(position, 1234),
+                StreamId.streamId(position <= 4 ? "early" : "late", "id" + position % 3),
+                position,
+                "EventType" + position % 3,
+                ("data" + position).getBytes(),
+                ("metadata" + position).getBytes());
+    }
+
+    static ResolvedEvent resolvedEvent(long position) {
+        return new ResolvedEvent(new S3ArchivePosition(position), eventRecord(position));
+    }
+}
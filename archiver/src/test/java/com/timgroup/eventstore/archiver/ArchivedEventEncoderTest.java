@@ -0,0 +1,71 @@
+package com.timgroup.eventstore.archiver;
+
+import com.google.protobuf.ByteString;
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.StreamId;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ArchivedEventEncoderTest {
+
+    private final ArchivedEventEncoder encoder = new ArchivedEventEncoder();
+
+    @Test public void
+    writes_the_same_bytes_as_a_length_prefixed_protobuf_message() throws Exception {
+        assertEncodesAsProtobuf(123L, EventRecord.eventRecord(Instant.ofEpochSecond(1_500_000_000L, 123_456_789), StreamId.streamId("category", "id"), 7L, "EventType", "{\"a\":1}".getBytes(UTF_8), "{}".getBytes(UTF_8)));
+    }
+
+    @Test public void
+    writes_the_same_bytes_as_protobuf_for_edge_values() throws Exception {
+        byte[] largeData = new byte[100_000];
+        Arrays.fill(largeData, (byte) 'x');
+
+        assertEncodesAsProtobuf(-1L, EventRecord.eventRecord(Instant.ofEpochSecond(-5L, 0), StreamId.streamId("", "\u00e9\u4e2d\ud83d\ude00"), 0L, "Type\ud800", largeData, new byte[0]));
+        assertEncodesAsProtobuf(Long.MAX_VALUE, EventRecord.eventRecord(Instant.EPOCH, StreamId.streamId("c", "i"), Long.MAX_VALUE, "T", new byte[0], largeData));
+    }
+
+    @Test public void
+    reuses_its_buffer_across_events_of_different_sizes() throws Exception {
+        byte[] longName = new byte[1_000];
+        Arrays.fill(longName, (byte) 'n');
+
+        assertEncodesAsProtobuf(1L, EventRecord.eventRecord(Instant.EPOCH, StreamId.streamId("category", new String(longName, UTF_8)), 1L, "EventType", new byte[0], new byte[0]));
+        assertEncodesAsProtobuf(2L, EventRecord.eventRecord(Instant.EPOCH, StreamId.streamId("category", "id"), 2L, "EventType", new byte[0], new byte[0]));
+    }
+
+    private void assertEncodesAsProtobuf(long position, EventRecord eventRecord) throws Exception {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        int written = encoder.write(encoded, position, eventRecord);
+
+        byte[] expected = lengthPrefixed(EventStoreArchiverProtos.Event.newBuilder()
+                .setPosition(position)
+                .setTimestamp(EventStoreArchiverProtos.Timestamp.newBuilder()
+                        .setSeconds(eventRecord.timestamp().getEpochSecond())
+                        .setNanos(eventRecord.timestamp().getNano())
+                        .build())
+                .setStreamCategory(eventRecord.streamId().category())
+                .setStreamId(eventRecord.streamId().id())
+                .setEventNumber(eventRecord.eventNumber())
+                .setEventType(eventRecord.eventType())
+                .setData(ByteString.copyFrom(eventRecord.data()))
+                .setMetadata(ByteString.copyFrom(eventRecord.metadata()))
+                .build()
+                .toByteArray());
+
+        assertThat(encoded.toByteArray(), equalTo(expected));
+        assertThat(written, equalTo(expected.length));
+    }
+
+    private static byte[] lengthPrefixed(byte[] message) {
+        return ByteBuffer.allocate(message.length + 4).order(LITTLE_ENDIAN).putInt(message.length).put(message).array();
+    }
+}
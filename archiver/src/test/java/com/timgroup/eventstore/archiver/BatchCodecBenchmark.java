@@ -0,0 +1,110 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.StreamId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares the compression ratio and throughput of batch codecs on batches of JSON events resembling those archived
+ * from our stores. Run its main method; it is not run as a test.
+ *
+ * Arguments: number of events per batch (default 10000), and number of timed iterations per codec (default 10).
+ */
+public final class BatchCodecBenchmark {
+    private static final List<String> EVENT_TYPES = Arrays.asList("TradeBooked", "PriceUpdated", "PositionRevalued", "InstrumentAmended");
+
+    public static void main(String[] args) throws IOException {
+        int eventsPerBatch = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        byte[] batch = encodedBatch(eventsPerBatch);
+
+        Map<String, BatchCodec> codecs = new LinkedHashMap<>();
+        codecs.put("gz", BatchCodecs.GZIP);
+        codecs.put("deflate-1", BatchCodecs.deflate(1));
+        codecs.put("deflate-6", BatchCodecs.deflate(6));
+        codecs.put("deflate-9", BatchCodecs.deflate(9));
+        codecs.put("xz-1", BatchCodecs.xz(1));
+        codecs.put("xz-6", BatchCodecs.XZ);
+        codecs.put("lz4", BatchCodecs.LZ4);
+
+        System.out.printf("%d events, %d bytes uncompressed%n", eventsPerBatch, batch.length);
+        System.out.printf("%-10s %8s %16s %18s%n", "codec", "ratio", "compress MB/s", "decompress MB/s");
+        for (Map.Entry<String, BatchCodec> entry : codecs.entrySet()) {
+            BatchCodec codec = entry.getValue();
+            byte[] compressed = compress(codec, batch);
+            for (int warmup = 0; warmup < iterations; warmup++) {
+                decompress(codec, compress(codec, batch));
+            }
+
+            long compressNanos = 0;
+            long decompressNanos = 0;
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                long start = System.nanoTime();
+                compressed = compress(codec, batch);
+                long compressedAt = System.nanoTime();
+                decompress(codec, compressed);
+                decompressNanos += System.nanoTime() - compressedAt;
+                compressNanos += compressedAt - start;
+            }
+
+            System.out.printf("%-10s %8.2f %16.1f %18.1f%n",
+                    entry.getKey(),
+                    (double) batch.length / compressed.length,
+                    megabytesPerSecond(batch.length * (long) iterations, compressNanos),
+                    megabytesPerSecond(batch.length * (long) iterations, decompressNanos));
+        }
+    }
+
+    private static byte[] encodedBatch(int events) throws IOException {
+        Random random = new Random(42);
+        ArchivedEventEncoder encoder = new ArchivedEventEncoder();
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        Instant timestamp = Instant.parse("2019-06-01T09:00:00Z");
+        for (int position = 1; position <= events; position++) {
+            String eventType = EVENT_TYPES.get(random.nextInt(EVENT_TYPES.size()));
+            String id = "instrument-" + random.nextInt(500);
+            String data = String.format(
+                    "{\"id\":\"%s\",\"portfolio\":\"PF%04d\",\"quantity\":%d,\"price\":%.4f,\"currency\":\"%s\",\"trader\":\"trader%02d\",\"comment\":\"%s\"}",
+                    id, random.nextInt(2000), random.nextInt(1_000_000) - 500_000, random.nextDouble() * 1000,
+                    random.nextBoolean() ? "USD" : "GBP", random.nextInt(40), Long.toHexString(random.nextLong()));
+            String metadata = String.format("{\"effective_timestamp\":\"%s\",\"user\":\"trader%02d\"}", timestamp, random.nextInt(40));
+            timestamp = timestamp.plusMillis(random.nextInt(5_000));
+            encoder.write(batch, position, EventRecord.eventRecord(timestamp, StreamId.streamId("instrument", id), position, eventType, data.getBytes(UTF_8), metadata.getBytes(UTF_8)));
+        }
+        return batch.toByteArray();
+    }
+
+    private static byte[] compress(BatchCodec codec, byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+        try (OutputStream out = codec.compressing(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void decompress(BatchCodec codec, byte[] compressed) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = codec.decompressing(new ByteArrayInputStream(compressed))) {
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,70 @@
+package com.timgroup.eventstore.archiver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class BatchCodecsTest {
+
+    private final byte[] content = repeated("{\"eventType\":\"SomethingHappened\",\"value\":12345}", 1_000);
+
+    @Test public void
+    decompresses_what_each_codec_compresses() throws Exception {
+        for (BatchCodec codec : Arrays.asList(BatchCodecs.GZIP, BatchCodecs.deflate(1), BatchCodecs.deflate(9), BatchCodecs.xz(1), BatchCodecs.XZ, BatchCodecs.LZ4)) {
+            assertThat(codec.name(), decompress(BatchCodecs.forName(codec.name()), compress(codec, content)), equalTo(content));
+        }
+    }
+
+    @Test public void
+    recognises_codec_from_batch_key() {
+        S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+
+        assertThat(BatchCodecs.forKey(keyFormat.objectKeyFor(123L, "gz")), equalTo(BatchCodecs.GZIP));
+        assertThat(BatchCodecs.forKey(keyFormat.objectKeyFor(123L, "xz")), equalTo(BatchCodecs.XZ));
+        assertThat(BatchCodecs.forKey(keyFormat.objectKeyFor(123L, "lz4")), equalTo(BatchCodecs.LZ4));
+        assertThat(BatchCodecs.forKey(keyFormat.objectKeyFor(123L, BatchCodecs.deflate(3).name())).name(), equalTo("deflate"));
+        assertThat(keyFormat.positionValueFrom(keyFormat.objectKeyFor(123L, "lz4")), equalTo(123L));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void
+    rejects_unknown_codec() {
+        BatchCodecs.forKey("MyEventStore/00000000000000000000000000000123.zst");
+    }
+
+    private static byte[] compress(BatchCodec codec, byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compressing(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] decompress(BatchCodec codec, byte[] compressed) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = codec.decompressing(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+        }
+        return content.toByteArray();
+    }
+
+    private static byte[] repeated(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,293 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventsubscription.Event;
+import com.timgroup.eventsubscription.lifecycleevents.CaughtUp;
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.batchWriter;
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.eventRecord;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.fail;
+
+public class BatchingUploadHandlerTest {
+
+    private static final Event CAUGHT_UP = new CaughtUp(new S3ArchivePosition(2), Instant.EPOCH);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+    private final RecordingUploadableStorage storage = new RecordingUploadableStorage();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test public void
+    acknowledges_uploads_in_order_while_later_batches_upload() throws Exception {
+        storage.holdUploadOf(keyFormat.objectKeyFor(1L, "gz"));
+        BatchingUploadHandler handler = handlerWithUploadsInFlight(2);
+
+        handler.apply(new S3ArchivePosition(1), eventAt(1));
+        handler.apply(new S3ArchivePosition(2), eventAt(2));
+        storage.awaitUploadOf(keyFormat.objectKeyFor(2L, "gz"));
+        handler.apply(new S3ArchivePosition(2), CAUGHT_UP);
+
+        assertThat(storage.maxPositionPointers(), empty());
+        assertThat(handler.eventsAwaitingUpload(), equalTo(2));
+
+        storage.releaseUploads();
+        acknowledgeAllUploads(handler, new S3ArchivePosition(2));
+
+        assertThat(storage.maxPositionPointers(), equalTo(asList("1", "2")));
+        assertThat(handler.eventsAwaitingUpload(), equalTo(0));
+        handler.stop();
+    }
+
+    @Test public void
+    halts_once_an_upload_fails_without_acknowledging_later_batches() throws Exception {
+        storage.holdUploadOf(keyFormat.objectKeyFor(1L, "gz"));
+        storage.failUploadOf(keyFormat.objectKeyFor(1L, "gz"));
+        BatchingUploadHandler handler = handlerWithUploadsInFlight(2);
+
+        handler.apply(new S3ArchivePosition(1), eventAt(1));
+        handler.apply(new S3ArchivePosition(2), eventAt(2));
+        storage.awaitUploadOf(keyFormat.objectKeyFor(2L, "gz"));
+        storage.releaseUploads();
+        storage.awaitUploadOf(keyFormat.objectKeyFor(1L, "gz"));
+
+        try {
+            handler.apply(new S3ArchivePosition(3), eventAt(3));
+            fail("expected upload failure to halt the subscription");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause().getMessage(), equalTo("S3 unavailable"));
+        }
+        assertThat(storage.maxPositionPointers(), empty());
+        handler.stop();
+    }
+
+    @Test public void
+    uploads_each_batch_before_returning_with_no_uploads_in_flight() {
+        BatchingUploadHandler handler = handlerWithUploadsInFlight(0);
+
+        handler.apply(new S3ArchivePosition(1), eventAt(1));
+        handler.apply(new S3ArchivePosition(2), eventAt(2));
+
+        assertThat(storage.maxPositionPointers(), equalTo(asList("1", "2")));
+    }
+
+    @Test public void
+    uploads_a_batch_closed_by_age_while_no_events_arrive() {
+        ManualClock clock = new ManualClock(Instant.EPOCH, ZoneOffset.UTC);
+        BatchingUploadHandler handler = handler(BatchingPolicy.maxAge(Duration.ofMinutes(1), clock), 0);
+
+        handler.apply(new S3ArchivePosition(1), eventAt(1));
+        handler.apply(new S3ArchivePosition(2), eventAt(2));
+        handler.apply(new S3ArchivePosition(2), new CaughtUp(new S3ArchivePosition(2), clock.instant()));
+        assertThat(storage.maxPositionPointers(), empty());
+
+        clock.bump(Duration.ofMinutes(1));
+        handler.apply(new S3ArchivePosition(2), new CaughtUp(new S3ArchivePosition(2), clock.instant()));
+        assertThat(storage.maxPositionPointers(), equalTo(asList("2")));
+    }
+
+    @Test public void
+    streams_batches_in_parts_of_bounded_size_with_bounded_parts_in_flight() throws Exception {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        BatchingUploadHandler handler = streamingHandler(store, 50);
+
+        for (long position = 1; position <= 100; position++) {
+            handler.apply(new S3ArchivePosition(position), eventAt(position));
+        }
+
+        List<Integer> partSizes = store.uploadedPartSizes();
+        assertThat(partSizes.size() > 4, equalTo(true));
+        assertThat(partSizes, everyItem(lessThanOrEqualTo(16)));
+        assertThat(store.maxPartsUploading(), lessThanOrEqualTo(2));
+        assertThat(storage.maxPositionPointers(), equalTo(asList("50", "100")));
+
+        List<Long> positions = new ArrayList<>();
+        new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry).readAllForwards()
+                .forEach(event -> positions.add(((S3ArchivePosition) event.position()).value));
+        assertThat(positions.size(), equalTo(100));
+        assertThat(positions.get(99), equalTo(100L));
+        handler.stop();
+    }
+
+    @Test public void
+    aborts_a_streamed_batch_when_a_part_fails_to_upload() throws Exception {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        store.failPartsWhere(partNumber -> partNumber == 2);
+        BatchingUploadHandler handler = streamingHandler(store, 50);
+
+        try {
+            for (long position = 1; position <= 50; position++) {
+                handler.apply(new S3ArchivePosition(position), eventAt(position));
+            }
+            fail("expected part failure to halt the subscription");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause().getCause().getMessage(), equalTo("Failed to upload part 2 of " + keyFormat.objectKeyFor(50L, "gz")));
+        }
+        assertThat(store.abortedKeys(), equalTo(asList(keyFormat.objectKeyFor(50L, "gz"))));
+        assertThat(store.read(keyFormat.objectKeyFor(50L, "gz")).isPresent(), equalTo(false));
+        assertThat(storage.maxPositionPointers(), empty());
+        handler.stop();
+    }
+
+    @Test public void
+    appends_batches_to_the_manifest_as_they_are_acknowledged() throws Exception {
+        RecordingBatchObjectStore manifestStore = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        S3ArchiveManifestWriter manifestWriter = new S3ArchiveManifestWriter(manifestStore.uploadableStorage(), keyFormat, 10, Optional.empty(), Optional.empty());
+        BatchingUploadHandler handler = new BatchingUploadHandler(storage, batchWriter(new FixedNumberOfEventsBatchingPolicy(2)), keyFormat.maxPositionPointerKey(), 2,
+                null, manifestWriter, Clock.systemUTC(), Collections.emptyMap(), "test", metricRegistry.timer("upload"));
+
+        for (long position = 1; position <= 4; position++) {
+            handler.apply(new S3ArchivePosition(position), eventAt(position));
+        }
+        acknowledgeAllUploads(handler, new S3ArchivePosition(4));
+
+        List<ArchivedBatch> batches = S3ArchiveManifest.read(manifestStore, "MyEventStore").get().batches();
+        assertThat(batches.size(), equalTo(2));
+        assertThat(batches.get(0).key, equalTo(keyFormat.objectKeyFor(2L, "gz")));
+        assertThat(batches.get(1).minPosition, equalTo(3L));
+        assertThat(batches.get(1).categories, equalTo(new TreeSet<>(asList("early"))));
+        handler.stop();
+    }
+
+    /**
+     * An upload is only acknowledged at an event after it has completed, which is a little after the storage has seen it.
+     */
+    private static void acknowledgeAllUploads(BatchingUploadHandler handler, S3ArchivePosition position) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        handler.apply(position, CAUGHT_UP);
+        while (handler.eventsAwaitingUpload() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("timed out waiting for uploads to be acknowledged");
+            }
+            Thread.sleep(1);
+            handler.apply(position, CAUGHT_UP);
+        }
+    }
+
+    private BatchingUploadHandler streamingHandler(RecordingBatchObjectStore store, int batchSize) {
+        return new BatchingUploadHandler(storage, batchWriter(new FixedNumberOfEventsBatchingPolicy(batchSize)), keyFormat.maxPositionPointerKey(), 0,
+                new StreamingUploads(store, 16, 2), null, Clock.systemUTC(), Collections.emptyMap(), "test", metricRegistry.timer("upload"));
+    }
+
+    private BatchingUploadHandler handlerWithUploadsInFlight(int uploadsInFlight) {
+        return handler(new FixedNumberOfEventsBatchingPolicy(1), uploadsInFlight);
+    }
+
+    private BatchingUploadHandler handler(BatchingPolicy batchingPolicy, int uploadsInFlight) {
+        return new BatchingUploadHandler(storage, batchWriter(batchingPolicy), keyFormat.maxPositionPointerKey(), uploadsInFlight,
+                Clock.systemUTC(), Collections.emptyMap(), "test", metricRegistry.timer("upload"));
+    }
+
+    private static Event eventAt(long position) {
+        return new S3Archiver.EventRecordHolder(eventRecord(position));
+    }
+
+    private final class RecordingUploadableStorage extends S3UploadableStorageForInputStream {
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final List<String> uploadedKeys = new ArrayList<>();
+        private final List<String> maxPositionPointers = new ArrayList<>();
+        private String heldKey;
+        private String failingKey;
+
+        RecordingUploadableStorage() {
+            super(null, null, null);
+        }
+
+        void holdUploadOf(String key) {
+            heldKey = key;
+        }
+
+        void failUploadOf(String key) {
+            failingKey = key;
+        }
+
+        void releaseUploads() {
+            released.countDown();
+        }
+
+        synchronized List<String> maxPositionPointers() {
+            return new ArrayList<>(maxPositionPointers);
+        }
+
+        synchronized void awaitUploadOf(String key) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!uploadedKeys.contains(key)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new AssertionError("timed out waiting for upload of " + key);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        @Override
+        public URI upload(String name, InputStream content, long contentLength, Map<String, String> metaData) {
+            byte[] bytes = readFully(content);
+            if (name.equals(heldKey)) {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            synchronized (this) {
+                if (name.equals(keyFormat.maxPositionPointerKey())) {
+                    maxPositionPointers.add(new String(bytes, UTF_8));
+                } else {
+                    uploadedKeys.add(name);
+                }
+                notifyAll();
+            }
+            if (name.equals(failingKey)) {
+                throw new RuntimeException("S3 unavailable");
+            }
+            return URI.create("s3://bucket/" + name);
+        }
+
+        private byte[] readFully(InputStream content) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            try {
+                while ((read = content.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.timgroup.eventstore.archiver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.fail;
+
+public class CachingBatchObjectStoreTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test public void
+    serves_batches_read_again_from_disk_even_after_a_restart() throws Exception {
+        RecordingBatchObjectStore store = store();
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+
+        assertThat(readFully(cache(store, 1000).open("MyEventStore/1.gz", 0)), equalTo(bytes(100, 'a')));
+        assertThat(readFully(cache(store, 1000).open("MyEventStore/1.gz", 10)), equalTo(Arrays.copyOfRange(bytes(100, 'a'), 10, 100)));
+
+        assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz")));
+    }
+
+    @Test public void
+    downloads_a_batch_again_once_its_etag_changes() throws Exception {
+        RecordingBatchObjectStore store = store();
+        CachingBatchObjectStore cache = cache(store, 1000);
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+        readFully(cache.open("MyEventStore/1.gz", 0));
+
+        store.put("MyEventStore/1.gz", bytes(100, 'b'));
+
+        assertThat(readFully(cache.open("MyEventStore/1.gz", 0)), equalTo(bytes(100, 'b')));
+        assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz", "MyEventStore/1.gz")));
+    }
+
+    @Test public void
+    removes_the_batches_least_recently_read_beyond_the_maximum_size() throws Exception {
+        RecordingBatchObjectStore store = store();
+        CachingBatchObjectStore cache = cache(store, 250);
+        for (String key : asList("MyEventStore/1.gz", "MyEventStore/2.gz", "MyEventStore/3.gz")) {
+            store.put(key, bytes(100, key.charAt(13)));
+        }
+
+        readFully(cache.open("MyEventStore/1.gz", 0));
+        readFully(cache.open("MyEventStore/2.gz", 0));
+        readFully(cache.open("MyEventStore/1.gz", 0));
+        readFully(cache.open("MyEventStore/3.gz", 0));
+        readFully(cache.open("MyEventStore/1.gz", 0));
+        readFully(cache.open("MyEventStore/2.gz", 0));
+
+        assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz", "MyEventStore/2.gz", "MyEventStore/3.gz", "MyEventStore/2.gz")));
+        assertThat(cachedFiles().size(), equalTo(2));
+    }
+
+    @Test public void
+    fails_reading_a_corrupted_batch_and_downloads_it_again() throws Exception {
+        RecordingBatchObjectStore store = store();
+        CachingBatchObjectStore cache = cache(store, 1000);
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+        readFully(cache.open("MyEventStore/1.gz", 0));
+
+        Path cachedFile = cachedFiles().get(0);
+        byte[] corrupted = Files.readAllBytes(cachedFile);
+        corrupted[50] = 'x';
+        Files.write(cachedFile, corrupted);
+
+        try {
+            readFully(cache.open("MyEventStore/1.gz", 0));
+            fail("expected the corrupted batch to fail its checksum");
+        } catch (IOException e) {
+            // the reader retries
+        }
+
+        assertThat(readFully(cache.open("MyEventStore/1.gz", 0)), equalTo(bytes(100, 'a')));
+        assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz", "MyEventStore/1.gz")));
+    }
+
+    @Test public void
+    downloads_a_truncated_batch_again_before_reading_it() throws Exception {
+        RecordingBatchObjectStore store = store();
+        CachingBatchObjectStore cache = cache(store, 1000);
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+        readFully(cache.open("MyEventStore/1.gz", 0));
+
+        Path cachedFile = cachedFiles().get(0);
+        Files.write(cachedFile, bytes(50, 'a'));
+
+        assertThat(readFully(cache.open("MyEventStore/1.gz", 0)), equalTo(bytes(100, 'a')));
+        assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz", "MyEventStore/1.gz")));
+    }
+
+    @Test public void
+    downloads_a_batch_again_once_its_file_has_gone() throws Exception {
+        RecordingBatchObjectStore store = store();
+        CachingBatchObjectStore cache = cache(store, 1000);
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+        readFully(cache.open("MyEventStore/1.gz", 0));
+
+        Files.delete(cachedFiles().get(0));
+
+        assertThat(readFully(cache.open("MyEventStore/1.gz", 10)), equalTo(Arrays.copyOfRange(bytes(100, 'a'), 10, 100)));
+        assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz", "MyEventStore/1.gz")));
+        assertThat(cachedFiles().size(), equalTo(1));
+    }
+
+    @Test public void
+    resumes_a_failed_download_from_the_bytes_already_received() throws Exception {
+        RecordingBatchObjectStore store = store();
+        CachingBatchObjectStore cache = cache(store, 1000);
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+        Set<String> failedOnce = new HashSet<>();
+        store.failDownloadsWhere(failedOnce::add);
+
+        try {
+            readFully(cache.open("MyEventStore/1.gz", 0));
+        } catch (UncheckedIOException e) {
+            // the reader retries
+        }
+
+        assertThat(readFully(cache.open("MyEventStore/1.gz", 0)), equalTo(bytes(100, 'a')));
+        assertThat(store.openedAtOffsets(), hasItem("MyEventStore/1.gz@10"));
+    }
+
+    @Test public void
+    concurrent_readers_share_one_download() throws Exception {
+        RecordingBatchObjectStore store = store();
+        store.put("MyEventStore/1.gz", bytes(100, 'a'));
+        CountDownLatch downloadStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CachingBatchObjectStore cache = new CachingBatchObjectStore(new BatchObjectStore() {
+            @Override
+            public Stream<String> listKeys(String prefix, @Nullable String startAfterKey) {
+                return store.listKeys(prefix, startAfterKey);
+            }
+
+            @Override
+            public InputStream open(String key, long offset) {
+                downloadStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return store.open(key, offset);
+            }
+
+            @Override
+            public Optional<byte[]> read(String key) {
+                return store.read(key);
+            }
+
+            @Override
+            public Optional<String> etag(String key) {
+                return store.etag(key);
+            }
+        }, temporaryFolder.getRoot().toPath().resolve("cache"), 1000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(() -> readFully(cache.open("MyEventStore/1.gz", 0)));
+            downloadStarted.await(10, TimeUnit.SECONDS);
+            Future<byte[]> second = executor.submit(() -> readFully(cache.open("MyEventStore/1.gz", 0)));
+            Thread.sleep(50);
+            release.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS), equalTo(bytes(100, 'a')));
+            assertThat(second.get(10, TimeUnit.SECONDS), equalTo(bytes(100, 'a')));
+            assertThat(store.downloadedKeys(), equalTo(asList("MyEventStore/1.gz")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private RecordingBatchObjectStore store() throws IOException {
+        return new RecordingBatchObjectStore(temporaryFolder.newFolder("bucket").toPath());
+    }
+
+    private CachingBatchObjectStore cache(BatchObjectStore store, long maxCachedBytes) {
+        return new CachingBatchObjectStore(store, temporaryFolder.getRoot().toPath().resolve("cache"), maxCachedBytes);
+    }
+
+    private List<Path> cachedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath().resolve("cache"))) {
+            return files.collect(toList());
+        }
+    }
+
+    private static byte[] bytes(int length, char c) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream content) throws IOException {
+        try (InputStream in = content) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class ColumnarBatchFormatTest {
+
+    @Test public void
+    reads_back_the_events_written() throws Exception {
+        List<ResolvedEvent> batch = asList(
+                event(5L, EventRecord.eventRecord(Instant.ofEpochSecond(1_500_000_000L, 123_456_789), StreamId.streamId("category", "id"), 7L, "EventType", "{\"a\":1}".getBytes(UTF_8), "{}".getBytes(UTF_8))),
+                event(6L, EventRecord.eventRecord(Instant.ofEpochSecond(1_499_999_999L, 0), StreamId.streamId("other", "id"), 0L, "OtherType", new byte[0], new byte[0])),
+                event(9L, EventRecord.eventRecord(Instant.ofEpochSecond(1_500_000_002L, 1), StreamId.streamId("category", "id2"), 8L, "EventType", "data".getBytes(UTF_8), "metadata".getBytes(UTF_8))));
+
+        assertThat(roundTrip(batch, ColumnarBatchFormat.EventFilter.ALL), equalTo(batch));
+    }
+
+    @Test public void
+    reads_back_edge_values() throws Exception {
+        byte[] largeData = new byte[100_000];
+        Arrays.fill(largeData, (byte) 'x');
+        List<ResolvedEvent> batch = asList(
+                event(-1L, EventRecord.eventRecord(Instant.ofEpochSecond(-5L, 0), StreamId.streamId("", "\u00e9\u4e2d\ud83d\ude00"), Long.MAX_VALUE, "Type\u00e9", largeData, new byte[0])),
+                event(Long.MAX_VALUE, EventRecord.eventRecord(Instant.EPOCH, StreamId.streamId("c", "i"), 0L, "T", new byte[0], largeData)));
+
+        assertThat(roundTrip(batch, ColumnarBatchFormat.EventFilter.ALL), equalTo(batch));
+        assertThat(roundTrip(new ArrayList<>(), ColumnarBatchFormat.EventFilter.ALL), equalTo(new ArrayList<ResolvedEvent>()));
+    }
+
+    @Test public void
+    filters_events_by_the_fields_before_their_payloads() throws Exception {
+        List<ResolvedEvent> batch = new ArrayList<>();
+        for (long position = 1; position <= 6; position++) {
+            batch.add(event(position, EventRecord.eventRecord(Instant.ofEpochSecond(position), StreamId.streamId("cat" + position % 3, "id"), position, "Type" + position % 2, ("data" + position).getBytes(UTF_8), ("metadata" + position).getBytes(UTF_8))));
+        }
+        List<String> seen = new ArrayList<>();
+
+        List<ResolvedEvent> selected = roundTrip(batch, (position, timestamp, category, eventType) -> {
+            seen.add(position + "@" + timestamp.getEpochSecond() + ":" + category + "/" + eventType);
+            return category.equals("cat1") || (position > 4 && eventType.equals("Type0"));
+        });
+
+        assertThat(selected, equalTo(asList(batch.get(0), batch.get(3), batch.get(5))));
+        assertThat(seen, equalTo(asList("1@1:cat1/Type1", "2@2:cat2/Type0", "3@3:cat0/Type1", "4@4:cat1/Type0", "5@5:cat2/Type1", "6@6:cat0/Type0")));
+    }
+
+    @Test public void
+    rejects_content_that_is_not_a_columnar_batch() throws Exception {
+        try {
+            ColumnarBatchFormat.read(new ByteArrayInputStream("not a batch".getBytes(UTF_8)), ColumnarBatchFormat.EventFilter.ALL);
+            fail("expected the content to be rejected");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("Not a columnar archive batch"));
+        }
+    }
+
+    @Test public void
+    recognises_the_layout_of_a_batch_from_its_key() {
+        S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+
+        assertThat(BatchLayout.forKey(keyFormat.objectKeyFor(9L, BatchLayout.COLUMNS.fileExtension(BatchCodecs.LZ4))), equalTo(BatchLayout.COLUMNS));
+        assertThat(BatchLayout.forKey(keyFormat.objectKeyFor(9L, BatchLayout.ROWS.fileExtension(BatchCodecs.LZ4))), equalTo(BatchLayout.ROWS));
+        assertThat(BatchLayout.forKey("MyEventStore/00000000000000000000000000000009.gz"), equalTo(BatchLayout.ROWS));
+        assertThat(BatchCodecs.forKey(keyFormat.objectKeyFor(9L, BatchLayout.COLUMNS.fileExtension(BatchCodecs.LZ4))), equalTo(BatchCodecs.LZ4));
+        assertThat(keyFormat.positionValueFrom(keyFormat.objectKeyFor(9L, BatchLayout.COLUMNS.fileExtension(BatchCodecs.LZ4))), equalTo(9L));
+    }
+
+    private static List<ResolvedEvent> roundTrip(List<ResolvedEvent> batch, ColumnarBatchFormat.EventFilter filter) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = ColumnarBatchFormat.write(out, batch, event -> ((S3ArchivePosition) event.position()).value);
+        assertThat(written, equalTo((long) out.size()));
+
+        Iterator<ResolvedEvent> events = ColumnarBatchFormat.read(new ByteArrayInputStream(out.toByteArray()), filter);
+        List<ResolvedEvent> read = new ArrayList<>();
+        events.forEachRemaining(read::add);
+        return read;
+    }
+
+    private static ResolvedEvent event(long position, EventRecord eventRecord) {
+        return new ResolvedEvent(new S3ArchivePosition(position), eventRecord);
+    }
+}
@@ -0,0 +1,170 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.batchWriter;
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.eventRecord;
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.resolvedEvent;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class FileSystemBatchObjectStoreTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test public void
+    lists_keys_in_the_order_s3_does_from_the_key_given() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+        for (String key : asList("Store/0002.gz", "Store/0010.gz", "Store.max_position", "Store.manifest/segments/0002", "Store/0001.gz", "Other/0001.gz")) {
+            upload(store, key, key);
+        }
+
+        assertThat(keys(store.listKeys("Store", null)), contains("Store.manifest/segments/0002", "Store.max_position", "Store/0001.gz", "Store/0002.gz", "Store/0010.gz"));
+        assertThat(keys(store.listKeys("Store/", null)), contains("Store/0001.gz", "Store/0002.gz", "Store/0010.gz"));
+        assertThat(keys(store.listKeys("Store/", "Store/0001.gz")), contains("Store/0002.gz", "Store/0010.gz"));
+        assertThat(keys(store.listKeys("Store", "Store.max_position")), contains("Store/0001.gz", "Store/0002.gz", "Store/0010.gz"));
+        assertThat(keys(store.listKeys("Missing/", null)), empty());
+    }
+
+    @Test public void
+    reads_objects_whole_and_from_an_offset() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+        upload(store, "Store/0001.gz", "0123456789");
+
+        assertThat(store.read("Store/0001.gz").map(content -> new String(content, UTF_8)), equalTo(Optional.of("0123456789")));
+        assertThat(store.read("Store/0002.gz"), equalTo(Optional.empty()));
+        try (InputStream content = store.open("Store/0001.gz", 4)) {
+            assertThat(readFully(content), equalTo("456789"));
+        }
+        try (InputStream content = store.open("Store/0001.gz", 10)) {
+            assertThat(content.read(), equalTo(-1));
+        }
+    }
+
+    @Test public void
+    replaces_objects_whole_leaving_no_temporary_files() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+        upload(store, "Store.max_position", "5");
+        Optional<String> etag = store.etag("Store.max_position");
+
+        upload(store, "Store.max_position", "10");
+
+        assertThat(store.read("Store.max_position").map(content -> new String(content, UTF_8)), equalTo(Optional.of("10")));
+        assertThat(store.etag("Store.max_position").equals(etag), equalTo(false));
+        assertThat(store.etag("Store.missing"), equalTo(Optional.empty()));
+        assertThat(filesIn(path()), contains("Store.max_position"));
+    }
+
+    @Test public void
+    joins_the_parts_of_a_multipart_upload_in_order_once_completed() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+
+        MultipartUploadableStorage.MultipartUpload upload = store.startUpload("Store/0004.gz", Collections.emptyMap());
+        upload.uploadPart(2, "cdef".getBytes(UTF_8), 2);
+        upload.uploadPart(1, "ab".getBytes(UTF_8), 2);
+        assertThat(keys(store.listKeys("Store/", null)), empty());
+        upload.complete();
+
+        assertThat(store.read("Store/0004.gz").map(content -> new String(content, UTF_8)), equalTo(Optional.of("abcd")));
+        assertThat(filesIn(path().resolve("Store")), contains("0004.gz"));
+    }
+
+    @Test public void
+    aborting_a_multipart_upload_removes_its_parts() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+
+        MultipartUploadableStorage.MultipartUpload upload = store.startUpload("Store/0004.gz", Collections.emptyMap());
+        upload.uploadPart(1, "ab".getBytes(UTF_8), 2);
+        upload.abort();
+
+        assertThat(store.read("Store/0004.gz"), equalTo(Optional.empty()));
+        assertThat(filesIn(path().resolve("Store")), empty());
+    }
+
+    @Test public void
+    rejects_keys_that_are_not_file_names() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+
+        try {
+            store.read("Store/../../escape");
+            fail("expected key to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("Key cannot be stored as a file: Store/../../escape"));
+        }
+    }
+
+    @Test public void
+    archived_batches_are_read_back_through_the_archive_reader() throws Exception {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(path());
+        S3UploadableStorageForInputStream uploadableStorage = store.uploadableStorage();
+        CurrentBatchWriter batchWriter = batchWriter(2);
+        for (long position = 1; position <= 6; position++) {
+            batchWriter.add(resolvedEvent(position));
+            if (batchWriter.readyToUpload()) {
+                S3BatchObject batch = batchWriter.prepareBatchForUpload();
+                uploadableStorage.upload(batchWriter.key(), batch.content, batch.contentLength, batch.metadata);
+                batchWriter = batchWriter(2);
+            }
+        }
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(reader.readAllForwards().map(ResolvedEvent::eventRecord).collect(toList()),
+                equalTo(asList(eventRecord(1), eventRecord(2), eventRecord(3), eventRecord(4), eventRecord(5), eventRecord(6))));
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").maxPosition(), equalTo(Optional.of(6L)));
+    }
+
+    private static void upload(FileSystemBatchObjectStore store, String key, String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        store.uploadableStorage().upload(key, new ByteArrayInputStream(bytes), bytes.length, Collections.emptyMap());
+    }
+
+    private static List<String> keys(Stream<String> keys) {
+        return keys.collect(toList());
+    }
+
+    private static List<String> filesIn(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(toList());
+        }
+    }
+
+    private static String readFully(InputStream content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    private Path path() {
+        return temporaryFolder.getRoot().toPath();
+    }
+}
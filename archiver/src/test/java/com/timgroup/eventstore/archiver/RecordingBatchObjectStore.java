@@ -0,0 +1,230 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Stand-in for an S3 bucket: a {@link FileSystemBatchObjectStore} over a directory that records the listings,
+ * downloads and part uploads made through it, and can be made to fail some of them.
+ */
+final class RecordingBatchObjectStore implements BatchObjectStore, MultipartUploadableStorage {
+    private final FileSystemBatchObjectStore store;
+    private final List<String> downloadedKeys = new CopyOnWriteArrayList<>();
+    private final List<String> openedAtOffsets = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicLong> bytesRead = new ConcurrentHashMap<>();
+    private final AtomicInteger listings = new AtomicInteger();
+    private volatile Predicate<String> failDownload = key -> false;
+    private final List<Integer> uploadedPartSizes = new CopyOnWriteArrayList<>();
+    private final List<String> abortedKeys = new CopyOnWriteArrayList<>();
+    private final AtomicInteger partsUploading = new AtomicInteger();
+    private final AtomicInteger maxPartsUploading = new AtomicInteger();
+    private volatile Predicate<Integer> failPart = partNumber -> false;
+
+    RecordingBatchObjectStore(Path directory) {
+        this.store = new FileSystemBatchObjectStore(directory);
+    }
+
+    void put(String key, InputStream content) {
+        uploadableStorage().upload(key, content, -1, Collections.emptyMap());
+    }
+
+    void put(String key, byte[] content) {
+        put(key, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Uploads to this store, as the archiver does to S3.
+     */
+    S3UploadableStorageForInputStream uploadableStorage() {
+        return store.uploadableStorage();
+    }
+
+    int listings() {
+        return listings.get();
+    }
+
+    List<String> downloadedKeys() {
+        return downloadedKeys;
+    }
+
+    List<String> openedAtOffsets() {
+        return openedAtOffsets;
+    }
+
+    /**
+     * @return the number of bytes of the object read from streams opened on it
+     */
+    long bytesRead(String key) {
+        AtomicLong read = bytesRead.get(key);
+        return read == null ? 0 : read.get();
+    }
+
+    List<Integer> uploadedPartSizes() {
+        return uploadedPartSizes;
+    }
+
+    List<String> abortedKeys() {
+        return abortedKeys;
+    }
+
+    int maxPartsUploading() {
+        return maxPartsUploading.get();
+    }
+
+    void failPartsWhere(Predicate<Integer> failPart) {
+        this.failPart = failPart;
+    }
+
+    /**
+     * Downloads of matching keys fail after reading a few bytes.
+     */
+    void failDownloadsWhere(Predicate<String> failDownload) {
+        this.failDownload = failDownload;
+    }
+
+    @Override
+    public Stream<String> listKeys(String prefix, @Nullable String startAfterKey) {
+        listings.incrementAndGet();
+        return store.listKeys(prefix, startAfterKey);
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        if (offset == 0) {
+            downloadedKeys.add(key);
+        }
+        openedAtOffsets.add(key + "@" + offset);
+        InputStream content = new CountingInputStream(store.open(key, offset), bytesRead.computeIfAbsent(key, k -> new AtomicLong()));
+        if (failDownload.test(key)) {
+            return new FailingInputStream(content, key);
+        }
+        return content;
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) {
+        return store.read(key);
+    }
+
+    @Override
+    public Optional<String> etag(String key) {
+        return store.etag(key);
+    }
+
+    /**
+     * Each part takes a few milliseconds to upload, so that parts uploaded in parallel overlap.
+     */
+    @Override
+    public MultipartUpload startUpload(String key, Map<String, String> metadata) {
+        MultipartUpload upload = store.startUpload(key, metadata);
+        return new MultipartUpload() {
+            @Override
+            public void uploadPart(int partNumber, byte[] content, int length) {
+                maxPartsUploading.accumulateAndGet(partsUploading.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                    if (failPart.test(partNumber)) {
+                        throw new IllegalStateException("Failed to upload part " + partNumber + " of " + key);
+                    }
+                    upload.uploadPart(partNumber, content, length);
+                    uploadedPartSizes.add(length);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } finally {
+                    partsUploading.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void complete() {
+                upload.complete();
+            }
+
+            @Override
+            public void abort() {
+                abortedKeys.add(key);
+                upload.abort();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingBatchObjectStore{" +
+                "store=" + store +
+                '}';
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong bytesRead;
+
+        CountingInputStream(InputStream content, AtomicLong bytesRead) {
+            super(content);
+            this.bytesRead = bytesRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                bytesRead.incrementAndGet();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            bytesRead.addAndGet(Math.max(read, 0));
+            return read;
+        }
+    }
+
+    /**
+     * Reads a few bytes of an object and then fails, as if the connection were lost part way through the download.
+     */
+    private static final class FailingInputStream extends FilterInputStream {
+        private final String key;
+        private int bytesBeforeFailure = 10;
+
+        FailingInputStream(InputStream content, String key) {
+            super(content);
+            this.key = key;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (bytesBeforeFailure-- <= 0) {
+                throw new IOException("Connection lost downloading " + key);
+            }
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (bytesBeforeFailure <= 0) {
+                throw new IOException("Connection lost downloading " + key);
+            }
+            int read = super.read(b, off, Math.min(len, bytesBeforeFailure));
+            bytesBeforeFailure -= Math.max(read, 0);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.memory.InMemoryEventSource;
+import com.timgroup.eventstore.memory.JavaInMemoryEventStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+public class S3ArchiveAndLiveEventSourceTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final EventSource liveEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(new ManualClock(Instant.EPOCH, ZoneOffset.UTC)));
+    private final PositionCodec livePositionCodec = liveEventSource.readAll().storePositionCodec();
+
+    @Test public void
+    reads_archived_events_from_the_archive_then_carries_on_from_the_live_store() throws Exception {
+        writeEvents(10);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        archive(store, 1, 6);
+
+        S3ArchiveAndLiveEventSource eventSource = eventSourceOver(store);
+
+        assertThat(readAll(eventSource, eventSource.readAll().emptyStorePosition()), equalTo(liveEvents()));
+        assertThat(store.downloadedKeys(), containsInAnyOrder(
+                "MyEventStore/00000000000000000000000000000002.gz",
+                "MyEventStore/00000000000000000000000000000004.gz",
+                "MyEventStore/00000000000000000000000000000006.gz"));
+        assertThat(sourcesOf(eventSource.readAll().readAllForwards()), equalTo(asList("archive", "archive", "archive", "archive", "archive", "archive", "live", "live", "live", "live")));
+    }
+
+    @Test public void
+    carries_on_reading_the_archive_if_its_head_has_moved_on_when_the_archived_events_run_out() throws Exception {
+        writeEvents(10);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        archive(store, 1, 4);
+
+        S3ArchiveAndLiveEventSource eventSource = eventSourceOver(store);
+
+        List<String> sources = new ArrayList<>();
+        try (Stream<ResolvedEvent> events = eventSource.readAll().readAllForwards()) {
+            Iterator<ResolvedEvent> iterator = events.iterator();
+            for (int i = 0; i < 4; i++) {
+                sources.add(sourceOf(iterator.next()));
+            }
+            archive(store, 5, 8);
+            iterator.forEachRemaining(event -> sources.add(sourceOf(event)));
+        }
+
+        assertThat(sources, equalTo(asList("archive", "archive", "archive", "archive", "archive", "archive", "archive", "archive", "live", "live")));
+    }
+
+    @Test public void
+    reads_only_from_the_live_store_from_a_position_at_or_after_the_archive_head() throws Exception {
+        writeEvents(10);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        archive(store, 1, 6);
+
+        S3ArchiveAndLiveEventSource eventSource = eventSourceOver(store);
+        PositionCodec codec = eventSource.readAll().storePositionCodec();
+
+        List<ResolvedEvent> events = eventSource.readAll().readAllForwards(codec.deserializePosition("7")).collect(toList());
+
+        assertThat(events.stream().map(event -> codec.serializePosition(event.position())).collect(toList()), contains("8", "9", "10"));
+        assertThat(events.stream().map(this::sourceOf).collect(toList()), contains("live", "live", "live"));
+        assertThat(store.downloadedKeys(), empty());
+    }
+
+    @Test public void
+    compares_archive_and_live_positions_by_their_position_in_the_live_store() throws Exception {
+        writeEvents(10);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        archive(store, 1, 6);
+
+        S3ArchiveAndLiveEventSource eventSource = eventSourceOver(store);
+        PositionCodec codec = eventSource.readAll().storePositionCodec();
+        List<ResolvedEvent> events = eventSource.readAll().readAllForwards().collect(toList());
+
+        assertThat(codec.comparePositions(events.get(5).position(), events.get(6).position()), equalTo(-1));
+        assertThat(codec.comparePositions(events.get(6).position(), codec.deserializePosition("7")), equalTo(0));
+        assertThat(codec.comparePositions(codec.deserializePosition("6"), events.get(5).position()), equalTo(0));
+        assertThat(codec.serializePosition(events.get(6).position()), equalTo("7"));
+        assertThat(readAll(eventSource, events.get(6).position()), equalTo(liveEvents().subList(7, 10)));
+    }
+
+    @Test public void
+    archive_and_live_positions_equal_themselves_read_back_from_their_serialised_form() throws Exception {
+        writeEvents(10);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        archive(store, 1, 6);
+
+        S3ArchiveAndLiveEventSource eventSource = eventSourceOver(store);
+        PositionCodec codec = eventSource.readAll().storePositionCodec();
+        List<ResolvedEvent> events = eventSource.readAll().readAllForwards().collect(toList());
+
+        for (ResolvedEvent event : events) {
+            Position restored = codec.deserializePosition(codec.serializePosition(event.position()));
+            assertThat(restored, equalTo(event.position()));
+            assertThat(restored.hashCode(), equalTo(event.position().hashCode()));
+        }
+        assertThat(sourceOf(events.get(5)), equalTo("archive"));
+        assertThat(sourceOf(events.get(6)), equalTo("live"));
+    }
+
+    private S3ArchiveAndLiveEventSource eventSourceOver(RecordingBatchObjectStore store) {
+        return new S3ArchiveAndLiveEventSource(new S3ArchivedEventSource(store, "bucket", "MyEventStore", 2, metricRegistry), liveEventSource);
+    }
+
+    private void writeEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            liveEventSource.writeStream().write(streamId("cat" + (i % 2), "id" + (i % 2)), singletonList(newEvent("EventType", ("data" + i).getBytes(), ("metadata" + i).getBytes())));
+        }
+    }
+
+    private void archive(RecordingBatchObjectStore store, long fromPosition, long toPosition) throws IOException {
+        CurrentBatchWriter batchWriter = liveBatchWriter();
+        for (ResolvedEvent event : liveEventSource.readAll().readAllForwards().collect(toList())) {
+            long position = Long.parseLong(livePositionCodec.serializePosition(event.position()));
+            if (position < fromPosition || position > toPosition) {
+                continue;
+            }
+            batchWriter.add(event);
+            if (batchWriter.readyToUpload()) {
+                store.put(batchWriter.key(), batchWriter.prepareBatchForUpload().content);
+                batchWriter = liveBatchWriter();
+            }
+        }
+        store.put(new S3ArchiveKeyFormat("MyEventStore").maxPositionPointerKey(), Long.toString(toPosition).getBytes(UTF_8));
+    }
+
+    private CurrentBatchWriter liveBatchWriter() {
+        return ArchiveFixtures.batchWriter(new FixedNumberOfEventsBatchingPolicy(2), event -> Long.parseLong(livePositionCodec.serializePosition(event.position())), BatchCodecs.GZIP, BatchLayout.ROWS);
+    }
+
+    private List<EventRecord> liveEvents() {
+        return liveEventSource.readAll().readAllForwards().map(ResolvedEvent::eventRecord).collect(toList());
+    }
+
+    private static List<EventRecord> readAll(EventSource eventSource, Position positionExclusive) {
+        try (Stream<ResolvedEvent> events = eventSource.readAll().readAllForwards(positionExclusive)) {
+            return events.map(ResolvedEvent::eventRecord).collect(toList());
+        }
+    }
+
+    private List<String> sourcesOf(Stream<ResolvedEvent> events) {
+        try (Stream<ResolvedEvent> closing = events) {
+            return closing.map(this::sourceOf).collect(toList());
+        }
+    }
+
+    private String sourceOf(ResolvedEvent event) {
+        return ((S3ArchiveAndLivePosition) event.position()).getLivePosition() == null ? "archive" : "live";
+    }
+}
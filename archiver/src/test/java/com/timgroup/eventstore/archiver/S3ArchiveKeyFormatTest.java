@@ -36,4 +36,18 @@ public class S3ArchiveKeyFormatTest {
                 equalTo(asList(1L, 3L, 20L, 1_000L, 9_999L)));
     }
 
+    @Test public void
+    start_after_key_sorts_between_batches_up_to_position_and_later_batches() {
+        S3ArchiveKeyFormat format = new S3ArchiveKeyFormat("MyShinyEventStore");
+
+        String startAfterKey = format.startAfterKeyFor(20L);
+
+        assertThat(Stream.of(1L, 19L, 20L, 21L, 200L, 1_000L)
+                        .map(position -> format.objectKeyFor(position, "gz"))
+                        .filter(key -> key.compareTo(startAfterKey) > 0)
+                        .map(format::positionValueFrom)
+                        .collect(toList()),
+                equalTo(asList(21L, 200L, 1_000L)));
+    }
+
 }
\ No newline at end of file
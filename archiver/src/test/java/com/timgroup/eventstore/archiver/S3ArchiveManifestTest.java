@@ -0,0 +1,133 @@
+package com.timgroup.eventstore.archiver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class S3ArchiveManifestTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+
+    @Test public void
+    reads_no_manifest_from_an_archive_without_one() {
+        assertThat(S3ArchiveManifest.read(store(), "MyEventStore").isPresent(), equalTo(false));
+    }
+
+    @Test public void
+    appends_segments_between_consolidations_and_reads_back_every_batch() {
+        RecordingBatchObjectStore store = store();
+        S3ArchiveManifestWriter writer = writer(store, Optional.empty());
+        List<ArchivedBatch> batches = new ArrayList<>();
+        for (long maxPosition = 10; maxPosition <= 70; maxPosition += 10) {
+            ArchivedBatch batch = batch(maxPosition);
+            batches.add(batch);
+            writer.batchUploaded(batch);
+        }
+
+        assertThat(manifestKeys(store), equalTo(asList(
+                keyFormat.consolidatedManifestKey(60), keyFormat.manifestSegmentKey(70))));
+        S3ArchiveManifest manifest = S3ArchiveManifest.read(store, "MyEventStore").get();
+        assertThat(manifest.startsAfterPosition(), equalTo(-1L));
+        assertThat(manifest.batches(), equalTo(batches));
+        assertThat(manifest.maxPosition(), equalTo(70L));
+    }
+
+    @Test public void
+    keeps_the_manifest_to_two_objects_however_many_batches_are_appended() {
+        RecordingBatchObjectStore store = store();
+        S3ArchiveManifestWriter writer = writer(store, Optional.empty());
+        List<ArchivedBatch> batches = new ArrayList<>();
+        for (long maxPosition = 10; maxPosition <= 1000; maxPosition += 10) {
+            ArchivedBatch batch = batch(maxPosition);
+            batches.add(batch);
+            writer.batchUploaded(batch);
+
+            assertThat(manifestKeys(store).size(), lessThanOrEqualTo(2));
+        }
+
+        assertThat(S3ArchiveManifest.read(store, "MyEventStore").get().batches(), equalTo(batches));
+    }
+
+    @Test public void
+    continues_the_manifest_of_an_archive_it_ends_with() {
+        RecordingBatchObjectStore store = store();
+        S3ArchiveManifestWriter writer = writer(store, Optional.empty());
+        writer.batchUploaded(batch(10));
+        writer.batchUploaded(batch(20));
+        writer.batchUploaded(batch(30));
+        writer.batchUploaded(batch(40));
+
+        S3ArchiveManifestWriter resumed = writer(store, Optional.of(40L));
+        resumed.batchUploaded(batch(50));
+
+        assertThat(S3ArchiveManifest.read(store, "MyEventStore").get().batches(), equalTo(asList(
+                batch(10), batch(20), batch(30), batch(40), batch(50))));
+
+        resumed.batchUploaded(batch(60));
+
+        assertThat(manifestKeys(store), equalTo(asList(keyFormat.consolidatedManifestKey(60))));
+    }
+
+    @Test public void
+    starts_a_new_manifest_after_an_archive_it_does_not_end_with() {
+        RecordingBatchObjectStore store = store();
+        S3ArchiveManifestWriter writer = writer(store, Optional.empty());
+        writer.batchUploaded(batch(10));
+
+        S3ArchiveManifestWriter resumed = writer(store, Optional.of(20L));
+        resumed.batchUploaded(batch(30));
+
+        S3ArchiveManifest manifest = S3ArchiveManifest.read(store, "MyEventStore").get();
+        assertThat(manifest.startsAfterPosition(), equalTo(20L));
+        assertThat(manifest.batches(), equalTo(asList(batch(30))));
+
+        resumed.batchUploaded(batch(40));
+        resumed.batchUploaded(batch(50));
+
+        assertThat(manifestKeys(store), equalTo(asList(keyFormat.consolidatedManifestKey(50))));
+    }
+
+    @Test public void
+    round_trips_names_containing_separators() {
+        ArchivedBatch batch = new ArchivedBatch("MyEventStore/00000000000000000000000000000001.gz", 1, 1, 1, Instant.EPOCH, Instant.EPOCH,
+                new TreeSet<>(Arrays.asList("with,comma", "with\ttab", "caf\u00e9")), new TreeSet<>(Arrays.asList("Type 1", "Type%2")));
+
+        assertThat(ArchivedBatch.parse(batch.format()), equalTo(batch));
+    }
+
+    private S3ArchiveManifestWriter writer(RecordingBatchObjectStore store, Optional<Long> maxPositionInArchive) {
+        return new S3ArchiveManifestWriter(store.uploadableStorage(), keyFormat, 3, S3ArchiveManifest.read(store, "MyEventStore"), maxPositionInArchive);
+    }
+
+    private List<String> manifestKeys(RecordingBatchObjectStore store) {
+        return Stream.concat(store.listKeys(keyFormat.consolidatedManifestPrefix(), null), store.listKeys(keyFormat.manifestSegmentPrefix(), null))
+                .collect(Collectors.toList());
+    }
+
+    private RecordingBatchObjectStore store() {
+        return new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+    }
+
+    private ArchivedBatch batch(long maxPosition) {
+        return new ArchivedBatch(keyFormat.objectKeyFor(maxPosition, "gz"), maxPosition - 9, maxPosition, 10,
+                Instant.ofEpochSecond(maxPosition - 9), Instant.ofEpochSecond(maxPosition),
+                new TreeSet<>(asList("category" + maxPosition % 20)), new TreeSet<>(asList("EventType")));
+    }
+}
@@ -0,0 +1,60 @@
+package com.timgroup.eventstore.archiver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class S3ArchiveMaxPositionFetcherTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+
+    @Test public void
+    max_position_is_absent_when_there_are_no_batches() {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").maxPosition(), equalTo(Optional.empty()));
+    }
+
+    @Test public void
+    reads_max_position_from_pointer_ignoring_batches_after_it() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesAt(10L, 20L, 40L);
+        store.put(keyFormat.maxPositionPointerKey(), "20".getBytes(UTF_8));
+
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").maxPosition(), equalTo(Optional.of(20L)));
+        assertThat(store.listings(), equalTo(0));
+    }
+
+    @Test public void
+    searches_batch_keys_when_there_is_no_pointer() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesAt(3L, 7L, 1_000L, 1_001L, 123_456L, 5_000_000_000L);
+
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").maxPosition(), equalTo(Optional.of(5_000_000_000L)));
+        assertThat(store.listings(), lessThanOrEqualTo(2 * 64));
+    }
+
+    @Test public void
+    searches_batch_keys_when_there_is_a_single_batch() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesAt(0L);
+
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").maxPosition(), equalTo(Optional.of(0L)));
+    }
+
+    private RecordingBatchObjectStore storeWithBatchesAt(Long... maxPositions) throws IOException {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        for (Long maxPosition : maxPositions) {
+            store.put(keyFormat.objectKeyFor(maxPosition, "gz"), new byte[0]);
+        }
+        return store;
+    }
+}
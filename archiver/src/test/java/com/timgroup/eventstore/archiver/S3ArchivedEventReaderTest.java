@@ -0,0 +1,284 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.KEY_FORMAT;
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.batchWriter;
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.eventRecord;
+import static com.timgroup.eventstore.archiver.ArchiveFixtures.resolvedEvent;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class S3ArchivedEventReaderTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test public void
+    reads_events_from_all_batches_in_order_while_downloading_ahead() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 11);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 3, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(reader.readLastEvent().map(event -> ((S3ArchivePosition) event.position()).value).get(), equalTo(10L));
+    }
+
+    @Test public void
+    reads_the_first_events_of_a_batch_before_it_has_downloaded() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(20_000, 20_001);
+        String key = KEY_FORMAT.objectKeyFor(20_000L, "gz");
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 1, metricRegistry);
+
+        try (Stream<ResolvedEvent> events = reader.readAllForwards()) {
+            assertThat(events.iterator().next().position(), equalTo(new S3ArchivePosition(1)));
+            assertThat(store.bytesRead(key), lessThan((long) store.read(key).get().length));
+        }
+    }
+
+    @Test public void
+    reads_left_open_do_not_keep_download_threads_of_their_own() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 11);
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(reader.readAllForwards().iterator().next().position(), equalTo(new S3ArchivePosition(1)));
+        }
+
+        long downloadThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("s3-archive-download-"))
+                .count();
+        assertThat(downloadThreads, lessThanOrEqualTo(10L));
+    }
+
+    @Test public void
+    reading_from_a_position_downloads_only_the_batches_after_it() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(3, 10);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards(new S3ArchivePosition(6))), equalTo(asList(7L, 8L, 9L)));
+        assertThat(positionsOf(reader.readAllForwards(new S3ArchivePosition(4))), equalTo(asList(5L, 6L, 7L, 8L, 9L)));
+        assertThat(store.downloadedKeys(), containsInAnyOrder(
+                "MyEventStore/00000000000000000000000000000009.gz",
+                "MyEventStore/00000000000000000000000000000006.gz",
+                "MyEventStore/00000000000000000000000000000009.gz"));
+    }
+
+    @Test public void
+    reads_only_the_batches_up_to_the_max_position_pointer() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 9);
+        store.put(new S3ArchiveKeyFormat("MyEventStore").maxPositionPointerKey(), "4".getBytes(UTF_8));
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L)));
+        assertThat(reader.readLastEvent().map(event -> ((S3ArchivePosition) event.position()).value).get(), equalTo(4L));
+    }
+
+    @Test public void
+    reads_each_event_once_after_a_restart_left_a_batch_behind_the_max_position_pointer() throws Exception {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        putBatch(store, 1, 4);
+        store.put(KEY_FORMAT.maxPositionPointerKey(), "4".getBytes(UTF_8));
+        putBatch(store, 5, 8);
+        putBatch(store, 5, 7);
+        store.put(KEY_FORMAT.maxPositionPointerKey(), "7".getBytes(UTF_8));
+        putBatch(store, 8, 10);
+        store.put(KEY_FORMAT.maxPositionPointerKey(), "10".getBytes(UTF_8));
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(positionsOf(reader.readAllForwards(new S3ArchivePosition(6))), equalTo(asList(7L, 8L, 9L, 10L)));
+        assertThat(positionsOf(reader.readCategoryForwards("late", new S3ArchivePosition(0))), equalTo(asList(5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(reader.readLastEvent().map(event -> ((S3ArchivePosition) event.position()).value).get(), equalTo(10L));
+    }
+
+    @Test public void
+    reads_batches_written_with_different_codecs() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 11, BatchCodecs.GZIP, BatchCodecs.deflate(1), BatchCodecs.XZ, BatchCodecs.LZ4);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(reader.readLastEvent().map(event -> ((S3ArchivePosition) event.position()).value).get(), equalTo(10L));
+    }
+
+    @Test public void
+    reads_batches_written_in_columns_alongside_batches_written_in_rows() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesInLayouts(2, 11, BatchLayout.ROWS, BatchLayout.COLUMNS);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(positionsOf(reader.readAllForwards(new S3ArchivePosition(3))), equalTo(asList(4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(positionsOf(reader.readCategoryForwards("late")), equalTo(asList(5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(reader.readLastEvent().map(event -> ((S3ArchivePosition) event.position()).value).get(), equalTo(10L));
+    }
+
+    @Test public void
+    reads_event_types_downloading_only_the_batches_the_manifest_shows_to_have_them() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesInLayouts(2, 11, BatchLayout.COLUMNS);
+        writeManifest(store, 2, 11, BatchLayout.COLUMNS);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readEventTypesForwards(asList("EventType0"), S3ArchivePosition.EMPTY_STORE_POSITION)), equalTo(asList(3L, 6L, 9L)));
+        assertThat(positionsOf(reader.readEventTypesForwards(asList("EventType1", "EventType2"), new S3ArchivePosition(7))), equalTo(asList(8L, 10L)));
+        assertThat(store.downloadedKeys(), containsInAnyOrder(
+                "MyEventStore/00000000000000000000000000000004.col.gz",
+                "MyEventStore/00000000000000000000000000000006.col.gz",
+                "MyEventStore/00000000000000000000000000000010.col.gz",
+                "MyEventStore/00000000000000000000000000000008.col.gz",
+                "MyEventStore/00000000000000000000000000000010.col.gz"));
+    }
+
+    @Test public void
+    resumes_failed_downloads_from_the_bytes_already_received() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 9);
+        Set<String> failedOnce = new HashSet<>();
+        store.failDownloadsWhere(key -> {
+            synchronized (failedOnce) {
+                return failedOnce.add(key);
+            }
+        });
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L)));
+        assertThat(metricRegistry.counter("tg-eventstore-s3-archive-reader.MyEventStore.download.failures").getCount(), equalTo(4L));
+        assertThat(store.openedAtOffsets(), hasItem("MyEventStore/00000000000000000000000000000002.gz@10"));
+    }
+
+    @Test public void
+    reads_a_category_downloading_only_the_batches_the_manifest_shows_to_have_it() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 11);
+        writeManifest(store, 2, 11);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readCategoryForwards("early")), equalTo(asList(1L, 2L, 3L, 4L)));
+        assertThat(positionsOf(reader.readCategoryForwards("late", new S3ArchivePosition(6))), equalTo(asList(7L, 8L, 9L, 10L)));
+        assertThat(store.downloadedKeys(), containsInAnyOrder(
+                "MyEventStore/00000000000000000000000000000002.gz",
+                "MyEventStore/00000000000000000000000000000004.gz",
+                "MyEventStore/00000000000000000000000000000008.gz",
+                "MyEventStore/00000000000000000000000000000010.gz"));
+    }
+
+    @Test public void
+    seeks_by_timestamp_skipping_the_batches_the_manifest_shows_to_be_earlier() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 11);
+        writeManifest(store, 2, 11);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwardsFrom(Instant.ofEpochSecond(7))), equalTo(asList(7L, 8L, 9L, 10L)));
+        assertThat(store.downloadedKeys(), containsInAnyOrder(
+                "MyEventStore/00000000000000000000000000000008.gz",
+                "MyEventStore/00000000000000000000000000000010.gz"));
+    }
+
+    @Test public void
+    lists_the_batches_after_the_end_of_the_manifest() throws Exception {
+        RecordingBatchObjectStore store = storeWithBatchesOf(2, 11);
+        writeManifest(store, 2, 7);
+
+        S3ArchivedEventReader reader = new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry);
+
+        assertThat(positionsOf(reader.readAllForwards()), equalTo(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+        assertThat(positionsOf(reader.readCategoryForwards("late")), equalTo(asList(5L, 6L, 7L, 8L, 9L, 10L)));
+    }
+
+    private void writeManifest(RecordingBatchObjectStore store, int batchSize, int positionsUpToExclusive) {
+        writeManifest(store, batchSize, positionsUpToExclusive, BatchLayout.ROWS);
+    }
+
+    private void writeManifest(RecordingBatchObjectStore store, int batchSize, int positionsUpToExclusive, BatchLayout layout) {
+        S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+        S3ArchiveManifestWriter writer = new S3ArchiveManifestWriter(store.uploadableStorage(), keyFormat, 2, Optional.empty(), Optional.empty());
+        for (long maxPosition = batchSize; maxPosition < positionsUpToExclusive; maxPosition += batchSize) {
+            List<ResolvedEvent> batch = new ArrayList<>();
+            for (long position = maxPosition - batchSize + 1; position <= maxPosition; position++) {
+                batch.add(resolvedEvent(position));
+            }
+            writer.batchUploaded(ArchivedBatch.of(keyFormat.objectKeyFor(maxPosition, layout.fileExtension(BatchCodecs.GZIP)), batch, event -> ((S3ArchivePosition) event.position()).value));
+        }
+    }
+
+    /**
+     * Puts one batch of the positions given, closed where the batching policy of the archiver writing it happened to
+     * close it.
+     */
+    private static void putBatch(RecordingBatchObjectStore store, long fromPosition, long toPosition) throws IOException {
+        CurrentBatchWriter batchWriter = batchWriter(BatchingPolicy.fixedNumberOfEvents((int) (toPosition - fromPosition + 1)));
+        for (long position = fromPosition; position <= toPosition; position++) {
+            batchWriter.add(resolvedEvent(position));
+        }
+        store.put(batchWriter.key(), batchWriter.prepareBatchForUpload().content);
+    }
+
+    private RecordingBatchObjectStore storeWithBatchesOf(int batchSize, int positionsUpToExclusive, BatchCodec... codecs) throws IOException {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        int batches = 0;
+        CurrentBatchWriter batchWriter = batchWriter(batchSize, codecs.length == 0 ? BatchCodecs.GZIP : codecs[0], BatchLayout.ROWS);
+        for (long position = 1; position < positionsUpToExclusive; position++) {
+            batchWriter.add(resolvedEvent(position));
+            if (batchWriter.readyToUpload()) {
+                store.put(batchWriter.key(), batchWriter.prepareBatchForUpload().content);
+                batches++;
+                batchWriter = batchWriter(batchSize, codecs.length == 0 ? BatchCodecs.GZIP : codecs[batches % codecs.length], BatchLayout.ROWS);
+            }
+        }
+        return store;
+    }
+
+    private RecordingBatchObjectStore storeWithBatchesInLayouts(int batchSize, int positionsUpToExclusive, BatchLayout... layouts) throws IOException {
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.getRoot().toPath());
+        int batches = 0;
+        CurrentBatchWriter batchWriter = batchWriter(batchSize, BatchCodecs.GZIP, layouts[0]);
+        for (long position = 1; position < positionsUpToExclusive; position++) {
+            batchWriter.add(resolvedEvent(position));
+            if (batchWriter.readyToUpload()) {
+                store.put(batchWriter.key(), batchWriter.prepareBatchForUpload().content);
+                batches++;
+                batchWriter = batchWriter(batchSize, BatchCodecs.GZIP, layouts[batches % layouts.length]);
+            }
+        }
+        return store;
+    }
+
+    private static List<Long> positionsOf(Stream<ResolvedEvent> events) {
+        try (Stream<ResolvedEvent> closing = events) {
+            List<Long> positions = new ArrayList<>();
+            closing.forEach(event -> {
+                assertThat(event.eventRecord(), equalTo(eventRecord(((S3ArchivePosition) event.position()).value)));
+                positions.add(((S3ArchivePosition) event.position()).value);
+            });
+            return positions;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.timgroup.eventstore.archiver;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.memory.InMemoryEventSource;
+import com.timgroup.eventstore.memory.JavaInMemoryEventStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+
+public class S3ArchiverFactoryTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ManualClock clock = new ManualClock(Instant.EPOCH, ZoneOffset.UTC);
+    private final EventSource liveEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(clock));
+
+    @Test public void
+    archivers_upload_each_batch_before_reading_on_and_keep_no_manifest_by_default() {
+        S3ArchiverFactory factory = factory();
+
+        assertThat(factory.newS3Archiver("MyEventStore", liveEventSource, 10, "MyApp").options(),
+                equalTo(S3ArchiverOptions.defaults()));
+        assertThat(factory.newS3Archiver("MyEventStore", liveEventSource, new FixedNumberOfEventsBatchingPolicy(10), "MyApp").options(),
+                equalTo(S3ArchiverOptions.defaults()));
+    }
+
+    @Test public void
+    archivers_use_the_options_given() {
+        S3ArchiverOptions options = S3ArchiverOptions.defaults()
+                .withCodec(BatchCodecs.XZ)
+                .withLayout(BatchLayout.COLUMNS)
+                .withUploadsInFlight(2)
+                .withBatchesPerManifestConsolidation(100);
+
+        S3Archiver archiver = factory().newS3Archiver("MyEventStore", liveEventSource, new FixedNumberOfEventsBatchingPolicy(10), options, "MyApp");
+
+        assertThat(archiver.options(), equalTo(options));
+    }
+
+    @Test public void
+    default_options_are_synchronous_and_manifest_less() {
+        assertThat(S3ArchiverOptions.defaults().uploadsInFlight, equalTo(0));
+        assertThat(S3ArchiverOptions.defaults().batchesPerManifestConsolidation, equalTo(0));
+        assertThat(S3ArchiverOptions.defaults().codec, equalTo(BatchCodecs.GZIP));
+        assertThat(S3ArchiverOptions.defaults().layout, equalTo(BatchLayout.ROWS));
+    }
+
+    private S3ArchiverFactory factory() {
+        FileSystemBatchObjectStore store = new FileSystemBatchObjectStore(temporaryFolder.getRoot().toPath());
+        return new S3ArchiverFactory("my-bucket", mock(AmazonS3.class), store, store.uploadableStorage(), new MetricRegistry(), clock);
+    }
+}
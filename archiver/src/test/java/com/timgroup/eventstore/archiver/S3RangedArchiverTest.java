@@ -0,0 +1,176 @@
+package com.timgroup.eventstore.archiver;
+
+import com.codahale.metrics.MetricRegistry;
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.memory.InMemoryEventSource;
+import com.timgroup.eventstore.memory.JavaInMemoryEventStore;
+import com.timgroup.remotefilestorage.s3.S3UploadableStorageForInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class S3RangedArchiverTest {
+    private static final List<String> BATCH_KEYS = asKeys(4, 8, 9, 13, 17, 18, 22, 25);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final EventSource deadEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(new ManualClock(Instant.EPOCH, ZoneOffset.UTC)));
+
+    @Test public void
+    archives_ranges_concurrently_into_batches_read_back_in_order() throws Exception {
+        writeEvents(25);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.newFolder().toPath());
+        RecordingUploadableStorage output = new RecordingUploadableStorage(store.uploadableStorage(), key -> false);
+
+        S3RangedArchiver archiver = archiver(store, output, 3);
+        archiver.archiveStore(3);
+
+        assertThat(store.listKeys("MyEventStore/", null).collect(toList()), contains(BATCH_KEYS.toArray()));
+        assertThat(archivedEvents(store), equalTo(storeEvents()));
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").pointedToMaxPosition(), equalTo(Optional.of(25L)));
+        assertThat(S3ArchiveManifest.read(store, "MyEventStore").get().batches().stream().map(batch -> batch.key).collect(toList()), contains(BATCH_KEYS.toArray()));
+        assertThat(archiver.hasPlan(), equalTo(false));
+    }
+
+    @Test public void
+    uploads_batches_with_the_metadata_the_online_archiver_gives_them() throws Exception {
+        writeEvents(25);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.newFolder().toPath());
+        RecordingUploadableStorage output = new RecordingUploadableStorage(store.uploadableStorage(), key -> false);
+
+        archiver(store, output, 2).archiveStore(3);
+
+        Map<String, String> metadata = output.metadata.get("MyEventStore/00000000000000000000000000000008.gz");
+        assertThat(metadata.get("min_position"), equalTo("5"));
+        assertThat(metadata.get("max_position"), equalTo("8"));
+        assertThat(metadata.get("number_of_events_in_batch"), equalTo("4"));
+        assertThat(metadata.get("compression_codec"), equalTo("gz"));
+        assertThat(metadata.get("app_name"), equalTo("MyApp"));
+        assertThat(metadata.get("event_source"), equalTo(deadEventSource.toString()));
+    }
+
+    @Test public void
+    resumes_from_the_plan_without_uploading_batches_again() throws Exception {
+        writeEvents(25);
+        RecordingBatchObjectStore store = new RecordingBatchObjectStore(temporaryFolder.newFolder().toPath());
+        RecordingUploadableStorage failingOutput = new RecordingUploadableStorage(store.uploadableStorage(), key -> key.equals(asKeys(17).get(0)));
+
+        try {
+            archiver(store, failingOutput, 1).archiveStore(3);
+            fail("expected archiving to fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("Failed to upload " + asKeys(17).get(0)));
+        }
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").pointedToMaxPosition(), equalTo(Optional.of(13L)));
+
+        RecordingUploadableStorage output = new RecordingUploadableStorage(store.uploadableStorage(), key -> false);
+        S3RangedArchiver archiver = archiver(store, output, 2);
+        assertThat(archiver.hasPlan(), equalTo(true));
+        archiver.archiveStore(5);
+
+        assertThat(output.uploadedBatchKeys(), containsInAnyOrder(asKeys(17, 18, 22, 25).toArray()));
+        assertThat(store.listKeys("MyEventStore/", null).collect(toList()), contains(BATCH_KEYS.toArray()));
+        assertThat(archivedEvents(store), equalTo(storeEvents()));
+        assertThat(new S3ArchiveMaxPositionFetcher(store, "MyEventStore").pointedToMaxPosition(), equalTo(Optional.of(25L)));
+        assertThat(S3ArchiveManifest.read(store, "MyEventStore").get().batches().stream().map(batch -> batch.key).collect(toList()), contains(BATCH_KEYS.toArray()));
+    }
+
+    private S3RangedArchiver archiver(RecordingBatchObjectStore store, S3UploadableStorageForInputStream output, int parallelism) {
+        return new S3RangedArchiver(
+                deadEventSource,
+                output,
+                "MyEventStore",
+                new S3ArchiveMaxPositionFetcher(store, "MyEventStore"),
+                4,
+                S3ArchiverOptions.defaults().withBatchesPerManifestConsolidation(2),
+                planFile(),
+                parallelism,
+                "MyApp",
+                metricRegistry,
+                "s3-ranged-archiver");
+    }
+
+    private Path planFile() {
+        return temporaryFolder.getRoot().toPath().resolve("archive-plan.txt");
+    }
+
+    private void writeEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            deadEventSource.writeStream().write(streamId("cat" + (i % 2), "id" + (i % 2)), singletonList(newEvent("EventType", ("data" + i).getBytes(UTF_8), ("metadata" + i).getBytes(UTF_8))));
+        }
+    }
+
+    private List<EventRecord> storeEvents() {
+        return deadEventSource.readAll().readAllForwards().map(ResolvedEvent::eventRecord).collect(toList());
+    }
+
+    private List<EventRecord> archivedEvents(RecordingBatchObjectStore store) {
+        return new S3ArchivedEventReader(store, "MyEventStore", 2, metricRegistry).readAllForwards().map(ResolvedEvent::eventRecord).collect(toList());
+    }
+
+    private static List<String> asKeys(long... maxPositions) {
+        S3ArchiveKeyFormat keyFormat = new S3ArchiveKeyFormat("MyEventStore");
+        return LongStream.of(maxPositions).mapToObj(maxPosition -> keyFormat.objectKeyFor(maxPosition, "gz")).collect(toList());
+    }
+
+    private static final class RecordingUploadableStorage extends S3UploadableStorageForInputStream {
+        private final S3UploadableStorageForInputStream delegate;
+        private final Predicate<String> fail;
+        private final List<String> uploadedKeys = new CopyOnWriteArrayList<>();
+        private final Map<String, Map<String, String>> metadata = new ConcurrentHashMap<>();
+
+        RecordingUploadableStorage(S3UploadableStorageForInputStream delegate, Predicate<String> fail) {
+            super(null, null, null);
+            this.delegate = delegate;
+            this.fail = fail;
+        }
+
+        @Override
+        public URI upload(String name, InputStream content, long contentLength, Map<String, String> metaData) {
+            if (fail.test(name)) {
+                throw new IllegalStateException("Failed to upload " + name);
+            }
+            uploadedKeys.add(name);
+            metadata.put(name, metaData);
+            return delegate.upload(name, content, contentLength, metaData);
+        }
+
+        @Override
+        public void delete(String name) {
+            delegate.delete(name);
+        }
+
+        List<String> uploadedBatchKeys() {
+            return uploadedKeys.stream().filter(key -> key.startsWith("MyEventStore/")).collect(toList());
+        }
+    }
+}
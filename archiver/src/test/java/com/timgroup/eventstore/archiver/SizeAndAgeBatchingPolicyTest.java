@@ -0,0 +1,113 @@
+package com.timgroup.eventstore.archiver;
+
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class SizeAndAgeBatchingPolicyTest {
+
+    private final ManualClock clock = new ManualClock(Instant.parse("2019-06-01T09:00:00Z"), ZoneOffset.UTC);
+
+    @Test public void
+    uncompressed_bytes_policy_is_ready_once_events_reach_the_size() {
+        BatchingPolicy policy = BatchingPolicy.uncompressedBytes(3 * ArchivedEventEncoder.maxEncodedSize(eventRecord(100)));
+
+        policy.notifyAddedToBatch(event(1, 100));
+        policy.notifyAddedToBatch(event(2, 100));
+        assertThat(policy.ready(), equalTo(false));
+
+        policy.notifyAddedToBatch(event(3, 100));
+        assertThat(policy.ready(), equalTo(true));
+
+        policy.reset();
+        policy.notifyAddedToBatch(event(4, 1_000));
+        assertThat(policy.ready(), equalTo(true));
+    }
+
+    @Test public void
+    compressed_bytes_policy_sizes_batches_by_the_compression_of_the_last() {
+        int eventSize = ArchivedEventEncoder.maxEncodedSize(eventRecord(100));
+        BatchingPolicy policy = BatchingPolicy.compressedBytes(2 * eventSize);
+
+        policy.notifyAddedToBatch(event(1, 100));
+        policy.notifyAddedToBatch(event(2, 100));
+        assertThat(policy.ready(), equalTo(true));
+
+        policy.reset();
+        policy.notifyCompressed(2 * eventSize, eventSize / 2);
+        for (int position = 3; position < 10; position++) {
+            policy.notifyAddedToBatch(event(position, 100));
+        }
+        assertThat(policy.ready(), equalTo(false));
+        policy.notifyAddedToBatch(event(10, 100));
+        assertThat(policy.ready(), equalTo(true));
+    }
+
+    @Test public void
+    max_age_policy_is_ready_once_the_oldest_event_has_waited_long_enough() {
+        BatchingPolicy policy = BatchingPolicy.maxAge(Duration.ofMinutes(5), clock);
+        assertThat(policy.ready(), equalTo(false));
+
+        policy.notifyAddedToBatch(event(1, 10));
+        clock.bump(Duration.ofMinutes(3));
+        policy.notifyAddedToBatch(event(2, 10));
+        clock.bump(Duration.ofMinutes(1));
+        assertThat(policy.ready(), equalTo(false));
+
+        clock.bump(Duration.ofMinutes(1));
+        assertThat(policy.ready(), equalTo(true));
+
+        policy.reset();
+        assertThat(policy.ready(), equalTo(false));
+    }
+
+    @Test public void
+    max_age_policy_is_stale_when_the_last_live_event_should_have_been_archived() {
+        BatchingPolicy policy = BatchingPolicy.maxAge(Duration.ofMinutes(5), clock);
+        Optional<EventRecord> lastEventInLive = Optional.of(eventRecordAt(clock.instant(), 10));
+
+        assertThat(policy.isStale(Optional.of(1L), Optional.of(2L), lastEventInLive), equalTo(false));
+
+        clock.bump(Duration.ofMinutes(16));
+        assertThat(policy.isStale(Optional.of(1L), Optional.of(2L), lastEventInLive), equalTo(true));
+        assertThat(policy.isStale(Optional.of(2L), Optional.of(2L), lastEventInLive), equalTo(false));
+    }
+
+    @Test public void
+    combined_policy_is_ready_when_any_policy_is() {
+        BatchingPolicy policy = BatchingPolicy.anyOf(BatchingPolicy.fixedNumberOfEvents(3), BatchingPolicy.maxAge(Duration.ofMinutes(5), clock));
+
+        policy.notifyAddedToBatch(event(1, 10));
+        policy.notifyAddedToBatch(event(2, 10));
+        policy.notifyAddedToBatch(event(3, 10));
+        assertThat(policy.ready(), equalTo(true));
+
+        policy.reset();
+        policy.notifyAddedToBatch(event(4, 10));
+        assertThat(policy.ready(), equalTo(false));
+        clock.bump(Duration.ofMinutes(5));
+        assertThat(policy.ready(), equalTo(true));
+    }
+
+    private ResolvedEvent event(long position, int dataSize) {
+        return new ResolvedEvent(new S3ArchivePosition(position), eventRecord(dataSize));
+    }
+
+    private EventRecord eventRecord(int dataSize) {
+        return eventRecordAt(Instant.EPOCH, dataSize);
+    }
+
+    private static EventRecord eventRecordAt(Instant timestamp, int dataSize) {
+        return EventRecord.eventRecord(timestamp, StreamId.streamId("category", "id"), 1234, "type", new byte[dataSize], new byte[0]);
+    }
+}
@@ -1,8 +1,12 @@
 package com.timgroup.eventstore.filesystem.archivetool;
 
 import com.codahale.metrics.MetricRegistry;
+import com.timgroup.eventstore.api.EventReader;
 import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.ResolvedEvent;
 import com.timgroup.eventstore.filesystem.IncrementalEventArchiver;
+import com.timgroup.eventstore.filesystem.RangedEventArchiver;
 import com.timgroup.eventstore.mysql.BasicMysqlEventSource;
 
 import javax.annotation.Nonnull;
@@ -13,11 +17,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public final class ArchiveTool {
+    private static final int RANGES_PER_READER = 4;
+
     public static void main(String[] args) {
         Options options = parseOptions(args);
 
@@ -31,9 +41,21 @@ public final class ArchiveTool {
             throw new IllegalStateException();
         }
 
-        IncrementalEventArchiver eventArchiver = new IncrementalEventArchiver(eventSource, options.getArchiveDirectory(), options.isInitialiseNew());
+        boolean initialiseNew = options.isInitialiseNew();
         try {
-            eventArchiver.archiveEvents();
+            if (options.getParallelism() > 1) {
+                RangedEventArchiver rangedArchiver = new RangedEventArchiver(eventSource, options.getArchiveDirectory(), options.isCompress(), options.getParallelism());
+                if (rangedArchiver.hasPlan()) {
+                    rangedArchiver.archiveStore(Collections.emptyList());
+                }
+                else if (initialiseNew && !hasArchives(options.getArchiveDirectory())) {
+                    List<Position> boundaries = rangeBoundaries(eventSource, options.getParallelism() * RANGES_PER_READER);
+                    if (boundaries.size() > 1) {
+                        rangedArchiver.archiveStore(boundaries);
+                    }
+                }
+            }
+            new IncrementalEventArchiver(eventSource, options.getArchiveDirectory(), initialiseNew, options.isCompress()).archiveEvents();
         } catch (IOException e) {
             System.err.println("Failed to archive events");
             e.printStackTrace(System.err);
@@ -44,16 +66,44 @@ public final class ArchiveTool {
         System.exit(0);
     }
 
-    // archivetool [-d directory] [-init] jdbc-url jdbc-user jdbc-password table-name
+    /**
+     * Splits the store's positions, which are row ids for the MySQL store, into equal ranges up to the current last
+     * event. Events written after that are picked up by incremental archiving.
+     */
+    private static List<Position> rangeBoundaries(EventSource eventSource, int ranges) {
+        EventReader storeReader = eventSource.readAll();
+        List<Position> boundaries = new ArrayList<>();
+        boundaries.add(storeReader.emptyStorePosition());
+        Optional<ResolvedEvent> lastEvent = storeReader.readLastEvent();
+        if (lastEvent.isPresent()) {
+            long lastPosition = Long.parseLong(storeReader.storePositionCodec().serializePosition(lastEvent.get().position()));
+            LongStream.rangeClosed(1, ranges)
+                    .map(i -> lastPosition * i / ranges)
+                    .filter(position -> position > 0)
+                    .distinct()
+                    .forEach(position -> boundaries.add(storeReader.storePositionCodec().deserializePosition(Long.toString(position))));
+        }
+        return boundaries;
+    }
+
+    private static boolean hasArchives(Path archiveDirectory) throws IOException {
+        try (Stream<Path> paths = Files.list(archiveDirectory)) {
+            return paths.anyMatch(p -> p.getFileName().toString().endsWith(".position.txt"));
+        }
+    }
+
+    // archivetool [-d directory] [-init] [-xz] [-parallel n] jdbc-url jdbc-user jdbc-password table-name
     private static Options parseOptions(String[] args) {
         if (args.length < 3) {
-            System.err.println("Syntax: archivetool [-d directory] [-init] config.properties db-tag table-name");
+            System.err.println("Syntax: archivetool [-d directory] [-init] [-xz] [-parallel n] config.properties db-tag table-name");
             System.exit(100);
         }
 
         List<String> argList = new ArrayList<String>(Arrays.asList(args));
         Path directory = Paths.get(".");
         boolean initialiseNew = false;
+        boolean compress = false;
+        int parallelism = 1;
 
         while (!argList.isEmpty()) {
             String next = argList.get(0);
@@ -65,6 +115,14 @@ public final class ArchiveTool {
                 initialiseNew = true;
                 argList.remove(0);
             }
+            else if (next.equals("-xz")) {
+                compress = true;
+                argList.remove(0);
+            }
+            else if (next.equals("-parallel")) {
+                argList.remove(0);
+                parallelism = Integer.parseInt(argList.remove(0));
+            }
             else {
                 break;
             }
@@ -74,16 +132,31 @@ public final class ArchiveTool {
         String databaseTag = argList.remove(0);
         String tableName = argList.remove(0);
 
-        return new Options(initialiseNew, new EventSourceConfig(Paths.get(propertiesFilename), String.format("db.%s.", databaseTag), databaseTag, tableName), directory);
+        return new Options(initialiseNew, compress, parallelism, new EventSourceConfig(Paths.get(propertiesFilename), String.format("db.%s.", databaseTag), databaseTag, tableName), directory);
     }
 
     public static final class Options {
         private final boolean initialiseNew;
+        private final boolean compress;
+        private final int parallelism;
         @Nonnull private final EventSourceConfig source;
         @Nonnull private final Path archiveDirectory;
 
         public Options(boolean initialiseNew, @Nonnull EventSourceConfig source, @Nonnull Path archiveDirectory) {
+            this(initialiseNew, false, source, archiveDirectory);
+        }
+
+        public Options(boolean initialiseNew, boolean compress, @Nonnull EventSourceConfig source, @Nonnull Path archiveDirectory) {
+            this(initialiseNew, compress, 1, source, archiveDirectory);
+        }
+
+        /**
+         * @param parallelism number of ranges of a new archive to read from the source at once
+         */
+        public Options(boolean initialiseNew, boolean compress, int parallelism, @Nonnull EventSourceConfig source, @Nonnull Path archiveDirectory) {
             this.initialiseNew = initialiseNew;
+            this.compress = compress;
+            this.parallelism = parallelism;
             this.source = source;
             this.archiveDirectory = archiveDirectory;
         }
@@ -92,6 +165,14 @@ public final class ArchiveTool {
             return initialiseNew;
         }
 
+        public boolean isCompress() {
+            return compress;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
         @Nonnull
         public EventSourceConfig getSource() {
             return source;
@@ -108,19 +189,23 @@ public final class ArchiveTool {
             if (o == null || getClass() != o.getClass()) return false;
             Options options = (Options) o;
             return initialiseNew == options.initialiseNew &&
+                    compress == options.compress &&
+                    parallelism == options.parallelism &&
                     source.equals(options.source) &&
                     archiveDirectory.equals(options.archiveDirectory);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(initialiseNew, source, archiveDirectory);
+            return Objects.hash(initialiseNew, compress, parallelism, source, archiveDirectory);
         }
 
         @Override
         public String toString() {
             return "Options{" +
                     "initialiseNew=" + initialiseNew +
+                    ", compress=" + compress +
+                    ", parallelism=" + parallelism +
                     ", source=" + source +
                     ", archiveDirectory=" + archiveDirectory +
                     '}';
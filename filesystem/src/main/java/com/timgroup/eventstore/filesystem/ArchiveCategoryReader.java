@@ -0,0 +1,69 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventCategoryReader;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Collections.singletonList;
+import static java.util.Objects.requireNonNull;
+
+final class ArchiveCategoryReader implements EventCategoryReader {
+    private final IndexedArchiveReader underlying;
+
+    ArchiveCategoryReader(IndexedArchiveReader underlying) {
+        this.underlying = requireNonNull(underlying);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryForwards(String category, Position positionExclusive) {
+        return readCategoriesForwards(singletonList(category), positionExclusive);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoriesForwards(List<String> categories, Position positionExclusive) {
+        return underlying.readForwards(positionExclusive, index -> index.positionsOfCategories(categories));
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryBackwards(String category) {
+        return underlying.readAllBackwards().filter(re -> re.eventRecord().streamId().category().equals(category));
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryBackwards(String category, Position positionExclusive) {
+        return underlying.readAllBackwards(positionExclusive).filter(re -> re.eventRecord().streamId().category().equals(category));
+    }
+
+    @Nonnull
+    @Override
+    public Position emptyCategoryPosition(String category) {
+        return underlying.emptyStorePosition();
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec categoryPositionCodec(String category) {
+        return underlying.storePositionCodec();
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveCategoryReader{" +
+                "underlying=" + underlying +
+                '}';
+    }
+}
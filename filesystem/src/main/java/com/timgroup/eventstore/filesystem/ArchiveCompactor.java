@@ -0,0 +1,188 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.filesystem.FileLocks.Lockfile;
+import org.apache.commons.compress.archivers.cpio.CpioArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Merges runs of adjacent small archives in an archive directory, such as those written by
+ * {@link IncrementalEventArchiver}, into larger block-compressed archives.
+ *
+ * A run is rewritten as a single ".cpio.xz" archive named after the last archive in the run, which keeps its position
+ * file, so positions in that archive and the directory's input position stay valid. The merged archive is moved into
+ * place before the archives merged into it are removed, position files first, so at every point each event is in at
+ * least one listed archive. {@link ArchiveDirectoryEventSource} readers can carry on meanwhile: they drop events they
+ * have already emitted, and list the directory again if an archive is removed before they open it.
+ *
+ * A journal file is written before the merged archive is moved into place, naming the archives to remove, so that
+ * a compaction interrupted part way through is finished by the next one.
+ */
+public final class ArchiveCompactor {
+    private static final Logger LOG = getLogger(ArchiveCompactor.class);
+    public static final long DEFAULT_TARGET_ARCHIVE_BYTES = 256L * 1024 * 1024;
+    private static final String TEMP_FILE_PREFIX = "__compact";
+
+    @Nonnull
+    private final Path archiveDirectory;
+    private final long targetArchiveBytes;
+
+    public ArchiveCompactor(@Nonnull Path archiveDirectory) {
+        this(archiveDirectory, DEFAULT_TARGET_ARCHIVE_BYTES);
+    }
+
+    /**
+     * @param targetArchiveBytes adjacent archives are merged while their combined size stays within this
+     */
+    public ArchiveCompactor(@Nonnull Path archiveDirectory, long targetArchiveBytes) {
+        this.archiveDirectory = requireNonNull(archiveDirectory);
+        this.targetArchiveBytes = targetArchiveBytes;
+    }
+
+    /**
+     * @return the number of archives merged into others
+     */
+    public int compact() throws IOException {
+        try (Lockfile ignored = FileLocks.forDirectory(archiveDirectory).lockStore()) {
+            for (Path tempFile : listFiles(s -> s.startsWith(TEMP_FILE_PREFIX))) {
+                Files.delete(tempFile);
+            }
+            for (Path journal : listFiles(s -> s.endsWith(".compaction"))) {
+                finishCompaction(journal);
+            }
+
+            int merged = 0;
+            for (List<String> run : planRuns()) {
+                mergeRun(run);
+                merged += run.size() - 1;
+            }
+            return merged;
+        }
+    }
+
+    private List<List<String>> planRuns() throws IOException {
+        List<List<String>> runs = new ArrayList<>();
+        List<String> run = new ArrayList<>();
+        long runBytes = 0;
+        for (Path positionFile : listFiles(s -> s.endsWith(".position.txt"))) {
+            String basename = positionFile.getFileName().toString().replaceFirst("\\.position\\.txt$", "");
+            Path archive = findArchive(basename);
+            if (!Files.exists(archive)) {
+                LOG.warn("Not compacting {}, which has no archive", positionFile);
+                continue;
+            }
+            long size = Files.size(archive);
+            if (!run.isEmpty() && runBytes + size > targetArchiveBytes) {
+                runs.add(run);
+                run = new ArrayList<>();
+                runBytes = 0;
+            }
+            run.add(basename);
+            runBytes += size;
+        }
+        runs.add(run);
+        return runs.stream().filter(r -> r.size() > 1).collect(toList());
+    }
+
+    private void mergeRun(List<String> run) throws IOException {
+        String lastBasename = run.get(run.size() - 1);
+        Path target = archiveDirectory.resolve(lastBasename + ".cpio.xz");
+        Path tempFile = Files.createTempFile(archiveDirectory, TEMP_FILE_PREFIX, ".cpio.xz.tmp");
+
+        ArchiveIndex.Builder index = new ArchiveIndex.Builder();
+        try (OutputStream output = EventArchiver.blockCompressed(Files.newOutputStream(tempFile))) {
+            CountingOutputStream countingOutput = new CountingOutputStream(output);
+            try (CpioArchiveOutputStream cpioOutput = new EventArchiver.CpioArchiveOutputStreamWithoutNames(countingOutput)) {
+                for (String basename : run) {
+                    EventArchiver.copyMembers(findArchive(basename), 0, cpioOutput, countingOutput, index);
+                }
+            }
+        }
+
+        long mergedSize = Files.size(tempFile);
+        List<String> journalLines = new ArrayList<>();
+        journalLines.add(Long.toString(mergedSize));
+        journalLines.addAll(run.subList(0, run.size() - 1));
+        Path journal = archiveDirectory.resolve(lastBasename + ".compaction");
+        Path journalTemp = Files.createTempFile(archiveDirectory, TEMP_FILE_PREFIX, ".compaction.tmp");
+        Files.write(journalTemp, journalLines, UTF_8);
+        Files.move(journalTemp, journal, ATOMIC_MOVE, REPLACE_EXISTING);
+
+        index.build(mergedSize).write(ArchiveIndex.indexPathFor(target));
+        Files.move(tempFile, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        LOG.info("Merged {} archives into {}", run.size(), target);
+
+        finishCompaction(journal);
+    }
+
+    /**
+     * Removes the archives merged by a journalled compaction, if its merged archive made it into place; otherwise the
+     * compaction never took effect and the journal is simply discarded.
+     */
+    private void finishCompaction(Path journal) throws IOException {
+        List<String> lines = Files.readAllLines(journal, UTF_8);
+        String lastBasename = journal.getFileName().toString().replaceFirst("\\.compaction$", "");
+        Path target = archiveDirectory.resolve(lastBasename + ".cpio.xz");
+        if (Files.exists(target) && Files.size(target) == Long.parseLong(lines.get(0))) {
+            for (String basename : lines.subList(1, lines.size())) {
+                Files.deleteIfExists(archiveDirectory.resolve(basename + ".position.txt"));
+            }
+            for (String basename : lines.subList(1, lines.size())) {
+                deleteArchive(basename + ".cpio");
+                deleteArchive(basename + ".cpio.xz");
+            }
+            deleteArchive(lastBasename + ".cpio");
+        }
+        else {
+            LOG.warn("Discarding journal {} of a compaction that did not complete", journal);
+        }
+        Files.delete(journal);
+    }
+
+    private void deleteArchive(String filename) throws IOException {
+        Path archive = archiveDirectory.resolve(filename);
+        Files.deleteIfExists(archive);
+        Files.deleteIfExists(ArchiveIndex.indexPathFor(archive));
+    }
+
+    private Path findArchive(String basename) {
+        Path xz = archiveDirectory.resolve(basename + ".cpio.xz");
+        if (Files.exists(xz)) {
+            return xz;
+        }
+        return archiveDirectory.resolve(basename + ".cpio");
+    }
+
+    private List<Path> listFiles(Predicate<? super String> filenameMatches) throws IOException {
+        try (Stream<Path> paths = Files.list(archiveDirectory)) {
+            return paths.filter(p -> filenameMatches.test(p.getFileName().toString()))
+                    .sorted()
+                    .collect(toList());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveCompactor{" +
+                "archiveDirectory=" + archiveDirectory +
+                ", targetArchiveBytes=" + targetArchiveBytes +
+                '}';
+    }
+}
@@ -8,17 +8,29 @@ import com.timgroup.eventstore.api.EventStreamWriter;
 import com.timgroup.eventstore.api.Position;
 import com.timgroup.eventstore.api.PositionCodec;
 import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
 import com.timgroup.tucker.info.Component;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -26,14 +38,42 @@ import java.util.stream.StreamSupport;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptySet;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toList;
 
-public final class ArchiveDirectoryEventSource implements EventSource, EventReader {
+public final class ArchiveDirectoryEventSource implements EventSource, IndexedArchiveReader {
     @Nonnull
     private final Path archiveDirectory;
+    private final ConcurrentMap<Path, ArchiveEventReader> archiveReaders = new ConcurrentHashMap<>();
+    private final int readAheadArchives;
+    private final int readAheadBytesPerArchive;
+    private final long blockReadAheadBytes;
 
     public ArchiveDirectoryEventSource(@Nonnull Path archiveDirectory) {
+        this(archiveDirectory, 0, 0);
+    }
+
+    /**
+     * @param readAheadArchives number of archives after the current one to decode on background threads while the
+     *                          current one is consumed, or 0 to decode on the consuming thread
+     * @param readAheadBytesPerArchive limit on the event data buffered for each archive being read ahead
+     */
+    public ArchiveDirectoryEventSource(@Nonnull Path archiveDirectory, int readAheadArchives, int readAheadBytesPerArchive) {
+        this(archiveDirectory, readAheadArchives, readAheadBytesPerArchive, ArchiveEventReader.DEFAULT_READ_AHEAD_BYTES);
+    }
+
+    /**
+     * @param blockReadAheadBytes limit on the decompressed blocks of a block-compressed xz archive decoded in parallel
+     *                            ahead of each archive reader
+     */
+    public ArchiveDirectoryEventSource(@Nonnull Path archiveDirectory, int readAheadArchives, int readAheadBytesPerArchive, long blockReadAheadBytes) {
+        if (blockReadAheadBytes <= 0) throw new IllegalArgumentException("blockReadAheadBytes must be positive: " + blockReadAheadBytes);
+        if (readAheadArchives < 0) throw new IllegalArgumentException("readAheadArchives must not be negative: " + readAheadArchives);
+        if (readAheadArchives > 0 && readAheadBytesPerArchive <= 0) throw new IllegalArgumentException("readAheadBytesPerArchive must be positive: " + readAheadBytesPerArchive);
         this.archiveDirectory = requireNonNull(archiveDirectory);
+        this.readAheadArchives = readAheadArchives;
+        this.readAheadBytesPerArchive = readAheadBytesPerArchive;
+        this.blockReadAheadBytes = blockReadAheadBytes;
     }
 
     @Nonnull
@@ -45,57 +85,262 @@ public final class ArchiveDirectoryEventSource implements EventSource, EventRead
     @Nonnull
     @Override
     public Stream<ResolvedEvent> readAllForwards(Position positionExclusive) {
-        List<Path> archiveFiles = positionFilesStartingFrom((ArchiveDirectoryPosition) positionExclusive);
-        if (archiveFiles.isEmpty())
+        return read(positionExclusive, null);
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readForwards(Position positionExclusive, Function<? super ArchiveIndex, long[]> selector) {
+        return read(positionExclusive, selector);
+    }
+
+    /**
+     * Checks the archives with up-to-date indexes first, and only then reads those without one.
+     */
+    @Override
+    public boolean containsStream(StreamId streamId) {
+        List<ArchiveEventReader> unindexed = new ArrayList<>();
+        for (Path positionFile : positionFiles()) {
+            ArchiveEventReader archiveReader = archiveReader(archiveNameFor(positionFile));
+            ArchiveIndex index = archiveReader.existingIndex();
+            if (index == null) {
+                unindexed.add(archiveReader);
+            } else if (index.containsStream(streamId)) {
+                return true;
+            }
+        }
+        return unindexed.stream().anyMatch(archiveReader -> archiveReader.containsStream(streamId));
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readAllBackwards() {
+        return readBackwards(null);
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readAllBackwards(Position positionExclusive) {
+        ArchivePosition position = ((ArchiveDirectoryPosition) positionExclusive).getPosition();
+        if (position.equals(ArchivePosition.EMPTY)) {
             return Stream.empty();
+        }
+        return readBackwards(position);
+    }
 
-        Spliterator<ResolvedEvent> directorySpliterator = new Spliterator<ResolvedEvent>() {
-            private final Iterator<Path> fileIterator = archiveFiles.iterator();
-            private Spliterator<ResolvedEvent> archiveSpliterator;
-            private Stream<ResolvedEvent> archiveStream;
+    /**
+     * Reads archives latest first, each one backwards, opening an archive only once the later ones are exhausted so
+     * that reading just the last few events touches only the last archive.
+     */
+    private Stream<ResolvedEvent> readBackwards(@Nullable ArchivePosition positionExclusive) {
+        List<String> archiveNames = new ArrayList<>();
+        for (Path positionFile : positionFiles()) {
+            archiveNames.add(archiveNameFor(positionFile));
+            if (positionExclusive != null && positionFile.getFileName().toString().compareTo(positionExclusive.getFilename() + ".") >= 0) {
+                break;
+            }
+        }
+        Collections.reverse(archiveNames);
+        long memberExclusive = positionExclusive == null ? Long.MAX_VALUE : positionExclusive.decode().getPosition();
+        Iterator<String> archives = archiveNames.iterator();
+        class BackwardsIterator extends AbstractIterator<ResolvedEvent> implements AutoCloseable {
+            private Stream<ResolvedEvent> archiveStream = Stream.empty();
+            private Iterator<ResolvedEvent> archiveEvents = Collections.emptyIterator();
+            private String archiveName;
 
             @Override
-            public boolean tryAdvance(Consumer<? super ResolvedEvent> action) {
-                if (archiveStream != null) {
-                    if (archiveSpliterator.tryAdvance(action))
-                        return true;
+            public void computeNext() {
+                while (!archiveEvents.hasNext()) {
                     archiveStream.close();
-                    archiveSpliterator = null;
-                    archiveStream = null;
+                    if (!archives.hasNext()) {
+                        done();
+                        return;
+                    }
+                    archiveName = archives.next();
+                    archiveStream = archiveReader(archiveName).readMembersBackwards(memberExclusive);
+                    archiveEvents = archiveStream.iterator();
                 }
+                ResolvedEvent re = archiveEvents.next();
+                setNext(re.eventRecord().toResolvedEvent(new ArchiveDirectoryPosition(archiveName, (ArchivePosition) re.position())));
+            }
 
-                if (!fileIterator.hasNext())
-                    return false;
+            @Override
+            public void close() {
+                archiveStream.close();
+            }
+        }
+        BackwardsIterator iterator = new BackwardsIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
 
-                Path positionFilePath = fileIterator.next();
-                String positionFileName = positionFilePath.getFileName().toString();
-                String archiveName = positionFileName.replaceAll("\\.position\\.txt$", ".cpio");
-                Path archivePath = findArchive(archiveName);
+    private Stream<ResolvedEvent> read(Position positionExclusive, @Nullable Function<? super ArchiveIndex, long[]> selector) {
+        ArchivePosition start = ((ArchiveDirectoryPosition) positionExclusive).getPosition();
+        DirectorySpliterator directorySpliterator = readAheadArchives > 0 ? new ReadAheadDirectorySpliterator(start, selector) : new DirectorySpliterator(start, selector);
+        return StreamSupport.stream(directorySpliterator, false).onClose(directorySpliterator::close);
+    }
 
-                archiveStream = new ArchiveEventReader(archivePath)
-                        .readAllForwards(((ArchiveDirectoryPosition) positionExclusive).getPosition())
-                        .map(re -> re.eventRecord().toResolvedEvent(new ArchiveDirectoryPosition(archiveName, (ArchivePosition) re.position())));
-                archiveSpliterator = archiveStream.spliterator();
-                return tryAdvance(action);
-            }
+    /**
+     * Reads archives in turn, tolerating concurrent compaction: events at or before the last one emitted are dropped
+     * (a compacted archive repeats the events of the archives merged into it), and if an archive has been merged away
+     * before it is opened, the directory is listed again from the last event emitted.
+     */
+    private class DirectorySpliterator extends Spliterators.AbstractSpliterator<ResolvedEvent> implements AutoCloseable {
+        @Nullable
+        final Function<? super ArchiveIndex, long[]> selector;
+        @Nonnull
+        ArchivePosition lastPosition;
+        @Nullable
+        Deque<String> archiveNames;
+        @Nullable
+        private String currentArchive;
+        @Nullable
+        private Spliterator<ResolvedEvent> archiveSpliterator;
+        @Nullable
+        private AutoCloseable archiveCloser;
+        private boolean emittedFromCurrentArchive;
+        @Nullable
+        private String lastMissingArchive;
 
-            @Override
-            public Spliterator<ResolvedEvent> trySplit() {
-                return null;
+        DirectorySpliterator(ArchivePosition start, @Nullable Function<? super ArchiveIndex, long[]> selector) {
+            super(Long.MAX_VALUE, Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.CONCURRENT);
+            this.lastPosition = start;
+            this.selector = selector;
+        }
+
+        @Override
+        public Spliterator<ResolvedEvent> trySplit() {
+            return null;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ResolvedEvent> action) {
+            boolean[] emitted = { false };
+            Consumer<ResolvedEvent> filter = re -> {
+                ArchivePosition position = ((ArchiveDirectoryPosition) re.position()).getPosition();
+                if (position.compareTo(lastPosition) > 0) {
+                    lastPosition = position;
+                    emitted[0] = true;
+                    emittedFromCurrentArchive = true;
+                    action.accept(re);
+                }
+            };
+            while (true) {
+                try {
+                    if (archiveSpliterator == null) {
+                        if (archiveNames == null) {
+                            relist();
+                        }
+                        emittedFromCurrentArchive = false;
+                        if (!openNextArchive())
+                            return false;
+                    }
+                    if (!archiveSpliterator.tryAdvance(filter)) {
+                        closeArchive();
+                    }
+                    else if (emitted[0]) {
+                        return true;
+                    }
+                } catch (WrappedIOException e) {
+                    if (!(e.getIoException() instanceof NoSuchFileException) || emittedFromCurrentArchive || Objects.equals(currentArchive, lastMissingArchive)) {
+                        throw e;
+                    }
+                    lastMissingArchive = currentArchive;
+                    closeArchive();
+                    archiveReaders.keySet().removeIf(path -> !Files.exists(path));
+                    relist();
+                }
             }
+        }
 
-            @Override
-            public long estimateSize() {
-                return Long.MAX_VALUE;
+        boolean openNextArchive() {
+            String archiveName = archiveNames.pollFirst();
+            if (archiveName == null)
+                return false;
+            Stream<ResolvedEvent> stream = archiveStream(archiveName, lastPosition, selector);
+            setArchive(archiveName, stream.spliterator(), stream);
+            return true;
+        }
+
+        final void setArchive(String archiveName, Spliterator<ResolvedEvent> spliterator, AutoCloseable closer) {
+            currentArchive = archiveName;
+            archiveSpliterator = spliterator;
+            archiveCloser = closer;
+        }
+
+        void relist() {
+            archiveNames = positionFilesStartingFrom(lastPosition).stream()
+                    .map(ArchiveDirectoryEventSource::archiveNameFor)
+                    .collect(toCollection(ArrayDeque::new));
+        }
+
+        private void closeArchive() {
+            AutoCloseable closer = archiveCloser;
+            archiveSpliterator = null;
+            archiveCloser = null;
+            if (closer != null) {
+                try {
+                    closer.close();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
+        }
 
-            @Override
-            public int characteristics() {
-                return Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.CONCURRENT;
+        @Override
+        public void close() {
+            closeArchive();
+        }
+    }
+
+    private final class ReadAheadDirectorySpliterator extends DirectorySpliterator {
+        private final Deque<String> readingAheadNames = new ArrayDeque<>();
+        private final Deque<ReadAheadArchive> readingAhead = new ArrayDeque<>();
+
+        ReadAheadDirectorySpliterator(ArchivePosition start, @Nullable Function<? super ArchiveIndex, long[]> selector) {
+            super(start, selector);
+        }
+
+        @Override
+        boolean openNextArchive() {
+            while (readingAhead.size() <= readAheadArchives && !archiveNames.isEmpty()) {
+                String archiveName = archiveNames.pollFirst();
+                ArchivePosition startExclusive = lastPosition;
+                readingAheadNames.addLast(archiveName);
+                readingAhead.addLast(new ReadAheadArchive(() -> archiveStream(archiveName, startExclusive, selector), readAheadBytesPerArchive));
             }
-        };
+            ReadAheadArchive next = readingAhead.pollFirst();
+            if (next == null)
+                return false;
+            setArchive(readingAheadNames.pollFirst(), next, next);
+            return true;
+        }
+
+        @Override
+        void relist() {
+            discardReadAhead();
+            super.relist();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            discardReadAhead();
+        }
 
-        return StreamSupport.stream(directorySpliterator, false);
+        private void discardReadAhead() {
+            readingAhead.forEach(ReadAheadArchive::close);
+            readingAhead.clear();
+            readingAheadNames.clear();
+        }
+    }
+
+    private Stream<ResolvedEvent> archiveStream(String archiveName, ArchivePosition positionExclusive, @Nullable Function<? super ArchiveIndex, long[]> selector) {
+        ArchiveEventReader archiveReader = archiveReader(archiveName);
+        return (selector == null ? archiveReader.readAllForwards(positionExclusive) : archiveReader.readForwards(positionExclusive, selector))
+                .map(re -> re.eventRecord().toResolvedEvent(new ArchiveDirectoryPosition(archiveName, (ArchivePosition) re.position())));
     }
 
     @Nonnull
@@ -107,13 +352,13 @@ public final class ArchiveDirectoryEventSource implements EventSource, EventRead
     @Nonnull
     @Override
     public EventCategoryReader readCategory() {
-        throw new UnsupportedOperationException();
+        return new ArchiveCategoryReader(this);
     }
 
     @Nonnull
     @Override
     public EventStreamReader readStream() {
-        throw new UnsupportedOperationException();
+        return new ArchiveStreamReader(this);
     }
 
     @Nonnull
@@ -145,13 +390,13 @@ public final class ArchiveDirectoryEventSource implements EventSource, EventRead
         }
     }
 
-    private List<Path> positionFilesStartingFrom(ArchiveDirectoryPosition startExclusive) {
+    private List<Path> positionFilesStartingFrom(ArchivePosition startExclusive) {
         Predicate<? super Path> fileFilter;
-        if (startExclusive.equals(ArchiveDirectoryPosition.EMPTY)) {
+        if (startExclusive.equals(ArchivePosition.EMPTY)) {
             fileFilter = p -> true;
         }
         else {
-            String minFilename = startExclusive.getPosition().getFilename() + "~";
+            String minFilename = startExclusive.getFilename() + "~";
             fileFilter = p -> p.getFileName().toString().compareTo(minFilename) >= 0;
         }
         return positionFiles().stream().filter(fileFilter).collect(toList());
@@ -165,6 +410,14 @@ public final class ArchiveDirectoryEventSource implements EventSource, EventRead
         }
     }
 
+    private static String archiveNameFor(Path positionFile) {
+        return positionFile.getFileName().toString().replaceAll("\\.position\\.txt$", ".cpio");
+    }
+
+    private ArchiveEventReader archiveReader(String archiveName) {
+        return archiveReaders.computeIfAbsent(findArchive(archiveName), path -> new ArchiveEventReader(path, blockReadAheadBytes));
+    }
+
     private Path findArchive(String baseName) {
         Path xz = archiveDirectory.resolve(baseName + ".xz");
         if (Files.exists(xz)) {
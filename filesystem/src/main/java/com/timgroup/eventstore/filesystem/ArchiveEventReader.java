@@ -1,11 +1,14 @@
 package com.timgroup.eventstore.filesystem;
 
-import com.timgroup.eventstore.api.EventReader;
 import com.timgroup.eventstore.api.Position;
 import com.timgroup.eventstore.api.PositionCodec;
 import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveEntry;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
 import org.tukaani.xz.XZInputStream;
 
 import javax.annotation.Nonnull;
@@ -13,36 +16,159 @@ import javax.annotation.Nullable;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Objects.requireNonNull;
 
-public class ArchiveEventReader implements EventReader {
+public class ArchiveEventReader implements IndexedArchiveReader {
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+    /**
+     * Default limit on the blocks of a block-compressed xz archive that each reader decodes ahead of itself.
+     */
+    public static final long DEFAULT_READ_AHEAD_BYTES = 4L * BlockCompressedOutputStream.DEFAULT_BLOCK_SIZE;
+
+    private static final ExecutorService BLOCK_DECODERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("archive-xz-decoder"));
 
     @Nonnull
     private final Path archivePath;
+    private final long readAheadBytes;
+    @Nullable
+    private volatile ArchiveIndex index;
 
     ArchiveEventReader(Path archivePath) {
+        this(archivePath, DEFAULT_READ_AHEAD_BYTES);
+    }
+
+    /**
+     * @param readAheadBytes limit on the decompressed blocks of a block-compressed xz archive decoded in parallel
+     *                       ahead of the reader
+     */
+    ArchiveEventReader(Path archivePath, long readAheadBytes) {
+        if (readAheadBytes <= 0) throw new IllegalArgumentException("readAheadBytes must be positive: " + readAheadBytes);
         this.archivePath = requireNonNull(archivePath);
+        this.readAheadBytes = readAheadBytes;
     }
 
     @Nonnull
     @Override
     public Stream<ResolvedEvent> readAllForwards(@Nonnull Position positionExclusive) {
+        return readMembersForwards(positionExclusive, null);
+    }
+
+    /**
+     * Reads only the members at the given positions, which must be in ascending order, stopping after the last one.
+     */
+    @Nonnull
+    Stream<ResolvedEvent> readMembersForwards(@Nonnull Position positionExclusive, @Nullable long[] memberPositions) {
         String seekToPosition = ((ArchivePosition) positionExclusive).getFilename();
-        ArchiveEventIterator iterator = new ArchiveEventIterator(seekToPosition.isEmpty() ? null : seekToPosition + "~");
+        long firstMember = seekToPosition.isEmpty() ? 0 : ((ArchivePosition) positionExclusive).decode().getPosition() + 1;
+        if (memberPositions != null && memberPositions.length > 0) {
+            firstMember = Math.max(firstMember, memberPositions[0]);
+        }
+        long startOffset = 0;
+        if (firstMember > 0) {
+            ArchiveIndex offsetIndex = memberPositions != null ? index() : existingIndex();
+            if (offsetIndex != null) {
+                startOffset = offsetIndex.offsetAtOrBefore(firstMember);
+            }
+        }
+        ClosableEventIterator iterator = openMembers(firstMember, memberPositions, startOffset);
         Spliterator<ResolvedEvent> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
         return StreamSupport.stream(spliterator, false).onClose(iterator::close);
     }
 
+    private ClosableEventIterator openMembers(long firstMember, @Nullable long[] memberPositions, long startOffset) {
+        if (archivePath.getFileName().toString().endsWith(".cpio")) {
+            return new MappedArchiveEventIterator(firstMember, memberPositions, startOffset);
+        }
+        return new ArchiveEventIterator(firstMember == 0 ? null : String.format("%08x~", firstMember - 1), memberPositions, startOffset);
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readAllBackwards() {
+        return readMembersBackwards(Long.MAX_VALUE);
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readAllBackwards(Position positionExclusive) {
+        if (((ArchivePosition) positionExclusive).getFilename().isEmpty()) {
+            return Stream.empty();
+        }
+        return readMembersBackwards(((ArchivePosition) positionExclusive).decode().getPosition());
+    }
+
+    /**
+     * Reads the members before {@code positionExclusive}, latest first. The archive is decoded a run of members at a
+     * time, using the offset table of the index, so reading only the last few events costs one run rather than the
+     * whole archive.
+     *
+     * Archives that can only be decoded from the start, being gzipped or xz compressed as a single block, have their
+     * last run decoded directly; if earlier runs are read, the archive is decoded once more into a temporary
+     * uncompressed copy that is read from then on, and deleted once the stream is exhausted or closed.
+     */
+    @Nonnull
+    Stream<ResolvedEvent> readMembersBackwards(long positionExclusive) {
+        BackwardsIterator iterator = new BackwardsIterator(index(), positionExclusive);
+        Spliterator<ResolvedEvent> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readForwards(Position positionExclusive, Function<? super ArchiveIndex, long[]> selector) {
+        long[] memberPositions = selector.apply(index());
+        if (memberPositions.length == 0) {
+            return Stream.empty();
+        }
+        return readMembersForwards(positionExclusive, memberPositions);
+    }
+
+    @Override
+    public boolean containsStream(StreamId streamId) {
+        ArchiveIndex loaded = existingIndex();
+        return loaded != null ? loaded.containsStream(streamId) : ArchiveIndex.archiveContainsStream(archivePath, streamId);
+    }
+
+    ArchiveIndex index() {
+        ArchiveIndex loaded = index;
+        if (loaded == null || !loaded.isCurrentFor(archivePath)) {
+            loaded = ArchiveIndex.forArchive(archivePath);
+            index = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the index if the archive already has an up-to-date one, without building it
+     */
+    @Nullable
+    ArchiveIndex existingIndex() {
+        ArchiveIndex loaded = index;
+        if (loaded == null || !loaded.isCurrentFor(archivePath)) {
+            loaded = ArchiveIndex.readIfPresent(archivePath);
+            index = loaded;
+        }
+        return loaded;
+    }
+
     @Nonnull
     @Override
     public Position emptyStorePosition() {
@@ -55,33 +181,292 @@ public class ArchiveEventReader implements EventReader {
         return ArchivePosition.CODEC;
     }
 
-    private InputStream openFile() throws IOException {
+    /**
+     * Opens the cpio content of an archive, starting at {@code offset} in the uncompressed content.
+     *
+     * Uncompressed archives seek directly. XZ archives seek to the start of the compressed block containing the offset
+     * and decode only from there, decoding blocks in parallel if written by {@link BlockCompressedOutputStream}; gzip
+     * archives have to be decoded from the start.
+     */
+    static InputStream openArchive(Path archivePath, long offset) throws IOException {
+        return openArchive(archivePath, offset, DEFAULT_READ_AHEAD_BYTES);
+    }
+
+    static InputStream openArchive(Path archivePath, long offset, long readAheadBytes) throws IOException {
         String filename = archivePath.getFileName().toString();
         if (filename.endsWith(".cpio.xz")) {
-            return new XZInputStream(Files.newInputStream(archivePath));
+            InputStream blockInput = ParallelXZBlockInputStream.open(archivePath, offset, BLOCK_DECODERS, readAheadBytes);
+            if (blockInput != null) {
+                return blockInput;
+            }
+            if (offset == 0) {
+                return new XZInputStream(Files.newInputStream(archivePath));
+            }
+            SeekableXZInputStream input = new SeekableXZInputStream(new SeekableFileInputStream(archivePath.toFile()));
+            try {
+                input.seek(offset);
+            } catch (IOException | RuntimeException e) {
+                input.close();
+                throw e;
+            }
+            return input;
         } else if (filename.endsWith(".cpio.gz")) {
-            return new GZIPInputStream(Files.newInputStream(archivePath));
+            InputStream input = new GZIPInputStream(Files.newInputStream(archivePath));
+            try {
+                if (IOUtils.skip(input, offset) != offset) {
+                    throw new IOException("Unable to skip to offset " + offset + " in " + archivePath);
+                }
+            } catch (IOException | RuntimeException e) {
+                input.close();
+                throw e;
+            }
+            return input;
         } else if (filename.endsWith(".cpio")) {
-            return new BufferedInputStream(Files.newInputStream(archivePath));
+            SeekableByteChannel channel = Files.newByteChannel(archivePath);
+            try {
+                channel.position(offset);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return new BufferedInputStream(Channels.newInputStream(channel));
         } else {
             throw new IllegalArgumentException("Unrecognised filename extension: " + archivePath);
         }
     }
 
-    private final class ArchiveEventIterator extends AbstractIterator<ResolvedEvent> implements AutoCloseable {
+    private final class BackwardsIterator extends ClosableEventIterator {
+        @Nonnull
+        private final ArchiveIndex index;
+        private final long positionExclusive;
+        private final boolean seekable;
+        private final Deque<ResolvedEvent> run = new ArrayDeque<>();
+        private int nextEntry;
+        private boolean readFirstRun;
+        @Nullable
+        private Path uncompressedCopy;
+
+        BackwardsIterator(ArchiveIndex index, long positionExclusive) {
+            this.index = index;
+            this.positionExclusive = positionExclusive;
+            this.seekable = decodesFromAnyOffset();
+            int entry = index.offsetEntries() - 1;
+            while (entry > 0 && index.offsetEntryPosition(entry) >= positionExclusive) {
+                entry--;
+            }
+            this.nextEntry = entry;
+        }
+
+        @Override
+        public void computeNext() {
+            while (run.isEmpty() && nextEntry >= 0) {
+                readRun(nextEntry--);
+            }
+            ResolvedEvent next = run.pollLast();
+            if (next == null) {
+                close();
+                done();
+            } else {
+                setNext(next);
+            }
+        }
+
+        private void readRun(int entry) {
+            long firstMember = index.offsetEntryPosition(entry);
+            long startOffset = index.offsetEntryOffset(entry);
+            long endExclusive = positionExclusive;
+            if (entry + 1 < index.offsetEntries()) {
+                endExclusive = Math.min(endExclusive, index.offsetEntryPosition(entry + 1));
+            }
+            ArchiveEventReader reader = ArchiveEventReader.this;
+            if (readFirstRun && !seekable) {
+                reader = new ArchiveEventReader(uncompressedCopy(), readAheadBytes);
+            }
+            readFirstRun = true;
+            try (ClosableEventIterator members = reader.openMembers(firstMember, null, startOffset)) {
+                while (members.hasNext()) {
+                    ResolvedEvent event = members.next();
+                    if (((ArchivePosition) event.position()).decode().getPosition() >= endExclusive) {
+                        break;
+                    }
+                    run.addLast(event);
+                }
+            }
+        }
+
+        private boolean decodesFromAnyOffset() {
+            String filename = archivePath.getFileName().toString();
+            try {
+                return filename.endsWith(".cpio") || (filename.endsWith(".cpio.xz") && ParallelXZBlockInputStream.isBlockCompressed(archivePath));
+            } catch (IOException e) {
+                throw new WrappedIOException(e);
+            }
+        }
+
+        private Path uncompressedCopy() {
+            if (uncompressedCopy == null) {
+                try {
+                    Path copy = Files.createTempFile("backwards", ".cpio");
+                    uncompressedCopy = copy;
+                    try (InputStream input = openArchive(archivePath, 0, readAheadBytes)) {
+                        Files.copy(input, copy, REPLACE_EXISTING);
+                    }
+                } catch (IOException e) {
+                    close();
+                    throw new WrappedIOException(e);
+                }
+            }
+            return uncompressedCopy;
+        }
+
+        @Override
+        public void close() {
+            if (uncompressedCopy != null) {
+                try {
+                    Files.deleteIfExists(uncompressedCopy);
+                } catch (IOException e) {
+                    throw new WrappedIOException(e);
+                } finally {
+                    uncompressedCopy = null;
+                }
+            }
+        }
+    }
+
+    private abstract static class ClosableEventIterator extends AbstractIterator<ResolvedEvent> implements AutoCloseable {
+        @Override
+        public abstract void close();
+    }
+
+    /**
+     * Reads an uncompressed archive through a memory mapping, falling back to {@link ArchiveEventIterator} if the
+     * archive is too large to map.
+     */
+    private final class MappedArchiveEventIterator extends ClosableEventIterator {
+        @Nullable
+        private final MappedCpioArchive archive;
+        @Nullable
+        private final ArchiveEventIterator fallback;
+        private final long firstMember;
+        @Nullable
+        private final long[] memberPositions;
+        private final long startOffset;
+        private int nextMember;
+        private boolean started;
+        private boolean unconsumed;
+
+        MappedArchiveEventIterator(long firstMember, @Nullable long[] memberPositions, long startOffset) {
+            this.firstMember = firstMember;
+            this.memberPositions = memberPositions;
+            this.startOffset = startOffset;
+            try {
+                archive = MappedCpioArchive.map(archivePath);
+            } catch (IOException e) {
+                throw new WrappedIOException(e);
+            }
+            fallback = archive == null ? new ArchiveEventIterator(firstMember == 0 ? null : String.format("%08x~", firstMember - 1), memberPositions, startOffset) : null;
+        }
+
+        @Override
+        public void computeNext() {
+            if (fallback != null) {
+                if (fallback.hasNext()) {
+                    setNext(fallback.next());
+                } else {
+                    done();
+                }
+                return;
+            }
+            try {
+                if (!advanceToSelectedMember()) {
+                    done();
+                    return;
+                }
+
+                ArchiveFilenameContent filenameContent = ArchiveFilenameContent.parseFilename(archive.name());
+                Instant timestamp = Instant.ofEpochMilli(archive.timeMillis());
+                byte[] data = archive.content();
+                byte[] metadata = EMPTY_BYTE_ARRAY;
+                if (advance()) {
+                    if (archive.isMetadata()) {
+                        metadata = archive.content();
+                    } else {
+                        unconsumed = true;
+                    }
+                }
+
+                setNext(filenameContent
+                        .toEventRecord(timestamp, data, metadata)
+                        .toResolvedEvent(new ArchivePosition(filenameContent.getBasename())));
+            } catch (IOException e) {
+                throw new WrappedIOException(e);
+            }
+        }
+
+        private boolean advanceToSelectedMember() throws IOException {
+            while (advance()) {
+                long position = archive.position();
+                if (position < firstMember) {
+                    continue;
+                }
+                if (memberPositions == null) {
+                    if (!archive.isData()) {
+                        throw new IllegalStateException("Expected data member: " + archive.name());
+                    }
+                    return true;
+                }
+                while (nextMember < memberPositions.length && memberPositions[nextMember] < position) {
+                    nextMember++;
+                }
+                if (nextMember == memberPositions.length) {
+                    return false;
+                }
+                if (memberPositions[nextMember] == position && archive.isData()) {
+                    nextMember++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean advance() throws IOException {
+            if (unconsumed) {
+                unconsumed = false;
+                return true;
+            }
+            if (!started) {
+                started = true;
+                return archive.moveTo(startOffset);
+            }
+            return archive.next();
+        }
+
+        @Override
+        public void close() {
+            if (fallback != null) {
+                fallback.close();
+            }
+        }
+    }
+
+    private final class ArchiveEventIterator extends ClosableEventIterator {
         @Nonnull
         private final CpioArchiveInputStream cpioInput;
         @Nonnull
         private final CpioEntryBuffer buffer;
         @Nullable
         private String positionExclusive;
+        @Nullable
+        private final long[] memberPositions;
+        private int nextMember;
 
-        ArchiveEventIterator(@Nullable String positionExclusive) {
+        ArchiveEventIterator(@Nullable String positionExclusive, @Nullable long[] memberPositions, long startOffset) {
             super();
             this.positionExclusive = positionExclusive;
+            this.memberPositions = memberPositions;
 
             try {
-                cpioInput = new CpioArchiveInputStream(openFile());
+                cpioInput = new CpioArchiveInputStream(openArchive(archivePath, startOffset, readAheadBytes));
             } catch (IOException e) {
                 throw new WrappedIOException(e);
             }
@@ -106,7 +491,7 @@ public class ArchiveEventReader implements EventReader {
                     positionExclusive = null;
                 }
 
-                CpioArchiveEntry cpioEntry = buffer.shiftOrNull();
+                CpioArchiveEntry cpioEntry = memberPositions != null ? nextSelectedEntry(memberPositions) : buffer.shiftOrNull();
                 if (cpioEntry == null) {
                     done();
                     return;
@@ -136,6 +521,22 @@ public class ArchiveEventReader implements EventReader {
             }
         }
 
+        @Nullable
+        private CpioArchiveEntry nextSelectedEntry(long[] memberPositions) throws IOException {
+            CpioArchiveEntry cpioEntry;
+            while (nextMember < memberPositions.length && (cpioEntry = buffer.shiftOrNull()) != null) {
+                long position = Long.parseLong(cpioEntry.getName().substring(0, 8), 16);
+                while (nextMember < memberPositions.length && memberPositions[nextMember] < position) {
+                    nextMember++;
+                }
+                if (nextMember < memberPositions.length && memberPositions[nextMember] == position && cpioEntry.getName().endsWith(".data")) {
+                    nextMember++;
+                    return cpioEntry;
+                }
+            }
+            return null;
+        }
+
         @Override
         public void close() {
             try {
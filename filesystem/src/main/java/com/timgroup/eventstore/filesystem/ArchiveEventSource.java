@@ -16,28 +16,36 @@ import static java.util.Objects.requireNonNull;
 
 public final class ArchiveEventSource implements EventSource {
     @Nonnull
-    private final Path archivePath;
+    private final ArchiveEventReader reader;
 
     public ArchiveEventSource(@Nonnull Path archivePath) {
-        this.archivePath = requireNonNull(archivePath);
+        this(archivePath, ArchiveEventReader.DEFAULT_READ_AHEAD_BYTES);
+    }
+
+    /**
+     * @param readAheadBytes limit on the decompressed blocks of a block-compressed xz archive decoded in parallel
+     *                       ahead of each reader
+     */
+    public ArchiveEventSource(@Nonnull Path archivePath, long readAheadBytes) {
+        this.reader = new ArchiveEventReader(requireNonNull(archivePath), readAheadBytes);
     }
 
     @Nonnull
     @Override
     public EventReader readAll() {
-        return new ArchiveEventReader(archivePath);
+        return reader;
     }
 
     @Nonnull
     @Override
     public EventCategoryReader readCategory() {
-        return new FilteringCategoryReader(readAll());
+        return new ArchiveCategoryReader(reader);
     }
 
     @Nonnull
     @Override
     public EventStreamReader readStream() {
-        return new FilteringStreamReader(readAll(), stream -> true);
+        return new ArchiveStreamReader(reader);
     }
 
     @Nonnull
@@ -0,0 +1,353 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.StreamId;
+import org.apache.commons.compress.archivers.cpio.CpioArchiveEntry;
+import org.apache.commons.compress.archivers.cpio.CpioArchiveInputStream;
+import org.apache.commons.compress.utils.CountingInputStream;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Sidecar index of an event archive, giving the member positions of each stream in the archive and a sparse table of
+ * the (uncompressed) offsets at which members start, so that readers can seek instead of decoding from the start.
+ *
+ * Positions are the sequence numbers that prefix member names. They are kept delta-encoded as varints, so an index
+ * for a large archive stays small enough to hold in memory.
+ */
+final class ArchiveIndex {
+    private static final Logger LOG = getLogger(ArchiveIndex.class);
+    private static final int MAGIC = 0x41494458;
+    private static final int VERSION = 2;
+    static final long OFFSET_INTERVAL_BYTES = 1024 * 1024;
+    private static final long[] NO_POSITIONS = new long[0];
+
+    private final long archiveSize;
+    private final long[] offsetPositions;
+    private final long[] offsets;
+    private final Map<StreamId, byte[]> positionsByStream;
+    private final Map<String, Set<StreamId>> streamsByCategory = new HashMap<>();
+
+    private ArchiveIndex(long archiveSize, long[] offsetPositions, long[] offsets, Map<StreamId, byte[]> positionsByStream) {
+        this.archiveSize = archiveSize;
+        this.offsetPositions = offsetPositions;
+        this.offsets = offsets;
+        this.positionsByStream = positionsByStream;
+        for (StreamId streamId : positionsByStream.keySet()) {
+            streamsByCategory.computeIfAbsent(streamId.category(), c -> new HashSet<>()).add(streamId);
+        }
+    }
+
+    /**
+     * @return the uncompressed offset of a member header at or before the member at {@code position}
+     */
+    long offsetAtOrBefore(long position) {
+        int i = Arrays.binarySearch(offsetPositions, position);
+        if (i >= 0) {
+            return offsets[i];
+        }
+        int insertionPoint = -(i + 1);
+        return insertionPoint == 0 ? 0 : offsets[insertionPoint - 1];
+    }
+
+    /**
+     * @return the number of entries in the offset table, which divides the archive into runs of members of roughly
+     * {@link #OFFSET_INTERVAL_BYTES} each
+     */
+    int offsetEntries() {
+        return offsets.length;
+    }
+
+    long offsetEntryPosition(int entry) {
+        return offsetPositions[entry];
+    }
+
+    long offsetEntryOffset(int entry) {
+        return offsets[entry];
+    }
+
+    boolean containsStream(StreamId streamId) {
+        return positionsByStream.containsKey(streamId);
+    }
+
+    boolean containsCategory(String category) {
+        return streamsByCategory.containsKey(category);
+    }
+
+    long[] positionsOf(StreamId streamId) {
+        byte[] encoded = positionsByStream.get(streamId);
+        return encoded == null ? NO_POSITIONS : decode(encoded);
+    }
+
+    long[] positionsOfCategories(Collection<String> categories) {
+        long[][] parts = categories.stream()
+                .flatMap(category -> streamsByCategory.getOrDefault(category, new HashSet<>()).stream())
+                .map(this::positionsOf)
+                .toArray(long[][]::new);
+        if (parts.length == 1) {
+            return parts[0];
+        }
+        long[] positions = Arrays.stream(parts).flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    /**
+     * @return whether this index was built for the archive currently at {@code archivePath}, which changes if the
+     * archive is replaced by compaction
+     */
+    boolean isCurrentFor(Path archivePath) {
+        try {
+            return archiveSize == Files.size(archivePath);
+        } catch (IOException e) {
+            throw new WrappedIOException(e);
+        }
+    }
+
+    static Path indexPathFor(Path archivePath) {
+        return archivePath.resolveSibling(archivePath.getFileName() + ".index");
+    }
+
+    /**
+     * Loads the index for an archive, building it by reading the archive if it has no index yet (or an index that
+     * does not match it) and saving it alongside the archive where possible.
+     */
+    static ArchiveIndex forArchive(Path archivePath) {
+        Path indexPath = indexPathFor(archivePath);
+        try {
+            long archiveSize = Files.size(archivePath);
+            try {
+                ArchiveIndex index = read(indexPath);
+                if (index != null && index.archiveSize == archiveSize) {
+                    return index;
+                }
+                LOG.info("Index {} does not match archive, rebuilding it", indexPath);
+            } catch (NoSuchFileException e) {
+                LOG.debug("No index for {}, building it", archivePath);
+            }
+            ArchiveIndex index = scan(archivePath);
+            try {
+                index.write(indexPath);
+            } catch (IOException e) {
+                LOG.warn("Unable to save index for {}", archivePath, e);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new WrappedIOException(e);
+        }
+    }
+
+    /**
+     * @return the saved index for an archive, or null if it has no index or one that does not match it
+     */
+    @Nullable
+    static ArchiveIndex readIfPresent(Path archivePath) {
+        try {
+            ArchiveIndex index = read(indexPathFor(archivePath));
+            return index != null && index.archiveSize == Files.size(archivePath) ? index : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Unable to read index for {}", archivePath, e);
+            return null;
+        }
+    }
+
+    static ArchiveIndex scan(Path archivePath) throws IOException {
+        Builder builder = new Builder();
+        try (CountingInputStream counter = new CountingInputStream(ArchiveEventReader.openArchive(archivePath, 0));
+             CpioArchiveInputStream cpioInput = new CpioArchiveInputStream(counter)) {
+            CpioArchiveEntry entry;
+            while ((entry = cpioInput.getNextCPIOEntry()) != null) {
+                ArchiveFilenameContent filenameContent = ArchiveFilenameContent.parseFilename(entry.getName());
+                if (filenameContent.getExtension().equals("data")) {
+                    long headerOffset = counter.getBytesRead() - newcHeaderLength(entry.getName());
+                    builder.add(filenameContent.getPosition(), filenameContent.getStreamId(), headerOffset);
+                }
+            }
+        }
+        return builder.build(Files.size(archivePath));
+    }
+
+    /**
+     * @return whether the archive has a member of the stream, reading it only as far as the first such member
+     */
+    static boolean archiveContainsStream(Path archivePath, StreamId streamId) {
+        try (CpioArchiveInputStream cpioInput = new CpioArchiveInputStream(ArchiveEventReader.openArchive(archivePath, 0))) {
+            CpioArchiveEntry entry;
+            while ((entry = cpioInput.getNextCPIOEntry()) != null) {
+                ArchiveFilenameContent filenameContent = ArchiveFilenameContent.parseFilename(entry.getName());
+                if (filenameContent.getExtension().equals("data") && filenameContent.getStreamId().equals(streamId)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new WrappedIOException(e);
+        }
+    }
+
+    /**
+     * @return the index, or null if it was written in an older format
+     */
+    @Nullable
+    static ArchiveIndex read(Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not an archive index: " + path);
+            }
+            if (input.readInt() != VERSION) {
+                return null;
+            }
+            long archiveSize = input.readLong();
+            int offsetCount = input.readInt();
+            long[] offsetPositions = new long[offsetCount];
+            long[] offsets = new long[offsetCount];
+            for (int i = 0; i < offsetCount; i++) {
+                offsetPositions[i] = input.readLong();
+                offsets[i] = input.readLong();
+            }
+            int streams = input.readInt();
+            Map<StreamId, byte[]> positionsByStream = new HashMap<>(streams * 2);
+            for (int i = 0; i < streams; i++) {
+                String category = input.readUTF().intern();
+                String id = input.readUTF();
+                byte[] positions = new byte[input.readInt()];
+                input.readFully(positions);
+                positionsByStream.put(streamId(category, id), positions);
+            }
+            return new ArchiveIndex(archiveSize, offsetPositions, offsets, positionsByStream);
+        }
+    }
+
+    void write(Path path) throws IOException {
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(archiveSize);
+            output.writeInt(offsetPositions.length);
+            for (int i = 0; i < offsetPositions.length; i++) {
+                output.writeLong(offsetPositions[i]);
+                output.writeLong(offsets[i]);
+            }
+            output.writeInt(positionsByStream.size());
+            for (Map.Entry<StreamId, byte[]> entry : positionsByStream.entrySet()) {
+                output.writeUTF(entry.getKey().category());
+                output.writeUTF(entry.getKey().id());
+                output.writeInt(entry.getValue().length);
+                output.write(entry.getValue());
+            }
+        }
+        Files.move(tempFile, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the length of a "newc" cpio header, as written by {@link EventArchiver}, including the name and padding
+     */
+    private static long newcHeaderLength(String name) {
+        long length = 110 + name.length() + 1;
+        return (length + 3) & ~3L;
+    }
+
+    private static long[] decode(byte[] encoded) {
+        long[] positions = new long[16];
+        int count = 0;
+        long previous = -1;
+        int offset = 0;
+        while (offset < encoded.length) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[offset++];
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = previous;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveIndex{" +
+                "archiveSize=" + archiveSize +
+                ", offsets=" + offsets.length +
+                ", streams=" + positionsByStream.size() +
+                '}';
+    }
+
+    static final class Builder {
+        private final Map<StreamId, StreamPositions> positionsByStream = new HashMap<>();
+        private long[] offsetPositions = new long[16];
+        private long[] offsets = new long[16];
+        private int offsetCount;
+        private long lastIndexedOffset = -OFFSET_INTERVAL_BYTES;
+
+        /**
+         * @param headerOffset uncompressed offset of the header of the member's data entry
+         */
+        void add(long position, StreamId streamId, long headerOffset) {
+            positionsByStream.computeIfAbsent(streamId, s -> new StreamPositions()).add(position);
+            if (headerOffset - lastIndexedOffset >= OFFSET_INTERVAL_BYTES) {
+                if (offsetCount == offsets.length) {
+                    offsetPositions = Arrays.copyOf(offsetPositions, offsetCount * 2);
+                    offsets = Arrays.copyOf(offsets, offsetCount * 2);
+                }
+                offsetPositions[offsetCount] = position;
+                offsets[offsetCount] = headerOffset;
+                offsetCount++;
+                lastIndexedOffset = headerOffset;
+            }
+        }
+
+        ArchiveIndex build(long archiveSize) {
+            Map<StreamId, byte[]> encoded = new HashMap<>(positionsByStream.size() * 2);
+            positionsByStream.forEach((streamId, positions) -> encoded.put(streamId, positions.output.toByteArray()));
+            return new ArchiveIndex(archiveSize, Arrays.copyOf(offsetPositions, offsetCount), Arrays.copyOf(offsets, offsetCount), encoded);
+        }
+    }
+
+    private static final class StreamPositions {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream(8);
+        private long previous = -1;
+
+        void add(long position) {
+            if (position <= previous) {
+                throw new IllegalArgumentException("Positions must be added in order: " + position + " after " + previous);
+            }
+            long delta = position - previous;
+            while ((delta & ~0x7fL) != 0) {
+                output.write((int) ((delta & 0x7f) | 0x80));
+                delta >>>= 7;
+            }
+            output.write((int) delta);
+            previous = position;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventStreamReader;
+import com.timgroup.eventstore.api.NoSuchStreamException;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+final class ArchiveStreamReader implements EventStreamReader {
+    private final IndexedArchiveReader underlying;
+
+    ArchiveStreamReader(IndexedArchiveReader underlying) {
+        this.underlying = requireNonNull(underlying);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readStreamForwards(StreamId streamId, long eventNumber) {
+        checkStreamExists(streamId);
+        return underlying.readForwards(underlying.emptyStorePosition(), index -> index.positionsOf(streamId))
+                .filter(re -> re.eventRecord().eventNumber() > eventNumber);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readStreamBackwards(StreamId streamId) {
+        checkStreamExists(streamId);
+        return underlying.readAllBackwards()
+                .filter(re -> re.eventRecord().streamId().equals(streamId));
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readStreamBackwards(StreamId streamId, long eventNumber) {
+        checkStreamExists(streamId);
+        return underlying.readAllBackwards()
+                .filter(re -> re.eventRecord().streamId().equals(streamId) && re.eventRecord().eventNumber() < eventNumber);
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec streamPositionCodec() {
+        return underlying.storePositionCodec();
+    }
+
+    private void checkStreamExists(StreamId streamId) {
+        if (!underlying.containsStream(streamId)) throw new NoSuchStreamException(streamId);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveStreamReader{" +
+                "underlying=" + underlying +
+                '}';
+    }
+}
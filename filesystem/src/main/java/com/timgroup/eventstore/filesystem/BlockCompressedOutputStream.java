@@ -0,0 +1,134 @@
+package com.timgroup.eventstore.filesystem;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes XZ data as a series of independently compressed, fixed-size blocks, compressing blocks in parallel.
+ *
+ * Each block is written as a complete XZ stream, and a sequence of streams is itself a valid XZ file, so the output
+ * can be read by any XZ decoder. The stream indexes make up a block table, which lets readers seek to a block or
+ * decompress several blocks at once (see {@link ParallelXZBlockInputStream}).
+ */
+final class BlockCompressedOutputStream extends OutputStream {
+    static final int DEFAULT_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    @Nonnull
+    private final OutputStream underlying;
+    @Nonnull
+    private final Executor executor;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final Deque<CompletableFuture<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLength;
+    private boolean closed;
+
+    BlockCompressedOutputStream(OutputStream underlying, Executor executor, int blockSize, int maxPendingBlocks) {
+        this.underlying = requireNonNull(underlying);
+        this.executor = requireNonNull(executor);
+        if (blockSize <= 0) throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        if (maxPendingBlocks <= 0) throw new IllegalArgumentException("Must allow at least one pending block: " + maxPendingBlocks);
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = maxPendingBlocks;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes out blocks that have finished compressing. A partly filled block is not written until it is full or the
+     * stream is closed, so that flushing does not fragment the output into small blocks.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peekFirst().isDone()) {
+            writeOldestBlock();
+        }
+        underlying.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockLength > 0) {
+                submitBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeOldestBlock();
+            }
+        } finally {
+            underlying.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        pendingBlocks.addLast(CompletableFuture.supplyAsync(() -> compress(input, length), executor));
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeOldestBlock();
+        }
+    }
+
+    private void writeOldestBlock() throws IOException {
+        byte[] compressed;
+        try {
+            compressed = pendingBlocks.removeFirst().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof WrappedIOException) {
+                throw ((WrappedIOException) e.getCause()).getIoException();
+            }
+            throw e;
+        }
+        underlying.write(compressed);
+    }
+
+    private byte[] compress(byte[] input, int length) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length / 4 + 64);
+        try (XZOutputStream xzOutput = new XZOutputStream(output, new LZMA2Options())) {
+            xzOutput.write(input, 0, length);
+        } catch (IOException e) {
+            throw new WrappedIOException(e);
+        }
+        return output.toByteArray();
+    }
+}
@@ -6,11 +6,15 @@ import com.timgroup.eventstore.api.EventRecord;
 import com.timgroup.eventstore.api.EventSource;
 import com.timgroup.eventstore.api.EventStreamReader;
 import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
 import com.timgroup.eventstore.api.ResolvedEvent;
 import com.timgroup.eventstore.api.StreamId;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveEntry;
+import org.apache.commons.compress.archivers.cpio.CpioArchiveInputStream;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,9 +27,19 @@ import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class EventArchiver {
+    private static final int ENCODER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService BLOCK_ENCODERS = Executors.newFixedThreadPool(
+            ENCODER_THREADS, new DaemonThreadFactory("archive-xz-encoder"));
+
     @Nonnull
     private final EventReader storeReader;
     @Nonnull
@@ -40,44 +54,102 @@ public final class EventArchiver {
     }
 
     public void archiveStore(Path outputFile) throws IOException {
-        try (OutputStream stream = buffered(Files.newOutputStream(outputFile))) {
-            archiveStore(stream, null);
+        ArchiveIndex.Builder index = new ArchiveIndex.Builder();
+        try (OutputStream stream = openArchiveOutput(outputFile)) {
+            archiveStore(stream, null, index);
         }
+        writeIndex(outputFile, index);
     }
 
     public Optional<ArchiveBoundary> archiveStore(OutputStream output, @Nullable ArchiveBoundary archiveBoundary) throws IOException {
+        return archiveStore(output, archiveBoundary, null);
+    }
+
+    Optional<ArchiveBoundary> archiveStore(OutputStream output, @Nullable ArchiveBoundary archiveBoundary, @Nullable ArchiveIndex.Builder index) throws IOException {
         Position startPosition = archiveBoundary == null ? storeReader.emptyStorePosition() : archiveBoundary.getInputPosition();
         try (Stream<ResolvedEvent> input = storeReader.readAllForwards(startPosition)) {
-            return archiveEvents(input, output, archiveBoundary);
+            return archiveEvents(input, output, archiveBoundary, index);
+        }
+    }
+
+    /**
+     * Archives the events after {@code startExclusive} up to and including {@code endInclusive}, numbering archive
+     * members from zero.
+     */
+    Optional<ArchiveBoundary> archiveRange(OutputStream output, Position startExclusive, Position endInclusive) throws IOException {
+        PositionCodec positionCodec = storeReader.storePositionCodec();
+        try (Stream<ResolvedEvent> input = storeReader.readAllForwards(startExclusive)) {
+            Spliterator<ResolvedEvent> events = input.spliterator();
+            Spliterator<ResolvedEvent> range = new Spliterators.AbstractSpliterator<ResolvedEvent>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                private boolean ended;
+
+                @Override
+                public boolean tryAdvance(Consumer<? super ResolvedEvent> action) {
+                    return !ended && events.tryAdvance(re -> {
+                        if (positionCodec.comparePositions(re.position(), endInclusive) > 0) {
+                            ended = true;
+                        } else {
+                            action.accept(re);
+                        }
+                    }) && !ended;
+                }
+            };
+            return archiveEvents(StreamSupport.stream(range, false), output, null, null);
         }
     }
 
     public void archiveCategory(Path outputFile, String category) throws IOException {
-        try (OutputStream stream = buffered(Files.newOutputStream(outputFile))) {
-            archiveCategory(stream, category);
+        ArchiveIndex.Builder index = new ArchiveIndex.Builder();
+        try (OutputStream stream = openArchiveOutput(outputFile);
+             Stream<ResolvedEvent> input = categoryReader.readCategoryForwards(category)) {
+            archiveEvents(input, stream, null, index);
         }
+        writeIndex(outputFile, index);
     }
 
     public Optional<ArchiveBoundary> archiveCategory(OutputStream output, String category) throws IOException {
         try (Stream<ResolvedEvent> input = categoryReader.readCategoryForwards(category)) {
-            return archiveEvents(input, output, null);
+            return archiveEvents(input, output, null, null);
         }
     }
 
     public void archiveStream(Path outputFile, StreamId streamId) throws IOException {
-        try (OutputStream stream = buffered(Files.newOutputStream(outputFile))) {
-            archiveStream(stream, streamId);
+        ArchiveIndex.Builder index = new ArchiveIndex.Builder();
+        try (OutputStream stream = openArchiveOutput(outputFile);
+             Stream<ResolvedEvent> input = streamReader.readStreamForwards(streamId)) {
+            archiveEvents(input, stream, null, index);
         }
+        writeIndex(outputFile, index);
     }
 
     public void archiveStream(OutputStream output, StreamId streamId) throws IOException {
         try (Stream<ResolvedEvent> input = streamReader.readStreamForwards(streamId)) {
-            archiveEvents(input, output, null);
+            archiveEvents(input, output, null, null);
+        }
+    }
+
+    /**
+     * Opens an archive file for writing, compressing it in independent blocks if its name ends with ".xz".
+     */
+    private static OutputStream openArchiveOutput(Path outputFile) throws IOException {
+        OutputStream output = Files.newOutputStream(outputFile);
+        if (outputFile.getFileName().toString().endsWith(".xz")) {
+            return blockCompressed(output);
         }
+        return buffered(output);
     }
 
-    private Optional<ArchiveBoundary> archiveEvents(Stream<ResolvedEvent> input, OutputStream output, @Nullable ArchiveBoundary startExclusive) throws IOException {
-        try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStreamWithoutNames(output)) {
+    static OutputStream blockCompressed(OutputStream output) {
+        return new BlockCompressedOutputStream(output, BLOCK_ENCODERS, BlockCompressedOutputStream.DEFAULT_BLOCK_SIZE, ENCODER_THREADS * 2);
+    }
+
+    private static void writeIndex(Path archiveFile, ArchiveIndex.Builder index) throws IOException {
+        index.build(Files.size(archiveFile)).write(ArchiveIndex.indexPathFor(archiveFile));
+    }
+
+    private Optional<ArchiveBoundary> archiveEvents(Stream<ResolvedEvent> input, OutputStream output, @Nullable ArchiveBoundary startExclusive, @Nullable ArchiveIndex.Builder index) throws IOException {
+        CountingOutputStream countingOutput = new CountingOutputStream(output);
+        try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStreamWithoutNames(countingOutput)) {
             final long[] fileIndex = { startExclusive == null ? 0 : ((ArchivePosition) startExclusive.getArchivePosition()).decode().getPosition() + 1};
             final Position[] position = {null};
             final String[] lastBasename = {null};
@@ -91,10 +163,14 @@ public final class EventArchiver {
                             Long.toString(eventRecord.eventNumber()),
                             FilenameCodec.escape(eventRecord.eventType())
                     );
+                    long headerOffset = countingOutput.getBytesWritten();
                     writeEntry(cpioOutput, basename + ".data", eventRecord.data(), eventRecord.timestamp());
                     if (eventRecord.metadata().length > 0) {
                         writeEntry(cpioOutput, basename + ".metadata", eventRecord.metadata(), eventRecord.timestamp());
                     }
+                    if (index != null) {
+                        index.add(fileIndex[0], eventRecord.streamId(), headerOffset);
+                    }
                     ++fileIndex[0];
                     position[0] = re.position();
                     lastBasename[0] = basename;
@@ -108,6 +184,30 @@ public final class EventArchiver {
         }
     }
 
+    /**
+     * Copies the members of an archive into {@code cpioOutput}, adding {@code positionShift} to the sequence number
+     * that prefixes each member name, and records them in {@code index}.
+     */
+    static void copyMembers(Path archive, long positionShift, CpioArchiveOutputStream cpioOutput, CountingOutputStream countingOutput, ArchiveIndex.Builder index) throws IOException {
+        try (CpioArchiveInputStream cpioInput = new CpioArchiveInputStream(ArchiveEventReader.openArchive(archive, 0))) {
+            CpioArchiveEntry entry;
+            while ((entry = cpioInput.getNextCPIOEntry()) != null) {
+                ArchiveFilenameContent filenameContent = ArchiveFilenameContent.parseFilename(entry.getName());
+                long position = filenameContent.getPosition() + positionShift;
+                long headerOffset = countingOutput.getBytesWritten();
+                CpioArchiveEntry copy = new CpioArchiveEntry(positionShift == 0 ? entry.getName() : String.format("%08x", position) + entry.getName().substring(8));
+                copy.setSize(entry.getSize());
+                copy.setTime(entry.getTime());
+                cpioOutput.putArchiveEntry(copy);
+                IOUtils.copy(cpioInput, cpioOutput);
+                cpioOutput.closeArchiveEntry();
+                if (filenameContent.getExtension().equals("data")) {
+                    index.add(position, filenameContent.getStreamId(), headerOffset);
+                }
+            }
+        }
+    }
+
     private static void writeEntry(CpioArchiveOutputStream cpioOutput, String filename, byte[] content, Instant timestamp) throws IOException {
         CpioArchiveEntry entry = new CpioArchiveEntry(filename);
         entry.setSize(content.length);
@@ -125,7 +225,7 @@ public final class EventArchiver {
         }
     }
 
-    private static final class CpioArchiveOutputStreamWithoutNames extends CpioArchiveOutputStream {
+    static final class CpioArchiveOutputStreamWithoutNames extends CpioArchiveOutputStream {
         private static final Field namesMapField;
 
         static {
@@ -0,0 +1,148 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.StreamId;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stream and store locks for a flat filesystem store directory.
+ *
+ * Exclusion between processes comes from {@link FileChannel#lock()} on lockfiles in the directory, which the OS
+ * releases if the holding process dies, so a crash never leaves a stale lock behind. Within this JVM, threads first
+ * take a striped in-memory lock, so they queue on each other rather than on the filesystem, and the JVM never asks
+ * for an overlapping file lock on the same file. The in-memory locks of a directory are only kept while some thread
+ * holds or waits for one of them.
+ */
+final class FileLocks {
+    private static final int STREAM_LOCK_STRIPES = 64;
+    private static final ConcurrentMap<Path, DirectoryLocks> LOCKS_BY_DIRECTORY = new ConcurrentHashMap<>();
+
+    static FileLocks forDirectory(Path directory) {
+        return new FileLocks(directory.toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return the number of directories whose in-memory locks are held or waited for
+     */
+    static int directoriesInUse() {
+        return LOCKS_BY_DIRECTORY.size();
+    }
+
+    @Nonnull
+    private final Path directory;
+
+    private FileLocks(Path directory) {
+        this.directory = requireNonNull(directory);
+    }
+
+    Lockfile lockStream(StreamId streamId) {
+        Path lockFile = directory.resolve(String.format(".stream-lock.%s.%s", streamId.category(), streamId.id()));
+        DirectoryLocks locks = retain();
+        return acquire(locks, locks.streamLocks[Math.floorMod(streamId.hashCode(), locks.streamLocks.length)], lockFile, "stream");
+    }
+
+    Lockfile lockStore() {
+        DirectoryLocks locks = retain();
+        return acquire(locks, locks.storeLock, directory.resolve(".global-lock"), "store");
+    }
+
+    private DirectoryLocks retain() {
+        return LOCKS_BY_DIRECTORY.compute(directory, (dir, locks) -> {
+            DirectoryLocks retained = locks == null ? new DirectoryLocks() : locks;
+            retained.users++;
+            return retained;
+        });
+    }
+
+    private void release() {
+        LOCKS_BY_DIRECTORY.computeIfPresent(directory, (dir, locks) -> --locks.users == 0 ? null : locks);
+    }
+
+    private Lockfile acquire(DirectoryLocks locks, Lock jvmLock, Path lockFile, String what) {
+        try {
+            jvmLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            release();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while locking " + what);
+        }
+        try {
+            FileChannel channel = FileChannel.open(lockFile, CREATE, WRITE);
+            try {
+                channel.lock();
+                return new Lockfile(this, jvmLock, lockFile, channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            jvmLock.unlock();
+            release();
+            throw new RuntimeException("Unable to lock " + what + " using " + lockFile, e);
+        } catch (RuntimeException e) {
+            jvmLock.unlock();
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileLocks{" +
+                "directory=" + directory +
+                '}';
+    }
+
+    /**
+     * The in-memory locks of one directory, and the number of threads holding or waiting for them, which is only
+     * changed while the map's entry for the directory is being computed.
+     */
+    private static final class DirectoryLocks {
+        private final Lock storeLock = new ReentrantLock();
+        private final Lock[] streamLocks = new Lock[STREAM_LOCK_STRIPES];
+        private int users;
+
+        DirectoryLocks() {
+            for (int i = 0; i < streamLocks.length; i++) {
+                streamLocks[i] = new ReentrantLock();
+            }
+        }
+    }
+
+    static final class Lockfile implements AutoCloseable {
+        private final FileLocks owner;
+        private final Lock jvmLock;
+        private final Path lockFile;
+        private final FileChannel channel;
+
+        private Lockfile(FileLocks owner, Lock jvmLock, Path lockFile, FileChannel channel) {
+            this.owner = owner;
+            this.jvmLock = jvmLock;
+            this.lockFile = lockFile;
+            this.channel = channel;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close(); // releases the file lock
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to release lock file: " + lockFile, e);
+            } finally {
+                jvmLock.unlock();
+                owner.release();
+            }
+        }
+    }
+}
@@ -4,33 +4,34 @@ import com.timgroup.eventstore.api.EventStreamWriter;
 import com.timgroup.eventstore.api.NewEvent;
 import com.timgroup.eventstore.api.StreamId;
 import com.timgroup.eventstore.api.WrongExpectedVersionException;
+import com.timgroup.eventstore.filesystem.FileLocks.Lockfile;
 
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.Collection;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 final class FlatFilesystemEventStreamWriter implements EventStreamWriter {
     private final Path directory;
     private final Clock clock;
+    private final FileLocks locks;
     private String dataSuffix;
     private String metadataSuffix;
 
     FlatFilesystemEventStreamWriter(Path directory, Clock clock, String filenameSuffix) {
         this.directory = directory;
         this.clock = clock;
+        this.locks = FileLocks.forDirectory(directory);
         this.dataSuffix = ".data" + filenameSuffix;
         this.metadataSuffix = ".metadata" + filenameSuffix;
     }
 
     @Override
     public void write(StreamId streamId, Collection<NewEvent> events) {
-        try (Lockfile ignored = lock(streamId)) {
+        try (Lockfile ignored = locks.lockStream(streamId)) {
             long currentVersion = currentVersion(streamId);
             writeImpl(streamId, events, currentVersion);
         }
@@ -38,7 +39,7 @@ final class FlatFilesystemEventStreamWriter implements EventStreamWriter {
 
     @Override
     public void write(StreamId streamId, Collection<NewEvent> events, long expectedVersion) {
-        try (Lockfile ignored = lock(streamId)) {
+        try (Lockfile ignored = locks.lockStream(streamId)) {
             long currentVersion = currentVersion(streamId);
             if (currentVersion != expectedVersion) {
                 throw new WrongExpectedVersionException(currentVersion, expectedVersion);
@@ -58,7 +59,7 @@ final class FlatFilesystemEventStreamWriter implements EventStreamWriter {
     }
 
     private void writeImpl(StreamId streamId, Collection<NewEvent> events, long currentVersion) {
-        try (Lockfile ignored = lock()) {
+        try (Lockfile ignored = locks.lockStore()) {
             long globalNumber = currentGlobalVersion() + 1;
             long eventNumber = currentVersion + 1;
             for (NewEvent newEvent : events) {
@@ -104,56 +105,4 @@ final class FlatFilesystemEventStreamWriter implements EventStreamWriter {
             throw new RuntimeException("Unable to count files in " + directory);
         }
     }
-
-    private Lockfile lock(StreamId streamId) {
-        Path lockFile = directory.resolve(String.format(".stream-lock.%s.%s", streamId.category(), streamId.id()));
-        while (!createLockFile(lockFile)) {
-            try {
-                TimeUnit.MILLISECONDS.sleep(10L);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Interrupted while locking stream");
-            }
-        }
-        return new Lockfile(lockFile);
-    }
-
-    private Lockfile lock() {
-        Path lockFile = directory.resolve(".global-lock");
-        while (!createLockFile(lockFile)) {
-            try {
-                TimeUnit.MILLISECONDS.sleep(10L);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Interrupted while locking store");
-            }
-        }
-        return new Lockfile(lockFile);
-    }
-
-    private boolean createLockFile(Path file) {
-        try {
-            Files.createFile(file);
-            return true;
-        } catch (FileAlreadyExistsException e) {
-            return false;
-        } catch (IOException e) {
-            throw new RuntimeException("Unable to create lock file: " + file, e);
-        }
-    }
-
-    private final class Lockfile implements AutoCloseable {
-        private final Path lockFile;
-
-        Lockfile(Path lockFile) {
-            this.lockFile = lockFile;
-        }
-
-        @Override
-        public void close() {
-            try {
-                Files.delete(lockFile);
-            } catch (IOException e) {
-                throw new RuntimeException("Unable to delete lock file: " + lockFile, e);
-            }
-        }
-    }
 }
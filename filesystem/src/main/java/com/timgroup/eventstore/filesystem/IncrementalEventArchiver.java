@@ -3,6 +3,7 @@ package com.timgroup.eventstore.filesystem;
 import com.timgroup.eventstore.api.EventReader;
 import com.timgroup.eventstore.api.EventSource;
 import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.filesystem.FileLocks.Lockfile;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
@@ -16,6 +17,8 @@ import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toList;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -25,25 +28,48 @@ public final class IncrementalEventArchiver {
     @Nonnull
     private final Path archiveDirectory;
     private final boolean createInitial;
+    private final boolean compress;
     @Nonnull
     private final EventReader storeReader;
     @Nonnull
     private final EventArchiver eventArchiver;
 
     public IncrementalEventArchiver(@Nonnull EventSource eventSource, @Nonnull Path archiveDirectory, boolean createInitial) {
+        this(eventSource, archiveDirectory, createInitial, false);
+    }
+
+    /**
+     * @param compress write archives as ".cpio.xz", compressed in independent blocks that are compressed and
+     *                 decompressed in parallel
+     */
+    public IncrementalEventArchiver(@Nonnull EventSource eventSource, @Nonnull Path archiveDirectory, boolean createInitial, boolean compress) {
         this.archiveDirectory = requireNonNull(archiveDirectory);
         this.createInitial = createInitial;
+        this.compress = compress;
         this.eventArchiver = new EventArchiver(eventSource);
         this.storeReader = eventSource.readAll();
     }
 
+    /**
+     * Appends an archive of the events written since the last one. Holds the directory's store lock meanwhile, so that
+     * an {@link ArchiveCompactor} never sees an archive being written, and writes the archive's position file last, so
+     * that a position file always names an archive in place.
+     */
     public void archiveEvents() throws IOException {
+        try (Lockfile ignored = FileLocks.forDirectory(archiveDirectory).lockStore()) {
+            archiveNewEvents();
+        }
+    }
+
+    private void archiveNewEvents() throws IOException {
         Optional<ArchiveBoundary> lastArchiveBoundary = findLastArchiveBoundary();
         if (!lastArchiveBoundary.isPresent() && !createInitial) throw new IllegalStateException("No existing archives and createInitial not specified");
         Optional<ArchiveBoundary> archivedTo;
-        Path tempFile = Files.createTempFile(archiveDirectory, "__archive", ".cpio.tmp");
-        try (OutputStream tempFileOutput = Files.newOutputStream(tempFile)) {
-            archivedTo = eventArchiver.archiveStore(tempFileOutput, lastArchiveBoundary.orElse(null));
+        ArchiveIndex.Builder index = new ArchiveIndex.Builder();
+        String extension = compress ? ".cpio.xz" : ".cpio";
+        Path tempFile = Files.createTempFile(archiveDirectory, "__archive", extension + ".tmp");
+        try (OutputStream tempFileOutput = compress ? EventArchiver.blockCompressed(Files.newOutputStream(tempFile)) : Files.newOutputStream(tempFile)) {
+            archivedTo = eventArchiver.archiveStore(tempFileOutput, lastArchiveBoundary.orElse(null), index);
         }
         if (!archivedTo.isPresent()) {
             LOG.debug("No new events to write- removing temp file");
@@ -51,9 +77,10 @@ public final class IncrementalEventArchiver {
         } else {
             String basename = ArchivePosition.CODEC.serializePosition(archivedTo.get().getArchivePosition());
             String serialisedPosition = storeReader.storePositionCodec().serializePosition(archivedTo.get().getInputPosition());
+            Path archivePath = tempFile.resolveSibling(basename + extension);
+            index.build(Files.size(tempFile)).write(ArchiveIndex.indexPathFor(archivePath));
+            Files.move(tempFile, archivePath, ATOMIC_MOVE, REPLACE_EXISTING);
             Files.write(tempFile.resolveSibling(basename + ".position.txt"), serialisedPosition.getBytes(UTF_8));
-            Path archivePath = tempFile.resolveSibling(basename + ".cpio");
-            Files.move(tempFile, archivePath);
             LOG.info("Wrote {} events to {} up to {}", lastArchiveBoundary.isPresent() ? "additional" : "initial", archivePath, serialisedPosition);
         }
     }
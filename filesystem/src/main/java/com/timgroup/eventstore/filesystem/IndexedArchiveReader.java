@@ -0,0 +1,29 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Reader over one or more archives that have {@link ArchiveIndex} sidecars, able to read just selected members.
+ */
+interface IndexedArchiveReader extends EventReader {
+    /**
+     * Reads forwards, reading from each archive only the member positions chosen by {@code selector} from its index.
+     */
+    @Nonnull
+    @CheckReturnValue
+    Stream<ResolvedEvent> readForwards(Position positionExclusive, Function<? super ArchiveIndex, long[]> selector);
+
+    /**
+     * @return whether any archive has members of the stream, stopping at the first that does. Archives without an
+     * up-to-date index are only read as far as their first member of the stream, and no index is built for them.
+     */
+    boolean containsStream(StreamId streamId);
+}
@@ -0,0 +1,210 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.NewEvent;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import static com.timgroup.eventstore.api.EventRecord.eventRecord;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Framing for records in a log segment.
+ *
+ * Each frame is the payload length, a CRC32 of the payload, the payload, and the payload length again so that
+ * segments can be walked backwards. The payload holds a flags byte, the position, timestamp, stream, event number,
+ * event type, data and metadata.
+ */
+final class LogRecordCodec {
+    static final int FRAME_OVERHEAD = 12;
+    private static final int END_OF_WRITE = 1;
+    private static final int FLAGS_OFFSET = 8;
+    private static final int POSITION_OFFSET = FLAGS_OFFSET + 1;
+    private static final int STREAM_OFFSET = POSITION_OFFSET + 8 + 8 + 4 + 8;
+
+    static final class EncodedEvent {
+        private final byte[] category;
+        private final byte[] id;
+        private final byte[] eventType;
+        private final NewEvent event;
+
+        EncodedEvent(StreamId streamId, NewEvent event) {
+            this.category = streamId.category().getBytes(UTF_8);
+            this.id = streamId.id().getBytes(UTF_8);
+            this.eventType = event.type().getBytes(UTF_8);
+            this.event = event;
+        }
+
+        int frameSize() {
+            return FRAME_OVERHEAD + 1 + 8 + 8 + 4 + 8
+                    + 4 + category.length + 4 + id.length + 4 + eventType.length
+                    + 4 + event.data().length + 4 + event.metadata().length;
+        }
+    }
+
+    static void writeFrame(ByteBuffer output, EncodedEvent encoded, long position, Instant timestamp, long eventNumber, boolean endOfWrite) {
+        int frameStart = output.position();
+        int payloadLength = encoded.frameSize() - FRAME_OVERHEAD;
+        output.putInt(payloadLength);
+        output.putInt(0);
+        output.put((byte) (endOfWrite ? END_OF_WRITE : 0));
+        output.putLong(position);
+        output.putLong(timestamp.getEpochSecond());
+        output.putInt(timestamp.getNano());
+        output.putLong(eventNumber);
+        putBytes(output, encoded.category);
+        putBytes(output, encoded.id);
+        putBytes(output, encoded.eventType);
+        putBytes(output, encoded.event.data());
+        putBytes(output, encoded.event.metadata());
+        output.putInt(payloadLength);
+        output.putInt(frameStart + 4, checksum(output, frameStart + FLAGS_OFFSET, payloadLength));
+    }
+
+    /**
+     * @return the size of the complete, valid frame at {@code offset}, or -1 if there is a torn or corrupt frame there
+     */
+    static int frameSize(ByteBuffer input, int offset) {
+        int limit = input.limit();
+        if (offset < 0 || offset > limit - FRAME_OVERHEAD) {
+            return -1;
+        }
+        int payloadLength = input.getInt(offset);
+        if (payloadLength <= 0 || payloadLength > limit - offset - FRAME_OVERHEAD) {
+            return -1;
+        }
+        if (input.getInt(offset + FLAGS_OFFSET + payloadLength) != payloadLength) {
+            return -1;
+        }
+        if (input.getInt(offset + 4) != checksum(input, offset + FLAGS_OFFSET, payloadLength)) {
+            return -1;
+        }
+        return payloadLength + FRAME_OVERHEAD;
+    }
+
+    static boolean isEndOfWrite(ByteBuffer input, int offset) {
+        return (input.get(offset + FLAGS_OFFSET) & END_OF_WRITE) != 0;
+    }
+
+    /**
+     * @return the end of the write whose frames start at {@code offset}, which is the end of the first frame from there
+     *         marked as the last of its write, or {@code offset} itself if the write is torn or still being made
+     */
+    static int endOfWrite(ByteBuffer input, int offset) {
+        int end = offset;
+        int frameSize;
+        while ((frameSize = frameSize(input, end)) > 0) {
+            end += frameSize;
+            if (isEndOfWrite(input, end - frameSize)) {
+                return end;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * @return the end of the last complete write in the buffer
+     */
+    static int committedEnd(ByteBuffer input) {
+        int end = 0;
+        int next;
+        while ((next = endOfWrite(input, end)) > end) {
+            end = next;
+        }
+        return end;
+    }
+
+    /**
+     * @return the size of the frame at {@code offset}, which must already have been checked by {@link #frameSize}
+     */
+    static int checkedFrameSize(ByteBuffer input, int offset) {
+        return input.getInt(offset) + FRAME_OVERHEAD;
+    }
+
+    static long position(ByteBuffer input, int offset) {
+        return input.getLong(offset + POSITION_OFFSET);
+    }
+
+    static long eventNumber(ByteBuffer input, int offset) {
+        return input.getLong(STREAM_OFFSET - 8 + offset);
+    }
+
+    static StreamId streamId(ByteBuffer input, int offset) {
+        ByteBuffer buffer = payload(input, offset, STREAM_OFFSET);
+        String category = getString(buffer).intern();
+        String id = getString(buffer);
+        return StreamId.streamId(category, id);
+    }
+
+    /**
+     * @return the event in the frame at {@code offset}, or null if its stream is rejected by {@code streamFilter}
+     */
+    @Nullable
+    static ResolvedEvent read(ByteBuffer input, int offset, Predicate<? super StreamId> streamFilter) {
+        ByteBuffer buffer = payload(input, offset, POSITION_OFFSET);
+        long position = buffer.getLong();
+        Instant timestamp = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+        long eventNumber = buffer.getLong();
+        String category = getString(buffer).intern();
+        String id = getString(buffer);
+        StreamId streamId = StreamId.streamId(category, id);
+        if (!streamFilter.test(streamId)) {
+            return null;
+        }
+        String eventType = getString(buffer).intern();
+        byte[] data = getBytes(buffer);
+        byte[] metadata = getBytes(buffer);
+        EventRecord eventRecord = eventRecord(timestamp, streamId, eventNumber, eventType, data, metadata);
+        return eventRecord.toResolvedEvent(new SegmentedLogPosition(position));
+    }
+
+    private static ByteBuffer payload(ByteBuffer input, int offset, int from) {
+        ByteBuffer buffer = input.duplicate();
+        buffer.position(offset + from);
+        buffer.limit(offset + FLAGS_OFFSET + input.getInt(offset));
+        return buffer;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private static void putBytes(ByteBuffer output, byte[] bytes) {
+        output.putInt(bytes.length);
+        output.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer input) {
+        byte[] bytes = new byte[input.getInt()];
+        input.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer input) {
+        int length = input.getInt();
+        String value;
+        if (input.hasArray()) {
+            value = new String(input.array(), input.arrayOffset() + input.position(), length, UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            input.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+        input.position(input.position() + length);
+        return value;
+    }
+
+    private LogRecordCodec() {
+    }
+}
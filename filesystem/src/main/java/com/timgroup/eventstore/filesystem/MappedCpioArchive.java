@@ -0,0 +1,188 @@
+package com.timgroup.eventstore.filesystem;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Cursor over the members of an uncompressed "newc" cpio archive, reading a memory mapping of the file and parsing
+ * headers in place.
+ *
+ * Unlike {@link org.apache.commons.compress.archivers.cpio.CpioArchiveInputStream}, moving past a member costs only a
+ * header parse, and member content is copied once, straight out of the mapping.
+ */
+final class MappedCpioArchive {
+    private static final int HEADER_LENGTH = 110;
+    private static final int FILESIZE_FIELD = 6;
+    private static final int MTIME_FIELD = 5;
+    private static final int NAMESIZE_FIELD = 11;
+    private static final byte[] TRAILER = "TRAILER!!!".getBytes(US_ASCII);
+    private static final byte[] DATA_SUFFIX = ".data".getBytes(US_ASCII);
+    private static final byte[] METADATA_SUFFIX = ".metadata".getBytes(US_ASCII);
+
+    private final ByteBuffer mapping;
+    private int headerOffset = -1;
+    private int nameLength;
+    private int contentOffset;
+    private int contentLength;
+
+    private MappedCpioArchive(ByteBuffer mapping) {
+        this.mapping = mapping;
+    }
+
+    /**
+     * @return a cursor over the archive, or null if it is too large to map in one piece
+     */
+    @Nullable
+    static MappedCpioArchive map(Path archivePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(archivePath, READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            return new MappedCpioArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Moves to the member whose header starts at {@code offset}.
+     *
+     * @return false if there is no member there, having reached the end of the archive
+     */
+    boolean moveTo(long offset) throws IOException {
+        if (offset >= mapping.limit()) {
+            headerOffset = mapping.limit();
+            return false;
+        }
+        if (offset + HEADER_LENGTH > mapping.limit()) {
+            throw new IOException("Truncated cpio header at offset " + offset);
+        }
+        int header = (int) offset;
+        if (!isMagic(header)) {
+            throw new IOException("Not a newc cpio header at offset " + offset);
+        }
+        headerOffset = header;
+        int nameSize = (int) hexField(header, NAMESIZE_FIELD);
+        nameLength = nameSize - 1;
+        contentOffset = align4(header + HEADER_LENGTH + nameSize);
+        contentLength = (int) hexField(header, FILESIZE_FIELD);
+        if (contentOffset + (long) contentLength > mapping.limit()) {
+            throw new IOException("Truncated cpio member at offset " + offset);
+        }
+        if (nameEquals(TRAILER)) {
+            headerOffset = mapping.limit();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if there are no more members
+     */
+    boolean next() throws IOException {
+        if (headerOffset < 0) {
+            return moveTo(0);
+        }
+        if (headerOffset >= mapping.limit()) {
+            return false;
+        }
+        return moveTo(align4(contentOffset + contentLength));
+    }
+
+    /**
+     * @return the sequence number that prefixes the current member's name
+     */
+    long position() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 4) | hexDigit(mapping.get(headerOffset + HEADER_LENGTH + i));
+        }
+        return value;
+    }
+
+    boolean isData() {
+        return nameEndsWith(DATA_SUFFIX);
+    }
+
+    boolean isMetadata() {
+        return nameEndsWith(METADATA_SUFFIX);
+    }
+
+    String name() {
+        byte[] name = new byte[nameLength];
+        copy(headerOffset + HEADER_LENGTH, name);
+        return new String(name, US_ASCII);
+    }
+
+    long timeMillis() {
+        return hexField(headerOffset, MTIME_FIELD) * 1000;
+    }
+
+    byte[] content() {
+        byte[] content = new byte[contentLength];
+        copy(contentOffset, content);
+        return content;
+    }
+
+    private void copy(int offset, byte[] destination) {
+        ByteBuffer slice = mapping.duplicate();
+        slice.position(offset);
+        slice.get(destination);
+    }
+
+    private boolean isMagic(int offset) {
+        return mapping.get(offset) == '0' && mapping.get(offset + 1) == '7' && mapping.get(offset + 2) == '0'
+                && mapping.get(offset + 3) == '7' && mapping.get(offset + 4) == '0'
+                && (mapping.get(offset + 5) == '1' || mapping.get(offset + 5) == '2');
+    }
+
+    private long hexField(int header, int field) {
+        int start = header + 6 + field * 8;
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 4) | hexDigit(mapping.get(start + i));
+        }
+        return value;
+    }
+
+    private boolean nameEquals(byte[] expected) {
+        return nameLength == expected.length && nameEndsWith(expected);
+    }
+
+    private boolean nameEndsWith(byte[] suffix) {
+        if (nameLength < suffix.length) {
+            return false;
+        }
+        int start = headerOffset + HEADER_LENGTH + nameLength - suffix.length;
+        for (int i = 0; i < suffix.length; i++) {
+            if (mapping.get(start + i) != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        throw new IllegalStateException("Invalid hex digit in cpio header: " + (char) b);
+    }
+
+    private static int align4(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedCpioArchive{" +
+                "length=" + mapping.limit() +
+                ", headerOffset=" + headerOffset +
+                '}';
+    }
+}
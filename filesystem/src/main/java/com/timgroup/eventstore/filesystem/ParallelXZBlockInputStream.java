@@ -0,0 +1,201 @@
+package com.timgroup.eventstore.filesystem;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.SingleXZInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads an XZ file made up of single-block streams, as written by {@link BlockCompressedOutputStream}, decompressing
+ * several blocks ahead of the reader in parallel, up to a limit on the bytes decompressed ahead.
+ */
+final class ParallelXZBlockInputStream extends InputStream {
+    private static final int STREAM_HEADER_SIZE = 12;
+
+    @Nonnull
+    private final Path path;
+    @Nonnull
+    private final Executor executor;
+    private final long[] streamStarts;
+    private final int[] blockSizes;
+    private final long readAheadBytes;
+    private final Deque<CompletableFuture<byte[]>> decodingBlocks = new ArrayDeque<>();
+    private long decodingBytes;
+    private int nextBlockToDecode;
+    private byte[] current = new byte[0];
+    private int currentOffset;
+
+    private ParallelXZBlockInputStream(Path path, Executor executor, long[] streamStarts, int[] blockSizes, int firstBlock, long readAheadBytes) {
+        this.path = requireNonNull(path);
+        this.executor = requireNonNull(executor);
+        this.streamStarts = streamStarts;
+        this.blockSizes = blockSizes;
+        this.readAheadBytes = readAheadBytes;
+        this.nextBlockToDecode = firstBlock;
+    }
+
+    /**
+     * @return a stream positioned at {@code offset} in the uncompressed data, or null if the file does not have the
+     * layout of one block per stream (such as a file written as a single stream), in which case it should be read with
+     * an ordinary decoder
+     *
+     * @param readAheadBytes limit on the size of the blocks being decoded ahead of the one being read, though the next
+     *                       block is always decoded whatever its size
+     */
+    @Nullable
+    static InputStream open(Path path, long offset, Executor executor, long readAheadBytes) throws IOException {
+        if (readAheadBytes <= 0) throw new IllegalArgumentException("readAheadBytes must be positive: " + readAheadBytes);
+        long[] streamStarts;
+        int[] blockSizes;
+        long[] blockPositions;
+        try (SeekableXZInputStream index = new SeekableXZInputStream(new SeekableFileInputStream(path.toFile()))) {
+            int blockCount = index.getBlockCount();
+            if (blockCount < 2 || index.getStreamCount() != blockCount) {
+                return null;
+            }
+            streamStarts = new long[blockCount];
+            blockSizes = new int[blockCount];
+            blockPositions = new long[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                if (index.getBlockSize(i) > Integer.MAX_VALUE) {
+                    return null;
+                }
+                streamStarts[i] = index.getBlockCompPos(i) - STREAM_HEADER_SIZE;
+                blockSizes[i] = (int) index.getBlockSize(i);
+                blockPositions[i] = index.getBlockPos(i);
+            }
+        }
+        int firstBlock = 0;
+        while (firstBlock + 1 < blockPositions.length && blockPositions[firstBlock + 1] <= offset) {
+            firstBlock++;
+        }
+        ParallelXZBlockInputStream input = new ParallelXZBlockInputStream(path, executor, streamStarts, blockSizes, firstBlock, readAheadBytes);
+        long toSkip = offset - blockPositions[firstBlock];
+        if (IOUtils.skip(input, toSkip) != toSkip) {
+            input.close();
+            throw new IOException("Unable to skip to offset " + offset + " in " + path);
+        }
+        return input;
+    }
+
+    /**
+     * @return whether the file has the layout of one block per stream, so that {@link #open} can start from any block
+     */
+    static boolean isBlockCompressed(Path path) throws IOException {
+        try (SeekableXZInputStream index = new SeekableXZInputStream(new SeekableFileInputStream(path.toFile()))) {
+            return index.getBlockCount() >= 2 && index.getStreamCount() == index.getBlockCount();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[currentOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - currentOffset);
+        System.arraycopy(current, currentOffset, b, off, n);
+        currentOffset += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int step = (int) Math.min(n - skipped, current.length - currentOffset);
+            currentOffset += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return current.length - currentOffset;
+    }
+
+    @Override
+    public void close() {
+        decodingBlocks.forEach(block -> block.cancel(false));
+        decodingBlocks.clear();
+        decodingBytes = 0;
+        nextBlockToDecode = blockSizes.length;
+        current = new byte[0];
+        currentOffset = 0;
+    }
+
+    private boolean fill() throws IOException {
+        while (currentOffset == current.length) {
+            while (nextBlockToDecode < blockSizes.length
+                    && (decodingBlocks.isEmpty() || decodingBytes + blockSizes[nextBlockToDecode] <= readAheadBytes)) {
+                int blockNumber = nextBlockToDecode++;
+                decodingBytes += blockSizes[blockNumber];
+                decodingBlocks.addLast(CompletableFuture.supplyAsync(() -> decode(blockNumber), executor));
+            }
+            if (decodingBlocks.isEmpty()) {
+                return false;
+            }
+            try {
+                current = decodingBlocks.removeFirst().join();
+                decodingBytes -= current.length;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof WrappedIOException) {
+                    throw ((WrappedIOException) e.getCause()).getIoException();
+                }
+                throw e;
+            }
+            currentOffset = 0;
+        }
+        return true;
+    }
+
+    private byte[] decode(int blockNumber) {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            channel.position(streamStarts[blockNumber]);
+            InputStream input = new SingleXZInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] block = new byte[blockSizes[blockNumber]];
+            if (IOUtils.readFully(input, block) != block.length) {
+                throw new IOException("Short block " + blockNumber + " in " + path);
+            }
+            return block;
+        } catch (IOException e) {
+            throw new WrappedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelXZBlockInputStream{" +
+                "path=" + path +
+                ", blocks=" + blockSizes.length +
+                '}';
+    }
+}
@@ -0,0 +1,286 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import org.apache.commons.compress.archivers.cpio.CpioArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Archives a whole store into a new archive directory by splitting its positions into ranges, reading several ranges
+ * concurrently, and writing an archive for each range.
+ *
+ * Each range is first read into a temporary archive whose members are numbered from zero. Once every earlier range
+ * has been read, its members are renumbered to follow theirs and it is written out with its own position file, so the
+ * directory only ever holds a prefix of the ranges, which {@link ArchiveDirectoryEventSource} reads in order and
+ * {@link IncrementalEventArchiver} can carry on from.
+ *
+ * Progress is recorded in a plan file in the directory, so a run that stops part way through resumes with the same
+ * ranges, skipping those already read or archived. The plan file is removed once every range is archived.
+ */
+public final class RangedEventArchiver {
+    private static final Logger LOG = getLogger(RangedEventArchiver.class);
+    static final String PLAN_FILENAME = "archive-plan.txt";
+
+    @Nonnull
+    private final Path archiveDirectory;
+    private final boolean compress;
+    private final int parallelism;
+    @Nonnull
+    private final EventReader storeReader;
+    @Nonnull
+    private final EventArchiver eventArchiver;
+    private final List<Range> plan = new ArrayList<>();
+
+    /**
+     * @param compress write archives as ".cpio.xz", as {@link IncrementalEventArchiver} does
+     * @param parallelism number of ranges to read from the store at once
+     */
+    public RangedEventArchiver(@Nonnull EventSource eventSource, @Nonnull Path archiveDirectory, boolean compress, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.archiveDirectory = requireNonNull(archiveDirectory);
+        this.compress = compress;
+        this.parallelism = parallelism;
+        this.storeReader = eventSource.readAll();
+        this.eventArchiver = new EventArchiver(eventSource);
+    }
+
+    /**
+     * @return whether there is an unfinished plan in the archive directory, which {@link #archiveStore} will resume
+     */
+    public boolean hasPlan() {
+        return Files.exists(archiveDirectory.resolve(PLAN_FILENAME));
+    }
+
+    /**
+     * @param boundaries ascending positions dividing the store into ranges, each starting after one boundary and
+     *                   ending at the next one inclusive: the first is usually the empty store position. Ignored if
+     *                   resuming an unfinished plan.
+     */
+    public void archiveStore(List<Position> boundaries) throws IOException {
+        PositionCodec positionCodec = storeReader.storePositionCodec();
+        Path planFile = archiveDirectory.resolve(PLAN_FILENAME);
+        if (Files.exists(planFile)) {
+            plan.addAll(Files.readAllLines(planFile, UTF_8).stream().map(Range::parse).collect(toList()));
+            LOG.info("Resuming archiving of {} ranges from {}", plan.size(), planFile);
+        } else {
+            if (boundaries.size() < 2) {
+                throw new IllegalArgumentException("Need at least two boundaries to make a range: " + boundaries);
+            }
+            if (hasArchives()) {
+                throw new IllegalStateException("Archive directory already contains archives: " + archiveDirectory);
+            }
+            for (int i = 1; i < boundaries.size(); i++) {
+                plan.add(new Range(positionCodec.serializePosition(boundaries.get(i - 1)), positionCodec.serializePosition(boundaries.get(i)), State.PENDING, 0, null, null));
+            }
+            writePlan();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("ranged-archiver"));
+        try {
+            List<Future<?>> reads = new ArrayList<>();
+            for (int i = 0; i < plan.size(); i++) {
+                int rangeIndex = i;
+                reads.add(range(i).state == State.PENDING ? executor.submit(() -> readRange(rangeIndex)) : CompletableFuture.completedFuture(null));
+            }
+            long nextMemberPosition = 0;
+            for (int i = 0; i < plan.size(); i++) {
+                await(reads.get(i));
+                Range range = range(i);
+                if (range.state == State.READ) {
+                    writeArchive(i, range, nextMemberPosition);
+                } else {
+                    Files.deleteIfExists(rangeFile(i));
+                }
+                nextMemberPosition += range.eventCount;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Files.delete(planFile);
+    }
+
+    private Void readRange(int rangeIndex) throws IOException {
+        Range range = range(rangeIndex);
+        PositionCodec positionCodec = storeReader.storePositionCodec();
+        Path rangeFile = rangeFile(rangeIndex);
+        Optional<ArchiveBoundary> archivedTo;
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(rangeFile))) {
+            archivedTo = eventArchiver.archiveRange(output, positionCodec.deserializePosition(range.startExclusive), positionCodec.deserializePosition(range.endInclusive));
+        }
+        if (archivedTo.isPresent()) {
+            updatePlan(rangeIndex, range.read(
+                    archivedTo.get().getEventIndex(),
+                    positionCodec.serializePosition(archivedTo.get().getInputPosition()),
+                    ArchivePosition.CODEC.serializePosition(archivedTo.get().getArchivePosition())));
+        } else {
+            Files.delete(rangeFile);
+            updatePlan(rangeIndex, range.archived());
+        }
+        LOG.info("Read {} events after {} up to {}", archivedTo.map(ArchiveBoundary::getEventIndex).orElse(0L), range.startExclusive, range.endInclusive);
+        return null;
+    }
+
+    private void writeArchive(int rangeIndex, Range range, long firstMemberPosition) throws IOException {
+        Path rangeFile = rangeFile(rangeIndex);
+        String extension = compress ? ".cpio.xz" : ".cpio";
+        Path tempFile = Files.createTempFile(archiveDirectory, "__archive", extension + ".tmp");
+        ArchiveIndex.Builder index = new ArchiveIndex.Builder();
+        try (OutputStream output = compress ? EventArchiver.blockCompressed(Files.newOutputStream(tempFile)) : new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+            CountingOutputStream countingOutput = new CountingOutputStream(output);
+            try (CpioArchiveOutputStream cpioOutput = new EventArchiver.CpioArchiveOutputStreamWithoutNames(countingOutput)) {
+                EventArchiver.copyMembers(rangeFile, firstMemberPosition, cpioOutput, countingOutput, index);
+            }
+        }
+
+        String basename = String.format("%08x", firstMemberPosition + range.eventCount - 1) + range.lastBasename.substring(8);
+        Path archivePath = archiveDirectory.resolve(basename + extension);
+        index.build(Files.size(tempFile)).write(ArchiveIndex.indexPathFor(archivePath));
+        Files.move(tempFile, archivePath, ATOMIC_MOVE, REPLACE_EXISTING);
+        Files.write(archiveDirectory.resolve(basename + ".position.txt"), range.lastInputPosition.getBytes(UTF_8));
+        updatePlan(rangeIndex, range.archived());
+        Files.delete(rangeFile);
+        LOG.info("Wrote {} events to {} up to {}", range.eventCount, archivePath, range.lastInputPosition);
+    }
+
+    private synchronized Range range(int rangeIndex) {
+        return plan.get(rangeIndex);
+    }
+
+    private synchronized void updatePlan(int rangeIndex, Range range) throws IOException {
+        plan.set(rangeIndex, range);
+        writePlan();
+    }
+
+    private synchronized void writePlan() throws IOException {
+        Path planFile = archiveDirectory.resolve(PLAN_FILENAME);
+        Path tempFile = archiveDirectory.resolve(PLAN_FILENAME + ".tmp");
+        Files.write(tempFile, plan.stream().map(Range::format).collect(toList()), UTF_8);
+        Files.move(tempFile, planFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private Path rangeFile(int rangeIndex) {
+        return archiveDirectory.resolve(String.format("__range-%05d.cpio", rangeIndex));
+    }
+
+    private boolean hasArchives() throws IOException {
+        try (Stream<Path> paths = Files.list(archiveDirectory)) {
+            return paths.anyMatch(p -> p.getFileName().toString().endsWith(".position.txt"));
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while archiving ranges", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof WrappedIOException) {
+                throw ((WrappedIOException) cause).getIoException();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private enum State { PENDING, READ, ARCHIVED }
+
+    private static final class Range {
+        @Nonnull
+        final String startExclusive;
+        @Nonnull
+        final String endInclusive;
+        @Nonnull
+        final State state;
+        final long eventCount;
+        @Nullable
+        final String lastInputPosition;
+        @Nullable
+        final String lastBasename;
+
+        Range(String startExclusive, String endInclusive, State state, long eventCount, @Nullable String lastInputPosition, @Nullable String lastBasename) {
+            this.startExclusive = requireNonNull(startExclusive);
+            this.endInclusive = requireNonNull(endInclusive);
+            this.state = requireNonNull(state);
+            this.eventCount = eventCount;
+            this.lastInputPosition = lastInputPosition;
+            this.lastBasename = lastBasename;
+        }
+
+        Range read(long eventCount, String lastInputPosition, String lastBasename) {
+            return new Range(startExclusive, endInclusive, State.READ, eventCount, lastInputPosition, lastBasename);
+        }
+
+        Range archived() {
+            return new Range(startExclusive, endInclusive, State.ARCHIVED, eventCount, lastInputPosition, lastBasename);
+        }
+
+        String format() {
+            return String.join("\t", startExclusive, endInclusive, state.name(), Long.toString(eventCount),
+                    lastInputPosition == null ? "-" : lastInputPosition, lastBasename == null ? "-" : lastBasename);
+        }
+
+        static Range parse(String line) {
+            String[] fields = line.split("\t");
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("Invalid archive plan line: " + line);
+            }
+            return new Range(fields[0], fields[1], State.valueOf(fields[2]), Long.parseLong(fields[3]),
+                    fields[4].equals("-") ? null : fields[4], fields[5].equals("-") ? null : fields[5]);
+        }
+
+        @Override
+        public String toString() {
+            return "Range{" +
+                    "startExclusive='" + startExclusive + '\'' +
+                    ", endInclusive='" + endInclusive + '\'' +
+                    ", state=" + state +
+                    ", eventCount=" + eventCount +
+                    '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RangedEventArchiver{" +
+                "archiveDirectory=" + archiveDirectory +
+                ", compress=" + compress +
+                ", parallelism=" + parallelism +
+                '}';
+    }
+}
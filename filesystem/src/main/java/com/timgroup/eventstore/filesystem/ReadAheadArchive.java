@@ -0,0 +1,107 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import javax.annotation.Nonnull;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads an archive's events on a background thread into a buffer bounded by the size of the buffered event data.
+ */
+final class ReadAheadArchive extends Spliterators.AbstractSpliterator<ResolvedEvent> implements AutoCloseable {
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory("archive-read-ahead"));
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> buffer = new LinkedBlockingQueue<>();
+    private final Semaphore bufferedBytes;
+    private final int maxBufferedBytes;
+    @Nonnull
+    private final Future<?> reader;
+    private boolean finished;
+
+    ReadAheadArchive(Supplier<Stream<ResolvedEvent>> archive, int maxBufferedBytes) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        requireNonNull(archive);
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.bufferedBytes = new Semaphore(maxBufferedBytes);
+        this.reader = EXECUTOR.submit(() -> {
+            try (Stream<ResolvedEvent> events = archive.get()) {
+                events.forEachOrdered(event -> {
+                    try {
+                        bufferedBytes.acquire(sizeOf(event));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ReadAheadCancelled();
+                    }
+                    buffer.add(event);
+                });
+                buffer.add(END);
+            } catch (ReadAheadCancelled e) {
+                // closed by the consumer
+            } catch (RuntimeException | Error e) {
+                buffer.add(e);
+            }
+        });
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ResolvedEvent> action) {
+        if (finished) {
+            return false;
+        }
+        Object next;
+        try {
+            next = buffer.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for archive read-ahead");
+        }
+        if (next == END) {
+            finished = true;
+            return false;
+        }
+        if (next instanceof RuntimeException) {
+            finished = true;
+            throw (RuntimeException) next;
+        }
+        if (next instanceof Error) {
+            finished = true;
+            throw (Error) next;
+        }
+        ResolvedEvent event = (ResolvedEvent) next;
+        bufferedBytes.release(sizeOf(event));
+        action.accept(event);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        reader.cancel(true);
+        buffer.clear();
+    }
+
+    private int sizeOf(ResolvedEvent event) {
+        EventRecord eventRecord = event.eventRecord();
+        return Math.min(maxBufferedBytes, eventRecord.data().length + eventRecord.metadata().length + 1);
+    }
+
+    private static final class ReadAheadCancelled extends RuntimeException {
+        ReadAheadCancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
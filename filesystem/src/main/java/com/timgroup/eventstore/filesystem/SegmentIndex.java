@@ -0,0 +1,196 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.StreamId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Index of a single log segment: a sparse map from positions to frame offsets, plus the last event number of each
+ * stream written to the segment.
+ */
+final class SegmentIndex {
+    private static final int MAGIC = 0x53494458;
+    private static final int VERSION = 1;
+    static final int INTERVAL_BYTES = 64 * 1024;
+
+    private final long lastPosition;
+    private final long[] positions;
+    private final long[] offsets;
+    private final Map<StreamId, Long> lastEventNumbers;
+    private final Set<String> categories;
+
+    private SegmentIndex(long lastPosition, long[] positions, long[] offsets, Map<StreamId, Long> lastEventNumbers) {
+        this.lastPosition = lastPosition;
+        this.positions = positions;
+        this.offsets = offsets;
+        this.lastEventNumbers = lastEventNumbers;
+        Set<String> categories = new HashSet<>();
+        for (StreamId streamId : lastEventNumbers.keySet()) {
+            categories.add(streamId.category());
+        }
+        this.categories = categories;
+    }
+
+    long lastPosition() {
+        return lastPosition;
+    }
+
+    /**
+     * @return the offset of a frame at or before the frame holding {@code position}
+     */
+    int offsetAtOrBefore(long position) {
+        int i = Arrays.binarySearch(positions, position);
+        if (i >= 0) {
+            return (int) offsets[i];
+        }
+        int insertionPoint = -(i + 1);
+        return insertionPoint == 0 ? 0 : (int) offsets[insertionPoint - 1];
+    }
+
+    boolean containsCategory(String category) {
+        return categories.contains(category);
+    }
+
+    /**
+     * @return the last event number of {@code streamId} in this segment, or -1 if it has no events here
+     */
+    long lastEventNumber(StreamId streamId) {
+        return lastEventNumbers.getOrDefault(streamId, -1L);
+    }
+
+    Map<StreamId, Long> lastEventNumbers() {
+        return Collections.unmodifiableMap(lastEventNumbers);
+    }
+
+    /**
+     * Indexes the frames of the complete writes before {@code end}, leaving out any write that is torn or still being
+     * made.
+     */
+    static SegmentIndex scan(ByteBuffer segment, int end) {
+        Builder builder = new Builder();
+        int offset = 0;
+        int endOfWrite;
+        while (offset < end && (endOfWrite = LogRecordCodec.endOfWrite(segment, offset)) > offset && endOfWrite <= end) {
+            while (offset < endOfWrite) {
+                builder.add(segment, offset);
+                offset += LogRecordCodec.checkedFrameSize(segment, offset);
+            }
+        }
+        return builder.build();
+    }
+
+    static SegmentIndex read(Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a segment index: " + path);
+            }
+            long lastPosition = input.readLong();
+            int entries = input.readInt();
+            long[] positions = new long[entries];
+            long[] offsets = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                positions[i] = input.readLong();
+                offsets[i] = input.readLong();
+            }
+            int streams = input.readInt();
+            Map<StreamId, Long> lastEventNumbers = new HashMap<>(streams * 2);
+            for (int i = 0; i < streams; i++) {
+                String category = readString(input).intern();
+                String id = readString(input);
+                lastEventNumbers.put(streamId(category, id), input.readLong());
+            }
+            return new SegmentIndex(lastPosition, positions, offsets, lastEventNumbers);
+        }
+    }
+
+    void write(Path path) throws IOException {
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(lastPosition);
+            output.writeInt(positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                output.writeLong(positions[i]);
+                output.writeLong(offsets[i]);
+            }
+            output.writeInt(lastEventNumbers.size());
+            for (Map.Entry<StreamId, Long> entry : lastEventNumbers.entrySet()) {
+                writeString(output, entry.getKey().category());
+                writeString(output, entry.getKey().id());
+                output.writeLong(entry.getValue());
+            }
+        }
+        Files.move(tempFile, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static final class Builder {
+        private long lastPosition;
+        private long lastIndexedOffset = -INTERVAL_BYTES;
+        private long[] positions = new long[16];
+        private long[] offsets = new long[16];
+        private int entries;
+        private final Map<StreamId, Long> lastEventNumbers = new HashMap<>();
+
+        void add(ByteBuffer segment, int offset) {
+            add(LogRecordCodec.position(segment, offset), offset, LogRecordCodec.streamId(segment, offset), LogRecordCodec.eventNumber(segment, offset));
+        }
+
+        void add(long position, long offset, StreamId streamId, long eventNumber) {
+            if (offset - lastIndexedOffset >= INTERVAL_BYTES) {
+                if (entries == positions.length) {
+                    positions = Arrays.copyOf(positions, entries * 2);
+                    offsets = Arrays.copyOf(offsets, entries * 2);
+                }
+                positions[entries] = position;
+                offsets[entries] = offset;
+                entries++;
+                lastIndexedOffset = offset;
+            }
+            lastPosition = position;
+            lastEventNumbers.put(streamId, eventNumber);
+        }
+
+        long lastPosition() {
+            return lastPosition;
+        }
+
+        Map<StreamId, Long> lastEventNumbers() {
+            return lastEventNumbers;
+        }
+
+        SegmentIndex build() {
+            return new SegmentIndex(lastPosition, Arrays.copyOf(positions, entries), Arrays.copyOf(offsets, entries), new HashMap<>(lastEventNumbers));
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.NewEvent;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+import com.timgroup.eventstore.api.WrongExpectedVersionException;
+import com.timgroup.eventstore.filesystem.FileLocks.Lockfile;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Append-only log of events split over segment files named after the first position they hold.
+ *
+ * Every segment except the last is sealed by writing its index next to it; the last segment is the one being
+ * appended to. Writers in any process serialise on the store lock, and notice appends made by other writers by
+ * comparing the active segment against what they last wrote. The last frame of each append is marked as the end of
+ * its write, and readers stop after the last marked frame, so they never see part of an append, nor frames that a
+ * writer which crashed part way through will truncate on recovery.
+ */
+final class SegmentedLog {
+    private static final Logger LOG = getLogger(SegmentedLog.class);
+    static final String SEGMENT_SUFFIX = ".segment";
+    static final String INDEX_SUFFIX = ".index";
+
+    @Nonnull
+    private final Path directory;
+    private final long maxSegmentBytes;
+    @Nonnull
+    private final Clock clock;
+    @Nonnull
+    private final FileLocks locks;
+    private final ConcurrentMap<Long, SegmentIndex> sealedIndexes = new ConcurrentHashMap<>();
+
+    @Nullable
+    private WriterState writerState;
+
+    SegmentedLog(Path directory, Clock clock, long maxSegmentBytes) {
+        if (maxSegmentBytes <= 0 || maxSegmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be positive and fit in an int: " + maxSegmentBytes);
+        }
+        this.directory = requireNonNull(directory);
+        this.clock = requireNonNull(clock);
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.locks = FileLocks.forDirectory(directory);
+    }
+
+    Stream<ResolvedEvent> readForwards(long positionExclusive, Predicate<? super SegmentIndex> segmentFilter, Predicate<? super StreamId> streamFilter) {
+        List<Segment> segments = segments();
+        int first = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i).basePosition <= positionExclusive + 1) {
+                first = i;
+            }
+        }
+        ForwardsIterator iterator = new ForwardsIterator(segments.subList(first, segments.size()), positionExclusive, segmentFilter, streamFilter);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    Stream<ResolvedEvent> readBackwards(long positionExclusive, Predicate<? super SegmentIndex> segmentFilter, Predicate<? super StreamId> streamFilter) {
+        List<Segment> segments = new ArrayList<>();
+        for (Segment segment : segments()) {
+            if (segment.basePosition < positionExclusive) {
+                segments.add(0, segment);
+            }
+        }
+        BackwardsIterator iterator = new BackwardsIterator(segments, positionExclusive, segmentFilter, streamFilter);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    boolean streamExists(StreamId streamId) {
+        try (Stream<ResolvedEvent> events = readForwards(0L, index -> index.lastEventNumber(streamId) >= 0, streamId::equals)) {
+            return events.findFirst().isPresent();
+        }
+    }
+
+    void append(StreamId streamId, Collection<NewEvent> events, OptionalLong expectedVersion) {
+        try (Lockfile ignored = locks.lockStore()) {
+            if (writerState == null || writerState.isStale()) {
+                closeWriter();
+                writerState = recover();
+            }
+            WriterState state = writerState;
+            long currentVersion = state.streamVersions.getOrDefault(streamId, -1L);
+            if (expectedVersion.isPresent() && expectedVersion.getAsLong() != currentVersion) {
+                throw new WrongExpectedVersionException(currentVersion, expectedVersion.getAsLong());
+            }
+            if (events.isEmpty()) {
+                return;
+            }
+
+            List<LogRecordCodec.EncodedEvent> encodedEvents = new ArrayList<>(events.size());
+            int batchSize = 0;
+            for (NewEvent event : events) {
+                LogRecordCodec.EncodedEvent encoded = new LogRecordCodec.EncodedEvent(streamId, event);
+                encodedEvents.add(encoded);
+                batchSize += encoded.frameSize();
+            }
+
+            if (state.active == null || (state.active.endOffset > 0 && state.active.endOffset + batchSize > maxSegmentBytes)) {
+                state.roll();
+            }
+            ActiveSegment active = requireNonNull(state.active);
+
+            ByteBuffer batch = ByteBuffer.allocate(batchSize);
+            long position = state.lastPosition;
+            long eventNumber = currentVersion;
+            int remaining = encodedEvents.size();
+            for (LogRecordCodec.EncodedEvent encoded : encodedEvents) {
+                Instant timestamp = Instant.now(clock);
+                LogRecordCodec.writeFrame(batch, encoded, ++position, timestamp, ++eventNumber, --remaining == 0);
+            }
+            batch.flip();
+
+            try {
+                long writeOffset = active.endOffset;
+                while (batch.hasRemaining()) {
+                    writeOffset += active.channel.write(batch, writeOffset);
+                }
+            } catch (IOException e) {
+                closeWriter();
+                throw new RuntimeException("Unable to write events to " + streamId + " in " + active.segment.path, e);
+            }
+
+            long offset = active.endOffset;
+            position = state.lastPosition;
+            eventNumber = currentVersion;
+            for (LogRecordCodec.EncodedEvent encoded : encodedEvents) {
+                active.index.add(++position, offset, streamId, ++eventNumber);
+                offset += encoded.frameSize();
+            }
+            active.endOffset = offset;
+            state.lastPosition = position;
+            state.streamVersions.put(streamId, eventNumber);
+        }
+    }
+
+    private void closeWriter() {
+        if (writerState != null && writerState.active != null) {
+            try {
+                writerState.active.channel.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close {}", writerState.active.segment.path, e);
+            }
+        }
+        writerState = null;
+    }
+
+    private WriterState recover() {
+        WriterState state = new WriterState();
+        List<Segment> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            boolean last = i == segments.size() - 1;
+            if (!last || segment.isSealed()) {
+                SegmentIndex index = sealedIndex(segment, true);
+                state.streamVersions.putAll(index.lastEventNumbers());
+                state.lastPosition = Math.max(state.lastPosition, index.lastPosition());
+            } else {
+                state.active = recoverActiveSegment(segment);
+                state.streamVersions.putAll(state.active.index.lastEventNumbers());
+                if (state.active.endOffset > 0) {
+                    state.lastPosition = state.active.index.lastPosition();
+                }
+            }
+        }
+        return state;
+    }
+
+    private ActiveSegment recoverActiveSegment(Segment segment) {
+        try {
+            FileChannel channel = FileChannel.open(segment.path, READ, WRITE);
+            try {
+                long size = channel.size();
+                SegmentIndex.Builder index = new SegmentIndex.Builder();
+                int committedEnd = 0;
+                if (size > 0) {
+                    ByteBuffer buffer = channel.map(READ_ONLY, 0, size);
+                    committedEnd = LogRecordCodec.committedEnd(buffer);
+                    for (int offset = 0; offset < committedEnd; offset += LogRecordCodec.checkedFrameSize(buffer, offset)) {
+                        index.add(buffer, offset);
+                    }
+                }
+                if (committedEnd < size) {
+                    LOG.warn("Truncating torn write at the end of {} from {} to {} bytes", segment.path, size, committedEnd);
+                    channel.truncate(committedEnd);
+                    channel.force(true);
+                }
+                return new ActiveSegment(segment, channel, committedEnd, index);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to recover " + segment.path, e);
+        }
+    }
+
+    private SegmentIndex sealedIndex(Segment segment, boolean writeIfMissing) {
+        return sealedIndexes.computeIfAbsent(segment.basePosition, base -> {
+            try {
+                if (Files.exists(segment.indexPath)) {
+                    return SegmentIndex.read(segment.indexPath);
+                }
+                ByteBuffer buffer = segment.map();
+                SegmentIndex index = SegmentIndex.scan(buffer, buffer.limit());
+                if (writeIfMissing) {
+                    LOG.info("Rebuilt missing index for {}", segment.path);
+                    index.write(segment.indexPath);
+                }
+                return index;
+            } catch (IOException e) {
+                throw new WrappedIOException(e);
+            }
+        });
+    }
+
+    private List<Segment> segments() {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .map(Segment::new)
+                    .sorted((a, b) -> Long.compare(a.basePosition, b.basePosition))
+                    .collect(toList());
+        } catch (IOException e) {
+            throw new WrappedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedLog{" +
+                "directory=" + directory +
+                ", maxSegmentBytes=" + maxSegmentBytes +
+                '}';
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final Path indexPath;
+        private final long basePosition;
+
+        Segment(Path path) {
+            this.path = path;
+            String filename = path.getFileName().toString();
+            String basename = filename.substring(0, filename.length() - SEGMENT_SUFFIX.length());
+            this.indexPath = path.resolveSibling(basename + INDEX_SUFFIX);
+            this.basePosition = Long.parseLong(basename);
+        }
+
+        boolean isSealed() {
+            return Files.exists(indexPath);
+        }
+
+        MappedByteBuffer map() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, READ)) {
+                return channel.map(READ_ONLY, 0, channel.size());
+            }
+        }
+
+        static Path pathFor(Path directory, long basePosition) {
+            return directory.resolve(String.format("%020d", basePosition) + SEGMENT_SUFFIX);
+        }
+    }
+
+    private static final class ActiveSegment {
+        private final Segment segment;
+        private final FileChannel channel;
+        private final SegmentIndex.Builder index;
+        private long endOffset;
+
+        ActiveSegment(Segment segment, FileChannel channel, long endOffset, SegmentIndex.Builder index) {
+            this.segment = segment;
+            this.channel = channel;
+            this.endOffset = endOffset;
+            this.index = index;
+        }
+    }
+
+    private final class WriterState {
+        private final Map<StreamId, Long> streamVersions = new HashMap<>();
+        private long lastPosition;
+        @Nullable
+        private ActiveSegment active;
+
+        boolean isStale() {
+            if (active == null) {
+                return true;
+            }
+            try {
+                return active.channel.size() != active.endOffset || active.segment.isSealed();
+            } catch (IOException e) {
+                throw new WrappedIOException(e);
+            }
+        }
+
+        void roll() {
+            try {
+                if (active != null) {
+                    SegmentIndex index = active.index.build();
+                    index.write(active.segment.indexPath);
+                    sealedIndexes.put(active.segment.basePosition, index);
+                    active.channel.force(true);
+                    active.channel.close();
+                    active = null;
+                }
+                Path path = Segment.pathFor(directory, lastPosition + 1);
+                FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+                active = new ActiveSegment(new Segment(path), channel, 0L, new SegmentIndex.Builder());
+            } catch (IOException e) {
+                closeWriter();
+                throw new RuntimeException("Unable to start new segment in " + directory, e);
+            }
+        }
+    }
+
+    private final class ForwardsIterator extends AbstractIterator<ResolvedEvent> {
+        private final List<Segment> segments;
+        private final long positionExclusive;
+        private final Predicate<? super SegmentIndex> segmentFilter;
+        private final Predicate<? super StreamId> streamFilter;
+        private int segmentIndex = -1;
+        private ByteBuffer buffer;
+        private int offset;
+        private int endOfWrite;
+
+        ForwardsIterator(List<Segment> segments, long positionExclusive, Predicate<? super SegmentIndex> segmentFilter, Predicate<? super StreamId> streamFilter) {
+            this.segments = segments;
+            this.positionExclusive = positionExclusive;
+            this.segmentFilter = segmentFilter;
+            this.streamFilter = streamFilter;
+        }
+
+        @Override
+        public void computeNext() {
+            while (true) {
+                if (buffer != null) {
+                    while (offset < endOfWrite || (endOfWrite = LogRecordCodec.endOfWrite(buffer, offset)) > offset) {
+                        int frameOffset = offset;
+                        offset += LogRecordCodec.checkedFrameSize(buffer, frameOffset);
+                        if (LogRecordCodec.position(buffer, frameOffset) <= positionExclusive) {
+                            continue;
+                        }
+                        ResolvedEvent event = LogRecordCodec.read(buffer, frameOffset, streamFilter);
+                        if (event != null) {
+                            setNext(event);
+                            return;
+                        }
+                    }
+                    buffer = null;
+                }
+                if (!openNextSegment()) {
+                    done();
+                    return;
+                }
+            }
+        }
+
+        private boolean openNextSegment() {
+            while (++segmentIndex < segments.size()) {
+                Segment segment = segments.get(segmentIndex);
+                boolean last = segmentIndex == segments.size() - 1;
+                try {
+                    if (last && !segment.isSealed()) {
+                        buffer = segment.map();
+                        offset = 0;
+                        endOfWrite = 0;
+                        return true;
+                    }
+                    SegmentIndex index = sealedIndex(segment, false);
+                    if (index.lastPosition() <= positionExclusive || !segmentFilter.test(index)) {
+                        continue;
+                    }
+                    buffer = segment.map();
+                    offset = index.offsetAtOrBefore(positionExclusive + 1);
+                    endOfWrite = offset;
+                    return true;
+                } catch (IOException e) {
+                    throw new WrappedIOException(e);
+                }
+            }
+            return false;
+        }
+    }
+
+    private final class BackwardsIterator extends AbstractIterator<ResolvedEvent> {
+        private final List<Segment> segments;
+        private final long positionExclusive;
+        private final Predicate<? super SegmentIndex> segmentFilter;
+        private final Predicate<? super StreamId> streamFilter;
+        private int segmentIndex = -1;
+        private ByteBuffer buffer;
+        private int end;
+
+        BackwardsIterator(List<Segment> segments, long positionExclusive, Predicate<? super SegmentIndex> segmentFilter, Predicate<? super StreamId> streamFilter) {
+            this.segments = segments;
+            this.positionExclusive = positionExclusive;
+            this.segmentFilter = segmentFilter;
+            this.streamFilter = streamFilter;
+        }
+
+        @Override
+        public void computeNext() {
+            while (true) {
+                if (buffer != null) {
+                    while (end > 0) {
+                        int frameOffset = end - LogRecordCodec.FRAME_OVERHEAD - buffer.getInt(end - 4);
+                        if (LogRecordCodec.frameSize(buffer, frameOffset) != end - frameOffset) {
+                            throw new IllegalStateException("Corrupt frame ending at " + end + " in segment " + segments.get(segmentIndex).path);
+                        }
+                        end = frameOffset;
+                        if (LogRecordCodec.position(buffer, frameOffset) >= positionExclusive) {
+                            continue;
+                        }
+                        ResolvedEvent event = LogRecordCodec.read(buffer, frameOffset, streamFilter);
+                        if (event != null) {
+                            setNext(event);
+                            return;
+                        }
+                    }
+                    buffer = null;
+                }
+                if (!openNextSegment()) {
+                    done();
+                    return;
+                }
+            }
+        }
+
+        private boolean openNextSegment() {
+            while (++segmentIndex < segments.size()) {
+                Segment segment = segments.get(segmentIndex);
+                try {
+                    if (segmentIndex > 0 || segment.isSealed()) {
+                        if (!segmentFilter.test(sealedIndex(segment, false))) {
+                            continue;
+                        }
+                        buffer = segment.map();
+                        end = buffer.limit();
+                    } else {
+                        buffer = segment.map();
+                        end = committedEnd(buffer);
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new WrappedIOException(e);
+                }
+            }
+            return false;
+        }
+
+        private int committedEnd(ByteBuffer buffer) {
+            int size = buffer.limit();
+            if (size < LogRecordCodec.FRAME_OVERHEAD) {
+                return 0;
+            }
+            int lastFrameOffset = size - LogRecordCodec.FRAME_OVERHEAD - buffer.getInt(size - 4);
+            if (LogRecordCodec.frameSize(buffer, lastFrameOffset) == size - lastFrameOffset && LogRecordCodec.isEndOfWrite(buffer, lastFrameOffset)) {
+                return size;
+            }
+            return LogRecordCodec.committedEnd(buffer);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventCategoryReader;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+final class SegmentedLogEventCategoryReader implements EventCategoryReader {
+    private final SegmentedLog log;
+
+    SegmentedLogEventCategoryReader(SegmentedLog log) {
+        this.log = requireNonNull(log);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryForwards(String category, Position positionExclusive) {
+        return log.readForwards(((SegmentedLogPosition) positionExclusive).value(),
+                index -> index.containsCategory(category),
+                streamId -> streamId.category().equals(category));
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoriesForwards(List<String> categories, Position positionExclusive) {
+        Set<String> categorySet = new HashSet<>(categories);
+        return log.readForwards(((SegmentedLogPosition) positionExclusive).value(),
+                index -> categorySet.stream().anyMatch(index::containsCategory),
+                streamId -> categorySet.contains(streamId.category()));
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryBackwards(String category) {
+        return readCategoryBackwards(category, new SegmentedLogPosition(Long.MAX_VALUE));
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readCategoryBackwards(String category, Position positionExclusive) {
+        return log.readBackwards(((SegmentedLogPosition) positionExclusive).value(),
+                index -> index.containsCategory(category),
+                streamId -> streamId.category().equals(category));
+    }
+
+    @Nonnull
+    @Override
+    public Position emptyCategoryPosition(String category) {
+        return SegmentedLogPosition.EMPTY;
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec categoryPositionCodec(String category) {
+        return SegmentedLogPosition.CODEC;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedLogEventCategoryReader{" +
+                "log=" + log +
+                '}';
+    }
+}
@@ -0,0 +1,60 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+final class SegmentedLogEventReader implements EventReader {
+    private final SegmentedLog log;
+
+    SegmentedLogEventReader(SegmentedLog log) {
+        this.log = requireNonNull(log);
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    @Override
+    public Stream<ResolvedEvent> readAllForwards(Position positionExclusive) {
+        return log.readForwards(((SegmentedLogPosition) positionExclusive).value(), index -> true, streamId -> true);
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    @Override
+    public Stream<ResolvedEvent> readAllBackwards() {
+        return log.readBackwards(Long.MAX_VALUE, index -> true, streamId -> true);
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    @Override
+    public Stream<ResolvedEvent> readAllBackwards(Position positionExclusive) {
+        return log.readBackwards(((SegmentedLogPosition) positionExclusive).value(), index -> true, streamId -> true);
+    }
+
+    @Nonnull
+    @Override
+    public Position emptyStorePosition() {
+        return SegmentedLogPosition.EMPTY;
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec storePositionCodec() {
+        return SegmentedLogPosition.CODEC;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedLogEventReader{" +
+                "log=" + log +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventCategoryReader;
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.EventStreamReader;
+import com.timgroup.eventstore.api.EventStreamWriter;
+import com.timgroup.tucker.info.Component;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Collections;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Event store kept in a directory as a log of framed, checksummed records split over rolling segment files.
+ *
+ * Sealed segments have an index alongside them giving sparse position offsets and the streams they contain, which
+ * lets reads seek to a position and lets category and stream reads skip segments that hold nothing for them. On the
+ * first write, a torn write at the end of the active segment (from a crashed writer) is truncated away.
+ */
+public final class SegmentedLogEventSource implements EventSource {
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+
+    @Nonnull
+    private final Path directory;
+    @Nonnull
+    private final SegmentedLog log;
+
+    public SegmentedLogEventSource(Path directory, Clock clock) {
+        this(directory, clock, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    public SegmentedLogEventSource(Path directory, Clock clock, long maxSegmentBytes) {
+        this.directory = requireNonNull(directory);
+        this.log = new SegmentedLog(directory, clock, maxSegmentBytes);
+    }
+
+    @Nonnull
+    @Override
+    public EventReader readAll() {
+        return new SegmentedLogEventReader(log);
+    }
+
+    @Nonnull
+    @Override
+    public EventCategoryReader readCategory() {
+        return new SegmentedLogEventCategoryReader(log);
+    }
+
+    @Nonnull
+    @Override
+    public EventStreamReader readStream() {
+        return new SegmentedLogEventStreamReader(log);
+    }
+
+    @Nonnull
+    @Override
+    public EventStreamWriter writeStream() {
+        return new SegmentedLogEventStreamWriter(log);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<Component> monitoring() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedLogEventSource{" +
+                "directory=" + directory +
+                '}';
+    }
+}
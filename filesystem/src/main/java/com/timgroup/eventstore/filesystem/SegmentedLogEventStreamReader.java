@@ -0,0 +1,59 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventStreamReader;
+import com.timgroup.eventstore.api.NoSuchStreamException;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+final class SegmentedLogEventStreamReader implements EventStreamReader {
+    private final SegmentedLog log;
+
+    SegmentedLogEventStreamReader(SegmentedLog log) {
+        this.log = requireNonNull(log);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readStreamForwards(StreamId streamId, long eventNumber) {
+        if (!log.streamExists(streamId)) throw new NoSuchStreamException(streamId);
+        return log.readForwards(0L, index -> index.lastEventNumber(streamId) > eventNumber, streamId::equals)
+                .filter(re -> re.eventRecord().eventNumber() > eventNumber);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readStreamBackwards(StreamId streamId) {
+        return readStreamBackwards(streamId, Long.MAX_VALUE);
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    @Override
+    public Stream<ResolvedEvent> readStreamBackwards(StreamId streamId, long eventNumber) {
+        if (!log.streamExists(streamId)) throw new NoSuchStreamException(streamId);
+        return log.readBackwards(Long.MAX_VALUE, index -> index.lastEventNumber(streamId) >= 0, streamId::equals)
+                .filter(re -> re.eventRecord().eventNumber() < eventNumber);
+    }
+
+    @Nonnull
+    @Override
+    public PositionCodec streamPositionCodec() {
+        return SegmentedLogPosition.CODEC;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedLogEventStreamReader{" +
+                "log=" + log +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventStreamWriter;
+import com.timgroup.eventstore.api.NewEvent;
+import com.timgroup.eventstore.api.StreamId;
+
+import java.util.Collection;
+import java.util.OptionalLong;
+
+import static java.util.Objects.requireNonNull;
+
+final class SegmentedLogEventStreamWriter implements EventStreamWriter {
+    private final SegmentedLog log;
+
+    SegmentedLogEventStreamWriter(SegmentedLog log) {
+        this.log = requireNonNull(log);
+    }
+
+    @Override
+    public void write(StreamId streamId, Collection<NewEvent> events) {
+        log.append(streamId, events, OptionalLong.empty());
+    }
+
+    @Override
+    public void write(StreamId streamId, Collection<NewEvent> events, long expectedVersion) {
+        log.append(streamId, events, OptionalLong.of(expectedVersion));
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedLogEventStreamWriter{" +
+                "log=" + log +
+                '}';
+    }
+}
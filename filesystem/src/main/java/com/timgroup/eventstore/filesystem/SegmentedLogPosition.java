@@ -0,0 +1,46 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+
+import javax.annotation.Nullable;
+
+final class SegmentedLogPosition implements Position, Comparable<SegmentedLogPosition> {
+    static final SegmentedLogPosition EMPTY = new SegmentedLogPosition(0L);
+    static final PositionCodec CODEC = PositionCodec.ofComparable(SegmentedLogPosition.class,
+            str -> new SegmentedLogPosition(Long.parseLong(str)),
+            pos -> Long.toString(pos.value));
+
+    private final long value;
+
+    SegmentedLogPosition(long value) {
+        this.value = value;
+    }
+
+    long value() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(SegmentedLogPosition o) {
+        return Long.compare(value, o.value);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SegmentedLogPosition that = (SegmentedLogPosition) o;
+        return value == that.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
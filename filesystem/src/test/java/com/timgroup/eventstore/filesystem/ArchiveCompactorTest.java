@@ -0,0 +1,133 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.memory.InMemoryEventSource;
+import com.timgroup.eventstore.memory.JavaInMemoryEventStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ArchiveCompactorTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final EventSource eventSource = new InMemoryEventSource(new JavaInMemoryEventStore(new ManualClock(Instant.EPOCH, ZoneOffset.UTC)));
+
+    @Test
+    public void merges_adjacent_archives_into_compressed_archive_named_after_the_last() throws Exception {
+        archiveEvents(3);
+
+        int merged = new ArchiveCompactor(path()).compact();
+
+        assertThat(merged, equalTo(2));
+        assertThat(filenames(), containsInAnyOrder(
+                "00000002.testCategory.testId.2.EventType.position.txt",
+                "00000002.testCategory.testId.2.EventType.cpio.xz",
+                "00000002.testCategory.testId.2.EventType.cpio.xz.index"
+        ));
+        assertThat(Files.readAllLines(path("00000002.testCategory.testId.2.EventType.position.txt")), contains("3"));
+        assertThat(new ArchiveDirectoryEventSource(path()).readAll().readAllForwards().map(re -> re.eventRecord().eventNumber()).collect(toList()),
+                contains(0L, 1L, 2L));
+        assertThat(new ArchiveDirectoryEventSource(path()).readStream().readStreamForwards(streamId("testCategory", "testId"), 0).map(re -> re.eventRecord().eventNumber()).collect(toList()),
+                contains(1L, 2L));
+
+        archiveEvents(1);
+
+        assertThat(new ArchiveDirectoryEventSource(path()).readAll().readAllForwards().map(re -> re.eventRecord().eventNumber()).collect(toList()),
+                contains(0L, 1L, 2L, 3L));
+    }
+
+    @Test
+    public void only_merges_archives_while_within_target_size() throws Exception {
+        archiveEvents(4);
+        long archiveSize = Files.size(path("00000000.testCategory.testId.0.EventType.cpio"));
+
+        int merged = new ArchiveCompactor(path(), archiveSize * 2).compact();
+
+        assertThat(merged, equalTo(2));
+        assertThat(filenames().stream().filter(name -> name.endsWith(".position.txt")).collect(toList()), containsInAnyOrder(
+                "00000001.testCategory.testId.1.EventType.position.txt",
+                "00000003.testCategory.testId.3.EventType.position.txt"
+        ));
+        assertThat(new ArchiveDirectoryEventSource(path()).readAll().readAllForwards().map(re -> re.eventRecord().eventNumber()).collect(toList()),
+                contains(0L, 1L, 2L, 3L));
+    }
+
+    @Test
+    public void leaves_position_files_without_an_archive_out_of_runs() throws Exception {
+        archiveEvents(3);
+        Files.delete(path("00000001.testCategory.testId.1.EventType.cpio"));
+
+        int merged = new ArchiveCompactor(path()).compact();
+
+        assertThat(merged, equalTo(1));
+        assertThat(filenames(), containsInAnyOrder(
+                "00000001.testCategory.testId.1.EventType.position.txt",
+                "00000001.testCategory.testId.1.EventType.cpio.index",
+                "00000002.testCategory.testId.2.EventType.position.txt",
+                "00000002.testCategory.testId.2.EventType.cpio.xz",
+                "00000002.testCategory.testId.2.EventType.cpio.xz.index"
+        ));
+    }
+
+    @Test
+    public void reader_active_during_compaction_sees_each_event_once() throws Exception {
+        archiveEvents(3);
+
+        List<Long> eventNumbers = new ArrayList<>();
+        try (Stream<ResolvedEvent> events = new ArchiveDirectoryEventSource(path()).readAll().readAllForwards()) {
+            Iterator<ResolvedEvent> iterator = events.iterator();
+            eventNumbers.add(iterator.next().eventRecord().eventNumber());
+
+            new ArchiveCompactor(path()).compact();
+
+            iterator.forEachRemaining(re -> eventNumbers.add(re.eventRecord().eventNumber()));
+        }
+
+        assertThat(eventNumbers, contains(0L, 1L, 2L));
+    }
+
+    private void archiveEvents(int archives) throws IOException {
+        for (int i = 0; i < archives; i++) {
+            eventSource.writeStream().write(streamId("testCategory", "testId"), singletonList(newEvent("EventType", "data".getBytes())));
+            new IncrementalEventArchiver(eventSource, path(), true).archiveEvents();
+        }
+    }
+
+    private Path path() {
+        return temporaryFolder.getRoot().toPath();
+    }
+
+    private Path path(String filename) {
+        return path().resolve(filename);
+    }
+
+    private Set<String> filenames() throws IOException {
+        try (Stream<Path> paths = Files.list(path())) {
+            return paths.map(p -> p.getFileName().toString()).filter(name -> !name.startsWith(".")).collect(toSet());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.timgroup.eventstore.filesystem;
 
 import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.NoSuchStreamException;
 import com.timgroup.eventstore.api.Position;
 import com.timgroup.eventstore.api.ResolvedEvent;
 import com.youdevise.testutils.matchers.Contains;
@@ -14,12 +15,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.time.Instant;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static com.timgroup.eventstore.api.EventRecord.eventRecord;
 import static com.timgroup.eventstore.api.StreamId.streamId;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
 
 public class ArchiveDirectoryEventSourceTest {
     @Rule
@@ -87,6 +91,105 @@ public class ArchiveDirectoryEventSourceTest {
         ));
     }
 
+    @Test
+    public void reads_archive_sequence_in_order_with_read_ahead() throws Exception {
+        for (int archive = 0; archive < 5; archive++) {
+            String basename = String.format("%08x.testCategory.testId.%d.EventType", archive * 3 + 2, archive * 3 + 2);
+            try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStream(Files.newOutputStream(
+                    temporaryFolder.newFile(basename + ".cpio").toPath()))) {
+                for (int n = archive * 3; n < archive * 3 + 3; n++) {
+                    writeEntry(cpioOutput, String.format("%08x.testCategory.testId.%d.EventType.data", n, n), "event" + n);
+                }
+            }
+            Files.write(temporaryFolder.newFile(basename + ".position.txt").toPath(), Integer.toString(archive).getBytes(UTF_8));
+        }
+
+        EventReader archiveReader = new ArchiveDirectoryEventSource(temporaryFolder.getRoot().toPath(), 2, 8).readAll();
+
+        List<Long> eventNumbers = archiveReader.readAllForwards().map(re -> re.eventRecord().eventNumber()).collect(toList());
+        List<Long> firstEventNumbers;
+        try (Stream<ResolvedEvent> events = archiveReader.readAllForwards()) {
+            firstEventNumbers = events.limit(4).map(re -> re.eventRecord().eventNumber()).collect(toList());
+        }
+
+        assertThat(eventNumbers, Contains.inOrder(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L));
+        assertThat(firstEventNumbers, Contains.inOrder(0L, 1L, 2L, 3L));
+    }
+
+    @Test
+    public void reads_archive_sequence_backwards() throws Exception {
+        for (int archive = 0; archive < 3; archive++) {
+            String basename = String.format("%08x.testCategory.testId.%d.EventType", archive * 3 + 2, archive * 3 + 2);
+            try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStream(Files.newOutputStream(
+                    temporaryFolder.newFile(basename + ".cpio").toPath()))) {
+                for (int n = archive * 3; n < archive * 3 + 3; n++) {
+                    writeEntry(cpioOutput, String.format("%08x.testCategory.testId.%d.EventType.data", n, n), "event" + n);
+                }
+            }
+            Files.write(temporaryFolder.newFile(basename + ".position.txt").toPath(), Integer.toString(archive).getBytes(UTF_8));
+        }
+
+        EventReader archiveReader = new ArchiveDirectoryEventSource(temporaryFolder.getRoot().toPath()).readAll();
+        List<ResolvedEvent> forwards = archiveReader.readAllForwards().collect(toList());
+
+        assertThat(archiveReader.readAllBackwards().map(re -> re.eventRecord().eventNumber()).collect(toList()),
+                Contains.inOrder(8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L, 0L));
+        assertThat(archiveReader.readAllBackwards(forwards.get(5).position()).collect(toList()),
+                Contains.inOrder(forwards.get(4), forwards.get(3), forwards.get(2), forwards.get(1), forwards.get(0)));
+        assertThat(archiveReader.readLastEvent().map(ResolvedEvent::position).orElse(null), equalTo(forwards.get(8).position()));
+    }
+
+    @Test
+    public void reads_category_from_only_the_archives_containing_it() throws Exception {
+        try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStream(Files.newOutputStream(
+                temporaryFolder.newFile("00000001.testCategory.testId.1.EventType.cpio").toPath()))) {
+            writeEntry(cpioOutput, "00000000.otherCategory.otherId.0.EventType.data", "xyzzy");
+            writeEntry(cpioOutput, "00000001.testCategory.testId.0.EventType.data", "abcde");
+        }
+        Files.write(temporaryFolder.newFile("00000001.testCategory.testId.1.EventType.position.txt").toPath(), "1".getBytes(UTF_8));
+
+        Files.write(temporaryFolder.newFile("00000002.otherCategory.otherId.1.EventType.cpio").toPath(), "not an archive".getBytes(UTF_8));
+        Files.write(temporaryFolder.newFile("00000002.otherCategory.otherId.1.EventType.position.txt").toPath(), "2".getBytes(UTF_8));
+        new ArchiveIndex.Builder().build(Files.size(temporaryFolder.getRoot().toPath().resolve("00000002.otherCategory.otherId.1.EventType.cpio")))
+                .write(temporaryFolder.getRoot().toPath().resolve("00000002.otherCategory.otherId.1.EventType.cpio.index"));
+
+        ArchiveDirectoryEventSource eventSource = new ArchiveDirectoryEventSource(temporaryFolder.getRoot().toPath());
+
+        List<ResolvedEvent> events = eventSource.readCategory().readCategoryForwards("testCategory").collect(toList());
+
+        assertThat(events, Contains.inOrder(
+                eventRecord(Instant.EPOCH, streamId("testCategory", "testId"), 0, "EventType", "abcde".getBytes(), "".getBytes())
+                        .toResolvedEvent(eventSource.storePositionCodec().deserializePosition("00000001.testCategory.testId.1.EventType.cpio:00000001.testCategory.testId.0.EventType"))
+        ));
+    }
+
+    @Test
+    public void checks_that_a_stream_exists_without_building_missing_indexes() throws Exception {
+        Files.write(temporaryFolder.newFile("00000001.otherCategory.otherId.1.EventType.cpio").toPath(), "not an archive".getBytes(UTF_8));
+        Files.write(temporaryFolder.newFile("00000001.otherCategory.otherId.1.EventType.position.txt").toPath(), "1".getBytes(UTF_8));
+        new ArchiveIndex.Builder().build(Files.size(temporaryFolder.getRoot().toPath().resolve("00000001.otherCategory.otherId.1.EventType.cpio")))
+                .write(temporaryFolder.getRoot().toPath().resolve("00000001.otherCategory.otherId.1.EventType.cpio.index"));
+
+        try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStream(Files.newOutputStream(
+                temporaryFolder.newFile("00000003.testCategory.testId.0.EventType.cpio").toPath()))) {
+            writeEntry(cpioOutput, "00000002.otherCategory.otherId.2.EventType.data", "xyzzy");
+            writeEntry(cpioOutput, "00000003.testCategory.testId.0.EventType.data", "abcde");
+        }
+        Files.write(temporaryFolder.newFile("00000003.testCategory.testId.0.EventType.position.txt").toPath(), "3".getBytes(UTF_8));
+
+        ArchiveDirectoryEventSource eventSource = new ArchiveDirectoryEventSource(temporaryFolder.getRoot().toPath());
+
+        eventSource.readStream().readStreamBackwards(streamId("testCategory", "testId")).close();
+        try {
+            eventSource.readStream().readStreamBackwards(streamId("testCategory", "missingId")).close();
+            fail("expected NoSuchStreamException");
+        } catch (NoSuchStreamException e) {
+            // expected
+        }
+
+        assertThat(Files.exists(temporaryFolder.getRoot().toPath().resolve("00000003.testCategory.testId.0.EventType.cpio.index")), equalTo(false));
+    }
+
     private static void writeEntry(CpioArchiveOutputStream cpioOutput, String filename, String content) throws IOException {
         byte[] contentBytes = content.getBytes();
         CpioArchiveEntry entry = new CpioArchiveEntry(filename);
@@ -1,24 +1,45 @@
 package com.timgroup.eventstore.filesystem;
 
 import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.NoSuchStreamException;
+import com.timgroup.eventstore.api.Position;
 import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.memory.InMemoryEventSource;
+import com.timgroup.eventstore.memory.JavaInMemoryEventStore;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveEntry;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveOutputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.timgroup.eventstore.api.EventRecord.eventRecord;
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
 import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
 
 public class ArchiveEventSourceTest {
     @Rule
@@ -67,6 +88,146 @@ public class ArchiveEventSourceTest {
         ));
     }
 
+    @Test
+    public void reads_stream_and_category_from_archive_using_index_built_on_first_use() throws Exception {
+        Path tempFile = temporaryFolder.newFile("events.cpio").toPath();
+        try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStream(Files.newOutputStream(tempFile))) {
+            writeEntry(cpioOutput, "00000000.testCategory.testId.0.EventType.data", "xyzzy");
+            writeEntry(cpioOutput, "00000001.otherCategory.otherId.0.EventType.data", "abcde");
+            writeEntry(cpioOutput, "00000001.otherCategory.otherId.0.EventType.metadata", "12345");
+            writeEntry(cpioOutput, "00000002.testCategory.testId.1.EventType.data", "nnnnn");
+        }
+        ArchiveEventSource eventSource = new ArchiveEventSource(tempFile);
+
+        List<ResolvedEvent> streamEvents = eventSource.readStream().readStreamForwards(streamId("testCategory", "testId"), 0).collect(toList());
+        List<ResolvedEvent> categoryEvents = eventSource.readCategory().readCategoryForwards("otherCategory").collect(toList());
+
+        assertThat(streamEvents, contains(
+                eventRecord(Instant.EPOCH, streamId("testCategory", "testId"), 1, "EventType", "nnnnn".getBytes(), "".getBytes())
+                        .toResolvedEvent(eventSource.readAll().storePositionCodec().deserializePosition("00000002.testCategory.testId.1.EventType"))
+        ));
+        assertThat(categoryEvents, contains(
+                eventRecord(Instant.EPOCH, streamId("otherCategory", "otherId"), 0, "EventType", "abcde".getBytes(), "12345".getBytes())
+                        .toResolvedEvent(eventSource.readAll().storePositionCodec().deserializePosition("00000001.otherCategory.otherId.0.EventType"))
+        ));
+        assertThat(Files.exists(temporaryFolder.getRoot().toPath().resolve("events.cpio.index")), equalTo(true));
+    }
+
+    @Test(expected = NoSuchStreamException.class)
+    public void rejects_read_of_stream_not_in_archive() throws Exception {
+        Path tempFile = temporaryFolder.newFile("events.cpio").toPath();
+        try (CpioArchiveOutputStream cpioOutput = new CpioArchiveOutputStream(Files.newOutputStream(tempFile))) {
+            writeEntry(cpioOutput, "00000000.testCategory.testId.0.EventType.data", "xyzzy");
+        }
+
+        new ArchiveEventSource(tempFile).readStream().readStreamForwards(streamId("testCategory", "otherId"));
+    }
+
+    @Test
+    public void seeks_to_start_position_using_offsets_from_index() throws Exception {
+        EventSource liveEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC)));
+        byte[] data = new byte[(int) ArchiveIndex.OFFSET_INTERVAL_BYTES];
+        for (int i = 0; i < 3; i++) {
+            liveEventSource.writeStream().write(streamId("testCategory", "testId"), singletonList(newEvent("EventType", data)));
+        }
+        Path archiveFile = temporaryFolder.getRoot().toPath().resolve("events.cpio");
+        new EventArchiver(liveEventSource).archiveStore(archiveFile);
+        assertThat(ArchiveIndex.scan(archiveFile).offsetAtOrBefore(2), equalTo(ArchiveIndex.readIfPresent(archiveFile).offsetAtOrBefore(2)));
+
+        try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("garbage".getBytes()), 0);
+        }
+        EventReader archiveReader = new ArchiveEventSource(archiveFile).readAll();
+
+        List<Long> eventNumbers = archiveReader.readAllForwards(archiveReader.storePositionCodec().deserializePosition("00000001.testCategory.testId.1.EventType"))
+                .map(re -> re.eventRecord().eventNumber())
+                .collect(toList());
+
+        assertThat(eventNumbers, contains(2L));
+    }
+
+    @Test
+    public void reads_backwards_decoding_only_the_runs_needed() throws Exception {
+        EventSource liveEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC)));
+        byte[] data = new byte[(int) ArchiveIndex.OFFSET_INTERVAL_BYTES / 2];
+        for (int i = 0; i < 6; i++) {
+            liveEventSource.writeStream().write(streamId("testCategory", "testId"), singletonList(newEvent("EventType", data)));
+        }
+        Path archiveFile = temporaryFolder.getRoot().toPath().resolve("events.cpio");
+        new EventArchiver(liveEventSource).archiveStore(archiveFile);
+        EventReader archiveReader = new ArchiveEventSource(archiveFile).readAll();
+        List<ResolvedEvent> forwards = archiveReader.readAllForwards().collect(toList());
+
+        List<ResolvedEvent> backwards = archiveReader.readAllBackwards().collect(toList());
+        List<ResolvedEvent> backwardsFromPosition = archiveReader.readAllBackwards(forwards.get(4).position()).collect(toList());
+
+        assertThat(backwards, contains(forwards.get(5), forwards.get(4), forwards.get(3), forwards.get(2), forwards.get(1), forwards.get(0)));
+        assertThat(backwardsFromPosition, contains(forwards.get(3), forwards.get(2), forwards.get(1), forwards.get(0)));
+
+        try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("garbage".getBytes()), 0);
+        }
+
+        assertThat(new ArchiveEventSource(archiveFile).readAll().readLastEvent().map(re -> re.eventRecord().eventNumber()).orElse(-1L), equalTo(5L));
+    }
+
+    @Test
+    public void reads_backwards_from_archives_only_decodable_from_the_start_decoding_them_at_most_twice() throws Exception {
+        EventSource liveEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC)));
+        byte[] data = new byte[(int) ArchiveIndex.OFFSET_INTERVAL_BYTES];
+        for (int i = 0; i < 8; i++) {
+            liveEventSource.writeStream().write(streamId("testCategory", "testId"), singletonList(newEvent("EventType", data)));
+        }
+        Path archiveFile = temporaryFolder.getRoot().toPath().resolve("events.cpio");
+        new EventArchiver(liveEventSource).archiveStore(archiveFile);
+        Path xzFile = temporaryFolder.getRoot().toPath().resolve("events.cpio.xz");
+        try (OutputStream output = new XZOutputStream(Files.newOutputStream(xzFile), new LZMA2Options(0))) {
+            Files.copy(archiveFile, output);
+        }
+        Path gzFile = temporaryFolder.getRoot().toPath().resolve("events.cpio.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(gzFile))) {
+            Files.copy(archiveFile, output);
+        }
+
+        for (Path compressedFile : asList(xzFile, gzFile)) {
+            List<Long> eventNumbers = new ArrayList<>();
+            try (Stream<ResolvedEvent> events = new ArchiveEventSource(compressedFile).readAll().readAllBackwards()) {
+                Iterator<ResolvedEvent> iterator = events.iterator();
+                eventNumbers.add(iterator.next().eventRecord().eventNumber());
+                eventNumbers.add(iterator.next().eventRecord().eventNumber());
+
+                Files.delete(compressedFile);
+
+                iterator.forEachRemaining(re -> eventNumbers.add(re.eventRecord().eventNumber()));
+            }
+
+            assertThat(eventNumbers, contains(7L, 6L, 5L, 4L, 3L, 2L, 1L, 0L));
+        }
+    }
+
+    @Test
+    public void reads_same_events_from_uncompressed_archive_as_from_compressed_copy() throws Exception {
+        EventSource liveEventSource = new InMemoryEventSource(new JavaInMemoryEventStore(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC)));
+        for (int i = 0; i < 20; i++) {
+            liveEventSource.writeStream().write(streamId(i % 2 == 0 ? "even" : "odd", "id" + (i % 3)),
+                    singletonList(i % 4 == 0 ? newEvent("EventType", ("data" + i).getBytes(), ("metadata" + i).getBytes()) : newEvent("EventType", ("data" + i).getBytes())));
+        }
+        Path archiveFile = temporaryFolder.getRoot().toPath().resolve("events.cpio");
+        Path compressedFile = temporaryFolder.getRoot().toPath().resolve("events.cpio.gz");
+        new EventArchiver(liveEventSource).archiveStore(archiveFile);
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressedFile))) {
+            Files.copy(archiveFile, output);
+        }
+        ArchiveEventSource mapped = new ArchiveEventSource(archiveFile);
+        ArchiveEventSource streamed = new ArchiveEventSource(compressedFile);
+        Position start = mapped.readAll().storePositionCodec().deserializePosition("00000004.even.id1.0.EventType");
+
+        assertThat(mapped.readAll().readAllForwards().collect(toList()), equalTo(streamed.readAll().readAllForwards().collect(toList())));
+        assertThat(mapped.readAll().readAllForwards(start).collect(toList()), equalTo(streamed.readAll().readAllForwards(start).collect(toList())));
+        assertThat(mapped.readCategory().readCategoryForwards("odd").collect(toList()), equalTo(streamed.readCategory().readCategoryForwards("odd").collect(toList())));
+        assertThat(mapped.readStream().readStreamForwards(streamId("even", "id0")).collect(toList()), equalTo(streamed.readStream().readStreamForwards(streamId("even", "id0")).collect(toList())));
+    }
+
     private static void writeEntry(CpioArchiveOutputStream cpioOutput, String filename, String content) throws IOException {
         byte[] contentBytes = content.getBytes();
         CpioArchiveEntry entry = new CpioArchiveEntry(filename);
@@ -0,0 +1,95 @@
+package com.timgroup.eventstore.filesystem;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class BlockCompressedOutputStreamTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final byte[] content = new byte[10_000];
+
+    {
+        new Random(0).nextBytes(content);
+    }
+
+    @Test
+    public void output_can_be_read_by_an_ordinary_xz_decoder() throws Exception {
+        Path file = writeBlockCompressed();
+
+        try (InputStream input = new XZInputStream(Files.newInputStream(file))) {
+            assertThat(IOUtils.toByteArray(input), equalTo(content));
+        }
+    }
+
+    @Test
+    public void output_can_be_decoded_in_parallel_from_any_offset() throws Exception {
+        Path file = writeBlockCompressed();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int offset : new int[] { 0, 1, 1024, 5000, 9999 }) {
+                try (InputStream input = ParallelXZBlockInputStream.open(file, offset, executor, 3 * 1024)) {
+                    assertThat(input, notNullValue());
+                    assertThat(IOUtils.toByteArray(input), equalTo(Arrays.copyOfRange(content, offset, content.length)));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void decodes_only_as_many_blocks_ahead_as_fit_in_the_read_ahead_limit() throws Exception {
+        Path file = writeBlockCompressed();
+        AtomicInteger decodesStarted = new AtomicInteger();
+        Executor countingExecutor = task -> {
+            decodesStarted.incrementAndGet();
+            task.run();
+        };
+
+        try (InputStream input = ParallelXZBlockInputStream.open(file, 0, countingExecutor, 2 * 1024 + 1023)) {
+            assertThat(input, notNullValue());
+            input.read();
+            assertThat(decodesStarted.get(), equalTo(2));
+            IOUtils.skip(input, 1023);
+            input.read();
+            assertThat(decodesStarted.get(), equalTo(3));
+        }
+        try (InputStream input = ParallelXZBlockInputStream.open(file, 0, countingExecutor, 1)) {
+            assertThat(IOUtils.toByteArray(input), equalTo(content));
+        }
+    }
+
+    private Path writeBlockCompressed() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("content.xz");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (OutputStream output = new BlockCompressedOutputStream(Files.newOutputStream(file), executor, 1024, 3)) {
+            output.write(content, 0, 100);
+            for (int i = 100; i < 200; i++) {
+                output.write(content[i]);
+            }
+            output.write(content, 200, content.length - 200);
+        } finally {
+            executor.shutdownNow();
+        }
+        return file;
+    }
+}
@@ -2,12 +2,28 @@ package com.timgroup.eventstore.filesystem;
 
 import com.timgroup.eventstore.api.EventSource;
 import com.timgroup.eventstore.api.JavaEventStoreTest;
+import com.timgroup.eventstore.api.StreamId;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Files;
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 
 public class FlatFilesystemEventSourceTest extends JavaEventStoreTest {
     @Rule
@@ -24,4 +40,48 @@ public class FlatFilesystemEventSourceTest extends JavaEventStoreTest {
     public void can_read_multiple_categories_in_one_request() {
         super.can_read_multiple_categories_in_one_request();
     }
+
+    @Test
+    public void lockfiles_left_behind_by_a_dead_writer_do_not_block_writes() throws Exception {
+        StreamId streamId = streamId("testCategory", "testId");
+        Files.createFile(folder.getRoot().toPath().resolve(".global-lock"));
+        Files.createFile(folder.getRoot().toPath().resolve(".stream-lock.testCategory.testId"));
+
+        eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())));
+
+        assertThat(eventSource().readStream().readStreamForwards(streamId).count(), equalTo(1L));
+    }
+
+    @Test
+    public void concurrent_writers_to_one_stream_produce_contiguous_event_numbers() throws Exception {
+        StreamId streamId = streamId("testCategory", "testId");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())))));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Long> eventNumbers = eventSource().readStream().readStreamForwards(streamId).map(re -> re.eventRecord().eventNumber()).collect(toList());
+
+        assertThat(eventNumbers, equalTo(LongStream.range(0, 20).boxed().collect(toList())));
+    }
+
+    @Test
+    public void forgets_the_locks_of_directories_once_they_are_released() throws Exception {
+        int directoriesInUseBefore = FileLocks.directoriesInUse();
+
+        for (int i = 0; i < 10; i++) {
+            EventSource eventSource = new FlatFilesystemEventSource(folder.newFolder().toPath(), Clock.systemDefaultZone(), ".json");
+            eventSource.writeStream().write(streamId("testCategory", "testId"), singletonList(newEvent("EventType", "data".getBytes())));
+        }
+
+        assertThat(FileLocks.directoriesInUse(), equalTo(directoriesInUseBefore));
+    }
 }
@@ -21,15 +21,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
 import static com.timgroup.eventstore.api.NewEvent.newEvent;
 import static com.timgroup.eventstore.api.StreamId.streamId;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.fail;
 
 public class IncrementalEventArchiverTest {
     @Rule
@@ -48,7 +53,7 @@ public class IncrementalEventArchiverTest {
 
         new IncrementalEventArchiver(eventSource, temporaryFolder.getRoot().toPath(), true).archiveEvents();
 
-        assertThat(filenames(), containsInAnyOrder("00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio"));
+        assertThat(filenames(), containsInAnyOrder("00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio", "00000001.testCategory.testId.1.EventType.cpio.index"));
         assertThat(Files.readAllLines(path("00000001.testCategory.testId.1.EventType.position.txt")), contains("2"));
         assertThat(cpioMembersOf(path("00000001.testCategory.testId.1.EventType.cpio")), contains(
                 "00000000.testCategory.testId.0.EventType.data",
@@ -88,8 +93,8 @@ public class IncrementalEventArchiverTest {
         new IncrementalEventArchiver(eventSource, temporaryFolder.getRoot().toPath(), false).archiveEvents();
 
         assertThat(filenames(), containsInAnyOrder(
-                "00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio",
-                "00000002.testCategory.testId.2.EventType.position.txt", "00000002.testCategory.testId.2.EventType.cpio"
+                "00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio", "00000001.testCategory.testId.1.EventType.cpio.index",
+                "00000002.testCategory.testId.2.EventType.position.txt", "00000002.testCategory.testId.2.EventType.cpio", "00000002.testCategory.testId.2.EventType.cpio.index"
         ));
         assertThat(Files.readAllLines(path("00000002.testCategory.testId.2.EventType.position.txt")), contains("3"));
         assertThat(cpioMembersOf(path("00000002.testCategory.testId.2.EventType.cpio")), contains(
@@ -110,7 +115,49 @@ public class IncrementalEventArchiverTest {
 
         new IncrementalEventArchiver(eventSource, temporaryFolder.getRoot().toPath(), false).archiveEvents();
 
-        assertThat(filenames(), containsInAnyOrder("00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio"));
+        assertThat(filenames(), containsInAnyOrder("00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio", "00000001.testCategory.testId.1.EventType.cpio.index"));
+    }
+
+    @Test
+    public void writes_block_compressed_archives_when_enabled() throws Exception {
+        ManualClock clock = new ManualClock(Instant.EPOCH, ZoneOffset.UTC);
+        EventSource eventSource = new InMemoryEventSource(new JavaInMemoryEventStore(clock));
+        eventSource.writeStream().write(streamId("testCategory", "testId"), Arrays.asList(
+                newEvent("EventType", "data".getBytes()),
+                newEvent("EventType", "data".getBytes(), "metadata".getBytes())
+        ));
+
+        new IncrementalEventArchiver(eventSource, temporaryFolder.getRoot().toPath(), true, true).archiveEvents();
+
+        assertThat(filenames(), containsInAnyOrder("00000001.testCategory.testId.1.EventType.position.txt", "00000001.testCategory.testId.1.EventType.cpio.xz", "00000001.testCategory.testId.1.EventType.cpio.xz.index"));
+        assertThat(new ArchiveDirectoryEventSource(path()).readAll().readAllForwards().map(re -> re.eventRecord().eventNumber()).collect(toList()), contains(0L, 1L));
+    }
+
+    @Test
+    public void waits_for_the_store_lock_before_archiving() throws Exception {
+        ManualClock clock = new ManualClock(Instant.EPOCH, ZoneOffset.UTC);
+        EventSource eventSource = new InMemoryEventSource(new JavaInMemoryEventStore(clock));
+        eventSource.writeStream().write(streamId("testCategory", "testId"), singletonList(newEvent("EventType", "data".getBytes())));
+
+        CompletableFuture<Void> archived;
+        try (FileLocks.Lockfile ignored = FileLocks.forDirectory(path()).lockStore()) {
+            archived = CompletableFuture.runAsync(() -> {
+                try {
+                    new IncrementalEventArchiver(eventSource, path(), true).archiveEvents();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            try {
+                archived.get(200, TimeUnit.MILLISECONDS);
+                fail("expected the archiver to wait for the store lock");
+            } catch (TimeoutException e) {
+                assertThat(filenames(), containsInAnyOrder());
+            }
+        }
+
+        archived.get(10, TimeUnit.SECONDS);
+        assertThat(filenames(), containsInAnyOrder("00000000.testCategory.testId.0.EventType.position.txt", "00000000.testCategory.testId.0.EventType.cpio", "00000000.testCategory.testId.0.EventType.cpio.index"));
     }
 
     private Path path() {
@@ -123,7 +170,7 @@ public class IncrementalEventArchiverTest {
 
     private Set<String> filenames() throws IOException {
         try (Stream<Path> paths = Files.list(path())) {
-            return paths.map(p -> p.getFileName().toString()).collect(toSet());
+            return paths.map(p -> p.getFileName().toString()).filter(name -> !name.startsWith(".")).collect(toSet());
         }
     }
 
@@ -0,0 +1,172 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.clocks.testing.ManualClock;
+import com.timgroup.eventstore.api.EventCategoryReader;
+import com.timgroup.eventstore.api.EventReader;
+import com.timgroup.eventstore.api.EventRecord;
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.EventStreamReader;
+import com.timgroup.eventstore.api.EventStreamWriter;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.PositionCodec;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.memory.InMemoryEventSource;
+import com.timgroup.eventstore.memory.JavaInMemoryEventStore;
+import com.timgroup.tucker.info.Component;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class RangedEventArchiverTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final EventSource eventSource = new InMemoryEventSource(new JavaInMemoryEventStore(new ManualClock(Instant.EPOCH, ZoneOffset.UTC)));
+
+    @Test
+    public void archives_ranges_concurrently_into_archives_read_in_order() throws Exception {
+        List<Position> positions = writeEvents(10);
+
+        new RangedEventArchiver(eventSource, path(), false, 3).archiveStore(Arrays.asList(
+                eventSource.readAll().emptyStorePosition(), positions.get(2), positions.get(6), positions.get(9)));
+
+        assertThat(filenames(".position.txt"), contains(
+                "00000002.cat0.id0.1.EventType.position.txt",
+                "00000006.cat0.id0.3.EventType.position.txt",
+                "00000009.cat1.id1.4.EventType.position.txt"
+        ));
+        assertThat(filenames("archive-plan.txt"), empty());
+        assertThat(archivedEvents(), equalTo(sourceEvents()));
+
+        writeEvents(1);
+        new IncrementalEventArchiver(eventSource, path(), false).archiveEvents();
+
+        assertThat(archivedEvents(), equalTo(sourceEvents()));
+    }
+
+    @Test
+    public void resumes_from_plan_after_failure() throws Exception {
+        List<Position> positions = writeEvents(10);
+        List<Position> boundaries = Arrays.asList(eventSource.readAll().emptyStorePosition(), positions.get(2), positions.get(6), positions.get(9));
+
+        try {
+            new RangedEventArchiver(failingAfter(positions.get(6)), path(), true, 1).archiveStore(boundaries);
+            fail("expected archiving to fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("store unavailable"));
+        }
+        assertThat(new RangedEventArchiver(eventSource, path(), true, 1).hasPlan(), equalTo(true));
+
+        new RangedEventArchiver(eventSource, path(), true, 2).archiveStore(singletonList(eventSource.readAll().emptyStorePosition()));
+
+        assertThat(filenames(".position.txt"), contains(
+                "00000002.cat0.id0.1.EventType.position.txt",
+                "00000006.cat0.id0.3.EventType.position.txt",
+                "00000009.cat1.id1.4.EventType.position.txt"
+        ));
+        assertThat(archivedEvents(), equalTo(sourceEvents()));
+    }
+
+    private List<Position> writeEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            eventSource.writeStream().write(streamId("cat" + (i % 2), "id" + (i % 2)), singletonList(newEvent("EventType", ("data" + i).getBytes(), ("metadata" + i).getBytes())));
+        }
+        return eventSource.readAll().readAllForwards().map(ResolvedEvent::position).collect(toList());
+    }
+
+    private List<EventRecord> sourceEvents() {
+        return eventSource.readAll().readAllForwards().map(ResolvedEvent::eventRecord).collect(toList());
+    }
+
+    private List<EventRecord> archivedEvents() {
+        return new ArchiveDirectoryEventSource(path()).readAll().readAllForwards().map(ResolvedEvent::eventRecord).collect(toList());
+    }
+
+    private EventSource failingAfter(Position failingStart) {
+        EventReader storeReader = eventSource.readAll();
+        EventReader failingReader = new EventReader() {
+            @Nonnull
+            @Override
+            public Stream<ResolvedEvent> readAllForwards(@Nonnull Position positionExclusive) {
+                if (storeReader.storePositionCodec().comparePositions(positionExclusive, failingStart) == 0) {
+                    throw new IllegalStateException("store unavailable");
+                }
+                return storeReader.readAllForwards(positionExclusive);
+            }
+
+            @Nonnull
+            @Override
+            public Position emptyStorePosition() {
+                return storeReader.emptyStorePosition();
+            }
+
+            @Nonnull
+            @Override
+            public PositionCodec storePositionCodec() {
+                return storeReader.storePositionCodec();
+            }
+        };
+        return new EventSource() {
+            @Nonnull
+            @Override
+            public EventReader readAll() {
+                return failingReader;
+            }
+
+            @Nonnull
+            @Override
+            public EventCategoryReader readCategory() {
+                return eventSource.readCategory();
+            }
+
+            @Nonnull
+            @Override
+            public EventStreamReader readStream() {
+                return eventSource.readStream();
+            }
+
+            @Nonnull
+            @Override
+            public EventStreamWriter writeStream() {
+                return eventSource.writeStream();
+            }
+
+            @Nonnull
+            @Override
+            public Collection<Component> monitoring() {
+                return eventSource.monitoring();
+            }
+        };
+    }
+
+    private Path path() {
+        return temporaryFolder.getRoot().toPath();
+    }
+
+    private List<String> filenames(String suffix) throws IOException {
+        try (Stream<Path> paths = Files.list(path())) {
+            return paths.map(p -> p.getFileName().toString()).filter(name -> name.endsWith(suffix)).sorted().collect(toList());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.timgroup.eventstore.filesystem;
+
+import com.timgroup.eventstore.api.EventSource;
+import com.timgroup.eventstore.api.JavaEventStoreTest;
+import com.timgroup.eventstore.api.Position;
+import com.timgroup.eventstore.api.ResolvedEvent;
+import com.timgroup.eventstore.api.StreamId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static com.timgroup.eventstore.api.NewEvent.newEvent;
+import static com.timgroup.eventstore.api.StreamId.streamId;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class SegmentedLogEventSourceTest extends JavaEventStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    public EventSource eventSource() {
+        return new SegmentedLogEventSource(folder.getRoot().toPath(), Clock.systemDefaultZone(), 512);
+    }
+
+    @Test
+    public void rolls_over_to_new_segments_and_reads_across_them() throws Exception {
+        StreamId streamId = streamId("testCategory", "testId");
+        for (int i = 0; i < 30; i++) {
+            eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())));
+        }
+
+        assertThat(segmentFiles().size(), greaterThan(2));
+        assertThat(eventNumbers(eventSource().readStream().readStreamForwards(streamId)), equalTo(LongStream.range(0, 30).boxed().collect(toList())));
+        assertThat(eventNumbers(eventSource().readStream().readStreamBackwards(streamId)), equalTo(LongStream.range(0, 30).map(n -> 29 - n).boxed().collect(toList())));
+
+        Position position = eventSource().readAll().readAllForwards().skip(16).findFirst().get().position();
+        assertThat(eventNumbers(eventSource().readAll().readAllForwards(position)), equalTo(LongStream.range(17, 30).boxed().collect(toList())));
+        assertThat(eventNumbers(eventSource().readAll().readAllBackwards(position)), equalTo(LongStream.range(0, 16).map(n -> 15 - n).boxed().collect(toList())));
+    }
+
+    @Test
+    public void category_reads_skip_segments_without_the_category() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            eventSource().writeStream().write(streamId("first", "id"), singletonList(newEvent("EventType", "data".getBytes())));
+        }
+        eventSource().writeStream().write(streamId("second", "id"), singletonList(newEvent("EventType", "data".getBytes())));
+
+        assertThat(eventSource().readCategory().readCategoryForwards("second").count(), equalTo(1L));
+        assertThat(eventSource().readCategory().readCategoryBackwards("first").count(), equalTo(20L));
+    }
+
+    @Test
+    public void truncates_a_torn_write_left_at_the_end_of_the_log() throws Exception {
+        StreamId streamId = streamId("testCategory", "testId");
+        eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())));
+        Path lastSegment = segmentFiles().get(segmentFiles().size() - 1);
+        Files.write(lastSegment, new byte[] { 0, 0, 0, 100, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        assertThat(eventSource().readAll().readAllForwards().count(), equalTo(1L));
+        assertThat(eventSource().readAll().readAllBackwards().count(), equalTo(1L));
+
+        eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())), 0L);
+
+        assertThat(eventNumbers(eventSource().readAll().readAllForwards()), equalTo(LongStream.range(0, 2).boxed().collect(toList())));
+        assertThat(eventNumbers(eventSource().readAll().readAllBackwards()), equalTo(LongStream.range(0, 2).map(n -> 1 - n).boxed().collect(toList())));
+    }
+
+    @Test
+    public void does_not_read_complete_frames_of_a_write_that_never_finished() throws Exception {
+        StreamId streamId = streamId("testCategory", "testId");
+        eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())));
+        Path lastSegment = segmentFiles().get(segmentFiles().size() - 1);
+        LogRecordCodec.EncodedEvent uncommitted = new LogRecordCodec.EncodedEvent(streamId, newEvent("Uncommitted", "lost".getBytes()));
+        ByteBuffer frames = ByteBuffer.allocate(uncommitted.frameSize() * 2);
+        LogRecordCodec.writeFrame(frames, uncommitted, 2L, Instant.EPOCH, 1L, false);
+        LogRecordCodec.writeFrame(frames, uncommitted, 3L, Instant.EPOCH, 2L, false);
+        Files.write(lastSegment, frames.array(), StandardOpenOption.APPEND);
+
+        assertThat(eventNumbers(eventSource().readAll().readAllForwards()), equalTo(singletonList(0L)));
+        assertThat(eventNumbers(eventSource().readAll().readAllBackwards()), equalTo(singletonList(0L)));
+        assertThat(eventNumbers(eventSource().readStream().readStreamForwards(streamId)), equalTo(singletonList(0L)));
+        assertThat(eventNumbers(eventSource().readCategory().readCategoryBackwards("testCategory")), equalTo(singletonList(0L)));
+
+        eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())), 0L);
+
+        assertThat(eventSource().readAll().readAllForwards().map(re -> re.eventRecord().eventType()).collect(toList()), equalTo(asList("EventType", "EventType")));
+        assertThat(eventNumbers(eventSource().readAll().readAllBackwards()), equalTo(asList(1L, 0L)));
+    }
+
+    @Test
+    public void rebuilds_missing_segment_indexes() throws Exception {
+        StreamId streamId = streamId("testCategory", "testId");
+        for (int i = 0; i < 30; i++) {
+            eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())));
+        }
+        try (Stream<Path> paths = Files.list(folder.getRoot().toPath())) {
+            for (Path index : paths.filter(p -> p.getFileName().toString().endsWith(".index")).collect(toList())) {
+                Files.delete(index);
+            }
+        }
+
+        assertThat(eventNumbers(eventSource().readStream().readStreamForwards(streamId, 20)), equalTo(LongStream.range(21, 30).boxed().collect(toList())));
+
+        eventSource().writeStream().write(streamId, singletonList(newEvent("EventType", "data".getBytes())), 29L);
+
+        assertThat(eventSource().readAll().readAllForwards().count(), equalTo(31L));
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> paths = Files.list(folder.getRoot().toPath())) {
+            return paths.filter(p -> p.getFileName().toString().endsWith(".segment")).sorted().collect(toList());
+        }
+    }
+
+    private static List<Long> eventNumbers(Stream<ResolvedEvent> events) {
+        return events.map(re -> re.eventRecord().eventNumber()).collect(Collectors.toList());
+    }
+}